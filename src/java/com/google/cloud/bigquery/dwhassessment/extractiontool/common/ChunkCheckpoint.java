@@ -16,7 +16,9 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.common;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
 import java.time.Instant;
+import java.util.List;
 
 @AutoValue
 public abstract class ChunkCheckpoint {
@@ -25,10 +27,17 @@ public abstract class ChunkCheckpoint {
 
   public abstract Instant lastSavedInstant();
 
+  /**
+   * The key of the last saved row of a script that is extracted in keyset pages, which may contain
+   * nulls; empty for scripts sorted by a timestamp.
+   */
+  public abstract List<Object> lastSavedKey();
+
   public static Builder builder() {
     return new AutoValue_ChunkCheckpoint.Builder()
         .setLastSavedChunkNumber(-1)
-        .setLastSavedInstant(Instant.ofEpochMilli(0));
+        .setLastSavedInstant(Instant.ofEpochMilli(0))
+        .setLastSavedKey(ImmutableList.of());
   }
 
   @AutoValue.Builder
@@ -38,6 +47,8 @@ public abstract class ChunkCheckpoint {
 
     public abstract Builder setLastSavedInstant(Instant value);
 
+    public abstract Builder setLastSavedKey(List<Object> value);
+
     public abstract ChunkCheckpoint build();
   }
 }
@@ -61,8 +61,9 @@ public final class BaseModule extends AbstractModule {
 
   @Provides
   @Singleton
-  SaveChecker saveChecker(ImmutableMap<String, ImmutableList<String>> sortingColumnsMap) {
-    return new SaveCheckerImpl(sortingColumnsMap);
+  SaveChecker saveChecker(
+      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap, ScriptLoader scriptLoader) {
+    return new SaveCheckerImpl(sortingColumnsMap, scriptLoader.getKeysetColumnsMap());
   }
 
   @Provides
@@ -89,8 +90,14 @@ public final class BaseModule extends AbstractModule {
   ScriptManager scriptManager(
       ScriptRunner scriptRunner,
       ImmutableMap<String, Supplier<String>> scriptsMap,
-      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap) {
-    return new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap,
+      ScriptLoader scriptLoader) {
+    return new ScriptManagerImpl(
+        scriptRunner,
+        scriptsMap,
+        sortingColumnsMap,
+        scriptLoader.getKeysetColumnsMap(),
+        scriptLoader.getTimestampScriptsMap());
   }
 
   @Provides
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import java.util.List;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+
+/**
+ * Defines how the Avro files of a script are written, so that large log scripts with long query
+ * texts can be compressed differently from small metadata scripts.
+ */
+@AutoValue
+public abstract class AvroFileOptions {
+
+  public static final int MIN_SYNC_INTERVAL = 32;
+  public static final int MAX_SYNC_INTERVAL = 16 * 1024 * 1024;
+
+  /**
+   * The codec with which the blocks are compressed: null, deflate[:level], snappy or zstd[:level].
+   */
+  public abstract String codec();
+
+  /** The approximate number of uncompressed bytes per block, after which a sync marker follows. */
+  public abstract Integer syncInterval();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_AvroFileOptions.Builder()
+        .setCodec(DataFileConstants.NULL_CODEC)
+        .setSyncInterval(DataFileConstants.DEFAULT_SYNC_INTERVAL);
+  }
+
+  /** Gets the factory for the codec. */
+  public CodecFactory codecFactory() {
+    return parseCodec(codec());
+  }
+
+  /** Whether the blocks are compressed, so that the files need not be compressed again. */
+  public boolean isCompressed() {
+    return !codec().equals(DataFileConstants.NULL_CODEC);
+  }
+
+  /**
+   * Parses a codec of the form name[:level].
+   *
+   * @throws IllegalArgumentException if the codec or its level is not supported.
+   */
+  public static CodecFactory parseCodec(String codec) {
+    List<String> parts = ImmutableList.copyOf(codec.split(":", 2));
+    String name = parts.get(0);
+    Integer level = null;
+    if (parts.size() > 1) {
+      level = Ints.tryParse(parts.get(1));
+      Preconditions.checkArgument(level != null, "Invalid level of the codec '%s'.", codec);
+    }
+    switch (name) {
+      case DataFileConstants.NULL_CODEC:
+        Preconditions.checkArgument(level == null, "The codec '%s' has no level.", name);
+        return CodecFactory.nullCodec();
+      case DataFileConstants.SNAPPY_CODEC:
+        Preconditions.checkArgument(level == null, "The codec '%s' has no level.", name);
+        // Avro only offers snappy if the snappy-java library is on the class path.
+        CodecFactory snappyCodec = CodecFactory.snappyCodec();
+        Preconditions.checkArgument(snappyCodec != null, "The codec 'snappy' is not available.");
+        return snappyCodec;
+      case DataFileConstants.DEFLATE_CODEC:
+        if (level == null) {
+          return CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+        }
+        Preconditions.checkArgument(
+            level >= 1 && level <= 9, "The level of deflate must be between 1 and 9.");
+        return CodecFactory.deflateCodec(level);
+      case "zstd":
+      case DataFileConstants.ZSTANDARD_CODEC:
+        if (level == null) {
+          return CodecFactory.zstandardCodec(CodecFactory.DEFAULT_ZSTANDARD_LEVEL);
+        }
+        Preconditions.checkArgument(
+            level >= 1 && level <= 22, "The level of zstd must be between 1 and 22.");
+        return CodecFactory.zstandardCodec(level);
+      default:
+        throw new IllegalArgumentException(
+            String.format(
+                "Unknown codec '%s'. Supported codecs: null, deflate[:level], snappy,"
+                    + " zstd[:level].",
+                name));
+    }
+  }
+
+  /** Builder for the AvroFileOptions. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setCodec(String codec);
+
+    public abstract Builder setSyncInterval(Integer syncInterval);
+
+    abstract AvroFileOptions autoBuild();
+
+    public AvroFileOptions build() {
+      AvroFileOptions options = autoBuild();
+      parseCodec(options.codec());
+      Preconditions.checkArgument(
+          options.syncInterval() >= MIN_SYNC_INTERVAL
+              && options.syncInterval() <= MAX_SYNC_INTERVAL,
+          "The sync interval must be between %s and %s bytes.",
+          MIN_SYNC_INTERVAL,
+          MAX_SYNC_INTERVAL);
+      return options;
+    }
+  }
+}
@@ -20,8 +20,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigDecimal;
-import java.nio.ByteBuffer;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -29,38 +27,28 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.ZonedDateTime;
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.TimeZone;
-import java.util.regex.Pattern;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
-import org.apache.avro.file.DataFileWriter;
-import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.generic.GenericRecordBuilder;
 
 /** A helper to convert sql result set to avro format and dump the avro result to output stream. */
 public class AvroHelper {
 
-  private static final Pattern TRAILING_SPACES_REGEX = Pattern.compile("\\s++$");
-
   private AvroHelper() {}
 
   /**
-   * Parse a row from sql result set to avro format in the form of a generic record.
+   * Parse a row from sql result set to avro format in the form of a generic record. To convert
+   * many rows of the same result set, create a {@link RowConverter} once instead.
    *
    * @param row A row of data from sql result set.
    * @param schema The avro schema object to build the avro generic record.
    * @return a generic record of the data in avro format.
    */
   public static GenericRecord parseRowToAvro(ResultSet row, Schema schema) throws SQLException {
-    GenericRecordBuilder recordBuilder = new GenericRecordBuilder(schema);
-    ResultSetMetaData metaData = row.getMetaData();
-    for (int columnIndex = 1; columnIndex <= row.getMetaData().getColumnCount(); columnIndex++) {
-      recordBuilder.set(
-          metaData.getColumnName(columnIndex), getRowObject(metaData, row, columnIndex));
-    }
-    return recordBuilder.build();
+    return RowConverter.create(schema, row.getMetaData()).convert(row);
   }
 
   /**
@@ -73,24 +61,43 @@ public class AvroHelper {
   public static void dumpResults(
       ImmutableList<GenericRecord> records, OutputStream outputStream, Schema schema)
       throws IOException {
-    GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(schema);
-    DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<>(writer);
-    dataFileWriter.create(schema, outputStream);
+    dumpResults(records.iterator(), outputStream, schema);
+  }
+
+  /**
+   * Dump generic records to output stream as they are produced by the iterator, so that only the
+   * current Avro block is held in memory. Producers that push records can add them to an {@link
+   * AvroResultSetRecorder} instead, e.g., by passing {@code recorder::add} as consumer.
+   *
+   * @param records An iterator over the generic records to write to output stream.
+   * @param outputStream An output stream to write the records to.
+   * @param schema Schema definition of the data to write.
+   */
+  public static void dumpResults(
+      Iterator<GenericRecord> records, OutputStream outputStream, Schema schema)
+      throws IOException {
+    dumpResults(records, outputStream, schema, AvroFileOptions.builder().build());
+  }
 
-    records.stream()
-        .forEach(
-            record -> {
-              try {
-                dataFileWriter.append(record);
-              } catch (IOException e) {
-                throw new IllegalStateException(
-                    String.format(
-                        "Failed to encode query result %s to file with error message: %s",
-                        record.toString(), e.getMessage()));
-              }
-            });
-    dataFileWriter.close();
-    outputStream.close();
+  /**
+   * Dump generic records to output stream as they are produced by the iterator, with the given
+   * codec and sync interval.
+   *
+   * @param records An iterator over the generic records to write to output stream.
+   * @param outputStream An output stream to write the records to.
+   * @param schema Schema definition of the data to write.
+   * @param fileOptions The codec and sync interval of the Avro file.
+   */
+  public static void dumpResults(
+      Iterator<GenericRecord> records,
+      OutputStream outputStream,
+      Schema schema,
+      AvroFileOptions fileOptions)
+      throws IOException {
+    try (AvroResultSetRecorder<GenericRecord> recorder =
+        AvroResultSetRecorder.create(schema, outputStream, fileOptions)) {
+      records.forEachRemaining(recorder::add);
+    }
   }
 
   /**
@@ -220,47 +227,11 @@ public class AvroHelper {
   // TIME, and TIMESTAMP Values from
   // https://teradata-docs.s3.amazonaws.com/doc/connectivity/jdbc/reference/current/jdbcug_chapter_2.html).
   // Unadjust it to make things right.
-  private static Timestamp unadjustTimestamp(Timestamp timestamp, Calendar cal) {
+  static Timestamp unadjustTimestamp(Timestamp timestamp, Calendar cal) {
     if (timestamp == null) {
       return null;
     }
     return Timestamp.from(
         ZonedDateTime.of(timestamp.toLocalDateTime(), cal.getTimeZone().toZoneId()).toInstant());
   }
-
-  private static Object getRowObject(ResultSetMetaData metaData, ResultSet row, int columnIndex)
-      throws SQLException {
-    switch (metaData.getColumnType(columnIndex)) {
-      case Types.DECIMAL:
-        {
-          BigDecimal bigDecimal = row.getBigDecimal(columnIndex);
-          return bigDecimal == null
-              ? null
-              : ByteBuffer.wrap(bigDecimal.toBigInteger().toByteArray());
-        }
-      case Types.DATE:
-      case Types.TIMESTAMP:
-      case Types.TIMESTAMP_WITH_TIMEZONE:
-        {
-          Timestamp timestamp = getUnadjustedTimestamp(row, columnIndex);
-          return timestamp == null ? null : timestamp.toInstant().toEpochMilli();
-        }
-      case Types.BINARY:
-      case Types.VARBINARY:
-        {
-          byte[] blob = row.getBytes(columnIndex);
-          return blob == null ? null : ByteBuffer.wrap(blob);
-        }
-      case Types.CHAR:
-        {
-          return trimTrailingSpaces(row.getString(columnIndex));
-        }
-      default:
-        return row.getObject(columnIndex);
-    }
-  }
-
-  private static String trimTrailingSpaces(String s) {
-    return s == null ? null : TRAILING_SPACES_REGEX.matcher(s).replaceFirst("");
-  }
 }
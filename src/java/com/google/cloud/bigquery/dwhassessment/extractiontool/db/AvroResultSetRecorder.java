@@ -17,40 +17,94 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.sql.ResultSet;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
 
-/** Result set recorder for AVRO output. */
-public class AvroResultSetRecorder implements ResultSetRecorder<GenericRecord> {
+/**
+ * Result set recorder for AVRO output. Records are either generic records or rows of a result set,
+ * which are encoded directly into the file.
+ */
+public class AvroResultSetRecorder<T> implements ResultSetRecorder<T> {
 
   private final OutputStream outputStream;
-  private final DataFileWriter<GenericRecord> dataFileWriter;
+  private final DataFileWriter<T> dataFileWriter;
+
+  /**
+   * Creates an avro result set recorder.
+   *
+   * @param schema the schema to be used for the AVRO file.
+   * @param outputStream the output stream to which to write.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public static AvroResultSetRecorder<GenericRecord> create(
+      Schema schema, OutputStream outputStream) throws IOException {
+    return create(schema, outputStream, AvroFileOptions.builder().build());
+  }
 
   /**
    * Creates an avro result set recorder.
    *
    * @param schema the schema to be used for the AVRO file.
    * @param outputStream the output stream to which to write.
+   * @param fileOptions the codec and sync interval of the AVRO file.
    * @throws IOException if creating the AVRO file writer failed.
    */
-  public static AvroResultSetRecorder create(Schema schema, OutputStream outputStream)
+  public static AvroResultSetRecorder<GenericRecord> create(
+      Schema schema, OutputStream outputStream, AvroFileOptions fileOptions) throws IOException {
+    return newRecorder(schema, new GenericDatumWriter<>(schema), outputStream, fileOptions);
+  }
+
+  /**
+   * Creates an avro result set recorder to which the current row of a result set is added.
+   *
+   * @param datumWriter the writer for rows of the result set, which also defines the schema.
+   * @param outputStream the output stream to which to write.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public static AvroResultSetRecorder<ResultSet> create(
+      ResultSetDatumWriter datumWriter, OutputStream outputStream) throws IOException {
+    return create(datumWriter, outputStream, AvroFileOptions.builder().build());
+  }
+
+  /**
+   * Creates an avro result set recorder to which the current row of a result set is added.
+   *
+   * @param datumWriter the writer for rows of the result set, which also defines the schema.
+   * @param outputStream the output stream to which to write.
+   * @param fileOptions the codec and sync interval of the AVRO file.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public static AvroResultSetRecorder<ResultSet> create(
+      ResultSetDatumWriter datumWriter, OutputStream outputStream, AvroFileOptions fileOptions)
+      throws IOException {
+    return newRecorder(datumWriter.getSchema(), datumWriter, outputStream, fileOptions);
+  }
+
+  static <T> AvroResultSetRecorder<T> newRecorder(
+      Schema schema,
+      DatumWriter<T> datumWriter,
+      OutputStream outputStream,
+      AvroFileOptions fileOptions)
       throws IOException {
-    GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(schema);
-    DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<>(writer);
+    DataFileWriter<T> dataFileWriter =
+        new DataFileWriter<>(datumWriter)
+            .setCodec(fileOptions.codecFactory())
+            .setSyncInterval(fileOptions.syncInterval());
     dataFileWriter.create(schema, outputStream);
-    return new AvroResultSetRecorder(outputStream, dataFileWriter);
+    return new AvroResultSetRecorder<>(outputStream, dataFileWriter);
   }
 
-  private AvroResultSetRecorder(
-      OutputStream outputStream, DataFileWriter<GenericRecord> dataFileWriter) {
+  private AvroResultSetRecorder(OutputStream outputStream, DataFileWriter<T> dataFileWriter) {
     this.outputStream = outputStream;
     this.dataFileWriter = dataFileWriter;
   }
 
   @Override
-  public void add(GenericRecord record) {
+  public void add(T record) {
     try {
       dataFileWriter.append(record);
     } catch (IOException e) {
@@ -0,0 +1,592 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Writes the rows of result sets to Avro files in three stages, so that fetching from the database
+ * overlaps with encoding, compressing and writing the output:
+ *
+ * <ol>
+ *   <li>fetch: the thread that reads the result set serializes every row into a batch of Avro
+ *       binary data, one batch per block of the Avro file. This has to happen on that thread,
+ *       because a result set must not be shared;
+ *   <li>encode: a pool of workers, shared by all recorders, frames and compresses the blocks in
+ *       parallel;
+ *   <li>write: a worker per recorder writes the blocks to the output stream in their original
+ *       order, so that each recorder produces one valid Avro file.
+ * </ol>
+ *
+ * <p>A block counts against a memory budget, which is shared by all recorders of the pipeline,
+ * from the time it is fetched until it is written. When the budget is used up, fetching waits, so
+ * that it slows down to the speed of the output. Closing a recorder waits until all of its rows are
+ * written.
+ */
+public final class AvroWritePipeline implements AutoCloseable {
+
+  private static final AvroWritePipeline SEQUENTIAL = new AvroWritePipeline(0, 1);
+
+  private final Optional<ExecutorService> writerService;
+  private final Optional<ExecutorService> encoderService;
+  private final int memoryBudgetBytes;
+  private final Semaphore memoryBudget;
+
+  /**
+   * Creates a pipeline that encodes on one thread per processor.
+   *
+   * @param memoryBudgetBytes The maximum number of bytes that are fetched but not yet written, for
+   *     all recorders together. 0 disables the pipeline and creates plain {@link
+   *     AvroResultSetRecorder}s.
+   */
+  public AvroWritePipeline(int memoryBudgetBytes) {
+    this(memoryBudgetBytes, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param memoryBudgetBytes The maximum number of bytes that are fetched but not yet written, for
+   *     all recorders together. 0 disables the pipeline and creates plain {@link
+   *     AvroResultSetRecorder}s.
+   * @param encoderThreads The number of threads that encode and compress blocks.
+   */
+  public AvroWritePipeline(int memoryBudgetBytes, int encoderThreads) {
+    Preconditions.checkArgument(
+        memoryBudgetBytes >= 0,
+        "The memory budget must not be negative but was %s.",
+        memoryBudgetBytes);
+    Preconditions.checkArgument(
+        encoderThreads > 0,
+        "The number of encoder threads must be positive but was %s.",
+        encoderThreads);
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    memoryBudget = new Semaphore(memoryBudgetBytes);
+    if (memoryBudgetBytes == 0) {
+      writerService = Optional.empty();
+      encoderService = Optional.empty();
+    } else {
+      writerService =
+          Optional.of(Executors.newCachedThreadPool(newThreadFactory("avro-block-writer-%d")));
+      encoderService =
+          Optional.of(
+              Executors.newFixedThreadPool(
+                  encoderThreads, newThreadFactory("avro-block-encoder-%d")));
+    }
+  }
+
+  /** Gets a pipeline that fetches, encodes and writes on the thread that reads the result set. */
+  public static AvroWritePipeline sequential() {
+    return SEQUENTIAL;
+  }
+
+  /**
+   * Creates a recorder to which the current row of a result set is added.
+   *
+   * @param datumWriter the writer for rows of the result set, which also defines the schema.
+   * @param outputStream the output stream to which to write. It is closed with the recorder.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public ResultSetRecorder<ResultSet> createRecorder(
+      ResultSetDatumWriter datumWriter, OutputStream outputStream) throws IOException {
+    return createRecorder(datumWriter, outputStream, AvroFileOptions.builder().build());
+  }
+
+  /**
+   * Creates a recorder to which the current row of a result set is added.
+   *
+   * @param datumWriter the writer for rows of the result set, which also defines the schema.
+   * @param outputStream the output stream to which to write. It is closed with the recorder.
+   * @param fileOptions the codec and sync interval of the AVRO file. The sync interval is also the
+   *     size of the batches that are handed off to the encoders.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public ResultSetRecorder<ResultSet> createRecorder(
+      ResultSetDatumWriter datumWriter, OutputStream outputStream, AvroFileOptions fileOptions)
+      throws IOException {
+    if (!writerService.isPresent()) {
+      return AvroResultSetRecorder.create(datumWriter, outputStream, fileOptions);
+    }
+    return new PipelinedRecorder(
+        datumWriter, outputStream, fileOptions, ExtractionMetrics.untracked());
+  }
+
+  /**
+   * Creates a recorder to which the current row of a result set is added, and which records the
+   * time spent converting, encoding and writing the rows.
+   *
+   * @param datumWriter the writer for rows of the result set, which also defines the schema.
+   * @param outputStream the output stream to which to write. It is closed with the recorder.
+   * @param fileOptions the codec and sync interval of the AVRO file.
+   * @param metrics the metrics to which to add the times.
+   * @throws IOException if creating the AVRO file writer failed.
+   */
+  public ResultSetRecorder<ResultSet> createRecorder(
+      ResultSetDatumWriter datumWriter,
+      OutputStream outputStream,
+      AvroFileOptions fileOptions,
+      ExtractionMetrics metrics)
+      throws IOException {
+    if (!writerService.isPresent()) {
+      return new SequentialRecorder(datumWriter, outputStream, fileOptions, metrics);
+    }
+    return new PipelinedRecorder(datumWriter, outputStream, fileOptions, metrics);
+  }
+
+  /** Stops the workers. Recorders must be closed before. */
+  @Override
+  public void close() {
+    writerService.ifPresent(ExecutorService::shutdownNow);
+    encoderService.ifPresent(ExecutorService::shutdownNow);
+  }
+
+  private static ThreadFactory newThreadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+  }
+
+  /** Rows of Avro binary data, together with the offsets at which each row ends. */
+  private static final class RowBatch extends OutputStream {
+    byte[] buffer;
+    int size;
+    int[] rowEnds = new int[64];
+    int rowCount;
+
+    RowBatch(int capacity) {
+      buffer = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(size + 1);
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(size + length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    void endRow() {
+      if (rowCount == rowEnds.length) {
+        rowEnds = Arrays.copyOf(rowEnds, rowCount * 2);
+      }
+      rowEnds[rowCount++] = size;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+      }
+    }
+  }
+
+  /**
+   * Recorder that converts, encodes and writes on the thread that adds the rows. The time of adding
+   * a row that is spent neither converting nor writing counts as encoding.
+   */
+  private static final class SequentialRecorder implements ResultSetRecorder<ResultSet> {
+    private final ExtractionMetrics metrics;
+    private final AvroResultSetRecorder<ResultSet> recorder;
+    // The times spent converting and writing since the current call started.
+    private long convertNanos;
+    private long writeNanos;
+
+    SequentialRecorder(
+        ResultSetDatumWriter datumWriter,
+        OutputStream outputStream,
+        AvroFileOptions fileOptions,
+        ExtractionMetrics metrics)
+        throws IOException {
+      this.metrics = metrics;
+      recorder =
+          AvroResultSetRecorder.newRecorder(
+              datumWriter.getSchema(),
+              new DatumWriter<ResultSet>() {
+                @Override
+                public void setSchema(Schema schema) {
+                  datumWriter.setSchema(schema);
+                }
+
+                @Override
+                public void write(ResultSet row, Encoder out) throws IOException {
+                  long start = System.nanoTime();
+                  datumWriter.write(row, out);
+                  convertNanos += System.nanoTime() - start;
+                }
+              },
+              new FilterOutputStream(outputStream) {
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                  long start = System.nanoTime();
+                  out.write(bytes, offset, length);
+                  writeNanos += System.nanoTime() - start;
+                }
+              },
+              fileOptions);
+    }
+
+    @Override
+    public void add(ResultSet row) {
+      long start = startTiming();
+      recorder.add(row);
+      stopTiming(start);
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = startTiming();
+      recorder.close();
+      stopTiming(start);
+    }
+
+    private long startTiming() {
+      convertNanos = 0;
+      writeNanos = 0;
+      return System.nanoTime();
+    }
+
+    private void stopTiming(long start) {
+      long nanos = System.nanoTime() - start;
+      metrics.addConvertNanos(convertNanos);
+      metrics.addWriteNanos(writeNanos);
+      metrics.addEncodeNanos(nanos - convertNanos - writeNanos);
+    }
+  }
+
+  /** A piece of the Avro file that may still be encoding, in the order of the file. */
+  private static final class PendingBlock {
+    static final PendingBlock END = new PendingBlock(new byte[0]);
+
+    final Future<byte[]> bytes;
+    final int permits;
+    // The uncompressed bytes of the rows of the block.
+    final int rowBytes;
+
+    PendingBlock(byte[] bytes) {
+      this(CompletableFuture.completedFuture(bytes), /* permits= */ 0, /* rowBytes= */ 0);
+    }
+
+    PendingBlock(Future<byte[]> bytes, int permits, int rowBytes) {
+      this.bytes = bytes;
+      this.permits = permits;
+      this.rowBytes = rowBytes;
+    }
+  }
+
+  private final class PipelinedRecorder implements ResultSetRecorder<ResultSet> {
+    private final ResultSetDatumWriter datumWriter;
+    private final OutputStream outputStream;
+    private final CodecFactory codec;
+    private final int blockBytes;
+    private final byte[] sync = new byte[DataFileConstants.SYNC_SIZE];
+    private final Queue<BlockEncoder> idleBlockEncoders = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<PendingBlock> pendingBlocks = new LinkedBlockingQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // The uncompressed bytes of the blocks that are handed off but not yet written.
+    private final AtomicLong handedOffBytes = new AtomicLong();
+    private final ExtractionMetrics metrics;
+    private final Future<?> writer;
+    // Claimed by the writer when it starts, or by an aborting recorder before it starts.
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    private final CountDownLatch writerStopped = new CountDownLatch(1);
+    private RowBatch rowBatch;
+    private BinaryEncoder binaryEncoder;
+
+    PipelinedRecorder(
+        ResultSetDatumWriter datumWriter,
+        OutputStream outputStream,
+        AvroFileOptions fileOptions,
+        ExtractionMetrics metrics)
+        throws IOException {
+      this.datumWriter = datumWriter;
+      this.outputStream = outputStream;
+      this.metrics = metrics;
+      codec = fileOptions.codecFactory();
+      blockBytes = fileOptions.syncInterval();
+      // Every block encoder of this file ends its blocks with the sync marker of the header.
+      ThreadLocalRandom.current().nextBytes(sync);
+      pendingBlocks.add(new PendingBlock(encodeHeader()));
+      startRowBatch();
+      writer = writerService.get().submit(this::write);
+    }
+
+    @Override
+    public void add(ResultSet row) {
+      throwIfFailed();
+      try {
+        long start = System.nanoTime();
+        datumWriter.write(row, binaryEncoder);
+        metrics.addConvertNanos(System.nanoTime() - start);
+        rowBatch.endRow();
+        if (rowBatch.size >= blockBytes) {
+          handOff(rowBatch);
+          startRowBatch();
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(
+            String.format(
+                "Failed to encode query result to file with error message: %s", e.getMessage()),
+            e);
+      }
+    }
+
+    /**
+     * Gets the bytes of the current batch and of the handed-off blocks that are not yet written, so
+     * that a chunk that is limited by bytes ends within about a block of its limit, regardless of
+     * how much of the memory budget is in flight.
+     */
+    @Override
+    public long getPendingBytes() {
+      return handedOffBytes.get() + rowBatch.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      boolean written = false;
+      try {
+        if (rowBatch.rowCount > 0) {
+          handOff(rowBatch);
+        }
+        pendingBlocks.add(PendingBlock.END);
+        writer.get();
+        written = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the write pipeline.");
+      } catch (ExecutionException e) {
+        written = true;
+        fail(e.getCause());
+      } finally {
+        try {
+          if (!written) {
+            abort();
+          }
+          closeBlockEncoders();
+        } finally {
+          outputStream.close();
+        }
+      }
+      Throwable cause = failure.get();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause != null) {
+        throw new IOException("Failed to write query results.", cause);
+      }
+    }
+
+    /**
+     * Stops the writer of a recorder that is closed before all of its blocks are written, e.g.,
+     * because it was interrupted, and releases the memory of the blocks that were not written.
+     * Waits until the writer has stopped, so that the output is not closed underneath it.
+     */
+    private void abort() {
+      fail(new InterruptedIOException("The recorder was closed before all rows were written."));
+      if (writerStarted.compareAndSet(false, true)) {
+        // The writer will not write anything.
+        releasePendingBlocks();
+        return;
+      }
+      writer.cancel(true);
+      releasePendingBlocks();
+      // Ends a writer that was interrupted while writing and then went on to wait for a block.
+      pendingBlocks.add(PendingBlock.END);
+      Uninterruptibles.awaitUninterruptibly(writerStopped);
+    }
+
+    /**
+     * Releases the memory of the blocks that are still queued. Each block is either taken by the
+     * writer, which releases it, or polled here, so that no block is released twice.
+     */
+    private void releasePendingBlocks() {
+      for (PendingBlock block = pendingBlocks.poll(); block != null; block = pendingBlocks.poll()) {
+        block.bytes.cancel(true);
+        memoryBudget.release(block.permits);
+      }
+    }
+
+    /** Closes the block encoders, which are all idle once the writer has written every block. */
+    private void closeBlockEncoders() throws IOException {
+      for (BlockEncoder blockEncoder = idleBlockEncoders.poll();
+          blockEncoder != null;
+          blockEncoder = idleBlockEncoders.poll()) {
+        blockEncoder.fileWriter.close();
+      }
+    }
+
+    private byte[] encodeHeader() throws IOException {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      try (DataFileWriter<ResultSet> fileWriter = createFileWriter(header)) {
+        return header.toByteArray();
+      }
+    }
+
+    private DataFileWriter<ResultSet> createFileWriter(OutputStream out) throws IOException {
+      return new DataFileWriter<>(datumWriter)
+          .setCodec(codec)
+          // Large enough that a batch is usually one block. A batch that is larger because of a
+          // huge row is split into several blocks, which is still a valid Avro file.
+          .setSyncInterval(2 * blockBytes)
+          .create(datumWriter.getSchema(), out, sync);
+    }
+
+    private void startRowBatch() {
+      rowBatch = new RowBatch(blockBytes + blockBytes / 4);
+      binaryEncoder = EncoderFactory.get().directBinaryEncoder(rowBatch, binaryEncoder);
+    }
+
+    private void handOff(RowBatch batch) throws InterruptedIOException {
+      // A batch larger than the whole budget waits until nothing else is in flight.
+      int permits = Math.min(batch.size, memoryBudgetBytes);
+      try {
+        memoryBudget.acquire(permits);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the write pipeline.");
+      }
+      handedOffBytes.addAndGet(batch.size);
+      pendingBlocks.add(
+          new PendingBlock(
+              encoderService.get().submit(() -> encodeBlock(batch)), permits, batch.size));
+    }
+
+    private byte[] encodeBlock(RowBatch batch) throws IOException {
+      if (failure.get() != null) {
+        return new byte[0];
+      }
+      BlockEncoder blockEncoder = idleBlockEncoders.poll();
+      if (blockEncoder == null) {
+        blockEncoder = new BlockEncoder();
+      }
+      long start = System.nanoTime();
+      try {
+        return blockEncoder.encode(batch);
+      } finally {
+        metrics.addEncodeNanos(System.nanoTime() - start);
+        idleBlockEncoders.add(blockEncoder);
+      }
+    }
+
+    private Void write() throws InterruptedException {
+      if (!writerStarted.compareAndSet(false, true)) {
+        return null;
+      }
+      try {
+        for (PendingBlock block = pendingBlocks.take();
+            block != PendingBlock.END;
+            block = pendingBlocks.take()) {
+          try {
+            byte[] bytes = block.bytes.get();
+            if (failure.get() == null) {
+              long start = System.nanoTime();
+              outputStream.write(bytes);
+              metrics.addWriteNanos(System.nanoTime() - start);
+            }
+          } catch (ExecutionException e) {
+            fail(e.getCause());
+          } catch (IOException | RuntimeException e) {
+            fail(e);
+          } finally {
+            handedOffBytes.addAndGet(-block.rowBytes);
+            memoryBudget.release(block.permits);
+          }
+        }
+      } finally {
+        // Only a writer that is stopped by an aborting recorder leaves blocks behind.
+        releasePendingBlocks();
+        writerStopped.countDown();
+      }
+      return null;
+    }
+
+    private void fail(Throwable cause) {
+      failure.compareAndSet(null, cause);
+    }
+
+    private void throwIfFailed() {
+      Throwable cause = failure.get();
+      if (cause != null) {
+        throw new IllegalStateException(
+            String.format(
+                "Failed to write query results with error message: %s", cause.getMessage()),
+            cause);
+      }
+    }
+
+    /** Frames and compresses batches of rows into blocks of the Avro file. */
+    private final class BlockEncoder {
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream(blockBytes);
+      private final DataFileWriter<ResultSet> fileWriter;
+
+      BlockEncoder() throws IOException {
+        fileWriter = createFileWriter(out);
+        // The recorder writes the header once, so the copy of every block encoder is dropped.
+        out.reset();
+      }
+
+      byte[] encode(RowBatch batch) throws IOException {
+        ByteBuffer row = ByteBuffer.wrap(batch.buffer);
+        int rowStart = 0;
+        for (int i = 0; i < batch.rowCount; i++) {
+          row.limit(batch.rowEnds[i]).position(rowStart);
+          fileWriter.appendEncoded(row);
+          rowStart = batch.rowEnds[i];
+        }
+        // Writes the rows as one block, followed by the sync marker.
+        fileWriter.flush();
+        byte[] block = out.toByteArray();
+        out.reset();
+        return block;
+      }
+    }
+  }
+}
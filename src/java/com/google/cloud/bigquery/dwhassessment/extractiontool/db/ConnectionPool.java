@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.ConnectionEvent;
+import com.google.common.base.Preconditions;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of JDBC connections, so that scripts reuse logons instead of opening a connection
+ * each. At most {@code maxSize} connections are handed out at the same time; further requests wait
+ * until a connection is returned.
+ *
+ * <p>Closing a connection from the pool returns it to the pool. Idle connections are checked with
+ * {@link Connection#isValid(int)} before they are handed out again and replaced if they are broken.
+ *
+ * <p>Connections with other properties, e.g., Teradata FastExport connections, are handed out as
+ * dedicated connections. They count towards {@code maxSize} like pooled connections, so that the
+ * pool limits all sessions of a run, but they are closed instead of reused.
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+  private static final int VALIDATION_TIMEOUT_SECONDS = 30;
+
+  private final String address;
+  private final Properties properties;
+  private final int maxSize;
+  private final Semaphore permits;
+  private final Deque<Connection> idleConnections = new ArrayDeque<>();
+  private boolean closed;
+
+  /**
+   * Creates an empty pool. Connections are opened on demand.
+   *
+   * @param address The JDBC address of the database.
+   * @param properties The JDBC connection properties.
+   * @param maxSize The maximum number of connections in use at the same time.
+   */
+  public ConnectionPool(String address, Properties properties, int maxSize) {
+    Preconditions.checkArgument(maxSize > 0, "The pool size must be positive but was %s.", maxSize);
+    this.address = address;
+    this.properties = properties;
+    this.maxSize = maxSize;
+    this.permits = new Semaphore(maxSize, /* fair= */ true);
+  }
+
+  /**
+   * Gets a healthy connection from the pool, or opens a new one if no idle connection is left.
+   * Waits while the maximum number of connections is in use.
+   *
+   * @return A connection that is returned to the pool when it is closed.
+   */
+  public Connection getConnection() throws SQLException {
+    return getConnection(/* dedicatedProperties= */ null);
+  }
+
+  /**
+   * Opens a dedicated connection with additional connection properties. Waits while the maximum
+   * number of connections is in use.
+   *
+   * @param additionalProperties The properties to set on top of the properties of the pool.
+   * @return A connection that is closed when it is closed, and not reused.
+   */
+  public Connection getDedicatedConnection(Properties additionalProperties) throws SQLException {
+    Properties dedicatedProperties = new Properties();
+    dedicatedProperties.putAll(properties);
+    dedicatedProperties.putAll(additionalProperties);
+    return getConnection(dedicatedProperties);
+  }
+
+  private Connection getConnection(Properties dedicatedProperties) throws SQLException {
+    ConnectionEvent event = new ConnectionEvent();
+    event.begin();
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection.", e);
+    }
+    try {
+      boolean dedicated = dedicatedProperties != null;
+      Connection connection = null;
+      if (dedicated) {
+        checkOpen();
+      } else {
+        connection = pollHealthyConnection();
+      }
+      event.opened = connection == null;
+      if (connection == null) {
+        connection =
+            DriverManager.getConnection(address, dedicated ? dedicatedProperties : properties);
+      }
+      event.commit();
+      return lease(connection, dedicated);
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** The number of connections that are in use or being opened. */
+  public int activeConnections() {
+    return maxSize - permits.availablePermits();
+  }
+
+  /** Closes the idle connections. Connections in use are closed when they are returned. */
+  @Override
+  public void close() {
+    synchronized (idleConnections) {
+      closed = true;
+      while (!idleConnections.isEmpty()) {
+        closeQuietly(idleConnections.poll());
+      }
+    }
+  }
+
+  private void checkOpen() throws SQLException {
+    synchronized (idleConnections) {
+      if (closed) {
+        throw new SQLException("The connection pool is closed.");
+      }
+    }
+  }
+
+  private Connection pollHealthyConnection() throws SQLException {
+    while (true) {
+      Connection connection;
+      synchronized (idleConnections) {
+        if (closed) {
+          throw new SQLException("The connection pool is closed.");
+        }
+        connection = idleConnections.poll();
+      }
+      if (connection == null || isHealthy(connection)) {
+        return connection;
+      }
+      LOGGER.log(Level.INFO, "Replacing a broken database connection.");
+      closeQuietly(connection);
+    }
+  }
+
+  private static boolean isHealthy(Connection connection) {
+    try {
+      return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void release(Connection connection, boolean dedicated) {
+    try {
+      boolean reusable = !dedicated && !connection.isClosed();
+      if (reusable && !connection.getAutoCommit()) {
+        connection.rollback();
+      }
+      synchronized (idleConnections) {
+        if (reusable && !closed) {
+          idleConnections.push(connection);
+          return;
+        }
+      }
+      closeQuietly(connection);
+    } catch (SQLException e) {
+      closeQuietly(connection);
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to close a database connection.", e);
+    }
+  }
+
+  private Connection lease(Connection connection, boolean dedicated) {
+    return (Connection)
+        Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new LeasedConnection(connection, dedicated));
+  }
+
+  /**
+   * Forwards to a pooled connection until it is closed, which returns it to the pool, or to a
+   * dedicated connection until it is closed.
+   */
+  private final class LeasedConnection implements InvocationHandler {
+    private final Connection connection;
+    private final boolean dedicated;
+    private boolean returned;
+
+    LeasedConnection(Connection connection, boolean dedicated) {
+      this.connection = connection;
+      this.dedicated = dedicated;
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!returned) {
+            returned = true;
+            release(connection, dedicated);
+          }
+          return null;
+        case "isClosed":
+          return returned || connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled " + connection;
+        default:
+          if (returned) {
+            throw new SQLException("The connection was returned to the pool.");
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+      }
+    }
+  }
+}
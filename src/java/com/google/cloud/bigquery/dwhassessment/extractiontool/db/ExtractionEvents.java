@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * Java Flight Recorder events of the extraction, so that a recording shows which script, chunk or
+ * query a thread was working on. The events are cheap when no recording is running, because
+ * nothing is committed then.
+ */
+public final class ExtractionEvents {
+
+  private static final String PREFIX = "com.google.cloud.bigquery.dwhassessment.";
+
+  private ExtractionEvents() {}
+
+  /**
+   * Starts a recording with the default profiling settings, which is written to the destination
+   * when it is stopped.
+   */
+  public static Recording startRecording(Path destination) throws IOException {
+    Configuration configuration;
+    try {
+      configuration = Configuration.getConfiguration("profile");
+    } catch (ParseException e) {
+      throw new IOException("Cannot read the flight recorder settings.", e);
+    }
+    Recording recording = new Recording(configuration);
+    recording.setName("extraction");
+    recording.setToDisk(true);
+    recording.setDestination(destination);
+    recording.start();
+    return recording;
+  }
+
+  /** The extraction of a script, a time slice or a chunk, from its start to its end. */
+  @Category({"DWH Assessment", "Extraction"})
+  abstract static class PartEvent extends Event {
+    @Label("Script")
+    String scriptName;
+
+    @Label("Time Slice")
+    @Description("The number of the time slice, or -1 if the script is not sliced.")
+    int timeSlice;
+
+    @Label("Chunk")
+    @Description("The number of the chunk, or -1 for a whole script or time slice.")
+    int chunkNumber;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name(PREFIX + "Script")
+  @Label("Script")
+  @Description("The extraction of a script.")
+  static final class ScriptEvent extends PartEvent {}
+
+  @Name(PREFIX + "TimeSlice")
+  @Label("Time Slice")
+  @Description("The extraction of a time slice of a script.")
+  static final class TimeSliceEvent extends PartEvent {}
+
+  @Name(PREFIX + "Chunk")
+  @Label("Chunk")
+  @Description("The writing of a chunk file, which ends when the next chunk is started.")
+  static final class ChunkEvent extends PartEvent {}
+
+  @Name(PREFIX + "Query")
+  @Label("Query")
+  @Category({"DWH Assessment", "JDBC"})
+  @Description("A JDBC executeQuery call, until the first rows can be fetched.")
+  static final class QueryEvent extends Event {
+    @Label("Script")
+    String scriptName;
+
+    @Label("Fetch Size")
+    int fetchSize;
+  }
+
+  @Name(PREFIX + "SchemaQuery")
+  @Label("Schema Query")
+  @Category({"DWH Assessment", "JDBC"})
+  @Description("A metadata query for the columns of tables, including reading its rows.")
+  static final class SchemaEvent extends Event {
+    @Label("Database")
+    @Description("The database pattern of the query, or empty for all databases.")
+    String databaseName;
+
+    @Label("Table")
+    @Description("The table of the query, or empty for all tables.")
+    String tableName;
+
+    @Label("Rows")
+    long rows;
+  }
+
+  @Name(PREFIX + "ConnectionAcquisition")
+  @Label("Connection Acquisition")
+  @Category({"DWH Assessment", "JDBC"})
+  @Description("Taking a connection from the pool, including waiting for a free one.")
+  static final class ConnectionEvent extends Event {
+    @Label("Opened")
+    @Description("Whether a new connection was opened, rather than an idle one reused.")
+    boolean opened;
+  }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.ChunkEvent;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.PartEvent;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.ScriptEvent;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.TimeSliceEvent;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The timings and sizes of the extraction of a script, or of a part of it, i.e., a time slice or a
+ * chunk. The wall time of a part is split into the phases in which the rows pass through the
+ * extraction:
+ *
+ * <ul>
+ *   <li>time to first row: from the start until the first row is fetched;
+ *   <li>fetch: blocked in {@link java.sql.ResultSet#next};
+ *   <li>convert: converting the values of the rows into Avro binary data;
+ *   <li>encode: framing and compressing the Avro blocks;
+ *   <li>write: writing the blocks to the output.
+ * </ul>
+ *
+ * <p>Fetching and converting happen on the thread that reads the result set. Encoding and writing
+ * may happen on the threads of the write pipeline, so they overlap with fetching and their sum can
+ * exceed the wall time. Once a part is finished, its phases, rows and bytes are added to its
+ * parent. The metrics are read while they are updated, e.g., by the progress reporter and the
+ * metrics exporter, so the phases are counted in adders and the other fields are guarded by the
+ * metrics themselves.
+ *
+ * <p>The phases are measured with two clock reads per row and phase, which is small compared to
+ * fetching and converting a row. Each script, time slice and chunk is also recorded as a flight
+ * recorder event from its start until it is finished.
+ *
+ * <p>If a script is started with a histogram of fetch latencies, each fetch of the script and its
+ * parts is also counted in the histogram. Otherwise, recording fetches only costs a null check.
+ */
+public final class ExtractionMetrics {
+
+  private static final ExtractionMetrics UNTRACKED =
+      new ExtractionMetrics(
+          "untracked",
+          OptionalInt.empty(),
+          OptionalInt.empty(),
+          /* parent= */ null,
+          /* fetchLatencies= */ null,
+          /* recorded= */ false);
+
+  private final String scriptName;
+  private final OptionalInt timeSlice;
+  private final OptionalInt chunk;
+  private final ExtractionMetrics parent;
+  private final ExtractionMetrics script;
+  private final PartEvent event;
+  private final LatencyHistogram fetchLatencies;
+  private final List<ExtractionMetrics> parts = new ArrayList<>();
+  private final long startNanos = System.nanoTime();
+  private long wallNanos = -1;
+  // Guarded by the parent, so that a finishing part is counted either by itself or by its parent.
+  private boolean addedToParent;
+  private volatile long firstRowNanos = -1;
+  private final LongAdder fetchNanos = new LongAdder();
+  private final LongAdder convertNanos = new LongAdder();
+  private final LongAdder encodeNanos = new LongAdder();
+  private final LongAdder writeNanos = new LongAdder();
+  private long rows;
+  private long bytes;
+  private final LongAdder fetchedRows = new LongAdder();
+  private volatile long expectedRows = -1;
+
+  private ExtractionMetrics(
+      String scriptName,
+      OptionalInt timeSlice,
+      OptionalInt chunk,
+      ExtractionMetrics parent,
+      LatencyHistogram fetchLatencies,
+      boolean recorded) {
+    this.scriptName = scriptName;
+    this.timeSlice = timeSlice;
+    this.chunk = chunk;
+    this.parent = parent;
+    this.script = parent == null ? this : parent.script;
+    this.fetchLatencies = fetchLatencies;
+    if (!recorded) {
+      event = null;
+      return;
+    }
+    if (chunk.isPresent()) {
+      event = new ChunkEvent();
+    } else if (timeSlice.isPresent()) {
+      event = new TimeSliceEvent();
+    } else {
+      event = new ScriptEvent();
+    }
+    event.begin();
+  }
+
+  /** Starts the metrics of a script. */
+  public static ExtractionMetrics startScript(String scriptName) {
+    return startScript(scriptName, /* fetchLatencies= */ null);
+  }
+
+  /** Starts the metrics of a script that also counts the latencies of its fetches. */
+  public static ExtractionMetrics startScript(String scriptName, LatencyHistogram fetchLatencies) {
+    return new ExtractionMetrics(
+        scriptName,
+        OptionalInt.empty(),
+        OptionalInt.empty(),
+        /* parent= */ null,
+        fetchLatencies,
+        /* recorded= */ true);
+  }
+
+  /**
+   * Gets metrics that are not reported, e.g., for a recorder whose caller does not measure it. They
+   * are shared by all such callers, are never finished and have no flight recorder event. They do
+   * not keep their parts, so that callers that start chunks on them do not accumulate them.
+   */
+  public static ExtractionMetrics untracked() {
+    return UNTRACKED;
+  }
+
+  /** Starts the metrics of a time slice of this script. */
+  public ExtractionMetrics startTimeSlice(int timeSlice) {
+    return addPart(
+        new ExtractionMetrics(
+            scriptName, OptionalInt.of(timeSlice), chunk, this, fetchLatencies, event != null));
+  }
+
+  /** Starts the metrics of a chunk of this script or time slice. */
+  public ExtractionMetrics startChunk(int chunk) {
+    return addPart(
+        new ExtractionMetrics(
+            scriptName, timeSlice, OptionalInt.of(chunk), this, fetchLatencies, event != null));
+  }
+
+  private synchronized ExtractionMetrics addPart(ExtractionMetrics part) {
+    if (this != UNTRACKED) {
+      parts.add(part);
+    }
+    return part;
+  }
+
+  /** Records the time to the first row, unless a row was fetched before. */
+  public void recordFirstRow() {
+    // Only the first row takes the lock.
+    if (firstRowNanos < 0) {
+      synchronized (this) {
+        if (firstRowNanos < 0) {
+          firstRowNanos = System.nanoTime();
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts a fetched row towards the progress of the script, which can be read while the script is
+   * extracted, unlike the rows that are added once a part is finished.
+   */
+  public void addFetchedRow() {
+    script.fetchedRows.increment();
+  }
+
+  /** Sets the number of rows that the script is expected to return, e.g., from a count. */
+  public void setExpectedRows(long expectedRows) {
+    script.expectedRows = expectedRows;
+  }
+
+  /** Adds time that the reading thread was blocked fetching rows. */
+  public void addFetchNanos(long nanos) {
+    fetchNanos.add(nanos);
+    if (fetchLatencies != null) {
+      fetchLatencies.observeNanos(nanos);
+    }
+  }
+
+  /** Adds time that the reading thread spent converting rows. */
+  public void addConvertNanos(long nanos) {
+    convertNanos.add(nanos);
+  }
+
+  /** Adds time spent encoding blocks, on any thread. */
+  public void addEncodeNanos(long nanos) {
+    encodeNanos.add(nanos);
+  }
+
+  /** Adds time spent writing blocks, on any thread. */
+  public void addWriteNanos(long nanos) {
+    writeNanos.add(nanos);
+  }
+
+  /**
+   * Adds the output of rows that were written directly to this script or part, not to a part of it.
+   *
+   * @param rows The number of rows.
+   * @param bytes The number of bytes of the output file.
+   */
+  public synchronized void addOutput(long rows, long bytes) {
+    this.rows += rows;
+    this.bytes += bytes;
+  }
+
+  /** Finishes this script or part and adds its phases, rows and bytes to its parent. */
+  public void finish() {
+    synchronized (this) {
+      wallNanos = System.nanoTime() - startNanos;
+    }
+    if (parent != null) {
+      parent.add(this);
+    }
+    commitEvent();
+  }
+
+  /**
+   * Discards this part without adding it to its parent, e.g., a page that turned out to be empty.
+   * Its flight recorder event is not committed.
+   */
+  public void discard() {
+    if (parent != null) {
+      parent.removePart(this);
+    }
+  }
+
+  private synchronized void removePart(ExtractionMetrics part) {
+    parts.remove(part);
+  }
+
+  private void commitEvent() {
+    if (event == null || !event.shouldCommit()) {
+      return;
+    }
+    event.scriptName = scriptName;
+    event.timeSlice = timeSlice.orElse(-1);
+    event.chunkNumber = chunk.orElse(-1);
+    event.rows = rows();
+    event.bytes = bytes();
+    event.commit();
+  }
+
+  private synchronized void add(ExtractionMetrics part) {
+    part.addedToParent = true;
+    long partFirstRowNanos = part.firstRowNanos;
+    if (partFirstRowNanos >= 0 && (firstRowNanos < 0 || partFirstRowNanos < firstRowNanos)) {
+      firstRowNanos = partFirstRowNanos;
+    }
+    fetchNanos.add(part.fetchNanos.sum());
+    convertNanos.add(part.convertNanos.sum());
+    encodeNanos.add(part.encodeNanos.sum());
+    writeNanos.add(part.writeNanos.sum());
+    rows += part.rows();
+    bytes += part.bytes();
+  }
+
+  public String scriptName() {
+    return scriptName;
+  }
+
+  public OptionalInt timeSlice() {
+    return timeSlice;
+  }
+
+  public OptionalInt chunk() {
+    return chunk;
+  }
+
+  /** The finished parts, in the order in which they were started. */
+  public synchronized ImmutableList<ExtractionMetrics> parts() {
+    return parts.stream().filter(part -> part.wallNanos() >= 0).collect(toImmutableList());
+  }
+
+  /**
+   * The finished chunks of this script or part, including those of time slices that are still
+   * running, in the order in which they were started.
+   */
+  public synchronized ImmutableList<ExtractionMetrics> finishedChunks() {
+    ImmutableList.Builder<ExtractionMetrics> chunks = ImmutableList.builder();
+    for (ExtractionMetrics part : parts) {
+      if (part.chunk.isPresent() && part.wallNanos() >= 0) {
+        chunks.add(part);
+      } else if (!part.chunk.isPresent()) {
+        chunks.addAll(part.finishedChunks());
+      }
+    }
+    return chunks.build();
+  }
+
+  /**
+   * The bytes written so far, i.e., the bytes of this script or part if it is finished, and
+   * otherwise the bytes of its finished parts and of the output written directly to it.
+   */
+  public synchronized long writtenBytes() {
+    long writtenBytes = bytes;
+    if (wallNanos < 0) {
+      for (ExtractionMetrics part : parts) {
+        if (!part.addedToParent) {
+          writtenBytes += part.writtenBytes();
+        }
+      }
+    }
+    return writtenBytes;
+  }
+
+  /** The histogram of the fetch latencies of the script, if they are counted. */
+  public Optional<LatencyHistogram> fetchLatencies() {
+    return Optional.ofNullable(fetchLatencies);
+  }
+
+  /** The wall time, or -1 if the part is not finished. */
+  public synchronized long wallNanos() {
+    return wallNanos;
+  }
+
+  /** The wall time so far, or the wall time if the part is finished. */
+  public synchronized long elapsedNanos() {
+    return wallNanos >= 0 ? wallNanos : System.nanoTime() - startNanos;
+  }
+
+  /** The time from the start until the first row was fetched, or -1 if there were no rows. */
+  public long timeToFirstRowNanos() {
+    long firstRowNanos = this.firstRowNanos;
+    return firstRowNanos < 0 ? -1 : firstRowNanos - startNanos;
+  }
+
+  public long fetchNanos() {
+    return fetchNanos.sum();
+  }
+
+  public long convertNanos() {
+    return convertNanos.sum();
+  }
+
+  public long encodeNanos() {
+    return encodeNanos.sum();
+  }
+
+  public long writeNanos() {
+    return writeNanos.sum();
+  }
+
+  /** The rows of the script that were fetched so far, including those not written yet. */
+  public long fetchedRows() {
+    return script.fetchedRows.sum();
+  }
+
+  /** The number of rows that the script is expected to return, or -1 if unknown. */
+  public long expectedRows() {
+    return script.expectedRows;
+  }
+
+  public synchronized long rows() {
+    return rows;
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+}
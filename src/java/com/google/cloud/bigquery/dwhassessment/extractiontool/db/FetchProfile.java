@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Defines how the rows of a script are fetched from the database, so that small metadata scripts
+ * and large log scripts can be tuned separately.
+ */
+@AutoValue
+public abstract class FetchProfile {
+
+  /** The number of rows to fetch per round trip, or 0 to use the default of the driver. */
+  public abstract Integer fetchSize();
+
+  /**
+   * Whether to run the script on a separate Teradata FastExport connection. The driver falls back
+   * to regular SQL for queries that cannot be exported.
+   */
+  public abstract boolean fastExport();
+
+  /**
+   * Whether to run a separate query for each chunk of a chunked script that is ordered by a
+   * timestamp, starting after the last timestamp of the previous chunk, instead of reading all
+   * chunks from one cursor.
+   */
+  public abstract boolean queryPerChunk();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_FetchProfile.Builder()
+        .setFetchSize(0)
+        .setFastExport(false)
+        .setQueryPerChunk(false);
+  }
+
+  /** Builder for the FetchProfile. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setFetchSize(Integer fetchSize);
+
+    public abstract Builder setFastExport(boolean fastExport);
+
+    public abstract Builder setQueryPerChunk(boolean queryPerChunk);
+
+    public abstract FetchProfile build();
+  }
+}
@@ -19,8 +19,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.github.jknack.handlebars.Options;
 import com.github.jknack.handlebars.internal.text.StringEscapeUtils;
+import com.google.common.base.Splitter;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.KeysetVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables.TimeRange;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -86,6 +89,92 @@ public final class HandlebarsHelpers {
         wrapInQuotes(model.getVars().getOrDefault("tableName", defaultTableName)));
   }
 
+  /**
+   * Returns the TOP clause that limits a chunk of a log script extracted with one query per chunk,
+   * e.g. " TOP 1000 WITH TIES". The ties keep the rows with the last timestamp in the same chunk.
+   */
+  public static CharSequence topWithTies(QueryLogsVariables queryLogsVariables, Options options) {
+    if (queryLogsVariables.chunkRows() == 0) {
+      return "";
+    }
+    return String.format(" TOP %d WITH TIES", queryLogsVariables.chunkRows());
+  }
+
+  /** Returns the TOP clause that limits a page of a paged script, e.g. " TOP 1000". */
+  public static CharSequence keysetTop(KeysetVariables keysetVariables, Options options) {
+    if (keysetVariables.getColumns().isEmpty() || keysetVariables.getLimit() == 0) {
+      return "";
+    }
+    return String.format(" TOP %d", keysetVariables.getLimit());
+  }
+
+  /**
+   * Returns the condition that a row comes after the previous page of a paged script, joined to
+   * the preceding clause with the given keyword ("WHERE" or "AND"), followed by the ORDER BY
+   * clause of the key. The key is compared lexicographically; nulls sort first, as in Teradata.
+   */
+  public static CharSequence keysetClause(KeysetVariables keysetVariables, Options options) {
+    String keyword = options.param(0);
+
+    checkArgument(!keyword.isEmpty(), "keyword cannot be empty.");
+
+    List<String> columns = keysetVariables.getColumns();
+    if (columns.isEmpty()) {
+      return "";
+    }
+    List<Object> afterKey = keysetVariables.getAfterKey();
+    checkArgument(
+        afterKey.isEmpty() || afterKey.size() == columns.size(),
+        "Expected a key of %s values but got %s.",
+        columns.size(),
+        afterKey.size());
+    StringBuilder clause = new StringBuilder();
+    if (!afterKey.isEmpty()) {
+      clause.append(String.format("\n%s (%s)", keyword, keyAfterCondition(columns, afterKey, 0)));
+    }
+    return clause
+        .append("\nORDER BY ")
+        .append(
+            columns.stream()
+                .map(HandlebarsHelpers::qualifiedColumnName)
+                .collect(Collectors.joining(", ")));
+  }
+
+  /** Returns "c0 > v0 OR (c0 = v0 AND (c1 > v1 OR ...))" from the given column on. */
+  private static String keyAfterCondition(List<String> columns, List<Object> key, int index) {
+    String column = qualifiedColumnName(columns.get(index));
+    Object value = key.get(index);
+    String greater =
+        value == null ? column + " IS NOT NULL" : column + " > " + toSqlLiteral(value);
+    if (index == columns.size() - 1) {
+      return greater;
+    }
+    String equal = value == null ? column + " IS NULL" : column + " = " + toSqlLiteral(value);
+    return String.format(
+        "%s OR (%s AND (%s))", greater, equal, keyAfterCondition(columns, key, index + 1));
+  }
+
+  private static String qualifiedColumnName(String column) {
+    return Splitter.on('.')
+        .splitToStream(column)
+        .map(HandlebarsHelpers::wrapInQuotes)
+        .collect(Collectors.joining("."));
+  }
+
+  private static String toSqlLiteral(Object value) {
+    if (value instanceof String) {
+      return "'" + ((String) value).replace("'", "''") + "'";
+    }
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).toPlainString();
+    }
+    checkArgument(
+        value instanceof Long || value instanceof Integer,
+        "Unsupported key value of type %s.",
+        value.getClass().getName());
+    return value.toString();
+  }
+
   private static String timestampRangeClause(
       TimeRange timeRange, String tableAlias, String columnName) {
     return String.format(
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, which can be updated by several threads at once.
+ * Like a Prometheus histogram, each bucket counts the durations up to its upper bound, and the
+ * last bucket counts all durations.
+ */
+public final class LatencyHistogram {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final ImmutableList<Double> upperBoundsSeconds;
+  private final long[] upperBoundsNanos;
+  private final LongAdder[] counts;
+  private final LongAdder sumNanos = new LongAdder();
+
+  /** @param upperBoundsSeconds The upper bounds of the buckets in seconds, in increasing order. */
+  public LatencyHistogram(double... upperBoundsSeconds) {
+    for (int i = 1; i < upperBoundsSeconds.length; i++) {
+      Preconditions.checkArgument(
+          upperBoundsSeconds[i - 1] < upperBoundsSeconds[i],
+          "The upper bounds must be increasing but were %s.",
+          Doubles.asList(upperBoundsSeconds));
+    }
+    this.upperBoundsSeconds = ImmutableList.copyOf(Doubles.asList(upperBoundsSeconds));
+    upperBoundsNanos = new long[upperBoundsSeconds.length];
+    for (int i = 0; i < upperBoundsSeconds.length; i++) {
+      upperBoundsNanos[i] = (long) (upperBoundsSeconds[i] * NANOS_PER_SECOND);
+    }
+    counts = new LongAdder[upperBoundsSeconds.length + 1];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  /** Counts a duration in the first bucket whose upper bound it does not exceed. */
+  public void observeNanos(long nanos) {
+    int bucket = 0;
+    while (bucket < upperBoundsNanos.length && nanos > upperBoundsNanos[bucket]) {
+      bucket++;
+    }
+    counts[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /** The upper bounds of the buckets in seconds, without the last bucket, which is unbounded. */
+  public ImmutableList<Double> upperBoundsSeconds() {
+    return upperBoundsSeconds;
+  }
+
+  /**
+   * The cumulative counts of the buckets, i.e., the number of durations up to each upper bound,
+   * followed by the number of all durations.
+   */
+  public ImmutableList<Long> cumulativeCounts() {
+    ImmutableList.Builder<Long> cumulativeCounts = ImmutableList.builder();
+    long count = 0;
+    for (LongAdder bucketCount : counts) {
+      count += bucketCount.sum();
+      cumulativeCounts.add(count);
+    }
+    return cumulativeCounts.build();
+  }
+
+  /** The sum of all durations in seconds. */
+  public double sumSeconds() {
+    return sumNanos.sum() / NANOS_PER_SECOND;
+  }
+}
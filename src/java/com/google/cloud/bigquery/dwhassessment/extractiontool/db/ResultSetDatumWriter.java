@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+
+/**
+ * Datum writer that encodes the current row of a result set straight into Avro binary, without
+ * creating a generic record. The encoding is the same as writing the record produced by {@link
+ * RowConverter} with a {@link GenericDatumWriter}.
+ */
+public final class ResultSetDatumWriter implements DatumWriter<ResultSet> {
+
+  /**
+   * Reads one column of the current row and, unless it is null, encodes it as the value of a
+   * field, preceded by the union index of the value if the field is optional.
+   */
+  @FunctionalInterface
+  private interface ValueWriter {
+    /** Returns false if the column is null and nothing was written. */
+    boolean write(ResultSet row, Encoder out) throws SQLException, IOException;
+  }
+
+  /** Encodes one field of the record. */
+  private static final class FieldWriter {
+    private final String name;
+    private final int columnIndex;
+    private final int nullBranch;
+    private final ValueWriter valueWriter;
+
+    FieldWriter(String name, int columnIndex, int nullBranch, ValueWriter valueWriter) {
+      this.name = name;
+      this.columnIndex = columnIndex;
+      this.nullBranch = nullBranch;
+      this.valueWriter = valueWriter;
+    }
+
+    void write(ResultSet row, Encoder out) throws SQLException, IOException {
+      if (columnIndex > 0 && valueWriter.write(row, out)) {
+        return;
+      }
+      if (nullBranch < 0) {
+        throw new NullPointerException(String.format("null value for field %s", name));
+      }
+      out.writeIndex(nullBranch);
+      out.writeNull();
+    }
+  }
+
+  private final Schema schema;
+  private final FieldWriter[] fieldWriters;
+
+  private ResultSetDatumWriter(Schema schema, FieldWriter[] fieldWriters) {
+    this.schema = schema;
+    this.fieldWriters = fieldWriters;
+  }
+
+  /**
+   * Creates a datum writer for result sets with the given metadata.
+   *
+   * @param schema The avro schema of the records to write. Must have a field for every column.
+   * @param metaData The metadata of the result sets to write.
+   */
+  public static ResultSetDatumWriter create(Schema schema, ResultSetMetaData metaData)
+      throws SQLException {
+    Map<String, Integer> columnIndexes = new HashMap<>();
+    for (int columnIndex = 1; columnIndex <= metaData.getColumnCount(); columnIndex++) {
+      String columnName = metaData.getColumnName(columnIndex);
+      Preconditions.checkArgument(
+          schema.getField(columnName) != null,
+          "Column %s is not a field of schema %s.",
+          columnName,
+          schema.getName());
+      columnIndexes.put(columnName, columnIndex);
+    }
+    List<Schema.Field> fields = schema.getFields();
+    FieldWriter[] fieldWriters = new FieldWriter[fields.size()];
+    TimestampDecoder timestampDecoder = new TimestampDecoder();
+    for (Schema.Field field : fields) {
+      int columnIndex = columnIndexes.getOrDefault(field.name(), 0);
+      fieldWriters[field.pos()] =
+          createFieldWriter(
+              field,
+              columnIndex,
+              columnIndex > 0 ? metaData.getColumnType(columnIndex) : Types.NULL,
+              timestampDecoder);
+    }
+    return new ResultSetDatumWriter(schema, fieldWriters);
+  }
+
+  /** Gets the schema of the records written. */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  @Override
+  public void setSchema(Schema schema) {
+    Preconditions.checkArgument(
+        this.schema.equals(schema), "Schema %s does not match the result set.", schema.getName());
+  }
+
+  @Override
+  public void write(ResultSet row, Encoder out) throws IOException {
+    for (FieldWriter fieldWriter : fieldWriters) {
+      try {
+        fieldWriter.write(row, out);
+      } catch (SQLException e) {
+        throw new IOException(
+            String.format("Failed to read column for field %s.", fieldWriter.name), e);
+      }
+    }
+  }
+
+  private static FieldWriter createFieldWriter(
+      Schema.Field field, int columnIndex, int columnType, TimestampDecoder timestampDecoder) {
+    Schema fieldSchema = field.schema();
+    if (fieldSchema.getType() != Schema.Type.UNION) {
+      return new FieldWriter(
+          field.name(),
+          columnIndex,
+          /* nullBranch= */ -1,
+          getValueWriter(
+              fieldSchema, /* valueBranch= */ -1, columnType, columnIndex, timestampDecoder));
+    }
+    List<Schema> branches = fieldSchema.getTypes();
+    int nullBranch = fieldSchema.getIndexNamed(Schema.Type.NULL.getName());
+    if (branches.size() != 2 || nullBranch < 0) {
+      // Unions other than an optional value are left to the generic encoding.
+      return new FieldWriter(
+          field.name(),
+          columnIndex,
+          nullBranch,
+          getGenericValueWriter(
+              fieldSchema, /* valueBranch= */ -1, columnType, columnIndex, timestampDecoder));
+    }
+    int valueBranch = 1 - nullBranch;
+    return new FieldWriter(
+        field.name(),
+        columnIndex,
+        nullBranch,
+        getValueWriter(
+            branches.get(valueBranch), valueBranch, columnType, columnIndex, timestampDecoder));
+  }
+
+  private static ValueWriter getValueWriter(
+      Schema valueSchema,
+      int valueBranch,
+      int columnType,
+      int columnIndex,
+      TimestampDecoder timestampDecoder) {
+    LogicalType logicalType = valueSchema.getLogicalType();
+    switch (valueSchema.getType()) {
+      case INT:
+        return (row, out) -> {
+          int value = row.getInt(columnIndex);
+          if (row.wasNull()) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeInt(value);
+          return true;
+        };
+      case LONG:
+        if (logicalType instanceof LogicalTypes.TimestampMillis && isTimestamp(columnType)) {
+          return (row, out) -> {
+            long epochMillis = timestampDecoder.getEpochMillis(row, columnIndex);
+            if (row.wasNull()) {
+              return false;
+            }
+            writeBranch(out, valueBranch);
+            out.writeLong(epochMillis);
+            return true;
+          };
+        }
+        return (row, out) -> {
+          long value = row.getLong(columnIndex);
+          if (row.wasNull()) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeLong(value);
+          return true;
+        };
+      case DOUBLE:
+        return (row, out) -> {
+          double value = row.getDouble(columnIndex);
+          if (row.wasNull()) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeDouble(value);
+          return true;
+        };
+      case BOOLEAN:
+        return (row, out) -> {
+          boolean value = row.getBoolean(columnIndex);
+          if (row.wasNull()) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeBoolean(value);
+          return true;
+        };
+      case STRING:
+        return (row, out) -> {
+          String value =
+              columnType == Types.CHAR
+                  ? RowConverter.trimTrailingSpaces(row.getString(columnIndex))
+                  : row.getString(columnIndex);
+          if (value == null) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeString(value);
+          return true;
+        };
+      case BYTES:
+        if (columnType == Types.DECIMAL) {
+          return (row, out) -> {
+            BigDecimal value = row.getBigDecimal(columnIndex);
+            if (value == null) {
+              return false;
+            }
+            writeBranch(out, valueBranch);
+            out.writeBytes(value.toBigInteger().toByteArray());
+            return true;
+          };
+        }
+        return (row, out) -> {
+          byte[] value = row.getBytes(columnIndex);
+          if (value == null) {
+            return false;
+          }
+          writeBranch(out, valueBranch);
+          out.writeBytes(value);
+          return true;
+        };
+      default:
+        return getGenericValueWriter(
+            valueSchema, valueBranch, columnType, columnIndex, timestampDecoder);
+    }
+  }
+
+  /** Falls back to the generic encoding of the value that {@link RowConverter} would produce. */
+  private static ValueWriter getGenericValueWriter(
+      Schema valueSchema,
+      int valueBranch,
+      int columnType,
+      int columnIndex,
+      TimestampDecoder timestampDecoder) {
+    GenericDatumWriter<Object> genericWriter = new GenericDatumWriter<>(valueSchema);
+    RowConverter.ColumnReader columnReader =
+        RowConverter.getColumnReader(columnType, columnIndex, timestampDecoder);
+    return (row, out) -> {
+      Object value = columnReader.read(row);
+      if (value == null) {
+        return false;
+      }
+      writeBranch(out, valueBranch);
+      genericWriter.write(value, out);
+      return true;
+    };
+  }
+
+  private static void writeBranch(Encoder out, int valueBranch) throws IOException {
+    if (valueBranch >= 0) {
+      out.writeIndex(valueBranch);
+    }
+  }
+
+  private static boolean isTimestamp(int columnType) {
+    return columnType == Types.DATE
+        || columnType == Types.TIMESTAMP
+        || columnType == Types.TIMESTAMP_WITH_TIMEZONE;
+  }
+}
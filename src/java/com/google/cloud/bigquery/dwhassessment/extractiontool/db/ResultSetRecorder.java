@@ -20,4 +20,13 @@ public interface ResultSetRecorder<T> extends AutoCloseable {
 
   /** Adds a record to the result set. */
   void add(T record);
+
+  /**
+   * Gets the uncompressed bytes of the added records that are not yet written to the output, e.g.,
+   * because they are still in a write pipeline. Recorders that write every block as soon as it is
+   * full return 0, since they hold back at most one block.
+   */
+  default long getPendingBytes() {
+    return 0;
+  }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.common.base.Preconditions;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Converts rows of a result set to Avro records. The column types and field positions are resolved
+ * once from the result set metadata, so that converting a row does not query the metadata again.
+ */
+public final class RowConverter {
+
+  /** Reads the value of one column of the current row in its Avro representation. */
+  @FunctionalInterface
+  interface ColumnReader {
+    Object read(ResultSet row) throws SQLException;
+  }
+
+  private final Schema schema;
+  private final int[] fieldPositions;
+  private final ColumnReader[] columnReaders;
+
+  private RowConverter(Schema schema, int[] fieldPositions, ColumnReader[] columnReaders) {
+    this.schema = schema;
+    this.fieldPositions = fieldPositions;
+    this.columnReaders = columnReaders;
+  }
+
+  /**
+   * Creates a converter for result sets with the given metadata.
+   *
+   * @param schema The avro schema of the records to create. Must have a field for every column.
+   * @param metaData The metadata of the result sets to convert.
+   */
+  public static RowConverter create(Schema schema, ResultSetMetaData metaData)
+      throws SQLException {
+    int columnCount = metaData.getColumnCount();
+    int[] fieldPositions = new int[columnCount];
+    ColumnReader[] columnReaders = new ColumnReader[columnCount];
+    TimestampDecoder timestampDecoder = new TimestampDecoder();
+    for (int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
+      String columnName = metaData.getColumnName(columnIndex);
+      Schema.Field field = schema.getField(columnName);
+      Preconditions.checkArgument(
+          field != null, "Column %s is not a field of schema %s.", columnName, schema.getName());
+      fieldPositions[columnIndex - 1] = field.pos();
+      columnReaders[columnIndex - 1] =
+          getColumnReader(metaData.getColumnType(columnIndex), columnIndex, timestampDecoder);
+    }
+    return new RowConverter(schema, fieldPositions, columnReaders);
+  }
+
+  /**
+   * Converts the current row of a result set.
+   *
+   * @param row A result set positioned on the row to convert.
+   * @return a generic record of the data in avro format.
+   */
+  public GenericRecord convert(ResultSet row) throws SQLException {
+    GenericData.Record record = new GenericData.Record(schema);
+    for (int i = 0; i < columnReaders.length; i++) {
+      record.put(fieldPositions[i], columnReaders[i].read(row));
+    }
+    return record;
+  }
+
+  static ColumnReader getColumnReader(
+      int columnType, int columnIndex, TimestampDecoder timestampDecoder) {
+    switch (columnType) {
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return row -> {
+          boolean value = row.getBoolean(columnIndex);
+          return row.wasNull() ? null : value;
+        };
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return row -> {
+          int value = row.getInt(columnIndex);
+          return row.wasNull() ? null : value;
+        };
+      case Types.BIGINT:
+        return row -> {
+          long value = row.getLong(columnIndex);
+          return row.wasNull() ? null : value;
+        };
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        return row -> {
+          double value = row.getDouble(columnIndex);
+          return row.wasNull() ? null : value;
+        };
+      case Types.DECIMAL:
+        return row -> {
+          BigDecimal bigDecimal = row.getBigDecimal(columnIndex);
+          return bigDecimal == null
+              ? null
+              : ByteBuffer.wrap(bigDecimal.toBigInteger().toByteArray());
+        };
+      case Types.DATE:
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return row -> {
+          long epochMillis = timestampDecoder.getEpochMillis(row, columnIndex);
+          return row.wasNull() ? null : epochMillis;
+        };
+      case Types.BINARY:
+      case Types.VARBINARY:
+        return row -> {
+          byte[] blob = row.getBytes(columnIndex);
+          return blob == null ? null : ByteBuffer.wrap(blob);
+        };
+      case Types.CHAR:
+        return row -> trimTrailingSpaces(row.getString(columnIndex));
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+        return row -> row.getString(columnIndex);
+      default:
+        return row -> row.getObject(columnIndex);
+    }
+  }
+
+  /** Removes trailing whitespace, as matched by {@code \s} in regular expressions. */
+  static String trimTrailingSpaces(String s) {
+    if (s == null) {
+      return null;
+    }
+    int end = s.length();
+    while (end > 0 && isWhitespace(s.charAt(end - 1))) {
+      end--;
+    }
+    return s.substring(0, end);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
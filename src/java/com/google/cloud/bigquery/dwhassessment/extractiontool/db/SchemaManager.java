@@ -20,12 +20,23 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.sql.Connection;
 import java.util.List;
+import java.util.function.Consumer;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 
 /** Interface to manage database schemas. */
 public interface SchemaManager {
 
+  /** How the columns of the schemas are queried from the database metadata. */
+  enum SchemaRetrievalMode {
+    /** One metadata query per table. */
+    PER_TABLE,
+    /** One metadata query per database, i.e., per JDBC schema. */
+    PER_DATABASE,
+    /** A single metadata query for all tables. */
+    ALL
+  }
+
   /** Identifier for a schema. */
   @AutoValue
   abstract class SchemaKey {
@@ -33,6 +44,7 @@ public interface SchemaManager {
       return new AutoValue_SchemaManager_SchemaKey(databaseName, tableName);
     }
 
+    /** The database of the table, i.e., its JDBC schema. */
     public abstract String databaseName();
 
     public abstract String tableName();
@@ -49,6 +61,27 @@ public interface SchemaManager {
   ImmutableList<GenericRecord> retrieveSchema(
       Connection connection, SchemaKey schemaKey, Schema schema);
 
+  /**
+   * Retrieves the schemas of all given keys and passes the records to the consumer while the column
+   * metadata is streamed. Except for {@link SchemaRetrievalMode#PER_TABLE}, the columns are queried
+   * in bulk, for {@link SchemaRetrievalMode#PER_DATABASE} only in the databases of the keys, and
+   * the rows of tables that are not in the keys are skipped on the client, so there are far fewer
+   * round trips than tables. The records are the same as those of {@link
+   * #retrieveSchema} for every key, in the order the database returns them.
+   *
+   * @param connection A connection to connect to database.
+   * @param schemaKeys The schema keys to extract, as returned by {@link #getSchemaKeys}.
+   * @param mode How to query the columns.
+   * @param schema Schema definition of the data to write.
+   * @param consumer Receives the extracted records.
+   */
+  void retrieveSchemas(
+      Connection connection,
+      ImmutableSet<SchemaKey> schemaKeys,
+      SchemaRetrievalMode mode,
+      Schema schema,
+      Consumer<GenericRecord> consumer);
+
   /**
    * Gets a list of names of matching
    *
@@ -16,8 +16,9 @@
  */
 package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
-import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.parseRowToAvro;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.SchemaEvent;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.sql.Connection;
@@ -25,6 +26,8 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 
@@ -35,17 +38,26 @@ public class SchemaManagerImpl implements SchemaManager {
   public ImmutableList<GenericRecord> retrieveSchema(
       Connection connection, SchemaKey schemaKey, Schema schema) {
     ImmutableList.Builder<GenericRecord> recordsBuilder = new ImmutableList.Builder<>();
-    try (ResultSet columnResult =
-        connection
-            .getMetaData()
-            .getColumns(
-                /*catalog =*/ null,
-                /*schemaPattern =*/ null,
-                /*tableNamePattern =*/ schemaKey.tableName(),
-                /*columnNamePattern =*/ null)) {
-      while (columnResult.next()) {
-        recordsBuilder.add(parseRowToAvro(columnResult, schema));
+    SchemaEvent event = new SchemaEvent();
+    event.begin();
+    try {
+      DatabaseMetaData metaData = connection.getMetaData();
+      try (ResultSet columnResult =
+          metaData.getColumns(
+              /*catalog =*/ null,
+              /*schemaPattern =*/ escapePattern(
+                  schemaKey.databaseName(), metaData.getSearchStringEscape()),
+              /*tableNamePattern =*/ schemaKey.tableName(),
+              /*columnNamePattern =*/ null)) {
+        RowConverter rowConverter = RowConverter.create(schema, columnResult.getMetaData());
+        while (columnResult.next()) {
+          recordsBuilder.add(rowConverter.convert(columnResult));
+          event.rows++;
+        }
       }
+      event.databaseName = schemaKey.databaseName();
+      event.tableName = schemaKey.tableName();
+      event.commit();
       return recordsBuilder.build();
     } catch (SQLException e) {
       throw new InternalError(
@@ -55,17 +67,102 @@ public class SchemaManagerImpl implements SchemaManager {
     }
   }
 
+  @Override
+  public void retrieveSchemas(
+      Connection connection,
+      ImmutableSet<SchemaKey> schemaKeys,
+      SchemaRetrievalMode mode,
+      Schema schema,
+      Consumer<GenericRecord> consumer) {
+    if (mode == SchemaRetrievalMode.PER_TABLE) {
+      for (SchemaKey schemaKey : schemaKeys) {
+        retrieveSchema(connection, schemaKey, schema).forEach(consumer);
+      }
+      return;
+    }
+    try {
+      DatabaseMetaData metaData = connection.getMetaData();
+      if (mode == SchemaRetrievalMode.ALL) {
+        streamColumns(metaData, Optional.empty(), schemaKeys, schema, consumer);
+        return;
+      }
+      ImmutableSet<String> databaseNames =
+          schemaKeys.stream().map(SchemaKey::databaseName).collect(toImmutableSet());
+      for (String databaseName : databaseNames) {
+        streamColumns(
+            metaData,
+            Optional.of(escapePattern(databaseName, metaData.getSearchStringEscape())),
+            schemaKeys,
+            schema,
+            consumer);
+      }
+    } catch (SQLException e) {
+      throw new InternalError(
+          String.format("Exception while retrieving schemas in mode %s: %s", mode, e.toString()));
+    }
+  }
+
+  /**
+   * Streams the columns of one getColumns query and converts the rows of the requested tables.
+   *
+   * <p>The tables are matched by database and table name, like {@link #retrieveSchema} matches them
+   * when the table name has no pattern characters, so tables of the same name in other databases
+   * are skipped.
+   */
+  private static void streamColumns(
+      DatabaseMetaData metaData,
+      Optional<String> schemaPattern,
+      ImmutableSet<SchemaKey> schemaKeys,
+      Schema schema,
+      Consumer<GenericRecord> consumer)
+      throws SQLException {
+    SchemaEvent event = new SchemaEvent();
+    event.begin();
+    try (ResultSet columnResult =
+        metaData.getColumns(
+            /*catalog =*/ null,
+            /*schemaPattern =*/ schemaPattern.orElse(null),
+            /*tableNamePattern =*/ null,
+            /*columnNamePattern =*/ null)) {
+      RowConverter rowConverter = RowConverter.create(schema, columnResult.getMetaData());
+      int databaseNameIndex = columnResult.findColumn("TABLE_SCHEM");
+      int tableNameIndex = columnResult.findColumn("TABLE_NAME");
+      while (columnResult.next()) {
+        SchemaKey schemaKey =
+            SchemaKey.create(
+                columnResult.getString(databaseNameIndex), columnResult.getString(tableNameIndex));
+        if (schemaKeys.contains(schemaKey)) {
+          consumer.accept(rowConverter.convert(columnResult));
+          event.rows++;
+        }
+      }
+    }
+    event.databaseName = schemaPattern.orElse("");
+    event.tableName = "";
+    event.commit();
+  }
+
+  /** Escapes the pattern characters of a name, so that it can be used as a search pattern. */
+  private static String escapePattern(String name, String escape) {
+    if (escape == null || escape.isEmpty()) {
+      return name;
+    }
+    return name.replace(escape, escape + escape)
+        .replace("_", escape + "_")
+        .replace("%", escape + "%");
+  }
+
   @Override
   public ImmutableSet<SchemaKey> getSchemaKeys(Connection connection, List<SchemaFilter> filters) {
     ImmutableSet.Builder<SchemaKey> schemaKeys = ImmutableSet.builder();
     try {
       DatabaseMetaData metaData = connection.getMetaData();
-      String databaseName = metaData.getDatabaseProductName();
       String[] tableTypes = {"TABLE"};
       ResultSet tablesResultSet =
           metaData.getTables(
               /*catalog=*/ null, /*schemaPattern=*/ null, /*tableNamePattern=*/ null, tableTypes);
       while (tablesResultSet.next()) {
+        String databaseName = tablesResultSet.getString("TABLE_SCHEM");
         String tableName = tablesResultSet.getString("TABLE_NAME");
         if (filters.isEmpty()) {
           schemaKeys.add(SchemaKey.create(databaseName, tableName));
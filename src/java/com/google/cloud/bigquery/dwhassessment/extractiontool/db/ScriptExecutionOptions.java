@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Defines how the rows of a script are fetched and written, and where the metrics of its rows go,
+ * so that these settings are passed to the script manager as one value.
+ */
+@AutoValue
+public abstract class ScriptExecutionOptions {
+
+  /** How the rows of the script are fetched. */
+  public abstract FetchProfile fetchProfile();
+
+  /** The pipeline through which the rows are written. */
+  public abstract AvroWritePipeline writePipeline();
+
+  /** The codec and sync interval of the Avro files of the script. */
+  public abstract AvroFileOptions fileOptions();
+
+  /**
+   * The metrics of the script or time slice, to which the phases of its rows and a part for each
+   * chunk are added. They are not finished by the script manager. Untracked by default.
+   */
+  public abstract ExtractionMetrics metrics();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_ScriptExecutionOptions.Builder()
+        .setFetchProfile(FetchProfile.builder().build())
+        .setWritePipeline(AvroWritePipeline.sequential())
+        .setFileOptions(AvroFileOptions.builder().build())
+        .setMetrics(ExtractionMetrics.untracked());
+  }
+
+  /** Builder for the ScriptExecutionOptions. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setFetchProfile(FetchProfile fetchProfile);
+
+    public abstract Builder setWritePipeline(AvroWritePipeline writePipeline);
+
+    public abstract Builder setFileOptions(AvroFileOptions fileOptions);
+
+    public abstract Builder setMetrics(ExtractionMetrics metrics);
+
+    public abstract ScriptExecutionOptions build();
+  }
+}
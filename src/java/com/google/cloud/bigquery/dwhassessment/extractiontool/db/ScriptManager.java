@@ -18,9 +18,11 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Instant;
 
 /** Interface to manage SQL scripts. */
 public interface ScriptManager {
@@ -36,8 +38,12 @@ public interface ScriptManager {
    *     a schema definition file).
    * @param dataEntityManager The data entity manager to use to write the output.
    * @param chunkRows The maximum number of rows (records) in one output file.
+   * @param chunkBytes The size in bytes at which an output file is closed and the next one is
+   *     started, or 0 to limit the files by rows only.
    * @param startingChunkNumber The starting chunk number for this run (as continued from previous
    *     run, if specified).
+   * @param options How to fetch and write the rows of the script, and the metrics to which they
+   *     are added.
    */
   void executeScript(
       Connection connection,
@@ -46,7 +52,9 @@ public interface ScriptManager {
       String scriptName,
       DataEntityManager dataEntityManager,
       Integer chunkRows,
-      Integer startingChunkNumber)
+      Long chunkBytes,
+      Integer startingChunkNumber,
+      ScriptExecutionOptions options)
       throws SQLException, IOException;
 
   default void executeScript(
@@ -62,9 +70,42 @@ public interface ScriptManager {
         scriptName,
         dataEntityManager,
         0,
-        0);
+        0L,
+        0,
+        ScriptExecutionOptions.builder().build());
   }
 
+  /** Whether the output of a script can be written in chunks sorted by a timestamp column. */
+  boolean supportsChunking(String scriptName);
+
+  /**
+   * Counts the rows of a script, with the same filters as the script itself, e.g., to estimate the
+   * progress of its extraction.
+   *
+   * @param connection The JDBC connection to the database.
+   * @param sqlTemplateRenderer A template renderer to apply on the SQL script before execution.
+   * @param scriptName The name of the script.
+   * @return The number of rows that the script returns.
+   */
+  long countRows(Connection connection, SqlTemplateRenderer sqlTemplateRenderer, String scriptName)
+      throws SQLException, IOException;
+
+  /**
+   * Counts the rows of a script that supports chunking per hour of its sorting timestamp, with the
+   * same filters as the script itself. Only the timestamps are read, by the timestamp script of the
+   * script, so that the count does not cost as much as the extraction. Rows without a timestamp
+   * are not counted.
+   *
+   * @param connection The JDBC connection to the database.
+   * @param sqlTemplateRenderer A template renderer to apply on the SQL script before execution.
+   * @param scriptName The name of the script.
+   * @return The number of rows per hour, keyed by the start of the hour in UTC. Hours without rows
+   *     are absent.
+   */
+  ImmutableSortedMap<Instant, Long> countRowsByHour(
+      Connection connection, SqlTemplateRenderer sqlTemplateRenderer, String scriptName)
+      throws SQLException, IOException;
+
   /** Gets a list of names of all available scripts. */
   ImmutableSet<String> getAllScriptNames();
 
@@ -16,29 +16,41 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getUnadjustedTimestamp;
-import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.parseRowToAvro;
-import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.KeysetVariables;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables.TimeRange;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.ManifestEntry;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.RunManifest;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.zip.CRC32C;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericRecord;
 
 /**
  * Implementation of script manager. Manages mapping from script name to SQL script. Executes script
@@ -49,18 +61,58 @@ public class ScriptManagerImpl implements ScriptManager {
   private static final Logger LOGGER = Logger.getLogger(ScriptManagerImpl.class.getName());
   private static final String AVRO_SUFFIX = ".avro";
   private static final String TEMP_NOTATION = "_temp";
+  // The row limit of the first page of a script that is paged by bytes only.
+  private static final int FIRST_PAGE_ROWS_BY_BYTES = 10000;
+  // Counts the rows of a rendered script, given as the argument.
+  private static final String COUNT_QUERY =
+      "SELECT COUNT(*) AS \"RowCount\"\nFROM (\n%s\n) AS \"S\"";
+  // Counts the rows of a rendered timestamp script, given as the second argument, per hour of the
+  // timestamp column given as the first argument. The timestamps of the scripts are in UTC.
+  private static final String HOURLY_COUNT_QUERY =
+      "SELECT \"HourYear\", \"HourMonth\", \"HourDay\", \"Hour\", COUNT(*) AS \"RowCount\"\n"
+          + "FROM (\n"
+          + "SELECT\n"
+          + "  EXTRACT(YEAR FROM \"S\".\"%1$s\") AS \"HourYear\",\n"
+          + "  EXTRACT(MONTH FROM \"S\".\"%1$s\") AS \"HourMonth\",\n"
+          + "  EXTRACT(DAY FROM \"S\".\"%1$s\") AS \"HourDay\",\n"
+          + "  EXTRACT(HOUR FROM \"S\".\"%1$s\") AS \"Hour\"\n"
+          + "FROM (\n%2$s\n) AS \"S\"\n"
+          + "WHERE \"S\".\"%1$s\" IS NOT NULL\n"
+          + ") AS \"H\"\n"
+          + "GROUP BY \"HourYear\", \"HourMonth\", \"HourDay\", \"Hour\"";
 
   private final ImmutableMap<String, Supplier<String>> scriptsMap;
   private final ImmutableMap<String, ImmutableList<String>> sortingColumnsMap;
+  private final ImmutableMap<String, ImmutableList<String>> keysetColumnsMap;
+  private final ImmutableMap<String, Supplier<String>> timestampScriptsMap;
   private final ScriptRunner scriptRunner;
 
   public ScriptManagerImpl(
       ScriptRunner scriptRunner,
       ImmutableMap<String, Supplier<String>> scriptsMap,
       ImmutableMap<String, ImmutableList<String>> sortingColumnsMap) {
+    this(scriptRunner, scriptsMap, sortingColumnsMap, ImmutableMap.of());
+  }
+
+  public ScriptManagerImpl(
+      ScriptRunner scriptRunner,
+      ImmutableMap<String, Supplier<String>> scriptsMap,
+      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap,
+      ImmutableMap<String, ImmutableList<String>> keysetColumnsMap) {
+    this(scriptRunner, scriptsMap, sortingColumnsMap, keysetColumnsMap, ImmutableMap.of());
+  }
+
+  public ScriptManagerImpl(
+      ScriptRunner scriptRunner,
+      ImmutableMap<String, Supplier<String>> scriptsMap,
+      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap,
+      ImmutableMap<String, ImmutableList<String>> keysetColumnsMap,
+      ImmutableMap<String, Supplier<String>> timestampScriptsMap) {
     this.scriptRunner = scriptRunner;
     this.scriptsMap = scriptsMap;
     this.sortingColumnsMap = sortingColumnsMap;
+    this.keysetColumnsMap = keysetColumnsMap;
+    this.timestampScriptsMap = timestampScriptsMap;
   }
 
   @Override
@@ -71,12 +123,42 @@ public class ScriptManagerImpl implements ScriptManager {
       String scriptName,
       DataEntityManager dataEntityManager,
       Integer chunkRows,
-      Integer startingChunkNumber)
+      Long chunkBytes,
+      Integer startingChunkNumber,
+      ScriptExecutionOptions options)
       throws SQLException, IOException {
+    if ((chunkRows > 0 || chunkBytes > 0)
+        && dataEntityManager.isResumable()
+        && keysetColumnsMap.containsKey(scriptName)) {
+      executeScriptInPages(
+          connection,
+          dryRun,
+          sqlTemplateRenderer,
+          scriptName,
+          dataEntityManager,
+          chunkRows,
+          chunkBytes,
+          startingChunkNumber,
+          options);
+      return;
+    }
     boolean chunkMode =
-        chunkRows > 0
+        (chunkRows > 0 || chunkBytes > 0)
             && dataEntityManager.isResumable()
-            && sortingColumnsMap.containsKey(scriptName);
+            && supportsChunking(scriptName);
+    if (chunkMode && chunkRows > 0 && options.fetchProfile().queryPerChunk()) {
+      executeScriptWithQueryPerChunk(
+          connection,
+          dryRun,
+          sqlTemplateRenderer,
+          scriptName,
+          dataEntityManager,
+          chunkRows,
+          chunkBytes,
+          startingChunkNumber,
+          options);
+      return;
+    }
     ImmutableList<String> sortingColumns =
         chunkMode ? sortingColumnsMap.get(scriptName) : ImmutableList.of();
     String script = getScript(sqlTemplateRenderer, scriptName, sortingColumns);
@@ -85,105 +167,482 @@ public class ScriptManagerImpl implements ScriptManager {
       return;
     }
     /* TODO(xshang): figure out how to set schema name and namespace in the schema extraction. */
-    Schema schema =
-        scriptRunner.extractSchema(connection, script, scriptName, /* namespace= */ "namespace");
-    if (chunkMode) {
-      ResultSet resultSet = connection.createStatement().executeQuery(script);
-      // Move to the first row.
-      if (!resultSet.next()) {
-        return;
-      }
-      Integer chunkNumber = startingChunkNumber;
-      String labelColumn = sortingColumns.get(0);
-      while (!resultSet.isAfterLast()) {
-        executeScriptChunk(
-            resultSet, schema, dataEntityManager, chunkRows, labelColumn, scriptName, chunkNumber);
-        chunkNumber++;
-      }
+    scriptRunner.executeScript(
+        connection,
+        script,
+        scriptName,
+        /* namespace= */ "namespace",
+        options.fetchProfile().fetchSize(),
+        (resultSet, schema) -> {
+          if (chunkMode) {
+            executeScriptChunks(
+                resultSet,
+                schema,
+                dataEntityManager,
+                chunkRows,
+                chunkBytes,
+                sortingColumns.get(0),
+                scriptName,
+                new ChunkProgress(startingChunkNumber),
+                options.writePipeline(),
+                options.fileOptions(),
+                options.metrics());
+          } else {
+            executeScriptOneSwoop(
+                resultSet,
+                scriptName,
+                schema,
+                dataEntityManager,
+                options.writePipeline(),
+                options.fileOptions(),
+                options.metrics());
+          }
+        });
+  }
+
+  private void executeScriptChunks(
+      ResultSet resultSet,
+      Schema schema,
+      DataEntityManager dataEntityManager,
+      Integer chunkRows,
+      Long chunkBytes,
+      String labelColumn,
+      String scriptName,
+      ChunkProgress progress,
+      AvroWritePipeline writePipeline,
+      AvroFileOptions fileOptions,
+      ExtractionMetrics metrics)
+      throws SQLException, IOException {
+    // Move to the first row.
+    if (!next(resultSet, metrics)) {
       return;
     }
-    executeScriptOneSwoop(connection, scriptName, script, schema, dataEntityManager);
+    ResultSetDatumWriter datumWriter = ResultSetDatumWriter.create(schema, resultSet.getMetaData());
+    int labelColumnIndex = resultSet.findColumn(labelColumn);
+    while (!resultSet.isAfterLast()) {
+      executeScriptChunk(
+          resultSet,
+          datumWriter,
+          dataEntityManager,
+          chunkRows,
+          chunkBytes,
+          labelColumnIndex,
+          scriptName,
+          progress,
+          writePipeline,
+          fileOptions,
+          metrics);
+    }
   }
 
   private void executeScriptChunk(
       ResultSet resultSet,
-      Schema schema,
+      ResultSetDatumWriter datumWriter,
       DataEntityManager dataEntityManager,
       Integer chunkRows,
-      String labelColumn,
+      Long chunkBytes,
+      int labelColumnIndex,
       String scriptName,
-      Integer chunkNumber)
+      ChunkProgress progress,
+      AvroWritePipeline writePipeline,
+      AvroFileOptions fileOptions,
+      ExtractionMetrics metrics)
       throws SQLException, IOException {
+    int chunkNumber = progress.chunkNumber;
+    ExtractionMetrics chunkMetrics = metrics.startChunk(chunkNumber);
+    // The current row was fetched before the chunk started.
+    chunkMetrics.recordFirstRow();
     Timestamp previousTimestamp = new Timestamp(0);
-    Timestamp currentTimestamp = getUnadjustedTimestamp(resultSet, labelColumn);
+    Timestamp currentTimestamp = getUnadjustedTimestamp(resultSet, labelColumnIndex);
     String firstRowStamp = getUtcTimeStringFromTimestamp(currentTimestamp);
     String tempFileName =
         String.format(
             "%s-%s_%d%s%s", scriptName, firstRowStamp, chunkNumber, TEMP_NOTATION, AVRO_SUFFIX);
-    try (ResultSetRecorder<GenericRecord> dumper =
-        AvroResultSetRecorder.create(
-            schema, dataEntityManager.getEntityOutputStream(tempFileName))) {
-      int rowCount = 0;
-      while (rowCount < chunkRows || currentTimestamp.equals(previousTimestamp)) {
+    ChecksummingOutputStream outputStream =
+        new ChecksummingOutputStream(
+            dataEntityManager.getStagedEntityOutputStream(
+                tempFileName, fileOptions.isCompressed()));
+    long rowCount = 0;
+    // Closing the recorder waits until the chunk is written, so it can be renamed after.
+    try (ResultSetRecorder<ResultSet> dumper =
+        writePipeline.createRecorder(datumWriter, outputStream, fileOptions, chunkMetrics)) {
+      // Rows with the same timestamp stay in the same chunk, even if it is full.
+      while (!isChunkFull(rowCount, getChunkByteCount(outputStream, dumper), chunkRows, chunkBytes)
+          || currentTimestamp.equals(previousTimestamp)) {
         // Process first, then advance the row.
-        dumper.add(parseRowToAvro(resultSet, schema));
+        dumper.add(resultSet);
         rowCount++;
         previousTimestamp = currentTimestamp;
-        if (!resultSet.next()) {
+        if (!next(resultSet, chunkMetrics)) {
           break;
         }
-        currentTimestamp = getUnadjustedTimestamp(resultSet, labelColumn);
+        currentTimestamp = getUnadjustedTimestamp(resultSet, labelColumnIndex);
       }
-    } catch (IOException | SQLException e) {
+    } catch (IOException | SQLException | RuntimeException e) {
       throw e;
     } catch (Exception e) {
       // Cannot happen.
       throw new IllegalStateException("Got unexpected exception.", e);
     }
     String lastRowStamp = getUtcTimeStringFromTimestamp(previousTimestamp);
-    Files.move(
-        dataEntityManager.getAbsolutePath(tempFileName),
-        dataEntityManager.getAbsolutePath(
-            String.format(
-                "%s-%s-%s_%d%s",
-                scriptName, firstRowStamp, lastRowStamp, chunkNumber, AVRO_SUFFIX)),
-        ATOMIC_MOVE);
+    String fileName =
+        String.format(
+            "%s-%s-%s_%d%s", scriptName, firstRowStamp, lastRowStamp, chunkNumber, AVRO_SUFFIX);
+    dataEntityManager.moveEntity(tempFileName, fileName);
+    dataEntityManager.addManifestEntry(
+        outputStream
+            .toManifestEntry(fileName, scriptName, rowCount, fileOptions)
+            .setChunkNumber(chunkNumber)
+            .setFirstSortKey(firstRowStamp)
+            .setLastSortKey(lastRowStamp)
+            .setChunkRows(chunkRows)
+            .setChunkBytes(chunkBytes)
+            .build());
+    chunkMetrics.addOutput(rowCount, outputStream.getCount());
+    chunkMetrics.finish();
+    progress.chunkNumber++;
+    progress.rowCount += rowCount;
+    progress.lastTimestamp = previousTimestamp;
   }
 
-  private void executeScriptOneSwoop(
+  /**
+   * Executes a chunked script with one bounded query per chunk instead of one cursor over all
+   * rows, so that the database spools at most a chunk at a time and returns the first rows early.
+   * Each query returns the first chunkRows rows by timestamp, with ties, that come after the last
+   * timestamp of the previous query, and ends the script once it returns fewer rows.
+   */
+  private void executeScriptWithQueryPerChunk(
       Connection connection,
+      boolean dryRun,
+      SqlTemplateRenderer sqlTemplateRenderer,
+      String scriptName,
+      DataEntityManager dataEntityManager,
+      Integer chunkRows,
+      Long chunkBytes,
+      Integer startingChunkNumber,
+      ScriptExecutionOptions options)
+      throws SQLException, IOException {
+    SqlScriptVariables.Builder variablesBuilder =
+        sqlTemplateRenderer.getSqlScriptVariablesBuilder();
+    QueryLogsVariables queryLogsVariables =
+        variablesBuilder
+            .getQueryLogsVariables()
+            .orElse(QueryLogsVariables.builder().build())
+            .toBuilder()
+            .setChunkRows(chunkRows)
+            .build();
+    TimeRange timeRange = queryLogsVariables.timeRange().orElse(TimeRange.builder().build());
+    ImmutableList<String> sortingColumns = sortingColumnsMap.get(scriptName);
+    ChunkProgress progress = new ChunkProgress(startingChunkNumber);
+    while (true) {
+      variablesBuilder.setQueryLogsVariables(queryLogsVariables);
+      String script = getScript(sqlTemplateRenderer, scriptName, sortingColumns);
+      if (dryRun) {
+        LOGGER.info(
+            String.format("Should execute script '%s' per chunk:\n%s", scriptName, script));
+        return;
+      }
+      long previousRowCount = progress.rowCount;
+      scriptRunner.executeScript(
+          connection,
+          script,
+          scriptName,
+          /* namespace= */ "namespace",
+          options.fetchProfile().fetchSize(),
+          (resultSet, schema) ->
+              executeScriptChunks(
+                  resultSet,
+                  schema,
+                  dataEntityManager,
+                  chunkRows,
+                  chunkBytes,
+                  sortingColumns.get(0),
+                  scriptName,
+                  progress,
+                  options.writePipeline(),
+                  options.fileOptions(),
+                  options.metrics()));
+      if (progress.rowCount - previousRowCount < chunkRows) {
+        return;
+      }
+      String nextStartTimestamp =
+          TimeRange.formatInstant(progress.lastTimestamp.toInstant().plusNanos(1000));
+      queryLogsVariables =
+          queryLogsVariables.toBuilder()
+              .setTimeRange(timeRange.toBuilder().setStartTimestamp(nextStartTimestamp).build())
+              .build();
+    }
+  }
+
+  /**
+   * Executes a script in pages sorted by its unique key, with one query and one chunk per page. A
+   * page has at most chunkRows rows and is cut short once it reaches chunkBytes. Each page starts
+   * after the key of the last row of the previous page, and the first page after the key that is
+   * set on the template variables, e.g., the last saved key of a previous run.
+   *
+   * <p>Without chunkRows, the query of a page is still limited to a number of rows, so that it does
+   * not return the whole rest of the script. The limit is estimated from the previous page, see
+   * {@link #getPageRowsByBytes}.
+   */
+  private void executeScriptInPages(
+      Connection connection,
+      boolean dryRun,
+      SqlTemplateRenderer sqlTemplateRenderer,
       String scriptName,
-      String script,
+      DataEntityManager dataEntityManager,
+      Integer chunkRows,
+      Long chunkBytes,
+      Integer startingChunkNumber,
+      ScriptExecutionOptions options)
+      throws SQLException, IOException {
+    SqlScriptVariables.Builder variablesBuilder =
+        sqlTemplateRenderer.getSqlScriptVariablesBuilder();
+    ImmutableList<String> keyColumns = keysetColumnsMap.get(scriptName);
+    int pageRows = chunkRows > 0 ? chunkRows : FIRST_PAGE_ROWS_BY_BYTES;
+    KeysetVariables keysetVariables =
+        variablesBuilder.getKeysetVariables().toBuilder()
+            .setColumns(keyColumns)
+            .setLimit(pageRows)
+            .build();
+    Integer chunkNumber = startingChunkNumber;
+    while (true) {
+      variablesBuilder.setKeysetVariables(keysetVariables);
+      String script = getScript(sqlTemplateRenderer, scriptName, ImmutableList.of());
+      if (dryRun) {
+        LOGGER.info(String.format("Should execute script '%s' in pages:\n%s", scriptName, script));
+        return;
+      }
+      Integer pageChunkNumber = chunkNumber;
+      int pageRowLimit = pageRows;
+      // The page starts with its query, so that its time to the first row includes the query.
+      ExtractionMetrics pageMetrics = options.metrics().startChunk(pageChunkNumber);
+      AtomicReference<Optional<List<Object>>> nextPageAfterKey = new AtomicReference<>();
+      scriptRunner.executeScript(
+          connection,
+          script,
+          scriptName,
+          /* namespace= */ "namespace",
+          options.fetchProfile().fetchSize(),
+          (resultSet, schema) ->
+              nextPageAfterKey.set(
+                  executeScriptPage(
+                      resultSet,
+                      schema,
+                      dataEntityManager,
+                      chunkRows,
+                      chunkBytes,
+                      pageRowLimit,
+                      keyColumns,
+                      scriptName,
+                      pageChunkNumber,
+                      options.writePipeline(),
+                      options.fileOptions(),
+                      pageMetrics)));
+      if (!nextPageAfterKey.get().isPresent()) {
+        return;
+      }
+      if (chunkRows <= 0) {
+        pageRows = getPageRowsByBytes(pageMetrics.rows(), pageMetrics.bytes(), chunkBytes);
+      }
+      keysetVariables =
+          keysetVariables.toBuilder()
+              .setAfterKey(nextPageAfterKey.get().get())
+              .setLimit(pageRows)
+              .build();
+      chunkNumber++;
+    }
+  }
+
+  /**
+   * Estimates the row limit of a page of a script that is paged by bytes only, as twice the rows
+   * that fit into chunkBytes at the bytes per row of the previous page. A page is cut short at
+   * chunkBytes anyway, so the limit only bounds the rows that the query returns beyond that. A page
+   * that ended at its limit before reaching chunkBytes raises the limit of the next page.
+   */
+  @VisibleForTesting
+  static int getPageRowsByBytes(long previousRows, long previousBytes, long chunkBytes) {
+    if (previousBytes <= 0) {
+      return FIRST_PAGE_ROWS_BY_BYTES;
+    }
+    double rowsPerChunk = (double) previousRows * chunkBytes / previousBytes;
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(2 * rowsPerChunk)));
+  }
+
+  /**
+   * Writes a page of a script as one chunk. The metrics of an empty page are discarded.
+   *
+   * @return The key of the last row of the page if more rows may follow, or empty if the page was
+   *     the last one.
+   */
+  private Optional<List<Object>> executeScriptPage(
+      ResultSet resultSet,
       Schema schema,
-      DataEntityManager dataEntityManager)
+      DataEntityManager dataEntityManager,
+      Integer chunkRows,
+      Long chunkBytes,
+      int pageRowLimit,
+      ImmutableList<String> keyColumns,
+      String scriptName,
+      Integer chunkNumber,
+      AvroWritePipeline writePipeline,
+      AvroFileOptions fileOptions,
+      ExtractionMetrics metrics)
       throws SQLException, IOException {
-    String fileSuffix = dataEntityManager.isResumable() ? TEMP_NOTATION + AVRO_SUFFIX : AVRO_SUFFIX;
-    try (ResultSetRecorder<GenericRecord> dumper =
-        AvroResultSetRecorder.create(
-            schema, dataEntityManager.getEntityOutputStream(scriptName + fileSuffix))) {
-      scriptRunner.executeScriptToAvro(connection, script, schema, dumper::add);
-    } catch (IOException | SQLException e) {
+    if (!next(resultSet, metrics)) {
+      metrics.discard();
+      return Optional.empty();
+    }
+    int[] keyColumnIndexes = new int[keyColumns.size()];
+    for (int i = 0; i < keyColumns.size(); i++) {
+      String keyColumn = keyColumns.get(i);
+      keyColumnIndexes[i] = resultSet.findColumn(keyColumn.substring(keyColumn.indexOf('.') + 1));
+    }
+    List<Object> firstKey = getKey(resultSet, keyColumnIndexes);
+    List<Object> lastKey;
+    String tempFileName =
+        String.format("%s_%d%s%s", scriptName, chunkNumber, TEMP_NOTATION, AVRO_SUFFIX);
+    ChecksummingOutputStream outputStream =
+        new ChecksummingOutputStream(
+            dataEntityManager.getStagedEntityOutputStream(
+                tempFileName, fileOptions.isCompressed()));
+    long rowCount = 0;
+    boolean hasNext;
+    try (ResultSetRecorder<ResultSet> dumper =
+        writePipeline.createRecorder(
+            ResultSetDatumWriter.create(schema, resultSet.getMetaData()),
+            outputStream,
+            fileOptions,
+            metrics)) {
+      do {
+        lastKey = getKey(resultSet, keyColumnIndexes);
+        dumper.add(resultSet);
+        rowCount++;
+        hasNext = next(resultSet, metrics);
+      } while (hasNext
+          && !isChunkFull(
+              rowCount, getChunkByteCount(outputStream, dumper), chunkRows, chunkBytes));
+    } catch (IOException | SQLException | RuntimeException e) {
       throw e;
     } catch (Exception e) {
       // Cannot happen.
       throw new IllegalStateException("Got unexpected exception.", e);
     }
-    if (dataEntityManager.isResumable()) {
-      // On the vast majority of systems, ATOMIC_MOVE overwrites existing files; however, the
-      // official documentation implies in some systems it might fail with IOException, so it is
-      // safer to check against it.
-      try {
-        Files.move(
-            dataEntityManager.getAbsolutePath(scriptName + fileSuffix),
-            dataEntityManager.getAbsolutePath(scriptName + AVRO_SUFFIX),
-            ATOMIC_MOVE);
-      } catch (IOException e) {
-        Files.move(
-            dataEntityManager.getAbsolutePath(scriptName + fileSuffix),
-            dataEntityManager.getAbsolutePath(scriptName + AVRO_SUFFIX),
-            REPLACE_EXISTING);
+    String fileName = String.format("%s_%d%s", scriptName, chunkNumber, AVRO_SUFFIX);
+    dataEntityManager.moveEntity(tempFileName, fileName);
+    dataEntityManager.addManifestEntry(
+        outputStream
+            .toManifestEntry(fileName, scriptName, rowCount, fileOptions)
+            .setChunkNumber(chunkNumber)
+            .setFirstSortKey(RunManifest.formatKey(firstKey))
+            .setLastSortKey(RunManifest.formatKey(lastKey))
+            .setChunkRows(chunkRows)
+            .setChunkBytes(chunkBytes)
+            .build());
+    metrics.addOutput(rowCount, outputStream.getCount());
+    metrics.finish();
+    // A page that was cut short or that reached its limit may be followed by more rows.
+    return hasNext || rowCount == pageRowLimit ? Optional.of(lastKey) : Optional.empty();
+  }
+
+  /**
+   * Gets the key of the current row, with integers as longs. Keys can only consist of strings,
+   * integers and decimals, which may be null.
+   */
+  private static List<Object> getKey(ResultSet resultSet, int[] columnIndexes)
+      throws SQLException {
+    List<Object> key = new ArrayList<>(columnIndexes.length);
+    for (int columnIndex : columnIndexes) {
+      Object value = resultSet.getObject(columnIndex);
+      if (value instanceof Byte || value instanceof Short || value instanceof Integer) {
+        value = ((Number) value).longValue();
+      }
+      if (value != null
+          && !(value instanceof String || value instanceof Long || value instanceof BigDecimal)) {
+        throw new IllegalStateException(
+            String.format(
+                "Unsupported type %s of key column %s.",
+                value.getClass().getName(), resultSet.getMetaData().getColumnName(columnIndex)));
+      }
+      key.add(value);
+    }
+    return Collections.unmodifiableList(key);
+  }
+
+  private void executeScriptOneSwoop(
+      ResultSet resultSet,
+      String scriptName,
+      Schema schema,
+      DataEntityManager dataEntityManager,
+      AvroWritePipeline writePipeline,
+      AvroFileOptions fileOptions,
+      ExtractionMetrics metrics)
+      throws SQLException, IOException {
+    boolean resumable = dataEntityManager.isResumable();
+    String fileName = scriptName + (resumable ? TEMP_NOTATION : "") + AVRO_SUFFIX;
+    ChecksummingOutputStream outputStream =
+        new ChecksummingOutputStream(
+            resumable
+                ? dataEntityManager.getStagedEntityOutputStream(
+                    fileName, fileOptions.isCompressed())
+                : dataEntityManager.getEntityOutputStream(fileName, fileOptions.isCompressed()));
+    long rowCount = 0;
+    try (ResultSetRecorder<ResultSet> dumper =
+        writePipeline.createRecorder(
+            ResultSetDatumWriter.create(schema, resultSet.getMetaData()),
+            outputStream,
+            fileOptions,
+            metrics)) {
+      while (next(resultSet, metrics)) {
+        dumper.add(resultSet);
+        rowCount++;
       }
+    } catch (IOException | SQLException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      // Cannot happen.
+      throw new IllegalStateException("Got unexpected exception.", e);
+    }
+    metrics.addOutput(rowCount, outputStream.getCount());
+    if (resumable) {
+      dataEntityManager.moveEntity(fileName, scriptName + AVRO_SUFFIX);
+      dataEntityManager.addManifestEntry(
+          outputStream
+              .toManifestEntry(scriptName + AVRO_SUFFIX, scriptName, rowCount, fileOptions)
+              .build());
+    }
+  }
+
+  /** Moves to the next row, recording the time blocked in fetching it and counting the row. */
+  private static boolean next(ResultSet resultSet, ExtractionMetrics metrics) throws SQLException {
+    long start = System.nanoTime();
+    boolean hasNext = resultSet.next();
+    metrics.addFetchNanos(System.nanoTime() - start);
+    if (hasNext) {
+      metrics.recordFirstRow();
+      metrics.addFetchedRow();
     }
+    return hasNext;
+  }
+
+  /**
+   * Whether a chunk has reached any of its limits that are set, i.e., larger than 0. The bytes are
+   * those written to the file so far, including its header; rows that are still being encoded or
+   * compressed are not counted yet. A chunk without rows is never full.
+   */
+  /**
+   * Gets the size of a chunk so far, as the bytes that are written to its file and the uncompressed
+   * bytes of the rows that the recorder has not written yet.
+   */
+  private static long getChunkByteCount(
+      ChecksummingOutputStream outputStream, ResultSetRecorder<?> recorder) {
+    return outputStream.getCount() + recorder.getPendingBytes();
+  }
+
+  private static boolean isChunkFull(
+      long rowCount, long byteCount, Integer chunkRows, Long chunkBytes) {
+    return rowCount > 0
+        && ((chunkRows > 0 && rowCount >= chunkRows)
+            || (chunkBytes > 0 && byteCount >= chunkBytes));
   }
 
   @VisibleForTesting
@@ -214,6 +673,123 @@ public class ScriptManagerImpl implements ScriptManager {
     return sqlTemplateRenderer.renderTemplate(scriptName, scriptsMap.get(scriptName).get());
   }
 
+  @Override
+  public boolean supportsChunking(String scriptName) {
+    return sortingColumnsMap.containsKey(scriptName);
+  }
+
+  @Override
+  public long countRows(
+      Connection connection, SqlTemplateRenderer sqlTemplateRenderer, String scriptName)
+      throws SQLException, IOException {
+    String script = getScript(sqlTemplateRenderer, scriptName, ImmutableList.of());
+    long[] rowCount = new long[1];
+    scriptRunner.executeScript(
+        connection,
+        String.format(COUNT_QUERY, script),
+        scriptName,
+        /* namespace= */ "namespace",
+        /* fetchSize= */ 0,
+        (resultSet, schema) -> {
+          if (resultSet.next()) {
+            rowCount[0] = resultSet.getLong(1);
+          }
+        });
+    return rowCount[0];
+  }
+
+  @Override
+  public ImmutableSortedMap<Instant, Long> countRowsByHour(
+      Connection connection, SqlTemplateRenderer sqlTemplateRenderer, String scriptName)
+      throws SQLException, IOException {
+    Preconditions.checkArgument(
+        supportsChunking(scriptName) && timestampScriptsMap.containsKey(scriptName),
+        String.format("Script %s has no timestamp script.", scriptName));
+    // Only the timestamps are read from the log table, not the rows of the script itself.
+    String timestampScript =
+        sqlTemplateRenderer.renderTemplate(
+            scriptName + "_timestamps", timestampScriptsMap.get(scriptName).get());
+    String query =
+        String.format(
+            HOURLY_COUNT_QUERY, sortingColumnsMap.get(scriptName).get(0), timestampScript);
+    ImmutableSortedMap.Builder<Instant, Long> rowCounts = ImmutableSortedMap.naturalOrder();
+    scriptRunner.executeScript(
+        connection,
+        query,
+        scriptName,
+        /* namespace= */ "namespace",
+        /* fetchSize= */ 0,
+        (resultSet, schema) -> {
+          while (resultSet.next()) {
+            Instant hour =
+                LocalDateTime.of(
+                        resultSet.getInt(1),
+                        resultSet.getInt(2),
+                        resultSet.getInt(3),
+                        resultSet.getInt(4),
+                        /* minute= */ 0)
+                    .toInstant(ZoneOffset.UTC);
+            rowCounts.put(hour, resultSet.getLong(5));
+          }
+        });
+    return rowCounts.build();
+  }
+
+  /** The progress of the chunks of a script across the queries that extract it. */
+  private static final class ChunkProgress {
+    int chunkNumber;
+    long rowCount;
+    Timestamp lastTimestamp;
+
+    ChunkProgress(int startingChunkNumber) {
+      chunkNumber = startingChunkNumber;
+    }
+  }
+
+  /**
+   * OutputStream that counts and checksums the bytes of a file for its manifest entry. The count
+   * can be read while the file is written by another thread.
+   */
+  private static final class ChecksummingOutputStream extends FilterOutputStream {
+    private final CRC32C crc = new CRC32C();
+    // Only written by the thread that writes the file.
+    private volatile long count;
+
+    ChecksummingOutputStream(OutputStream outputStream) {
+      super(outputStream);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      crc.update(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      crc.update(b, off, len);
+      count += len;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    ManifestEntry.Builder toManifestEntry(
+        String fileName, String scriptName, long rowCount, AvroFileOptions fileOptions) {
+      return ManifestEntry.builder()
+          .setFile(fileName)
+          .setScriptName(scriptName)
+          .setRows(rowCount)
+          .setBytes(count)
+          .setCrc32c(crc.getValue())
+          .setCodec(fileOptions.codec())
+          .setSyncInterval(fileOptions.syncInterval());
+    }
+  }
+
   @Override
   public ImmutableSet<String> getAllScriptNames() {
     return scriptsMap.keySet();
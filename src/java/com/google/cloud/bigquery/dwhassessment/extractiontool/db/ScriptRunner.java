@@ -15,7 +15,9 @@
  */
 package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.function.Consumer;
 import org.apache.avro.Schema;
@@ -24,6 +26,51 @@ import org.apache.avro.generic.GenericRecord;
 /** Interface to execute SQL scripts. */
 public interface ScriptRunner {
 
+  /** Handles the result set of a script together with the schema derived from its metadata. */
+  @FunctionalInterface
+  interface ResultSetHandler {
+
+    /**
+     * Handles a result set.
+     *
+     * @param resultSet The result set, positioned before the first row.
+     * @param schema The Avro schema derived from the metadata of the result set.
+     */
+    void handle(ResultSet resultSet, Schema schema) throws SQLException, IOException;
+  }
+
+  /**
+   * Executes a script exactly once and passes the result set to a handler. The schema is derived
+   * from the metadata of the same result set, so the rows and the schema come from one execution.
+   * The result set is forward-only and read-only.
+   *
+   * @param connection The JDBC connection to the database.
+   * @param sqlScript The full SQL script to execute.
+   * @param schemaName The name of the output schema.
+   * @param namespace The namespace of the output schema.
+   * @param fetchSize The number of rows to fetch per round trip, or 0 for the driver default.
+   * @param resultSetHandler The handler to consume the result set.
+   */
+  void executeScript(
+      Connection connection,
+      String sqlScript,
+      String schemaName,
+      String namespace,
+      int fetchSize,
+      ResultSetHandler resultSetHandler)
+      throws SQLException, IOException;
+
+  /**
+   * Converts all remaining rows of a result set to Avro records.
+   *
+   * @param resultSet The result set to read from.
+   * @param schema The schema corresponding to the result set.
+   * @param recordConsumer The consumer of the converted records.
+   */
+  void convertResultSetToAvro(
+      ResultSet resultSet, Schema schema, Consumer<GenericRecord> recordConsumer)
+      throws SQLException;
+
   /**
    * Executes a script against a DB connection and writes the output to a stream.
    *
@@ -42,7 +89,8 @@ public interface ScriptRunner {
 
   /**
    * Extracts the schema based on a SQL query. This method can extract the schema of a table by
-   * selecting all columns from the table, e.g. SELECT * FROM TABLE.
+   * selecting all columns from the table, e.g. SELECT * FROM TABLE. The query is only prepared,
+   * not executed, unless the driver cannot describe a prepared statement.
    *
    * @param connection The JDBC connection to the database.
    * @param sqlScript The complete SQL script to execute.
@@ -16,12 +16,15 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
-import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.parseRowToAvro;
 
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents.QueryEvent;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.function.Consumer;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
@@ -32,6 +35,27 @@ import org.apache.avro.generic.GenericRecord;
  */
 public class ScriptRunnerImpl implements ScriptRunner {
 
+  @Override
+  public void executeScript(
+      Connection connection,
+      String sqlScript,
+      String schemaName,
+      String namespace,
+      int fetchSize,
+      ResultSetHandler resultSetHandler)
+      throws SQLException, IOException {
+    // A prepared statement, because the Teradata driver only uses FastExport for those.
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            sqlScript, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      statement.setFetchSize(fetchSize);
+      try (ResultSet resultSet = executeQuery(statement, schemaName)) {
+        resultSetHandler.handle(
+            resultSet, getAvroSchema(schemaName, namespace, resultSet.getMetaData()));
+      }
+    }
+  }
+
   @Override
   public void executeScriptToAvro(
       Connection connection,
@@ -39,9 +63,19 @@ public class ScriptRunnerImpl implements ScriptRunner {
       Schema schema,
       Consumer<GenericRecord> recordConsumer)
       throws SQLException {
-    ResultSet resultSet = connection.createStatement().executeQuery(sqlScript);
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = executeQuery(statement, sqlScript, schema.getName())) {
+      convertResultSetToAvro(resultSet, schema, recordConsumer);
+    }
+  }
+
+  @Override
+  public void convertResultSetToAvro(
+      ResultSet resultSet, Schema schema, Consumer<GenericRecord> recordConsumer)
+      throws SQLException {
+    RowConverter rowConverter = RowConverter.create(schema, resultSet.getMetaData());
     while (resultSet.next()) {
-      recordConsumer.accept(parseRowToAvro(resultSet, schema));
+      recordConsumer.accept(rowConverter.convert(resultSet));
     }
   }
 
@@ -49,7 +83,43 @@ public class ScriptRunnerImpl implements ScriptRunner {
   public Schema extractSchema(
       Connection connection, String sqlScript, String schemaName, String namespace)
       throws SQLException {
-    ResultSetMetaData metaData = connection.createStatement().executeQuery(sqlScript).getMetaData();
-    return getAvroSchema(schemaName, namespace, metaData);
+    try (PreparedStatement statement = connection.prepareStatement(sqlScript)) {
+      ResultSetMetaData metaData = statement.getMetaData();
+      if (metaData != null) {
+        return getAvroSchema(schemaName, namespace, metaData);
+      }
+    }
+    // Drivers may return null if they cannot describe a statement without executing it.
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = executeQuery(statement, sqlScript, schemaName)) {
+      return getAvroSchema(schemaName, namespace, resultSet.getMetaData());
+    }
+  }
+
+  private static ResultSet executeQuery(PreparedStatement statement, String scriptName)
+      throws SQLException {
+    QueryEvent event = new QueryEvent();
+    event.begin();
+    ResultSet resultSet = statement.executeQuery();
+    commit(event, statement, scriptName);
+    return resultSet;
+  }
+
+  private static ResultSet executeQuery(Statement statement, String sqlScript, String scriptName)
+      throws SQLException {
+    QueryEvent event = new QueryEvent();
+    event.begin();
+    ResultSet resultSet = statement.executeQuery(sqlScript);
+    commit(event, statement, scriptName);
+    return resultSet;
+  }
+
+  private static void commit(QueryEvent event, Statement statement, String scriptName)
+      throws SQLException {
+    if (event.shouldCommit()) {
+      event.scriptName = scriptName;
+      event.fetchSize = statement.getFetchSize();
+      event.commit();
+    }
   }
 }
@@ -20,6 +20,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.List;
 import com.google.common.collect.ImmutableMap;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -31,7 +34,8 @@ public abstract class SqlScriptVariables {
     return new AutoValue_SqlScriptVariables.Builder()
         .setBaseDatabase("DBC")
         .setVars(ImmutableMap.of())
-        .setSortingColumns(ImmutableList.of());
+        .setSortingColumns(ImmutableList.of())
+        .setKeysetVariables(KeysetVariables.builder().build());
   }
 
   public abstract String getBaseDatabase();
@@ -42,13 +46,16 @@ public abstract class SqlScriptVariables {
 
   public abstract Map<String, String> getVars();
 
+  public abstract KeysetVariables getKeysetVariables();
+
   @AutoValue
   public abstract static class QueryLogsVariables {
 
     public static Builder builder() {
       return new AutoValue_SqlScriptVariables_QueryLogsVariables.Builder()
           .setNeedQueryText(true)
-          .setUsers(ImmutableSet.of());
+          .setUsers(ImmutableSet.of())
+          .setChunkRows(0);
     }
 
     public abstract boolean needQueryText();
@@ -72,10 +79,29 @@ public abstract class SqlScriptVariables {
       return users();
     }
 
+    /**
+     * The number of rows after which a query of one chunk ends, continuing up to the last row with
+     * the same timestamp, or 0 if the script is extracted with a single query.
+     */
+    public abstract int chunkRows();
+    // Value accessor for handlebars.
+    public int getChunkRows() {
+      return chunkRows();
+    }
+
+    public abstract Builder toBuilder();
+
     @AutoValue
     public abstract static class TimeRange {
       private static final String minTime = "0001-01-01 00:00:00+00:00";
       private static final String maxTime = "9999-12-31 23:59:59.99+00:00";
+      private static final DateTimeFormatter TERADATA_TIME_FORMATTER =
+          DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSSSSS]xxx").withZone(ZoneOffset.UTC);
+
+      /** Formats an instant as a timestamp of a time range, in UTC with microseconds. */
+      public static String formatInstant(Instant instant) {
+        return TERADATA_TIME_FORMATTER.format(instant);
+      }
 
       public static Builder builder() {
         return new AutoValue_SqlScriptVariables_QueryLogsVariables_TimeRange.Builder()
@@ -87,6 +113,8 @@ public abstract class SqlScriptVariables {
 
       public abstract String getEndTimestamp();
 
+      public abstract Builder toBuilder();
+
       @AutoValue.Builder
       public abstract static class Builder {
         public abstract Builder setStartTimestamp(String timestamp);
@@ -106,10 +134,53 @@ public abstract class SqlScriptVariables {
 
       public abstract Builder setUsers(Set<String> value);
 
+      public abstract Builder setChunkRows(int value);
+
       public abstract QueryLogsVariables build();
     }
   }
 
+  /**
+   * The page of a script that is extracted in pages of rows sorted by a unique composite key. Each
+   * page starts after the key of the last row of the previous page.
+   */
+  @AutoValue
+  public abstract static class KeysetVariables {
+
+    public static Builder builder() {
+      return new AutoValue_SqlScriptVariables_KeysetVariables.Builder()
+          .setColumns(ImmutableList.of())
+          .setAfterKey(ImmutableList.of())
+          .setLimit(0);
+    }
+
+    /** The key columns, qualified by their table if needed; empty if the script is not paged. */
+    public abstract List<String> getColumns();
+
+    /**
+     * The key of the last row of the previous page, which may contain nulls; empty for the first
+     * page.
+     */
+    public abstract List<Object> getAfterKey();
+
+    /** The maximum number of rows of the page, or 0 for no limit. */
+    public abstract int getLimit();
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+
+      public abstract Builder setColumns(List<String> value);
+
+      public abstract Builder setAfterKey(List<Object> value);
+
+      public abstract Builder setLimit(int value);
+
+      public abstract KeysetVariables build();
+    }
+  }
+
   @AutoValue.Builder
   public abstract static class Builder {
 
@@ -119,8 +190,14 @@ public abstract class SqlScriptVariables {
 
     public abstract Builder setQueryLogsVariables(QueryLogsVariables value);
 
+    public abstract Optional<QueryLogsVariables> getQueryLogsVariables();
+
     public abstract Builder setVars(Map<String, String> variables);
 
+    public abstract Builder setKeysetVariables(KeysetVariables value);
+
+    public abstract KeysetVariables getKeysetVariables();
+
     public abstract SqlScriptVariables build();
   }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Decodes TIMESTAMP columns to epoch milliseconds with the same un-adjustment as {@link
+ * AvroHelper#getUnadjustedTimestamp(ResultSet, int)}, but without allocating anything besides the
+ * Timestamp returned by the driver.
+ *
+ * <p>The un-adjustment reads the local date-time of the driver's Timestamp in the default time
+ * zone and interprets it in the time zone that the driver reports via the calendar. Both steps are
+ * done arithmetically whenever the offsets are unambiguous, i.e., the time zone of the calendar has
+ * a fixed offset and the timestamp is after the Gregorian cutover. All other values take the
+ * original path.
+ *
+ * <p>Instances are not thread-safe; use one decoder per converter.
+ */
+public final class TimestampDecoder {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  // Before the Gregorian cutover, Timestamp.toLocalDateTime() uses the Julian calendar. A day of
+  // margin covers the offset of any time zone.
+  private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L + 86400000L;
+
+  private final Calendar calendar = Calendar.getInstance(UTC);
+  // The default time zone is resolved once, because TimeZone.getDefault() returns a copy.
+  private final TimeZone defaultTimeZone = TimeZone.getDefault();
+  private final Map<String, Boolean> fixedOffsetZoneIds = new HashMap<>();
+
+  /**
+   * Gets the un-adjusted epoch milliseconds of a TIMESTAMP column.
+   *
+   * @param row One row as ResultSet.
+   * @param columnIndex Index of the target column.
+   * @return The epoch milliseconds, or 0 if the value is SQL NULL. Use {@link ResultSet#wasNull()}
+   *     to tell them apart.
+   * @throws SQLException If JDBC fails to retrieve timestamp.
+   */
+  public long getEpochMillis(ResultSet row, int columnIndex) throws SQLException {
+    // The driver replaces the time zone of the calendar for TIMESTAMP WITH TIME ZONE columns, so it
+    // is reset before every read.
+    calendar.setTimeZone(UTC);
+    Timestamp timestamp = row.getTimestamp(columnIndex, calendar);
+    if (timestamp == null) {
+      return 0;
+    }
+    long millis = timestamp.getTime();
+    TimeZone timeZone = calendar.getTimeZone();
+    if (millis < GREGORIAN_CUTOVER_MILLIS || !isFixedOffset(timeZone)) {
+      return AvroHelper.unadjustTimestamp(timestamp, calendar).getTime();
+    }
+    return millis + defaultTimeZone.getOffset(millis) - timeZone.getRawOffset();
+  }
+
+  private boolean isFixedOffset(TimeZone timeZone) {
+    // Drivers may create a new TimeZone for every value, so the result is cached by id.
+    Boolean fixedOffset = fixedOffsetZoneIds.get(timeZone.getID());
+    if (fixedOffset == null) {
+      fixedOffset = timeZone.toZoneId().getRules().isFixedOffset();
+      fixedOffsetZoneIds.put(timeZone.getID(), fixedOffset);
+    }
+    return fixedOffset;
+  }
+}
@@ -68,6 +68,28 @@ public class InternalScriptLoader implements ScriptLoader {
         .build();
   }
 
+  @Override
+  public ImmutableMap<String, ImmutableList<String>> getKeysetColumnsMap() {
+    return new ImmutableMap.Builder<String, ImmutableList<String>>()
+        .put(
+            "columns",
+            ImmutableList.of("TablesV.DatabaseName", "TablesV.TableName", "ColumnsV.ColumnId"))
+        // The column name is null for summary and expression statistics, and a column can have
+        // several statistics, so only the id of the statistics is unique within a table.
+        .put("stats", ImmutableList.of("DatabaseName", "TableName", "StatsId"))
+        .put("tableinfo", ImmutableList.of("DatabaseName", "TableName"))
+        .put("tabletext", ImmutableList.of("DatabaseName", "TableName", "LineNo"))
+        .build();
+  }
+
+  @Override
+  public ImmutableMap<String, Supplier<String>> getTimestampScriptsMap() {
+    return getSortingColumnsMap().keySet().stream()
+        .collect(
+            ImmutableMap.toImmutableMap(
+                Functions.identity(), key -> scriptLoader(key + "_timestamps.sql")));
+  }
+
   private Supplier<String> scriptLoader(String name) {
     URL scriptUrl = ScriptLoader.class.getResource(name);
     Preconditions.checkArgument(scriptUrl != null, "Resource '%s' does not exist.", name);
@@ -24,4 +24,17 @@ public interface ScriptLoader {
   ImmutableMap<String, Supplier<String>> loadScripts();
 
   ImmutableMap<String, ImmutableList<String>> getSortingColumnsMap();
+
+  /**
+   * Gets the columns of the unique composite keys by which scripts without a sorting timestamp can
+   * be extracted in pages. A column is qualified by its table if the script joins several tables.
+   */
+  ImmutableMap<String, ImmutableList<String>> getKeysetColumnsMap();
+
+  /**
+   * Gets the scripts that select only the sorting timestamp of the scripts that have one, with the
+   * same filters and directly from the log table, e.g., to count the rows of a script per hour
+   * without reading its other columns.
+   */
+  ImmutableMap<String, Supplier<String>> getTimestampScriptsMap();
 }
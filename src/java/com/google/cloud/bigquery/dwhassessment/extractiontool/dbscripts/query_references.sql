@@ -12,7 +12,7 @@
 -- See the License for the specific language governing permissions and
 -- limitations under the License.
 
-SELECT
+SELECT{{#topWithTies queryLogsVariables}}{{/topWithTies}}
   "ProcID",
   "CollectTimeStamp" AT TIME ZONE INTERVAL '0:00' HOUR TO MINUTE AS "CollectTimeStamp",
   "QueryID",
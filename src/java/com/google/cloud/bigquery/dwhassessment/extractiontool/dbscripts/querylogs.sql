@@ -14,7 +14,7 @@
 
 -- This SQL extracts all info from the DBC.QryLogV table except for ElapsedTime,
 -- ErrorText and TDWMMSRCount.
-SELECT
+SELECT{{#topWithTies queryLogsVariables}}{{/topWithTies}}
   "AbortFlag",
   "AcctString",
   "AcctStringDate",
@@ -13,7 +13,7 @@
 -- limitations under the License.
 
 -- This SQL extracts all non-truncated SQL statements from DBC.QryLogSQLV by default
-SELECT
+SELECT{{#topWithTies queryLogsVariables}}{{/topWithTies}}
   "ProcID",
   "CollectTimeStamp" AT TIME ZONE INTERVAL '0:00' HOUR TO MINUTE AS "CollectTimeStamp",
   "{{#if vars.columnNameRowNumber}}{{vars.columnNameRowNumber}}{{else}}SqlRowNo{{/if}}" AS "SqlRowNo",
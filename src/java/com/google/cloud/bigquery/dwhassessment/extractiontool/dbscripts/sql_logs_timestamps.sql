@@ -0,0 +1,20 @@
+-- Copyright 2021 Google LLC
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     https://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- This SQL selects only the CollectTimeStamp of the rows of sql_logs.sql, with the same filters,
+-- so that the rows can be counted per hour without reading the SQL texts.
+SELECT
+  "CollectTimeStamp" AT TIME ZONE INTERVAL '0:00' HOUR TO MINUTE AS "CollectTimeStamp"
+FROM {{#getTableName "QryLogSQLV"}}{{/getTableName}} AS "SQLV"
+{{#whereClauseWithTimeRange queryLogsVariables "SQLV" "CollectTimeStamp"}}{{/whereClauseWithTimeRange}}
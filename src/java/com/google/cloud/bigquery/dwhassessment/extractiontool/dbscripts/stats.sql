@@ -12,11 +12,13 @@
 -- See the License for the specific language governing permissions and
 -- limitations under the License.
 
-SELECT
+SELECT{{#keysetTop keysetVariables}}{{/keysetTop}}
   "DatabaseName",
   "TableName",
   "ColumnName",
+  "StatsId",
   "RowCount",
   "UniqueValueCount",
   "CreateTimeStamp" AT TIME ZONE INTERVAL '0:00' HOUR TO MINUTE AS "CreateTimeStamp"
-FROM {{#getTableName "StatsV"}}{{/getTableName}}
\ No newline at end of file
+FROM {{#getTableName "StatsV"}}{{/getTableName}}
+{{#keysetClause keysetVariables "WHERE"}}{{/keysetClause}}
\ No newline at end of file
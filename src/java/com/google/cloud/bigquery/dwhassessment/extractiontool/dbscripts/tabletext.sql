@@ -12,7 +12,7 @@
 -- See the License for the specific language governing permissions and
 -- limitations under the License.
 
-SELECT
+SELECT{{#keysetTop keysetVariables}}{{/keysetTop}}
   "DatabaseName",
   "TableName",
   "TableKind",
@@ -26,4 +26,5 @@ WHERE
     'Crashdumps', 'viewpoint', 'Sys_Calendar', 'EXTUSER', 'SYSUIF', 'TDStats',
     'LockLogShredder', 'External_AP', 'SysAdmin', 'dbcmngr', 'console',
     'TD_SYSFNLIB', 'SQLJ', 'TDQCD', 'TD_SERVER_DB', 'TDMaps', 'SystemFe',
-    'TDPUSER', 'SYSUDTLIB', 'tdwm', 'SYSBAR')
\ No newline at end of file
+    'TDPUSER', 'SYSUDTLIB', 'tdwm', 'SYSBAR')
+{{#keysetClause keysetVariables "AND"}}{{/keysetClause}}
\ No newline at end of file
@@ -31,6 +31,54 @@ public interface DataEntityManager extends Closeable {
    */
   OutputStream getEntityOutputStream(String name) throws IOException;
 
+  /**
+   * Get the output stream for an entity whose content may be compressed already.
+   *
+   * @param name The name of the output entity.
+   * @param compressed Whether the content is compressed already, e.g., an AVRO file with a codec,
+   *     so that an archive stores it without compressing it again.
+   */
+  default OutputStream getEntityOutputStream(String name, boolean compressed) throws IOException {
+    return getEntityOutputStream(name);
+  }
+
+  /**
+   * Get the output stream for an entity that is staged until it is moved to its final name with
+   * {@link #moveEntity}. A staged entity does not count as saved; e.g., an archive only adds it
+   * once it is moved.
+   *
+   * @param name The temporary name of the output entity.
+   * @param compressed Whether the content is compressed already.
+   */
+  default OutputStream getStagedEntityOutputStream(String name, boolean compressed)
+      throws IOException {
+    return getEntityOutputStream(name, compressed);
+  }
+
+  /**
+   * Move a staged entity to its final name, replacing any entity of that name. The entity is saved
+   * atomically: after an interruption, it is either saved completely under its final name or not
+   * at all.
+   *
+   * @param stagedName The temporary name of the staged entity, which must be closed.
+   * @param name The final name of the entity.
+   */
+  void moveEntity(String stagedName, String name) throws IOException;
+
+  /**
+   * Discard a staged entity that has not been moved, if it exists.
+   *
+   * @param stagedName The temporary name of the staged entity.
+   */
+  void discardEntity(String stagedName) throws IOException;
+
+  /**
+   * Append an entry for a saved entity to the manifest of the output; see {@link RunManifest}.
+   *
+   * @param entry The entry, which is appended atomically.
+   */
+  void addManifestEntry(ManifestEntry entry) throws IOException;
+
   /**
    * Indicate whether the data entity allows resumable processing.
    *
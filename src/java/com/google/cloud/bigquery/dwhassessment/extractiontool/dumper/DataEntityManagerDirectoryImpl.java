@@ -1,5 +1,8 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
@@ -19,6 +22,28 @@ public class DataEntityManagerDirectoryImpl implements DataEntityManager {
     return Files.newOutputStream(basePath.resolve(name));
   }
 
+  @Override
+  public void moveEntity(String stagedName, String name) throws IOException {
+    // On the vast majority of systems, ATOMIC_MOVE overwrites existing files; however, the official
+    // documentation implies in some systems it might fail with IOException, so it is safer to check
+    // against it.
+    try {
+      Files.move(basePath.resolve(stagedName), basePath.resolve(name), ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.move(basePath.resolve(stagedName), basePath.resolve(name), REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public void discardEntity(String stagedName) throws IOException {
+    Files.deleteIfExists(basePath.resolve(stagedName));
+  }
+
+  @Override
+  public synchronized void addManifestEntry(ManifestEntry entry) throws IOException {
+    RunManifest.append(basePath.resolve(RunManifest.NAME), entry);
+  }
+
   @Override
   public boolean isResumable() {
     return true;
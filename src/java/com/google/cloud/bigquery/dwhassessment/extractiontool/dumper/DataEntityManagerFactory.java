@@ -11,10 +11,11 @@ public class DataEntityManagerFactory implements Function<Path, DataEntityManage
   @Override
   public DataEntityManager apply(Path path) {
     if (path.toString().endsWith(".zip")) {
-      Preconditions.checkArgument(
-          Files.isDirectory(path.getParent()), "%s is not a directory.", path.getParent());
+      Path parent = path.toAbsolutePath().getParent();
+      Preconditions.checkArgument(Files.isDirectory(parent), "%s is not a directory.", parent);
       try {
-        return new DataEntityManagerZipImpl(Files.newOutputStream(path));
+        // An existing archive is continued, as an existing directory would be.
+        return DataEntityManagerZipImpl.open(path);
       } catch (IOException e) {
         throw new IllegalStateException(
             String.format("Failed to initialize the DataEntityManager for path: %s", path));
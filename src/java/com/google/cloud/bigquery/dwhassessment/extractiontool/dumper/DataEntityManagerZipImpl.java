@@ -13,54 +13,231 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipException;
 
-/** Implementation of DataEntityManager that stores data entity files in a zip archive. */
+/**
+ * Implementation of DataEntityManager that stores data entity files in a zip archive.
+ *
+ * <p>Entities can be written concurrently. Each entity is compressed by the thread that writes it
+ * and spooled, to memory while it is small and to a temporary file after. When the entity is
+ * closed, it is copied into the archive, so the entities appear in the archive in the order in
+ * which they are closed. Entities that are compressed already are stored without compressing them
+ * again. The archive uses ZIP64 extensions for entities and archives of 4 GiB or more.
+ *
+ * <p>Every local header carries the sizes of its entity, so the entities can be recovered from an
+ * archive whose central directory was never written, e.g., because the extraction was interrupted.
+ * An archive that is opened again continues after its last complete entity, and an entity replaces
+ * any earlier entity of the same name, as a file in a directory would. Files whose entities cannot
+ * be recovered this way, e.g., zip archives with data descriptors written by other tools, are
+ * rejected instead of being cut off.
+ *
+ * <p>The entries of the run manifest are added to the archive as the entity {@link
+ * RunManifest#NAME} when it is closed. Until then, an archive that is opened with {@link
+ * #open(Path)} journals them in a file next to it, from which they are recovered after an
+ * interruption.
+ */
 public class DataEntityManagerZipImpl implements DataEntityManager {
 
-  private final ZipOutputStream zipOutputStream;
-  private final AtomicBoolean isEntityOutputStreamOpen;
+  private static final int SPOOL_MEMORY_BYTES = 1024 * 1024;
+  private static final int BUFFER_BYTES = 64 * 1024;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int UTF8_NAMES_FLAG = 1 << 11;
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+
+  private final CountingOutputStream archive;
+  private final long archiveStartOffset;
+  private final Path spoolDirectory;
+  private final Map<String, CentralDirectoryEntry> centralDirectory;
+  private final Map<String, EntryOutputStream> stagedEntries = new HashMap<>();
+  private final Set<EntryOutputStream> openEntries = ConcurrentHashMap.newKeySet();
+  private final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+  private Optional<Path> manifestJournal = Optional.empty();
+  private boolean closed;
 
   /**
-   * Constructs a new DataEntityManagerArchiveImpl.
+   * Constructs a new DataEntityManagerZipImpl.
    *
-   * @param outputStream outputStream where the zip archive will be written. This will not be
-   *     closed.
+   * @param outputStream outputStream where the zip archive will be written. It is closed with the
+   *     manager.
+   * @param spoolDirectory the directory in which the entities that do not fit into memory are
+   *     spooled until they are closed.
    */
-  public DataEntityManagerZipImpl(OutputStream outputStream) {
-    this(new ZipOutputStream(outputStream));
+  public DataEntityManagerZipImpl(OutputStream outputStream, Path spoolDirectory) {
+    this(outputStream, spoolDirectory, 0, new LinkedHashMap<>());
   }
 
-  public DataEntityManagerZipImpl(ZipOutputStream zipOutputStream) {
-    this.zipOutputStream = zipOutputStream;
-    isEntityOutputStreamOpen = new AtomicBoolean(false);
+  private DataEntityManagerZipImpl(
+      OutputStream outputStream,
+      Path spoolDirectory,
+      long archiveStartOffset,
+      Map<String, CentralDirectoryEntry> centralDirectory) {
+    archive = new CountingOutputStream(new BufferedOutputStream(outputStream, BUFFER_BYTES));
+    this.spoolDirectory = spoolDirectory;
+    this.archiveStartOffset = archiveStartOffset;
+    this.centralDirectory = centralDirectory;
+  }
+
+  /**
+   * Opens the zip archive at the given path, creating it if it does not exist. The entities of an
+   * existing archive are kept; anything after the last complete entity is cut off. The entities
+   * that do not fit into memory are spooled next to the archive.
+   *
+   * @throws ZipException if the file exists, but its entities cannot be recovered.
+   */
+  public static DataEntityManagerZipImpl open(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE);
+    try {
+      Map<String, CentralDirectoryEntry> entries = new LinkedHashMap<>();
+      long endOffset = recoverEntries(path, channel, entries);
+      Path manifestJournal = getManifestJournal(path);
+      Optional<byte[]> manifest = readManifest(channel, entries, manifestJournal);
+      channel.truncate(endOffset);
+      channel.position(endOffset);
+      DataEntityManagerZipImpl manager =
+          new DataEntityManagerZipImpl(
+              Channels.newOutputStream(channel),
+              path.toAbsolutePath().getParent(),
+              endOffset,
+              entries);
+      if (manifest.isPresent()) {
+        // The journal is rewritten, so that it does not end with an incomplete line.
+        Files.write(manifestJournal, manifest.get());
+        manager.manifest.writeBytes(manifest.get());
+      }
+      manager.manifestJournal = Optional.of(manifestJournal);
+      return manager;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the names of the complete entities in the zip archive at the given path, in the order in
+   * which they were added. The archive may lack its central directory.
+   */
+  public static ImmutableList<String> readEntityNames(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      Map<String, CentralDirectoryEntry> entries = new LinkedHashMap<>();
+      recoverEntries(path, channel, entries);
+      return ImmutableList.copyOf(entries.keySet());
+    }
+  }
+
+  /**
+   * Reads the run manifest of the zip archive at the given path, from the journal of an
+   * interrupted run if there is one and from the archive otherwise. An incomplete last line of the
+   * journal is cut off.
+   *
+   * @return The manifest, or empty if the archive does not have one.
+   */
+  static Optional<byte[]> readManifest(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      Map<String, CentralDirectoryEntry> entries = new LinkedHashMap<>();
+      recoverEntries(path, channel, entries);
+      return readManifest(channel, entries, getManifestJournal(path));
+    }
   }
 
   @Override
   public OutputStream getEntityOutputStream(String name) {
-    if (!isEntityOutputStreamOpen.compareAndSet(false, true)) {
-      throw new IllegalStateException(
-          "Previous EntityOutputStream is not closed. "
-              + "Only one opened EntityOutputStream can exist concurrently.");
-    }
+    return getEntityOutputStream(name, /* compressed= */ false);
+  }
+
+  @Override
+  public OutputStream getEntityOutputStream(String name, boolean compressed) {
+    return openEntry(name, compressed, /* staged= */ false);
+  }
+
+  /** The staged entity is kept in its spool until it is moved into the archive. */
+  @Override
+  public OutputStream getStagedEntityOutputStream(String name, boolean compressed) {
+    return openEntry(name, compressed, /* staged= */ true);
+  }
+
+  @Override
+  public synchronized void moveEntity(String stagedName, String name) throws IOException {
+    EntryOutputStream entry = stagedEntries.remove(stagedName);
+    Preconditions.checkState(entry != null, "The entity '%s' is not staged.", stagedName);
     try {
-      return new ZipEntryOutputStream(name);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
+      addEntry(entry, name);
+    } finally {
+      entry.spool.delete();
+    }
+  }
+
+  /** A staged entity that is still open is discarded as well, and cannot be closed afterwards. */
+  @Override
+  public synchronized void discardEntity(String stagedName) throws IOException {
+    for (EntryOutputStream entry : openEntries) {
+      if (entry.staged && entry.name.equals(stagedName)) {
+        entry.discard();
+      }
+    }
+    EntryOutputStream entry = stagedEntries.remove(stagedName);
+    if (entry != null) {
+      entry.spool.delete();
+    }
+  }
+
+  /** The entry is journaled if the archive was opened with {@link #open(Path)}. */
+  @Override
+  public synchronized void addManifestEntry(ManifestEntry entry) throws IOException {
+    Preconditions.checkState(!closed, "Cannot add a manifest entry to a closed archive.");
+    byte[] line = RunManifest.toLine(entry);
+    if (manifestJournal.isPresent()) {
+      Files.write(manifestJournal.get(), line, CREATE, APPEND);
     }
+    manifest.write(line);
   }
 
   @Override
   public boolean isResumable() {
-    return false;
+    return true;
   }
 
   @Override
@@ -68,37 +245,478 @@ public class DataEntityManagerZipImpl implements DataEntityManager {
     return null;
   }
 
+  /**
+   * Adds the run manifest, writes the central directory and closes the archive. Entities that are
+   * open or staged are discarded.
+   */
   @Override
-  public void close() throws IOException {
-    zipOutputStream.close();
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (manifest.size() > 0) {
+      try (OutputStream outputStream = getEntityOutputStream(RunManifest.NAME)) {
+        manifest.writeTo(outputStream);
+      }
+    }
+    closed = true;
+    try {
+      for (EntryOutputStream entry : openEntries) {
+        entry.discard();
+      }
+      for (EntryOutputStream entry : stagedEntries.values()) {
+        entry.spool.delete();
+      }
+      long centralDirectoryOffset = getOffset();
+      for (CentralDirectoryEntry entry : centralDirectory.values()) {
+        writeCentralDirectoryHeader(entry);
+      }
+      writeEndOfCentralDirectory(centralDirectoryOffset, getOffset());
+    } finally {
+      archive.close();
+    }
+    // The manifest is in the archive now.
+    if (manifestJournal.isPresent()) {
+      Files.deleteIfExists(manifestJournal.get());
+    }
+  }
+
+  private EntryOutputStream openEntry(String name, boolean compressed, boolean staged) {
+    EntryOutputStream entry = new EntryOutputStream(name, compressed, staged);
+    openEntries.add(entry);
+    return entry;
+  }
+
+  private synchronized void stageEntry(EntryOutputStream entry) throws IOException {
+    Preconditions.checkState(!closed, "Cannot stage entity '%s' in a closed archive.", entry.name);
+    EntryOutputStream previousEntry = stagedEntries.put(entry.name, entry);
+    if (previousEntry != null) {
+      previousEntry.spool.delete();
+    }
+  }
+
+  private long getOffset() {
+    return archiveStartOffset + archive.getCount();
   }
 
-  /** OutputStream that writes a single file to the parent ZipOutputStream. */
-  private class ZipEntryOutputStream extends OutputStream {
+  private synchronized void addEntry(EntryOutputStream entry, String name) throws IOException {
+    Preconditions.checkState(!closed, "Cannot add entity '%s' to a closed archive.", name);
+    CentralDirectoryEntry directoryEntry =
+        new CentralDirectoryEntry(
+            name.getBytes(UTF_8),
+            entry.method,
+            entry.dosTime,
+            entry.crc.getValue(),
+            entry.size,
+            entry.spool.size,
+            getOffset());
+    boolean zip64 =
+        directoryEntry.size >= ZIP64_MAGIC || directoryEntry.compressedSize >= ZIP64_MAGIC;
+    // The sizes are known, so they go into the local header instead of a data descriptor.
+    ByteBuffer header = littleEndian(30 + directoryEntry.name.length + (zip64 ? 20 : 0));
+    header
+        .putInt(LOCAL_HEADER_SIGNATURE)
+        .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION))
+        .putShort((short) UTF8_NAMES_FLAG)
+        .putShort((short) directoryEntry.method)
+        .putInt((int) directoryEntry.dosTime)
+        .putInt((int) directoryEntry.crc)
+        .putInt((int) (zip64 ? ZIP64_MAGIC : directoryEntry.compressedSize))
+        .putInt((int) (zip64 ? ZIP64_MAGIC : directoryEntry.size))
+        .putShort((short) directoryEntry.name.length)
+        .putShort((short) (zip64 ? 20 : 0))
+        .put(directoryEntry.name);
+    if (zip64) {
+      header
+          .putShort((short) ZIP64_EXTRA_ID)
+          .putShort((short) 16)
+          .putLong(directoryEntry.size)
+          .putLong(directoryEntry.compressedSize);
+    }
+    archive.write(header.array());
+    entry.spool.copyTo(archive);
+    // The entity survives an interruption of the process from here on.
+    archive.flush();
+    centralDirectory.remove(name);
+    centralDirectory.put(name, directoryEntry);
+  }
 
-    public ZipEntryOutputStream(String name) throws IOException {
-      ZipEntry zipEntry = new ZipEntry(name);
-      zipOutputStream.putNextEntry(zipEntry);
+  /**
+   * Reads the local headers of an archive into the given entries, and returns the offset after the
+   * last complete entity.
+   *
+   * @throws ZipException if the archive is not empty but does not start with a local header, or if
+   *     it has an entity with a data descriptor, which this class never writes.
+   */
+  private static long recoverEntries(
+      Path path, FileChannel channel, Map<String, CentralDirectoryEntry> entries)
+      throws IOException {
+    long archiveSize = channel.size();
+    long offset = 0;
+    while (true) {
+      ByteBuffer header = littleEndian(30);
+      if (!readFully(channel, header, offset) || header.getInt() != LOCAL_HEADER_SIGNATURE) {
+        // The central directory or an incomplete local header, which this class writes at once.
+        checkRecoverable(
+            offset > 0 || archiveSize == 0, path, "it does not start with a zip local header");
+        return offset;
+      }
+      // The version needed to extract.
+      header.getShort();
+      int flags = Short.toUnsignedInt(header.getShort());
+      int method = Short.toUnsignedInt(header.getShort());
+      long dosTime = Integer.toUnsignedLong(header.getInt());
+      long crc = Integer.toUnsignedLong(header.getInt());
+      long compressedSize = Integer.toUnsignedLong(header.getInt());
+      long size = Integer.toUnsignedLong(header.getInt());
+      int nameLength = Short.toUnsignedInt(header.getShort());
+      int extraLength = Short.toUnsignedInt(header.getShort());
+      // Without the sizes in the local header, the end of the entity cannot be found.
+      checkRecoverable(
+          (flags & DATA_DESCRIPTOR_FLAG) == 0,
+          path,
+          String.format("the entity at offset %d has a data descriptor", offset));
+      ByteBuffer nameAndExtra = littleEndian(nameLength + extraLength);
+      if (!readFully(channel, nameAndExtra, offset + header.capacity())) {
+        return offset;
+      }
+      byte[] name = new byte[nameLength];
+      nameAndExtra.get(name);
+      while (nameAndExtra.remaining() >= 4) {
+        int extraId = Short.toUnsignedInt(nameAndExtra.getShort());
+        int extraSize =
+            Math.min(Short.toUnsignedInt(nameAndExtra.getShort()), nameAndExtra.remaining());
+        int extraEnd = nameAndExtra.position() + extraSize;
+        if (extraId == ZIP64_EXTRA_ID && extraSize >= 16) {
+          size = nameAndExtra.getLong();
+          compressedSize = nameAndExtra.getLong();
+        }
+        nameAndExtra.position(extraEnd);
+      }
+      long dataOffset = offset + header.capacity() + nameAndExtra.capacity();
+      if (dataOffset + compressedSize > archiveSize) {
+        return offset;
+      }
+      String entityName = new String(name, UTF_8);
+      entries.remove(entityName);
+      entries.put(
+          entityName,
+          new CentralDirectoryEntry(name, method, dosTime, crc, size, compressedSize, offset));
+      offset = dataOffset + compressedSize;
+    }
+  }
+
+  private static void checkRecoverable(boolean recoverable, Path path, String reason)
+      throws ZipException {
+    if (!recoverable) {
+      throw new ZipException(
+          String.format(
+              "Cannot recover the entities of %s, since %s. Only archives written by the"
+                  + " extraction tool can be continued or used as a previous run.",
+              path, reason));
+    }
+  }
+
+  private static Path getManifestJournal(Path path) {
+    return path.resolveSibling(path.getFileName() + "." + RunManifest.NAME);
+  }
+
+  private static Optional<byte[]> readManifest(
+      FileChannel channel, Map<String, CentralDirectoryEntry> entries, Path manifestJournal)
+      throws IOException {
+    if (Files.exists(manifestJournal)) {
+      byte[] journal = Files.readAllBytes(manifestJournal);
+      int end = journal.length;
+      while (end > 0 && journal[end - 1] != '\n') {
+        end--;
+      }
+      return Optional.of(Arrays.copyOf(journal, end));
+    }
+    CentralDirectoryEntry entry = entries.get(RunManifest.NAME);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    return Optional.of(readEntity(channel, entry));
+  }
+
+  /** Reads and, if needed, inflates the content of an entity. */
+  private static byte[] readEntity(FileChannel channel, CentralDirectoryEntry entry)
+      throws IOException {
+    ByteBuffer header = littleEndian(30);
+    Preconditions.checkState(
+        readFully(channel, header, entry.offset),
+        "Failed to read the entity '%s'.",
+        new String(entry.name, UTF_8));
+    int nameAndExtraLength =
+        Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+    ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(entry.compressedSize));
+    Preconditions.checkState(
+        readFully(channel, data, entry.offset + 30 + nameAndExtraLength),
+        "Failed to read the entity '%s'.",
+        new String(entry.name, UTF_8));
+    if (entry.method == ZipEntry.STORED) {
+      return data.array();
+    }
+    Inflater inflater = new Inflater(/* nowrap= */ true);
+    try (InflaterInputStream inputStream =
+        new InflaterInputStream(new ByteArrayInputStream(data.array()), inflater)) {
+      return ByteStreams.toByteArray(inputStream);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /** Reads the buffer from the given position on, and flips it unless the channel ends first. */
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        return false;
+      }
+    }
+    buffer.flip();
+    return true;
+  }
+
+  private void writeCentralDirectoryHeader(CentralDirectoryEntry entry) throws IOException {
+    // Only the fields that do not fit go into the ZIP64 extra field, in this order.
+    List<Long> zip64Fields = new ArrayList<>();
+    for (long field : new long[] {entry.size, entry.compressedSize, entry.offset}) {
+      if (field >= ZIP64_MAGIC) {
+        zip64Fields.add(field);
+      }
+    }
+    int extraLength = zip64Fields.isEmpty() ? 0 : 4 + 8 * zip64Fields.size();
+    int version = zip64Fields.isEmpty() ? VERSION : VERSION_ZIP64;
+    ByteBuffer header = littleEndian(46 + entry.name.length + extraLength);
+    header
+        .putInt(0x02014b50)
+        .putShort((short) version)
+        .putShort((short) version)
+        .putShort((short) UTF8_NAMES_FLAG)
+        .putShort((short) entry.method)
+        .putInt((int) entry.dosTime)
+        .putInt((int) entry.crc)
+        .putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC))
+        .putInt((int) Math.min(entry.size, ZIP64_MAGIC))
+        .putShort((short) entry.name.length)
+        .putShort((short) extraLength)
+        // File comment length, disk number, internal and external attributes.
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putInt(0)
+        .putInt((int) Math.min(entry.offset, ZIP64_MAGIC))
+        .put(entry.name);
+    if (!zip64Fields.isEmpty()) {
+      header.putShort((short) ZIP64_EXTRA_ID).putShort((short) (8 * zip64Fields.size()));
+      zip64Fields.forEach(header::putLong);
+    }
+    archive.write(header.array());
+  }
+
+  private void writeEndOfCentralDirectory(long offset, long endOffset) throws IOException {
+    long entryCount = centralDirectory.size();
+    long size = endOffset - offset;
+    if (entryCount >= ZIP64_MAGIC_COUNT || offset >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+      ByteBuffer zip64End = littleEndian(56 + 20);
+      zip64End
+          .putInt(0x06064b50)
+          // The size of the rest of the record.
+          .putLong(44)
+          .putShort((short) VERSION_ZIP64)
+          .putShort((short) VERSION_ZIP64)
+          .putInt(0)
+          .putInt(0)
+          .putLong(entryCount)
+          .putLong(entryCount)
+          .putLong(size)
+          .putLong(offset);
+      // The locator of the record.
+      zip64End.putInt(0x07064b50).putInt(0).putLong(endOffset).putInt(1);
+      archive.write(zip64End.array());
+    }
+    ByteBuffer end = littleEndian(22);
+    end.putInt(0x06054b50)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT))
+        .putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT))
+        .putInt((int) Math.min(size, ZIP64_MAGIC))
+        .putInt((int) Math.min(offset, ZIP64_MAGIC))
+        .putShort((short) 0);
+    archive.write(end.array());
+  }
+
+  private static ByteBuffer littleEndian(int capacity) {
+    return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long toDosTime(LocalDateTime time) {
+    return (time.getYear() - 1980L) << 25
+        | (long) time.getMonthValue() << 21
+        | (long) time.getDayOfMonth() << 16
+        | (long) time.getHour() << 11
+        | (long) time.getMinute() << 5
+        | (long) time.getSecond() >> 1;
+  }
+
+  /** An entity that is in the archive, as listed in the central directory. */
+  private static final class CentralDirectoryEntry {
+    final byte[] name;
+    final int method;
+    final long dosTime;
+    final long crc;
+    final long size;
+    final long compressedSize;
+    final long offset;
+
+    CentralDirectoryEntry(
+        byte[] name,
+        int method,
+        long dosTime,
+        long crc,
+        long size,
+        long compressedSize,
+        long offset) {
+      this.name = name;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.size = size;
+      this.compressedSize = compressedSize;
+      this.offset = offset;
+    }
+  }
+
+  /** OutputStream that compresses a single file and adds it to the archive when closed. */
+  private final class EntryOutputStream extends OutputStream {
+    private final String name;
+    private final int method;
+    private final long dosTime = toDosTime(LocalDateTime.now());
+    private final CRC32 crc = new CRC32();
+    private final Spool spool = new Spool();
+    private final Optional<Deflater> deflater;
+    private final OutputStream outputStream;
+    private final boolean staged;
+    private long size;
+    private boolean closed;
+    private boolean discarded;
+
+    EntryOutputStream(String name, boolean compressed, boolean staged) {
+      this.name = name;
+      this.staged = staged;
+      if (compressed) {
+        method = ZipEntry.STORED;
+        deflater = Optional.empty();
+        outputStream = spool;
+      } else {
+        method = ZipEntry.DEFLATED;
+        deflater = Optional.of(new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true));
+        outputStream = new DeflaterOutputStream(spool, deflater.get(), BUFFER_BYTES);
+      }
     }
 
     @Override
     public void write(int b) throws IOException {
-      zipOutputStream.write(b);
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      crc.update(b, off, len);
+      size += len;
+      outputStream.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      Preconditions.checkState(!discarded, "Entity '%s' was discarded while it was open.", name);
+      boolean spoolKept = false;
+      try {
+        outputStream.close();
+        if (staged) {
+          stageEntry(this);
+          spoolKept = true;
+        } else {
+          addEntry(this, name);
+        }
+      } finally {
+        deflater.ifPresent(Deflater::end);
+        if (!spoolKept) {
+          spool.delete();
+        }
+        openEntries.remove(this);
+      }
+    }
+
+    /**
+     * Discards the entity while it is open, e.g., because the archive is closed. The spool is
+     * closed before it is deleted, so that no temporary file is left open.
+     */
+    void discard() throws IOException {
+      if (closed || discarded) {
+        return;
+      }
+      discarded = true;
+      try {
+        // The compressed rest of the entity is not needed.
+        spool.close();
+      } catch (IOException e) {
+        // The spool is deleted anyway.
+      } finally {
+        deflater.ifPresent(Deflater::end);
+        openEntries.remove(this);
+      }
+      spool.delete();
     }
+  }
+
+  /** Collects the bytes of an entity in memory and, once they do not fit, in a temporary file. */
+  private final class Spool extends OutputStream {
+    private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private OutputStream target = memory;
+    private Optional<Path> file = Optional.empty();
+    private long size;
 
     @Override
-    public void write(byte[] b) throws IOException {
-      zipOutputStream.write(b);
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-      zipOutputStream.write(b, off, len);
+      if (!file.isPresent() && size + len > SPOOL_MEMORY_BYTES) {
+        file = Optional.of(Files.createTempFile(spoolDirectory, ".zip-entry-", ".spool"));
+        target = new BufferedOutputStream(Files.newOutputStream(file.get()), BUFFER_BYTES);
+        memory.writeTo(target);
+        memory.reset();
+      }
+      target.write(b, off, len);
+      size += len;
     }
 
     @Override
-    public void close() {
-      isEntityOutputStreamOpen.set(false);
+    public void close() throws IOException {
+      target.close();
+    }
+
+    void copyTo(OutputStream outputStream) throws IOException {
+      if (file.isPresent()) {
+        Files.copy(file.get(), outputStream);
+      } else {
+        memory.writeTo(outputStream);
+      }
+    }
+
+    void delete() throws IOException {
+      if (file.isPresent()) {
+        Files.deleteIfExists(file.get());
+      }
     }
   }
 }
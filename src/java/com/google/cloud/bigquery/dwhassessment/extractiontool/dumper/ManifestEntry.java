@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
+
+import com.google.auto.value.AutoValue;
+import java.util.Optional;
+
+/** The record of a saved file in the run manifest. See {@link RunManifest}. */
+@AutoValue
+public abstract class ManifestEntry {
+
+  /** The name of the file. */
+  public abstract String file();
+
+  /** The name of the script that produced the file. */
+  public abstract String scriptName();
+
+  /** The number of the chunk, if the file is a chunk. */
+  public abstract Optional<Integer> chunkNumber();
+
+  /** The number of rows in the file. */
+  public abstract Long rows();
+
+  /** The size of the file in bytes. */
+  public abstract Long bytes();
+
+  /** The CRC-32C checksum of the content of the file. */
+  public abstract Long crc32c();
+
+  /**
+   * The sort key of the first row of a chunk, in the format of the chunk file names or, for a
+   * script extracted in keyset pages, as formatted by {@link RunManifest#formatKey}.
+   */
+  public abstract Optional<String> firstSortKey();
+
+  /**
+   * The sort key of the last row of a chunk, in the format of the chunk file names or, for a
+   * script extracted in keyset pages, as formatted by {@link RunManifest#formatKey}.
+   */
+  public abstract Optional<String> lastSortKey();
+
+  /** The Avro codec with which the file was written. */
+  public abstract String codec();
+
+  /** The Avro sync interval with which the file was written. */
+  public abstract Integer syncInterval();
+
+  /** The maximum number of rows per chunk with which the file was written, or 0. */
+  public abstract Integer chunkRows();
+
+  /** The size in bytes at which chunks were rolled over when the file was written, or 0. */
+  public abstract Long chunkBytes();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_ManifestEntry.Builder().setChunkRows(0).setChunkBytes(0L);
+  }
+
+  /** Builder for the ManifestEntry. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setFile(String file);
+
+    public abstract Builder setScriptName(String scriptName);
+
+    public abstract Builder setChunkNumber(Integer chunkNumber);
+
+    public abstract Builder setRows(Long rows);
+
+    public abstract Builder setBytes(Long bytes);
+
+    public abstract Builder setCrc32c(Long crc32c);
+
+    public abstract Builder setFirstSortKey(String firstSortKey);
+
+    public abstract Builder setLastSortKey(String lastSortKey);
+
+    public abstract Builder setCodec(String codec);
+
+    public abstract Builder setSyncInterval(Integer syncInterval);
+
+    public abstract Builder setChunkRows(Integer chunkRows);
+
+    public abstract Builder setChunkBytes(Long chunkBytes);
+
+    public abstract ManifestEntry build();
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+/**
+ * The append-only manifest of a run, with one JSON line per saved file. An entry is appended with a
+ * single write after its file is saved, so a recovery run reads the complete files from the
+ * manifest instead of listing and parsing all file names, and can check them against their sizes
+ * and checksums. A file that was saved just before an interruption may lack its entry, in which
+ * case it is extracted again.
+ */
+public final class RunManifest {
+
+  /** The name of the manifest in the output directory or archive. */
+  public static final String NAME = "manifest.jsonl";
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final int BUFFER_BYTES = 64 * 1024;
+
+  private RunManifest() {}
+
+  /** Appends an entry to the manifest file at the given path. */
+  public static void append(Path manifestPath, ManifestEntry entry) throws IOException {
+    Files.write(manifestPath, toLine(entry), CREATE, APPEND);
+  }
+
+  /**
+   * Reads the manifest of the output of a run, which is either a directory or a zip archive.
+   *
+   * @return The entries, or empty if the run did not write a manifest.
+   */
+  public static Optional<ImmutableList<ManifestEntry>> read(Path outputPath) throws IOException {
+    if (isZip(outputPath)) {
+      if (!Files.isRegularFile(outputPath)) {
+        return Optional.empty();
+      }
+      return DataEntityManagerZipImpl.readManifest(outputPath).map(RunManifest::parse);
+    }
+    Path manifestPath = outputPath.resolve(NAME);
+    if (!Files.exists(manifestPath)) {
+      return Optional.empty();
+    }
+    return Optional.of(parse(Files.readAllBytes(manifestPath)));
+  }
+
+  /**
+   * Finds the files that are missing from the output of a run or that do not match their entries.
+   * The files of a directory are checked in parallel. The entities of an archive are only added
+   * once they are complete, so only their presence is checked.
+   *
+   * @return The names of the invalid files.
+   */
+  public static ImmutableSet<String> findInvalidFiles(
+      Path outputPath, Collection<ManifestEntry> entries) throws IOException {
+    if (isZip(outputPath)) {
+      ImmutableSet<String> names =
+          ImmutableSet.copyOf(DataEntityManagerZipImpl.readEntityNames(outputPath));
+      return entries.stream()
+          .map(ManifestEntry::file)
+          .filter(file -> !names.contains(file))
+          .collect(toImmutableSet());
+    }
+    return entries.parallelStream()
+        .filter(entry -> !isValid(outputPath.resolve(entry.file()), entry))
+        .map(ManifestEntry::file)
+        .collect(toImmutableSet());
+  }
+
+  /**
+   * Formats the key of a row of a script that is extracted in keyset pages as a sort key of an
+   * entry, i.e., as a JSON array of strings, integers, decimals and nulls.
+   */
+  public static String formatKey(List<Object> key) {
+    ArrayNode node = OBJECT_MAPPER.createArrayNode();
+    for (Object value : key) {
+      if (value == null) {
+        node.addNull();
+      } else if (value instanceof String) {
+        node.add((String) value);
+      } else if (value instanceof Long) {
+        node.add((Long) value);
+      } else if (value instanceof BigDecimal) {
+        node.add((BigDecimal) value);
+      } else {
+        throw new IllegalArgumentException(
+            String.format("Unsupported key value of type %s.", value.getClass().getName()));
+      }
+    }
+    return node.toString();
+  }
+
+  /** Parses a key formatted by {@link #formatKey}. The returned list may contain nulls. */
+  public static List<Object> parseKey(String key) {
+    JsonNode node;
+    try {
+      node = OBJECT_MAPPER.reader(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS).readTree(key);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(String.format("Invalid sort key '%s'.", key), e);
+    }
+    if (!node.isArray()) {
+      throw new IllegalStateException(String.format("Invalid sort key '%s'.", key));
+    }
+    List<Object> values = new ArrayList<>();
+    for (JsonNode value : node) {
+      if (value.isNull()) {
+        values.add(null);
+      } else if (value.isTextual()) {
+        values.add(value.asText());
+      } else if (value.isIntegralNumber()) {
+        values.add(value.longValue());
+      } else if (value.isNumber()) {
+        values.add(value.decimalValue());
+      } else {
+        throw new IllegalStateException(String.format("Invalid sort key '%s'.", key));
+      }
+    }
+    return Collections.unmodifiableList(values);
+  }
+
+  /** Serializes an entry as a line of the manifest, including the line break. */
+  static byte[] toLine(ManifestEntry entry) {
+    ObjectNode node = OBJECT_MAPPER.createObjectNode();
+    node.put("file", entry.file());
+    node.put("script", entry.scriptName());
+    entry.chunkNumber().ifPresent(chunkNumber -> node.put("chunk", chunkNumber));
+    node.put("rows", entry.rows());
+    node.put("bytes", entry.bytes());
+    node.put("crc32c", String.format("%08x", entry.crc32c()));
+    entry.firstSortKey().ifPresent(sortKey -> node.put("firstSortKey", sortKey));
+    entry.lastSortKey().ifPresent(sortKey -> node.put("lastSortKey", sortKey));
+    node.put("codec", entry.codec());
+    node.put("syncInterval", entry.syncInterval());
+    node.put("chunkRows", entry.chunkRows());
+    node.put("chunkBytes", entry.chunkBytes());
+    try {
+      return (OBJECT_MAPPER.writeValueAsString(node) + "\n").getBytes(UTF_8);
+    } catch (JsonProcessingException e) {
+      // Cannot happen.
+      throw new IllegalStateException("Failed to serialize a manifest entry.", e);
+    }
+  }
+
+  /** Parses a manifest. An incomplete last line, left by an interruption, is skipped. */
+  static ImmutableList<ManifestEntry> parse(byte[] manifest) {
+    String content = new String(manifest, UTF_8);
+    ImmutableList.Builder<ManifestEntry> entries = ImmutableList.builder();
+    int lineStart = 0;
+    int lineEnd;
+    while ((lineEnd = content.indexOf('\n', lineStart)) >= 0) {
+      String line = content.substring(lineStart, lineEnd);
+      lineStart = lineEnd + 1;
+      if (line.isEmpty()) {
+        continue;
+      }
+      try {
+        entries.add(parseEntry(OBJECT_MAPPER.readTree(line)));
+      } catch (JsonProcessingException | RuntimeException e) {
+        throw new IllegalStateException(String.format("Invalid manifest line '%s'.", line), e);
+      }
+    }
+    return entries.build();
+  }
+
+  private static ManifestEntry parseEntry(JsonNode node) {
+    ManifestEntry.Builder entry =
+        ManifestEntry.builder()
+            .setFile(node.get("file").asText())
+            .setScriptName(node.get("script").asText())
+            .setRows(node.get("rows").asLong())
+            .setBytes(node.get("bytes").asLong())
+            .setCrc32c(Long.parseLong(node.get("crc32c").asText(), 16))
+            .setCodec(node.get("codec").asText())
+            .setSyncInterval(node.get("syncInterval").asInt())
+            .setChunkRows(node.get("chunkRows").asInt())
+            .setChunkBytes(node.get("chunkBytes").asLong());
+    if (node.has("chunk")) {
+      entry.setChunkNumber(node.get("chunk").asInt());
+    }
+    if (node.has("firstSortKey")) {
+      entry.setFirstSortKey(node.get("firstSortKey").asText());
+    }
+    if (node.has("lastSortKey")) {
+      entry.setLastSortKey(node.get("lastSortKey").asText());
+    }
+    return entry.build();
+  }
+
+  private static boolean isValid(Path file, ManifestEntry entry) {
+    try {
+      if (!Files.isRegularFile(file) || Files.size(file) != entry.bytes()) {
+        return false;
+      }
+      CRC32C crc = new CRC32C();
+      byte[] buffer = new byte[BUFFER_BYTES];
+      try (InputStream inputStream = Files.newInputStream(file)) {
+        for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) {
+          crc.update(buffer, 0, read);
+        }
+      }
+      return crc.getValue() == entry.crc32c();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isZip(Path outputPath) {
+    return outputPath.toString().endsWith(".zip");
+  }
+}
@@ -16,7 +16,11 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
 
 import com.google.auto.value.AutoValue;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroFileOptions;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.FetchProfile;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilter;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -39,15 +43,42 @@ public interface ExtractExecutor {
     RECOVERY
   }
 
+  /** How to split the query log time range into time slices. */
+  enum TimeSlicing {
+    /** Slices of equal duration. */
+    EQUAL_DURATION,
+    /** Slices with about equal numbers of rows, planned from the numbers of rows per hour. */
+    EQUAL_ROWS
+  }
+
   /** Arguments for the extract action. */
   @AutoValue
   abstract class Arguments {
     /** The JDBC address of the database to which to connect. */
     public abstract String dbConnectionAddress();
 
-    /** The JDBC connection properties. */
+    /** The JDBC connection properties, including driver specific connection parameters. */
     public abstract Properties dbConnectionProperties();
 
+    /**
+     * The pool from which to take connections, e.g., with the connection used to validate the
+     * arguments. The executor closes the pool when it is done. If absent, the executor creates a
+     * pool with one connection per worker.
+     */
+    public abstract Optional<ConnectionPool> connectionPool();
+
+    /** How to fetch the rows of scripts that have no fetch profile of their own. */
+    public abstract FetchProfile fetchProfile();
+
+    /** Fetch profiles per script. */
+    public abstract ImmutableMap<String, FetchProfile> scriptFetchProfiles();
+
+    /** How to write the Avro files of the schemas and of scripts without options of their own. */
+    public abstract AvroFileOptions avroFileOptions();
+
+    /** Avro file options per script. */
+    public abstract ImmutableMap<String, AvroFileOptions> scriptAvroFileOptions();
+
     /** The path to which to write the output. Must be a directory. */
     public abstract Path outputPath();
 
@@ -75,6 +106,9 @@ public interface ExtractExecutor {
     /** Filter to apply on schemas to extract */
     public abstract ImmutableList<SchemaFilter> schemaFilters();
 
+    /** How to query the columns of the schemas. */
+    public abstract SchemaRetrievalMode schemaRetrievalMode();
+
     /** The base database from which to extract the metadata. */
     public abstract String baseDatabase();
 
@@ -87,6 +121,47 @@ public interface ExtractExecutor {
     /** Number of records per chunk file (if chunk mode is available). */
     public abstract Integer chunkRows();
 
+    /** Size in bytes at which a chunk file is closed (if chunk mode is available), or 0. */
+    public abstract Long chunkBytes();
+
+    /** Whether chunk mode is requested, by limiting the chunks by rows, bytes or both. */
+    public boolean isChunked() {
+      return chunkRows() > 0 || chunkBytes() > 0;
+    }
+
+    /**
+     * Maximum number of scripts to extract concurrently, each on its own connection. This also
+     * limits the connections of the time slices and FastExport scripts.
+     */
+    public abstract Integer parallelism();
+
+    /**
+     * The memory budget in MiB for rows that are fetched but not yet written, shared by all
+     * scripts. 0 disables the write pipeline.
+     */
+    public abstract Integer pipelineMemoryMb();
+
+    /**
+     * Number of time slices into which the query log time range is split. Each slice of a chunked
+     * query log script is extracted on its own connection, at most {@link #parallelism()} at once.
+     */
+    public abstract Integer qryLogTimeSlices();
+
+    /** How to split the query log time range into time slices. */
+    public abstract TimeSlicing qryLogTimeSlicing();
+
+    /** Whether to count the rows of each script before extracting it, to estimate its progress. */
+    public abstract boolean countRows();
+
+    /** The interval in seconds at which to report the progress of the scripts, or 0 for none. */
+    public abstract Integer progressIntervalSeconds();
+
+    /** The local port on which to serve the metrics in the Prometheus text format. */
+    public abstract Optional<Integer> prometheusPort();
+
+    /** The file to periodically replace with the metrics in the Prometheus text format. */
+    public abstract Optional<Path> prometheusTextfile();
+
     public abstract Optional<Instant> qryLogStartTime();
 
     public abstract Optional<Instant> qryLogEndTime();
@@ -98,12 +173,24 @@ public interface ExtractExecutor {
           .setDryRun(false)
           .setBaseDatabase("DBC")
           .setChunkRows(0)
+          .setChunkBytes(0L)
+          .setParallelism(1)
+          .setPipelineMemoryMb(64)
+          .setQryLogTimeSlices(1)
+          .setQryLogTimeSlicing(TimeSlicing.EQUAL_DURATION)
+          .setCountRows(false)
+          .setProgressIntervalSeconds(0)
           .setMode(RunMode.NORMAL)
           .setNeedQueryText(true)
           .setScriptVariables(ImmutableMap.of())
           .setScriptBaseDatabase(ImmutableMap.of())
+          .setFetchProfile(FetchProfile.builder().build())
+          .setScriptFetchProfiles(ImmutableMap.of())
+          .setAvroFileOptions(AvroFileOptions.builder().build())
+          .setScriptAvroFileOptions(ImmutableMap.of())
           .setNeedJdbcSchemas(true)
           .setSchemaFilters(ImmutableList.of())
+          .setSchemaRetrievalMode(SchemaRetrievalMode.PER_TABLE)
           .setSqlScripts(ImmutableList.of())
           .setSkipSqlScripts(ImmutableList.of())
           .setQryLogUsers(ImmutableSet.of());
@@ -115,6 +202,18 @@ public interface ExtractExecutor {
 
       public abstract Builder setDbConnectionAddress(String dbAddress);
 
+      public abstract Builder setConnectionPool(ConnectionPool connectionPool);
+
+      public abstract Builder setFetchProfile(FetchProfile fetchProfile);
+
+      public abstract Builder setScriptFetchProfiles(
+          ImmutableMap<String, FetchProfile> scriptFetchProfiles);
+
+      public abstract Builder setAvroFileOptions(AvroFileOptions avroFileOptions);
+
+      public abstract Builder setScriptAvroFileOptions(
+          ImmutableMap<String, AvroFileOptions> scriptAvroFileOptions);
+
       public abstract Builder setOutputPath(Path path);
 
       public abstract Builder setPrevRunPath(Path path);
@@ -134,6 +233,8 @@ public interface ExtractExecutor {
 
       public abstract Builder setSchemaFilters(List<SchemaFilter> schemaFilters);
 
+      public abstract Builder setSchemaRetrievalMode(SchemaRetrievalMode mode);
+
       public abstract Builder setBaseDatabase(String baseDatabase);
 
       public abstract Builder setScriptBaseDatabase(
@@ -143,6 +244,24 @@ public interface ExtractExecutor {
 
       public abstract Builder setChunkRows(Integer chunkRows);
 
+      public abstract Builder setChunkBytes(Long chunkBytes);
+
+      public abstract Builder setParallelism(Integer parallelism);
+
+      public abstract Builder setPipelineMemoryMb(Integer pipelineMemoryMb);
+
+      public abstract Builder setQryLogTimeSlices(Integer qryLogTimeSlices);
+
+      public abstract Builder setQryLogTimeSlicing(TimeSlicing qryLogTimeSlicing);
+
+      public abstract Builder setCountRows(boolean countRows);
+
+      public abstract Builder setProgressIntervalSeconds(Integer progressIntervalSeconds);
+
+      public abstract Builder setPrometheusPort(Integer prometheusPort);
+
+      public abstract Builder setPrometheusTextfile(Path prometheusTextfile);
+
       public abstract Builder setQryLogStartTime(Instant timestampInUtc);
 
       public abstract Builder setQryLogEndTime(Instant timestampInUtc);
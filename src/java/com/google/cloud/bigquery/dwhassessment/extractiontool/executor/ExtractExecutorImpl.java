@@ -15,14 +15,21 @@
  */
 package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
 
-import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.dumpResults;
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.common.ChunkCheckpoint;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroFileOptions;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroResultSetRecorder;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroWritePipeline;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.FetchProfile;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilter;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaKey;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptExecutionOptions;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables;
@@ -32,19 +39,33 @@ import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityM
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -54,9 +75,30 @@ import org.apache.avro.generic.GenericRecord;
 /** Default implementation of the extract executor. */
 public final class ExtractExecutorImpl implements ExtractExecutor {
 
-  private static final DateTimeFormatter TERADATA_TIME_FORMATTER =
-      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSSSSS]xxx").withZone(ZoneOffset.UTC);
   private static final String AVRO_EXTENSION = "avro";
+  private static final String TERADATA_CONNECTION_TYPE = "TYPE";
+  private static final String TERADATA_FASTEXPORT = "FASTEXPORT";
+  private static final Properties FAST_EXPORT_PROPERTIES = new Properties();
+
+  static {
+    FAST_EXPORT_PROPERTIES.setProperty(TERADATA_CONNECTION_TYPE, TERADATA_FASTEXPORT);
+  }
+
+  // Scripts in descending order of their typical extraction time on large systems.
+  private static final ImmutableList<String> SCRIPTS_BY_EXPECTED_COST =
+      ImmutableList.of(
+          "querylogs",
+          "sql_logs",
+          "query_references",
+          "columns",
+          "tabletext",
+          "stats",
+          "tableinfo",
+          "tablesize",
+          "indices",
+          "partitioning_constraints",
+          "all_ri_children",
+          "all_ri_parents");
 
   private static final Logger LOGGER = Logger.getLogger(ExtractExecutorImpl.class.getName());
 
@@ -89,7 +131,7 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
 
   @VisibleForTesting
   static String getTeradataTimestampFromInstant(Instant instant) {
-    return TERADATA_TIME_FORMATTER.format(instant);
+    return SqlScriptVariables.QueryLogsVariables.TimeRange.formatInstant(instant);
   }
 
   private static void maybeAddTimeRange(
@@ -124,51 +166,545 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
     builder.setTimeRange(timeRangeBuilder.build());
   }
 
+  /**
+   * Continues a script that is extracted in keyset pages after the last saved key of the
+   * checkpoint, if any.
+   */
+  private static void maybeAddKeysetStart(
+      SqlScriptVariables.Builder builder, ChunkCheckpoint checkpoint) {
+    if (checkpoint == null || checkpoint.lastSavedKey().isEmpty()) {
+      return;
+    }
+    builder.setKeysetVariables(
+        builder.getKeysetVariables().toBuilder().setAfterKey(checkpoint.lastSavedKey()).build());
+  }
+
   @Override
   public int run(Arguments arguments) throws SQLException, IOException {
     Preconditions.checkArgument(
         arguments.mode().equals(RunMode.NORMAL) || arguments.prevRunPath().isPresent(),
         "Value prevRunPath is not defined while the mode is not NORMAL; this should not happen.");
 
-    DataEntityManager dataEntityManager = dataEntityManagerFactory.apply(arguments.outputPath());
-
-    // Determine the scripts to run.
-    ImmutableSet<String> requestedScripts = getRequestedScripts(arguments);
-
-    ImmutableMap<String, ChunkCheckpoint> checkpoints =
-        arguments.mode().equals(RunMode.NORMAL) || arguments.chunkRows() < 1
-            ? ImmutableMap.of()
-            : saveChecker.getScriptCheckPoints(arguments.prevRunPath().get());
-
-    for (String scriptName : requestedScripts) {
-      LOGGER.log(Level.INFO, "Start extracting {0}...", scriptName);
-      ChunkCheckpoint checkpoint = checkpoints.getOrDefault(scriptName, null);
-      SqlScriptVariables.QueryLogsVariables.Builder qryLogVarsBuilder =
-          SqlScriptVariables.QueryLogsVariables.builder()
-              .setNeedQueryText(arguments.needQueryText()).setUsers(arguments.qryLogUsers());
-      maybeAddTimeRange(qryLogVarsBuilder, arguments, checkpoint);
-      Connection connection =
-          DriverManager.getConnection(
-              arguments.dbConnectionAddress(), arguments.dbConnectionProperties());
-      SqlTemplateRenderer sqlTemplateRenderer =
-          getSqlTemplateRenderer(scriptName, arguments, qryLogVarsBuilder);
+    // Connections are shared by the scripts and the schema extraction.
+    try (ConnectionPool connectionPool =
+        arguments
+            .connectionPool()
+            .orElseGet(
+                () ->
+                    new ConnectionPool(
+                        arguments.dbConnectionAddress(),
+                        arguments.dbConnectionProperties(),
+                        arguments.parallelism()));
+        AvroWritePipeline writePipeline =
+            new AvroWritePipeline(arguments.pipelineMemoryMb() * 1024 * 1024)) {
+      DataEntityManager dataEntityManager =
+          dataEntityManagerFactory.apply(arguments.outputPath());
+
+      // Determine the scripts to run.
+      ImmutableSet<String> requestedScripts = getRequestedScripts(arguments);
+
+      ImmutableMap<String, ChunkCheckpoint> checkpoints =
+          arguments.mode().equals(RunMode.NORMAL) || !arguments.isChunked()
+              ? ImmutableMap.of()
+              : saveChecker.getScriptCheckPoints(arguments.prevRunPath().get());
+
+      // Fetch latencies are only counted for the exporter, to keep them off the per-row path.
+      boolean exportMetrics =
+          arguments.prometheusPort().isPresent() || arguments.prometheusTextfile().isPresent();
+      MetricsReport metricsReport = new MetricsReport(exportMetrics);
+      try (ProgressReporter progressReporter =
+              new ProgressReporter(
+                  metricsReport,
+                  ProgressReporter.getPath(arguments.outputPath()),
+                  arguments.dryRun()
+                      ? Duration.ZERO
+                      : Duration.ofSeconds(arguments.progressIntervalSeconds()));
+          PrometheusExporter prometheusExporter =
+              new PrometheusExporter(
+                  metricsReport,
+                  connectionPool,
+                  arguments.prometheusPort(),
+                  arguments.prometheusTextfile())) {
+        runScripts(
+            arguments,
+            connectionPool,
+            writePipeline,
+            dataEntityManager,
+            requestedScripts,
+            checkpoints,
+            metricsReport);
+      }
+
+      maybeRunSchemaQueries(arguments, connectionPool, dataEntityManager);
+
+      if (!arguments.dryRun()) {
+        metricsReport.write(dataEntityManager);
+      }
+
+      dataEntityManager.close();
+    }
+    LOGGER.log(Level.INFO, "Finished extraction.");
+    return 0;
+  }
+
+  /**
+   * Runs the requested scripts on a bounded pool of workers. Each worker takes the most expensive
+   * remaining script from a shared queue and leases the connections of the script from the
+   * connection pool, which limits the sessions of all scripts and their time slices. After a script
+   * fails, no new scripts are started, but scripts that are already running are completed before
+   * the failure is rethrown.
+   */
+  private void runScripts(
+      Arguments arguments,
+      ConnectionPool connectionPool,
+      AvroWritePipeline writePipeline,
+      DataEntityManager dataEntityManager,
+      ImmutableSet<String> requestedScripts,
+      ImmutableMap<String, ChunkCheckpoint> checkpoints,
+      MetricsReport metricsReport)
+      throws SQLException, IOException {
+    if (requestedScripts.isEmpty()) {
+      return;
+    }
+    Queue<String> scriptQueue = new ConcurrentLinkedQueue<>(sortByExpectedCost(requestedScripts));
+    AtomicBoolean failed = new AtomicBoolean(false);
+    int workerCount = Math.min(arguments.parallelism(), requestedScripts.size());
+    ExecutorService workerPool = Executors.newFixedThreadPool(workerCount);
+    List<Future<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(
+          workerPool.submit(
+              () -> {
+                runWorker(
+                    arguments,
+                    connectionPool,
+                    writePipeline,
+                    dataEntityManager,
+                    scriptQueue,
+                    checkpoints,
+                    metricsReport,
+                    failed);
+                return null;
+              }));
+    }
+    workerPool.shutdown();
+
+    Throwable failure = null;
+    for (Future<Void> worker : workers) {
+      failure = await(workerPool, worker, failure);
+    }
+    rethrowIfPresent(failure);
+  }
+
+  /**
+   * Waits for a task to finish.
+   *
+   * @return The first failure, with the failure of this task, if any, attached to it.
+   */
+  private static Throwable await(ExecutorService pool, Future<Void> task, Throwable failure) {
+    try {
+      task.get();
+    } catch (ExecutionException e) {
+      if (failure == null) {
+        return e.getCause();
+      }
+      failure.addSuppressed(e.getCause());
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for extraction to finish.", e);
+    }
+    return failure;
+  }
+
+  private static void rethrowIfPresent(Throwable failure) throws SQLException, IOException {
+    if (failure != null) {
+      Throwables.throwIfInstanceOf(failure, SQLException.class);
+      Throwables.throwIfInstanceOf(failure, IOException.class);
+      Throwables.throwIfUnchecked(failure);
+      throw new IllegalStateException("Got unexpected exception.", failure);
+    }
+  }
+
+  private void runWorker(
+      Arguments arguments,
+      ConnectionPool connectionPool,
+      AvroWritePipeline writePipeline,
+      DataEntityManager dataEntityManager,
+      Queue<String> scriptQueue,
+      ImmutableMap<String, ChunkCheckpoint> checkpoints,
+      MetricsReport metricsReport,
+      AtomicBoolean failed)
+      throws SQLException, IOException {
+    String scriptName;
+    while (!failed.get() && (scriptName = scriptQueue.poll()) != null) {
+      try {
+        runScript(
+            connectionPool,
+            arguments,
+            writePipeline,
+            dataEntityManager,
+            scriptName,
+            checkpoints.getOrDefault(scriptName, null),
+            metricsReport.startScript(scriptName));
+      } catch (SQLException | IOException | RuntimeException e) {
+        failed.set(true);
+        LOGGER.log(Level.SEVERE, String.format("Failed extracting %s.", scriptName), e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Runs a script. A script that runs on a connection of its own, i.e., in time slices or with
+   * FastExport, returns the pooled connection first, so that a worker never holds one connection
+   * while it waits for another.
+   */
+  private void runScript(
+      ConnectionPool connectionPool,
+      Arguments arguments,
+      AvroWritePipeline writePipeline,
+      DataEntityManager dataEntityManager,
+      String scriptName,
+      ChunkCheckpoint checkpoint,
+      ExtractionMetrics metrics)
+      throws SQLException, IOException {
+    LOGGER.log(Level.INFO, "Start extracting {0}...", scriptName);
+    ScriptExecutionOptions options =
+        ScriptExecutionOptions.builder()
+            .setFetchProfile(getFetchProfile(arguments, scriptName))
+            .setWritePipeline(writePipeline)
+            .setFileOptions(getAvroFileOptions(arguments, scriptName))
+            .setMetrics(metrics)
+            .build();
+    boolean fastExport = options.fetchProfile().fastExport() && !arguments.dryRun();
+    int startingChunkNumber = checkpoint == null ? 0 : checkpoint.lastSavedChunkNumber() + 1;
+    ImmutableList<Range<Instant>> timeSlices;
+    try (Connection connection = connectionPool.getConnection()) {
+      timeSlices = getTimeSlices(connection, arguments, dataEntityManager, scriptName, checkpoint);
+      if (arguments.countRows() && !arguments.dryRun()) {
+        countRows(connection, arguments, scriptName, checkpoint, metrics);
+      }
+      if (timeSlices.size() <= 1 && !fastExport) {
+        scriptManager.executeScript(
+            connection,
+            arguments.dryRun(),
+            getSqlTemplateRenderer(scriptName, arguments, checkpoint),
+            scriptName,
+            dataEntityManager,
+            arguments.chunkRows(),
+            arguments.chunkBytes(),
+            startingChunkNumber,
+            options);
+      }
+    }
+    if (timeSlices.size() > 1) {
+      runScriptInTimeSlices(
+          connectionPool,
+          arguments,
+          dataEntityManager,
+          scriptName,
+          checkpoint,
+          timeSlices,
+          options);
+    } else if (fastExport) {
+      try (Connection fastExportConnection =
+          connectionPool.getDedicatedConnection(FAST_EXPORT_PROPERTIES)) {
+        scriptManager.executeScript(
+            fastExportConnection,
+            /* dryRun= */ false,
+            getSqlTemplateRenderer(scriptName, arguments, checkpoint),
+            scriptName,
+            dataEntityManager,
+            arguments.chunkRows(),
+            arguments.chunkBytes(),
+            startingChunkNumber,
+            options);
+      }
+    }
+    metrics.finish();
+    LOGGER.log(Level.INFO, "Finished extracting {0}.", scriptName);
+  }
+
+  /**
+   * Counts the rows that a script will extract, so that the progress of the script can be
+   * estimated. If the count fails, the script is extracted without an estimate.
+   */
+  private void countRows(
+      Connection connection,
+      Arguments arguments,
+      String scriptName,
+      ChunkCheckpoint checkpoint,
+      ExtractionMetrics metrics) {
+    try {
+      long rowCount =
+          scriptManager.countRows(
+              connection, getSqlTemplateRenderer(scriptName, arguments, checkpoint), scriptName);
+      metrics.setExpectedRows(rowCount);
+      LOGGER.log(Level.INFO, "Counted {0} rows of {1}.", new Object[] {rowCount, scriptName});
+    } catch (SQLException | IOException e) {
+      LOGGER.log(
+          Level.WARNING,
+          String.format(
+              "Failed counting the rows of %s; extracting it without an estimate.", scriptName),
+          e);
+    }
+  }
+
+  private static FetchProfile getFetchProfile(Arguments arguments, String scriptName) {
+    return arguments.scriptFetchProfiles().getOrDefault(scriptName, arguments.fetchProfile());
+  }
+
+  private static AvroFileOptions getAvroFileOptions(Arguments arguments, String scriptName) {
+    return arguments
+        .scriptAvroFileOptions()
+        .getOrDefault(scriptName, arguments.avroFileOptions());
+  }
+
+  /**
+   * Gets the time slices in which to extract a script. Only chunked scripts with a bounded query
+   * log time range are split; an empty list is returned for all other scripts.
+   */
+  private ImmutableList<Range<Instant>> getTimeSlices(
+      Connection connection,
+      Arguments arguments,
+      DataEntityManager dataEntityManager,
+      String scriptName,
+      ChunkCheckpoint checkpoint)
+      throws SQLException, IOException {
+    if (arguments.qryLogTimeSlices() < 2
+        || !arguments.isChunked()
+        || !dataEntityManager.isResumable()
+        || !scriptManager.supportsChunking(scriptName)
+        || !arguments.qryLogEndTime().isPresent()
+        || (checkpoint == null && !arguments.qryLogStartTime().isPresent())) {
+      return ImmutableList.of();
+    }
+    Instant start =
+        checkpoint == null
+            ? arguments.qryLogStartTime().get()
+            : checkpoint.lastSavedInstant().plusNanos(1000);
+    Instant end = arguments.qryLogEndTime().get();
+    if (!start.isBefore(end)) {
+      return ImmutableList.of();
+    }
+    if (arguments.qryLogTimeSlicing() == TimeSlicing.EQUAL_ROWS) {
+      if (!arguments.dryRun()) {
+        return planTimeSlicesByRowCounts(
+            connection, arguments, dataEntityManager, scriptName, start, end);
+      }
+      LOGGER.log(
+          Level.INFO,
+          "Should count the rows of {0} per hour to plan its time slices; using time slices of"
+              + " equal length in the dry run.",
+          scriptName);
+    }
+    return splitTimeRange(start, end, arguments.qryLogTimeSlices());
+  }
+
+  /**
+   * Plans time slices with about equal numbers of rows from the numbers of rows of the script per
+   * hour, and writes the plan to the output next to the chunks.
+   */
+  private ImmutableList<Range<Instant>> planTimeSlicesByRowCounts(
+      Connection connection,
+      Arguments arguments,
+      DataEntityManager dataEntityManager,
+      String scriptName,
+      Instant start,
+      Instant end)
+      throws SQLException, IOException {
+    SqlScriptVariables.QueryLogsVariables.Builder qryLogVarsBuilder =
+        getQueryLogsVariablesBuilder(arguments)
+            .setTimeRange(
+                SqlScriptVariables.QueryLogsVariables.TimeRange.builder()
+                    .setStartTimestamp(getTeradataTimestampFromInstant(start))
+                    .setEndTimestamp(getTeradataTimestampFromInstant(end))
+                    .build());
+    ImmutableSortedMap<Instant, Long> hourlyRowCounts =
+        scriptManager.countRowsByHour(
+            connection,
+            getSqlTemplateRenderer(scriptName, arguments, qryLogVarsBuilder),
+            scriptName);
+    TimeSlicePlanner planner = new TimeSlicePlanner(start, end, hourlyRowCounts);
+    ImmutableList<Range<Instant>> timeSlices = planner.split(arguments.qryLogTimeSlices());
+    planner.write(dataEntityManager, scriptName, timeSlices);
+    LOGGER.log(
+        Level.INFO,
+        "Planned {0} time slices of {1} from the rows of {2} hours.",
+        new Object[] {timeSlices.size(), scriptName, hourlyRowCounts.size()});
+    return timeSlices;
+  }
+
+  /**
+   * Splits a closed time range into at most {@code sliceCount} closed slices of equal length.
+   * Because the scripts filter with inclusive bounds, the slices are separated by one microsecond,
+   * the precision of Teradata timestamps, so that no row is extracted twice.
+   */
+  @VisibleForTesting
+  static ImmutableList<Range<Instant>> splitTimeRange(Instant start, Instant end, int sliceCount) {
+    long startMicros = ChronoUnit.MICROS.between(Instant.EPOCH, start);
+    long sliceMicros =
+        Math.max(1, (ChronoUnit.MICROS.between(Instant.EPOCH, end) - startMicros) / sliceCount);
+    ImmutableList.Builder<Range<Instant>> slices = ImmutableList.builder();
+    Instant sliceStart = start;
+    for (int i = 1; i < sliceCount; i++) {
+      Instant nextSliceStart = Instant.EPOCH.plus(startMicros + i * sliceMicros, ChronoUnit.MICROS);
+      Instant sliceEnd = nextSliceStart.minus(1, ChronoUnit.MICROS);
+      if (nextSliceStart.isAfter(end)) {
+        break;
+      }
+      if (sliceEnd.isBefore(sliceStart)) {
+        continue;
+      }
+      slices.add(Range.closed(sliceStart, sliceEnd));
+      sliceStart = nextSliceStart;
+    }
+    slices.add(Range.closed(sliceStart, end));
+    return slices.build();
+  }
+
+  /**
+   * Extracts a script in time slices, each on its own connection from the connection pool. At most
+   * as many slices as the parallelism run at the same time. The chunks of each slice are
+   * staged and committed in slice order, so that the committed chunks always form a gap-free
+   * sequence from which a recovery run can continue. After a slice fails, the chunks of the later
+   * slices are discarded.
+   */
+  private void runScriptInTimeSlices(
+      ConnectionPool connectionPool,
+      Arguments arguments,
+      DataEntityManager dataEntityManager,
+      String scriptName,
+      ChunkCheckpoint checkpoint,
+      ImmutableList<Range<Instant>> timeSlices,
+      ScriptExecutionOptions options)
+      throws SQLException, IOException {
+    ExecutorService slicePool =
+        Executors.newFixedThreadPool(Math.min(timeSlices.size(), arguments.parallelism()));
+    List<TimeSliceDataEntityManager> sliceDataEntityManagers = new ArrayList<>();
+    List<Future<Void>> slices = new ArrayList<>();
+    for (Range<Instant> timeSlice : timeSlices) {
+      TimeSliceDataEntityManager sliceDataEntityManager =
+          new TimeSliceDataEntityManager(
+              dataEntityManager, scriptName, sliceDataEntityManagers.size());
+      ScriptExecutionOptions sliceOptions =
+          options.toBuilder()
+              .setMetrics(options.metrics().startTimeSlice(sliceDataEntityManagers.size()))
+              .build();
+      sliceDataEntityManagers.add(sliceDataEntityManager);
+      slices.add(
+          slicePool.submit(
+              () -> {
+                runTimeSlice(
+                    connectionPool,
+                    arguments,
+                    sliceDataEntityManager,
+                    scriptName,
+                    timeSlice,
+                    sliceOptions);
+                return null;
+              }));
+    }
+    slicePool.shutdown();
+
+    int nextChunkNumber = checkpoint == null ? 0 : checkpoint.lastSavedChunkNumber() + 1;
+    Throwable failure = null;
+    for (int i = 0; i < slices.size(); i++) {
+      failure = await(slicePool, slices.get(i), failure);
+      TimeSliceDataEntityManager sliceDataEntityManager = sliceDataEntityManagers.get(i);
+      try {
+        if (failure == null) {
+          nextChunkNumber = sliceDataEntityManager.commit(nextChunkNumber);
+        } else {
+          sliceDataEntityManager.discard();
+        }
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    rethrowIfPresent(failure);
+  }
+
+  private void runTimeSlice(
+      ConnectionPool connectionPool,
+      Arguments arguments,
+      DataEntityManager sliceDataEntityManager,
+      String scriptName,
+      Range<Instant> timeSlice,
+      ScriptExecutionOptions options)
+      throws SQLException, IOException {
+    String startTimestamp = getTeradataTimestampFromInstant(timeSlice.lowerEndpoint());
+    String endTimestamp = getTeradataTimestampFromInstant(timeSlice.upperEndpoint());
+    LOGGER.log(
+        Level.INFO,
+        "Start extracting {0} from {1} to {2}...",
+        new Object[] {scriptName, startTimestamp, endTimestamp});
+    SqlScriptVariables.QueryLogsVariables.Builder qryLogVarsBuilder =
+        getQueryLogsVariablesBuilder(arguments)
+            .setTimeRange(
+                SqlScriptVariables.QueryLogsVariables.TimeRange.builder()
+                    .setStartTimestamp(startTimestamp)
+                    .setEndTimestamp(endTimestamp)
+                    .build());
+    try (Connection connection =
+        options.fetchProfile().fastExport() && !arguments.dryRun()
+            ? connectionPool.getDedicatedConnection(FAST_EXPORT_PROPERTIES)
+            : connectionPool.getConnection()) {
       scriptManager.executeScript(
           connection,
           arguments.dryRun(),
-          sqlTemplateRenderer,
+          getSqlTemplateRenderer(scriptName, arguments, qryLogVarsBuilder),
           scriptName,
-          dataEntityManager,
+          sliceDataEntityManager,
           arguments.chunkRows(),
-          checkpoint == null ? 0 : checkpoint.lastSavedChunkNumber() + 1);
-      connection.close();
-      LOGGER.log(Level.INFO, "Finished extracting {0}.", scriptName);
+          arguments.chunkBytes(),
+          0,
+          options);
     }
+    options.metrics().finish();
+  }
 
-    maybeRunSchemaQueries(arguments, dataEntityManager);
+  private static SqlScriptVariables.QueryLogsVariables.Builder getQueryLogsVariablesBuilder(
+      Arguments arguments) {
+    return SqlScriptVariables.QueryLogsVariables.builder()
+        .setNeedQueryText(arguments.needQueryText())
+        .setUsers(arguments.qryLogUsers());
+  }
 
-    dataEntityManager.close();
-    LOGGER.log(Level.INFO, "Finished extraction.");
-    return 0;
+  /**
+   * Orders scripts by descending expected cost so that long-running scripts start first. Scripts
+   * without a known cost keep their relative order and come last.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> sortByExpectedCost(Set<String> scriptNames) {
+    return scriptNames.stream()
+        .sorted(Comparator.comparingInt(ExtractExecutorImpl::getExpectedCostRank))
+        .collect(toImmutableList());
+  }
+
+  private static int getExpectedCostRank(String scriptName) {
+    int rank = SCRIPTS_BY_EXPECTED_COST.indexOf(scriptName);
+    return rank < 0 ? SCRIPTS_BY_EXPECTED_COST.size() : rank;
+  }
+
+  /**
+   * Gets the renderer of a script that is extracted as a whole, which continues after the
+   * checkpoint, if any.
+   */
+  private SqlTemplateRenderer getSqlTemplateRenderer(
+      String scriptName, Arguments arguments, ChunkCheckpoint checkpoint) {
+    SqlScriptVariables.QueryLogsVariables.Builder qryLogVarsBuilder =
+        getQueryLogsVariablesBuilder(arguments);
+    maybeAddTimeRange(qryLogVarsBuilder, arguments, checkpoint);
+    SqlTemplateRenderer sqlTemplateRenderer =
+        getSqlTemplateRenderer(scriptName, arguments, qryLogVarsBuilder);
+    maybeAddKeysetStart(sqlTemplateRenderer.getSqlScriptVariablesBuilder(), checkpoint);
+    return sqlTemplateRenderer;
   }
 
   private SqlTemplateRenderer getSqlTemplateRenderer(
@@ -184,6 +720,8 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
 
   private void extractSchema(
       ImmutableList<SchemaFilter> schemaFilters,
+      SchemaRetrievalMode schemaRetrievalMode,
+      AvroFileOptions fileOptions,
       DataEntityManager dataEntityManager,
       Connection connection)
       throws SQLException, IOException {
@@ -191,24 +729,33 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
     if (schemaKeys.isEmpty()) {
       return;
     }
-    OutputStream outputStream = dataEntityManager.getEntityOutputStream("schema.avro");
-    ImmutableList.Builder<GenericRecord> recordBuilder = new ImmutableList.Builder<>();
-    Schema schema =
-        getAvroSchema(
-            "schema",
-            "namespace",
-            connection
-                .getMetaData()
-                .getColumns(
-                    /*catalog =*/ null,
-                    /*schemaPattern =*/ null,
-                    /*tableNamePattern =*/ "%",
-                    /*columnNamePattern =*/ null)
-                .getMetaData());
-    for (SchemaKey schemaKey : schemaKeys) {
-      recordBuilder.addAll(schemaManager.retrieveSchema(connection, schemaKey, schema));
+    Schema schema;
+    try (ResultSet columns =
+        connection
+            .getMetaData()
+            .getColumns(
+                /*catalog =*/ null,
+                /*schemaPattern =*/ null,
+                /*tableNamePattern =*/ "%",
+                /*columnNamePattern =*/ null)) {
+      schema = getAvroSchema("schema", "namespace", columns.getMetaData());
+    }
+    // The records are written as they are read, so that memory does not grow with the number of
+    // tables.
+    try (AvroResultSetRecorder<GenericRecord> recorder =
+        AvroResultSetRecorder.create(
+            schema,
+            dataEntityManager.getEntityOutputStream("schema.avro", fileOptions.isCompressed()),
+            fileOptions)) {
+      if (schemaRetrievalMode == SchemaRetrievalMode.PER_TABLE) {
+        for (SchemaKey schemaKey : schemaKeys) {
+          schemaManager.retrieveSchema(connection, schemaKey, schema).forEach(recorder::add);
+        }
+      } else {
+        schemaManager.retrieveSchemas(
+            connection, schemaKeys, schemaRetrievalMode, schema, recorder::add);
+      }
     }
-    dumpResults(recordBuilder.build(), outputStream, schema);
   }
 
   private ImmutableSet<String> getRequestedScripts(Arguments arguments) {
@@ -216,6 +763,12 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
 
     validateScriptNames("skip-sql-scripts", allScriptNames, arguments.skipSqlScripts());
     validateScriptNames("sql-scripts", allScriptNames, arguments.sqlScripts());
+    validateScriptNames(
+        "fetch profiles", allScriptNames, arguments.scriptFetchProfiles().keySet().asList());
+    validateScriptNames(
+        "Avro file options",
+        allScriptNames,
+        arguments.scriptAvroFileOptions().keySet().asList());
 
     ImmutableSet<String> requestedScripts =
         arguments.sqlScripts().isEmpty()
@@ -238,7 +791,8 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
     return requestedScripts;
   }
 
-  private void maybeRunSchemaQueries(Arguments arguments, DataEntityManager dataEntityManager) {
+  private void maybeRunSchemaQueries(
+      Arguments arguments, ConnectionPool connectionPool, DataEntityManager dataEntityManager) {
 
     if (!arguments.needJdbcSchemas()) {
       LOGGER.log(Level.INFO, "Skipping extracting schemas was requested.");
@@ -246,10 +800,13 @@ public final class ExtractExecutorImpl implements ExtractExecutor {
       LOGGER.log(Level.INFO, "Skipping extracting schemas because dry run was requested.");
     } else {
       LOGGER.log(Level.INFO, "Start extracting schemas");
-      try (Connection connection =
-          DriverManager.getConnection(
-              arguments.dbConnectionAddress(), arguments.dbConnectionProperties())) {
-        extractSchema(arguments.schemaFilters(), dataEntityManager, connection);
+      try (Connection connection = connectionPool.getConnection()) {
+        extractSchema(
+            arguments.schemaFilters(),
+            arguments.schemaRetrievalMode(),
+            arguments.avroFileOptions(),
+            dataEntityManager,
+            connection);
         LOGGER.log(Level.INFO, "Finish extracting schemas");
       } catch (RuntimeException | SQLException | IOException e) {
         LOGGER.log(Level.WARNING, "Encountered an error while extracting schemas", e);
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.LatencyHistogram;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The metrics of the scripts of a run, written as metrics.json next to the output of the scripts.
+ * Each script lists its time slices and chunks as parts, with the same timings and sizes.
+ */
+final class MetricsReport {
+
+  /** The name of the report in the output directory or archive. */
+  static final String NAME = "metrics.json";
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double BYTES_PER_MEGABYTE = 1e6;
+
+  /** The upper bounds of the buckets of the fetch latencies in seconds. */
+  private static final double[] FETCH_LATENCY_BUCKETS = {
+    1e-6, 1e-5, 1e-4, 1e-3, 0.01, 0.1, 1, 10
+  };
+
+  private final Queue<ExtractionMetrics> scripts = new ConcurrentLinkedQueue<>();
+  private final boolean recordFetchLatencies;
+
+  MetricsReport() {
+    this(/* recordFetchLatencies= */ false);
+  }
+
+  /**
+   * @param recordFetchLatencies Whether to count the latency of each fetch of the scripts in a
+   *     histogram, e.g., for an exporter of the metrics.
+   */
+  MetricsReport(boolean recordFetchLatencies) {
+    this.recordFetchLatencies = recordFetchLatencies;
+  }
+
+  /** Starts the metrics of a script, which are reported once they are finished. */
+  ExtractionMetrics startScript(String scriptName) {
+    ExtractionMetrics metrics =
+        recordFetchLatencies
+            ? ExtractionMetrics.startScript(
+                scriptName, new LatencyHistogram(FETCH_LATENCY_BUCKETS))
+            : ExtractionMetrics.startScript(scriptName);
+    scripts.add(metrics);
+    return metrics;
+  }
+
+  /** The metrics of the started scripts, in the order in which they were started. */
+  ImmutableList<ExtractionMetrics> getScripts() {
+    return ImmutableList.copyOf(scripts);
+  }
+
+  /** Writes the report of the finished scripts. */
+  void write(DataEntityManager dataEntityManager) throws IOException {
+    ObjectNode report = OBJECT_MAPPER.createObjectNode();
+    report.putArray("scripts").addAll(toNodes(getFinishedScripts()));
+    // The report is staged, so that a report of a previous attempt is replaced as a whole.
+    String stagedName = NAME + ".tmp";
+    try (OutputStream outputStream =
+        dataEntityManager.getStagedEntityOutputStream(stagedName, /* compressed= */ false)) {
+      OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(outputStream, report);
+    }
+    dataEntityManager.moveEntity(stagedName, NAME);
+  }
+
+  private ImmutableList<ExtractionMetrics> getFinishedScripts() {
+    return scripts.stream()
+        .filter(metrics -> metrics.wallNanos() >= 0)
+        .collect(toImmutableList());
+  }
+
+  private static ImmutableList<ObjectNode> toNodes(ImmutableList<ExtractionMetrics> metricsList) {
+    ImmutableList.Builder<ObjectNode> nodes = ImmutableList.builder();
+    for (ExtractionMetrics metrics : metricsList) {
+      nodes.add(toNode(metrics));
+    }
+    return nodes.build();
+  }
+
+  private static ObjectNode toNode(ExtractionMetrics metrics) {
+    ObjectNode node = OBJECT_MAPPER.createObjectNode();
+    node.put("script", metrics.scriptName());
+    metrics.timeSlice().ifPresent(timeSlice -> node.put("timeSlice", timeSlice));
+    metrics.chunk().ifPresent(chunk -> node.put("chunk", chunk));
+    double wallSeconds = toSeconds(metrics.wallNanos());
+    node.put("wallSeconds", wallSeconds);
+    if (metrics.timeToFirstRowNanos() >= 0) {
+      node.put("timeToFirstRowSeconds", toSeconds(metrics.timeToFirstRowNanos()));
+    }
+    node.put("fetchSeconds", toSeconds(metrics.fetchNanos()));
+    node.put("convertSeconds", toSeconds(metrics.convertNanos()));
+    node.put("encodeSeconds", toSeconds(metrics.encodeNanos()));
+    node.put("writeSeconds", toSeconds(metrics.writeNanos()));
+    node.put("rows", metrics.rows());
+    node.put("bytes", metrics.bytes());
+    if (wallSeconds > 0) {
+      node.put("rowsPerSecond", metrics.rows() / wallSeconds);
+      node.put("megabytesPerSecond", metrics.bytes() / BYTES_PER_MEGABYTE / wallSeconds);
+    }
+    ImmutableList<ExtractionMetrics> parts = metrics.parts();
+    if (!parts.isEmpty()) {
+      node.putArray("parts").addAll(toNodes(parts));
+    }
+    return node;
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / NANOS_PER_SECOND;
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports the progress of the scripts of a run at a fixed interval. For each running script, the
+ * log shows the fetched rows and the rate and, if the rows of the script were counted before, the
+ * percentage done and the estimated time left.
+ *
+ * <p>Each report also replaces a progress.json file next to the output, so that a scheduler can
+ * poll it. The time of the report shows that the run is alive, and the time of the last fetched
+ * row of a script shows whether its extraction is stalled.
+ */
+final class ProgressReporter implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(ProgressReporter.class.getName());
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  /** The name of the progress file in the output directory. */
+  static final String NAME = "progress.json";
+
+  private final MetricsReport metricsReport;
+  private final Path path;
+  private final ScheduledExecutorService scheduler;
+  private final Map<String, RowProgress> lastProgress = new HashMap<>();
+
+  /**
+   * Starts reporting the progress of the scripts of a metrics report.
+   *
+   * @param metricsReport The report with the metrics of the started scripts.
+   * @param path The path of the progress file.
+   * @param interval The interval between reports. Zero disables the reporter.
+   */
+  ProgressReporter(MetricsReport metricsReport, Path path, Duration interval) {
+    this.metricsReport = metricsReport;
+    this.path = path;
+    if (interval.isZero()) {
+      scheduler = null;
+      return;
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("progress-reporter").build());
+    scheduler.scheduleAtFixedRate(
+        () -> report(/* running= */ true),
+        interval.toMillis(),
+        interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gets the path of the progress file of an output. The file of a ZIP output is placed next to
+   * it, because the entries of the archive cannot be replaced while it is written.
+   */
+  static Path getPath(Path outputPath) {
+    if (outputPath.toString().endsWith(".zip")) {
+      return outputPath.resolveSibling(outputPath.getFileName() + "." + NAME);
+    }
+    return outputPath.resolve(NAME);
+  }
+
+  /** Stops reporting and writes a last progress file that marks the run as no longer running. */
+  @Override
+  public void close() {
+    if (scheduler == null) {
+      return;
+    }
+    scheduler.shutdownNow();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    report(/* running= */ false);
+  }
+
+  /** Logs the progress of the running scripts and replaces the progress file. */
+  synchronized void report(boolean running) {
+    Instant now = Instant.now();
+    ObjectNode progress = OBJECT_MAPPER.createObjectNode();
+    progress.put("updated", now.toString());
+    progress.put("running", running);
+    ArrayNode scriptNodes = progress.putArray("scripts");
+    for (ExtractionMetrics metrics : metricsReport.getScripts()) {
+      scriptNodes.add(toNode(metrics, now, running));
+    }
+    try {
+      Path stagedPath = path.resolveSibling(path.getFileName() + ".tmp");
+      OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(stagedPath.toFile(), progress);
+      // Pollers only see complete files.
+      Files.move(
+          stagedPath,
+          path,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      // The progress must not fail the extraction.
+      LOGGER.log(Level.WARNING, String.format("Failed to write the progress to %s.", path), e);
+    }
+  }
+
+  private ObjectNode toNode(ExtractionMetrics metrics, Instant now, boolean log) {
+    String scriptName = metrics.scriptName();
+    boolean finished = metrics.wallNanos() >= 0;
+    long rows = metrics.fetchedRows();
+    RowProgress previous = lastProgress.get(scriptName);
+    if (previous == null || previous.rows != rows) {
+      lastProgress.put(scriptName, new RowProgress(rows, now));
+    }
+    Instant lastRowChange = lastProgress.get(scriptName).time;
+    double elapsedSeconds = metrics.elapsedNanos() / NANOS_PER_SECOND;
+    double rowsPerSecond = elapsedSeconds > 0 ? rows / elapsedSeconds : 0;
+    long expectedRows = metrics.expectedRows();
+
+    ObjectNode node = OBJECT_MAPPER.createObjectNode();
+    node.put("script", scriptName);
+    node.put("state", finished ? "FINISHED" : "RUNNING");
+    node.put("rows", rows);
+    node.put("rowsPerSecond", rowsPerSecond);
+    node.put("elapsedSeconds", elapsedSeconds);
+    node.put("lastProgress", lastRowChange.toString());
+    StringBuilder message =
+        new StringBuilder(String.format("Progress of %s: %,d", scriptName, rows));
+    if (expectedRows >= 0) {
+      double percent = expectedRows > 0 ? Math.min(100.0, 100.0 * rows / expectedRows) : 100.0;
+      node.put("expectedRows", expectedRows);
+      node.put("percent", percent);
+      message.append(String.format(" of %,d rows (%.1f%%)", expectedRows, percent));
+      if (!finished && rowsPerSecond > 0) {
+        long etaSeconds = (long) (Math.max(0, expectedRows - rows) / rowsPerSecond);
+        node.put("etaSeconds", etaSeconds);
+        message.append(
+            String.format(", %,.0f rows/s, %s left", rowsPerSecond, format(etaSeconds)));
+      }
+    } else {
+      message.append(String.format(" rows, %,.0f rows/s", rowsPerSecond));
+    }
+    if (log && !finished) {
+      LOGGER.log(Level.INFO, message.append('.').toString());
+    }
+    return node;
+  }
+
+  private static String format(long seconds) {
+    return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+  }
+
+  /** The rows of a script at the last report in which they changed. */
+  private static final class RowProgress {
+    final long rows;
+    final Instant time;
+
+    RowProgress(long rows, Instant time) {
+      this.rows = rows;
+      this.time = time;
+    }
+  }
+}
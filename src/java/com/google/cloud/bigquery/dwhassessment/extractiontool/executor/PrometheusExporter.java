@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.LatencyHistogram;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports the metrics of the scripts of a run in the Prometheus text format, either on a local HTTP
+ * endpoint or in a file that is replaced periodically, e.g., for the textfile collector of the node
+ * exporter. The metrics are broken down by script:
+ *
+ * <ul>
+ *   <li>the rows fetched so far;
+ *   <li>the bytes of the finished chunks and parts written so far;
+ *   <li>the latencies of the fetches, i.e., of {@link java.sql.ResultSet#next};
+ *   <li>the durations of the finished chunks.
+ * </ul>
+ *
+ * <p>The active connections of the connection pool are exported as a gauge for the whole run. The
+ * metrics are only rendered when they are scraped, so the exporter adds no work per row besides the
+ * fetch latencies, which the metrics report only counts if an exporter is configured.
+ */
+final class PrometheusExporter implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(PrometheusExporter.class.getName());
+
+  /** The content type of the Prometheus text format. */
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** The interval at which the metrics file is replaced. */
+  static final Duration TEXTFILE_INTERVAL = Duration.ofSeconds(15);
+
+  /** The upper bounds of the buckets of the chunk durations in seconds. */
+  private static final double[] CHUNK_DURATION_BUCKETS = {
+    1, 5, 10, 30, 60, 120, 300, 600, 1800, 3600
+  };
+
+  private final MetricsReport metricsReport;
+  private final ConnectionPool connectionPool;
+  private final HttpServer server;
+  private final Path textfile;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Starts exporting the metrics of the scripts of a metrics report. Without a port and a file, the
+   * exporter does nothing.
+   *
+   * @param metricsReport The report with the metrics of the started scripts.
+   * @param connectionPool The connection pool of the run.
+   * @param port The local port on which to serve the metrics at /metrics, or 0 for any free port.
+   * @param textfile The file to replace with the metrics.
+   */
+  PrometheusExporter(
+      MetricsReport metricsReport,
+      ConnectionPool connectionPool,
+      Optional<Integer> port,
+      Optional<Path> textfile)
+      throws IOException {
+    this.metricsReport = metricsReport;
+    this.connectionPool = connectionPool;
+    if (port.isPresent()) {
+      server =
+          HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port.get()), 0);
+      server.createContext("/metrics", this::handle);
+      server.start();
+      LOGGER.log(
+          Level.INFO,
+          String.format(
+              "Serving the metrics at http://localhost:%d/metrics.",
+              server.getAddress().getPort()));
+    } else {
+      server = null;
+    }
+    this.textfile = textfile.orElse(null);
+    if (textfile.isPresent()) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("prometheus-exporter")
+                  .build());
+      scheduler.scheduleAtFixedRate(
+          this::writeTextfile,
+          /* initialDelay= */ 0,
+          TEXTFILE_INTERVAL.toMillis(),
+          TimeUnit.MILLISECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  /** The port on which the metrics are served, or -1 if they are not served. */
+  int port() {
+    return server == null ? -1 : server.getAddress().getPort();
+  }
+
+  /** Stops serving the metrics and replaces the metrics file a last time. */
+  @Override
+  public void close() {
+    if (server != null) {
+      server.stop(/* delay= */ 0);
+    }
+    if (scheduler == null) {
+      return;
+    }
+    scheduler.shutdownNow();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writeTextfile();
+  }
+
+  /** Renders the current metrics in the Prometheus text format. */
+  String scrape() {
+    ImmutableList<ExtractionMetrics> scripts = metricsReport.getScripts();
+    StringBuilder text = new StringBuilder();
+
+    startMetric(text, "dwh_extraction_rows_fetched_total", "counter", "Rows fetched by a script.");
+    for (ExtractionMetrics script : scripts) {
+      appendSample(
+          text, "dwh_extraction_rows_fetched_total", script, "", script.fetchedRows());
+    }
+
+    startMetric(
+        text,
+        "dwh_extraction_bytes_written_total",
+        "counter",
+        "Bytes written by the finished chunks and parts of a script.");
+    for (ExtractionMetrics script : scripts) {
+      appendSample(
+          text, "dwh_extraction_bytes_written_total", script, "", script.writtenBytes());
+    }
+
+    startMetric(
+        text,
+        "dwh_extraction_fetch_latency_seconds",
+        "histogram",
+        "Latency of fetching a row of a script from the result set.");
+    for (ExtractionMetrics script : scripts) {
+      if (script.fetchLatencies().isPresent()) {
+        appendHistogram(
+            text, "dwh_extraction_fetch_latency_seconds", script, script.fetchLatencies().get());
+      }
+    }
+
+    startMetric(
+        text,
+        "dwh_extraction_chunk_duration_seconds",
+        "histogram",
+        "Wall time of the finished chunks of a script.");
+    for (ExtractionMetrics script : scripts) {
+      ImmutableList<ExtractionMetrics> chunks = script.finishedChunks();
+      if (chunks.isEmpty()) {
+        continue;
+      }
+      LatencyHistogram chunkDurations = new LatencyHistogram(CHUNK_DURATION_BUCKETS);
+      for (ExtractionMetrics chunk : chunks) {
+        chunkDurations.observeNanos(chunk.wallNanos());
+      }
+      appendHistogram(text, "dwh_extraction_chunk_duration_seconds", script, chunkDurations);
+    }
+
+    startMetric(
+        text,
+        "dwh_extraction_active_connections",
+        "gauge",
+        "Database connections of the run that are in use.");
+    text.append("dwh_extraction_active_connections ")
+        .append(connectionPool.activeConnections())
+        .append('\n');
+    return text.toString();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      byte[] body = scrape().getBytes(UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream outputStream = exchange.getResponseBody()) {
+        outputStream.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private synchronized void writeTextfile() {
+    try {
+      Path stagedPath = textfile.resolveSibling(textfile.getFileName() + ".tmp");
+      Files.write(stagedPath, scrape().getBytes(UTF_8));
+      // The collector only sees complete files.
+      Files.move(
+          stagedPath,
+          textfile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      // The metrics must not fail the extraction.
+      LOGGER.log(
+          Level.WARNING, String.format("Failed to write the metrics to %s.", textfile), e);
+    }
+  }
+
+  private static void startMetric(StringBuilder text, String name, String type, String help) {
+    text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void appendHistogram(
+      StringBuilder text, String name, ExtractionMetrics script, LatencyHistogram histogram) {
+    ImmutableList<Double> upperBounds = histogram.upperBoundsSeconds();
+    ImmutableList<Long> cumulativeCounts = histogram.cumulativeCounts();
+    for (int i = 0; i < cumulativeCounts.size(); i++) {
+      String upperBound =
+          i < upperBounds.size()
+              ? BigDecimal.valueOf(upperBounds.get(i)).stripTrailingZeros().toPlainString()
+              : "+Inf";
+      appendSample(
+          text,
+          name + "_bucket",
+          script,
+          ",le=\"" + upperBound + "\"",
+          cumulativeCounts.get(i));
+    }
+    appendSample(text, name + "_sum", script, "", histogram.sumSeconds());
+    appendSample(
+        text, name + "_count", script, "", cumulativeCounts.get(cumulativeCounts.size() - 1));
+  }
+
+  private static void appendSample(
+      StringBuilder text, String name, ExtractionMetrics script, String labels, Object value) {
+    text.append(name)
+        .append("{script=\"")
+        .append(escape(script.scriptName()))
+        .append('"')
+        .append(labels)
+        .append("} ")
+        .append(value)
+        .append('\n');
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -35,10 +35,10 @@ public interface SaveChecker {
 
   /**
    * Given a set of scripts, returns the names of those that have finished successfully during a
-   * previous run. Infers whether a script is finished from the names of the files present in the
-   * target path.
+   * previous run. Infers whether a script is finished from the manifest of the previous run or,
+   * without one, from the names of the files present in the target path.
    *
-   * @param recordPath Target path containing records from the previous run(s).
+   * @param recordPath Target directory or zip archive containing records from the previous run(s).
    * @param scriptsToCheck The scripts whose records to look for.
    * @param fileExtension The extension of the record files (not including ".").
    * @return The set containing the names of the scripts.
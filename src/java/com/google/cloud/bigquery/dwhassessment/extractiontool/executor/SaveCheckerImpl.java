@@ -21,10 +21,14 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.collectingAndThen;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.common.ChunkCheckpoint;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerZipImpl;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.ManifestEntry;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.RunManifest;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.io.IOException;
@@ -41,12 +45,18 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class SaveCheckerImpl implements SaveChecker {
 
+  private static final Logger LOGGER = Logger.getLogger(SaveCheckerImpl.class.getName());
+
   private final ImmutableMap<String, ImmutableList<String>> sortingColumnsMap;
+  private final ImmutableMap<String, ImmutableList<String>> keysetColumnsMap;
 
   // The expected filename format is
   // "input_type-yyyymmddThhmmssSffffff-yyyymmddThhmmssSffffff_n.avro",
@@ -70,35 +80,97 @@ public class SaveCheckerImpl implements SaveChecker {
           .toFormatter(Locale.ENGLISH);
 
   public SaveCheckerImpl(ImmutableMap<String, ImmutableList<String>> sortingColumnsMap) {
+    this(sortingColumnsMap, ImmutableMap.of());
+  }
+
+  public SaveCheckerImpl(
+      ImmutableMap<String, ImmutableList<String>> sortingColumnsMap,
+      ImmutableMap<String, ImmutableList<String>> keysetColumnsMap) {
     this.sortingColumnsMap = sortingColumnsMap;
+    this.keysetColumnsMap = keysetColumnsMap;
   }
 
-  private static Map<String, List<Matcher>> getFileMapSortingEachGroupByChunkNumber(Path path) {
+  /**
+   * Reads the run manifest of a previous run, keeping the last entry of each file.
+   *
+   * @return The entries by file name, or empty if the run did not write a manifest.
+   */
+  private static Optional<ImmutableMap<String, ManifestEntry>> readManifest(Path path) {
     try {
-      return Files.walk(path)
-          .filter(Files::isRegularFile)
-          .map(oneFile -> INPUT_CHUNK_PATTERN.matcher(oneFile.getFileName().toString()))
-          .filter(Matcher::matches)
-          .collect(
-              groupingBy(
-                  (Matcher matcher) -> matcher.group("scriptName"),
-                  mapping(
-                      Function.identity(),
-                      collectingAndThen(
-                          toList(),
-                          list ->
-                              list.stream()
-                                  .sorted(
-                                      Comparator.comparingInt(
-                                          matcher ->
-                                              Integer.parseInt(matcher.group("chunkNumber"))))
-                                  .collect(toList())))));
+      return RunManifest.read(path)
+          .map(
+              entries ->
+                  entries.stream()
+                      .collect(
+                          ImmutableMap.toImmutableMap(
+                              ManifestEntry::file, Function.identity(), (first, last) -> last)));
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          String.format("Error reading the manifest of path '%s'.", path.toString()), e);
+    }
+  }
+
+  /**
+   * Gets the names of the records in a directory or, for a path ending in ".zip", in a zip archive.
+   * The archive may come from an interrupted run that never wrote its central directory. If the run
+   * wrote a manifest, the records that do not match their entries are left out. Records without an
+   * entry are kept, e.g., those of an earlier run that a run with a manifest continued.
+   */
+  private static ImmutableSet<String> getRecordNames(
+      Path path, Optional<ImmutableMap<String, ManifestEntry>> manifest) {
+    try {
+      ImmutableSet<String> recordNames = listRecordNames(path);
+      if (!manifest.isPresent()) {
+        return recordNames;
+      }
+      ImmutableSet<String> invalidFiles =
+          RunManifest.findInvalidFiles(path, manifest.get().values());
+      if (!invalidFiles.isEmpty()) {
+        LOGGER.warning(
+            String.format(
+                "Ignoring files that do not match the manifest of path '%s': %s",
+                path, invalidFiles));
+      }
+      return Sets.difference(recordNames, invalidFiles).immutableCopy();
     } catch (IOException e) {
       throw new IllegalStateException(
           String.format("Error reading path '%s'.", path.toString()), e);
     }
   }
 
+  private static ImmutableSet<String> listRecordNames(Path path) throws IOException {
+    if (path.toString().endsWith(".zip") && Files.isRegularFile(path)) {
+      return ImmutableSet.copyOf(DataEntityManagerZipImpl.readEntityNames(path));
+    }
+    try (Stream<Path> files = Files.walk(path)) {
+      return files
+          .filter(Files::isRegularFile)
+          .map(oneFile -> oneFile.getFileName().toString())
+          .collect(ImmutableSet.toImmutableSet());
+    }
+  }
+
+  private static Map<String, List<Matcher>> getFileMapSortingEachGroupByChunkNumber(
+      ImmutableSet<String> recordNames) {
+    return recordNames.stream()
+        .map(INPUT_CHUNK_PATTERN::matcher)
+        .filter(Matcher::matches)
+        .collect(
+            groupingBy(
+                (Matcher matcher) -> matcher.group("scriptName"),
+                mapping(
+                    Function.identity(),
+                    collectingAndThen(
+                        toList(),
+                        list ->
+                            list.stream()
+                                .sorted(
+                                    Comparator.comparingInt(
+                                        matcher ->
+                                            Integer.parseInt(matcher.group("chunkNumber"))))
+                                .collect(toList())))));
+  }
+
   private static Instant getInstantFromFilenameTimestamp(String timestamp) {
     return ZonedDateTime.of(
             chunkTimestampFormatter.parse(timestamp, LocalDateTime::from), ZoneOffset.UTC)
@@ -107,8 +179,13 @@ public class SaveCheckerImpl implements SaveChecker {
 
   @Override
   public ImmutableMap<String, ChunkCheckpoint> getScriptCheckPoints(Path path) {
-    Map<String, List<Matcher>> fileMap = getFileMapSortingEachGroupByChunkNumber(path);
+    Optional<ImmutableMap<String, ManifestEntry>> manifest = readManifest(path);
+    ImmutableSet<String> recordNames = getRecordNames(path, manifest);
+    Map<String, List<Matcher>> fileMap = getFileMapSortingEachGroupByChunkNumber(recordNames);
     ImmutableMap.Builder<String, ChunkCheckpoint> checkPointsMapBuilder = ImmutableMap.builder();
+    if (manifest.isPresent()) {
+      putKeysetCheckpoints(manifest.get(), recordNames, checkPointsMapBuilder);
+    }
     for (String scriptName : sortingColumnsMap.keySet()) {
       if (fileMap.containsKey(scriptName) && !fileMap.get(scriptName).isEmpty()) {
         List<Matcher> matchers = fileMap.get(scriptName);
@@ -140,9 +217,54 @@ public class SaveCheckerImpl implements SaveChecker {
     return checkPointsMapBuilder.build();
   }
 
+  /**
+   * Adds the checkpoints of the scripts that were extracted in keyset pages. Their keys are not
+   * part of the file names, so they are only taken from the manifest.
+   */
+  private void putKeysetCheckpoints(
+      ImmutableMap<String, ManifestEntry> manifest,
+      ImmutableSet<String> recordNames,
+      ImmutableMap.Builder<String, ChunkCheckpoint> checkPointsMapBuilder) {
+    Map<String, List<ManifestEntry>> chunksByScript =
+        manifest.values().stream()
+            .filter(entry -> keysetColumnsMap.containsKey(entry.scriptName()))
+            .filter(entry -> entry.chunkNumber().isPresent() && entry.lastSortKey().isPresent())
+            .filter(entry -> recordNames.contains(entry.file()))
+            .sorted(Comparator.comparing(entry -> entry.chunkNumber().get()))
+            .collect(groupingBy(ManifestEntry::scriptName));
+    for (Map.Entry<String, List<ManifestEntry>> chunks : chunksByScript.entrySet()) {
+      int expectedChunkNumber = 0;
+      for (ManifestEntry chunk : chunks.getValue()) {
+        if (chunk.chunkNumber().get() != expectedChunkNumber) {
+          throw new IllegalStateException(
+              String.format(
+                  "The chunk index of file %s breaks the consecutiveness with other files (the"
+                      + " previous chunk number is %d), possibly indicating missing files."
+                      + " Aborting.",
+                  chunk.file(), expectedChunkNumber - 1));
+        }
+        expectedChunkNumber++;
+      }
+      ManifestEntry lastChunk = Iterables.getLast(chunks.getValue());
+      checkPointsMapBuilder.put(
+          chunks.getKey(),
+          ChunkCheckpoint.builder()
+              .setLastSavedChunkNumber(lastChunk.chunkNumber().get())
+              .setLastSavedKey(RunManifest.parseKey(lastChunk.lastSortKey().get()))
+              .build());
+    }
+  }
+
   @Override
   public ImmutableSet<String> getNamesOfFinishedScripts(
       Path recordPath, Set<String> scriptsToCheck, String fileExtension) {
+    Optional<ImmutableMap<String, ManifestEntry>> manifest = readManifest(recordPath);
+    if (manifest.isPresent() || recordPath.toString().endsWith(".zip")) {
+      ImmutableSet<String> recordNames = getRecordNames(recordPath, manifest);
+      return scriptsToCheck.stream()
+          .filter(scriptName -> recordNames.contains(scriptName + "." + fileExtension))
+          .collect(ImmutableSet.toImmutableSet());
+    }
     return scriptsToCheck.stream()
         .filter(scriptName -> Files.exists(recordPath.resolve(scriptName + "." + fileExtension)))
         .collect(ImmutableSet.toImmutableSet());
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.ManifestEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data entity manager that stages the output of one time slice of a script next to the final
+ * output. All entities of a slice are staged under a hidden prefix, so they are not mistaken for
+ * finished chunks by the save checker, and moving them only records their final names. Once all
+ * earlier slices are committed, the chunks are moved to their final names, continuing the chunk
+ * numbering of the previous slices. Their manifest entries are held back until then as well.
+ */
+final class TimeSliceDataEntityManager implements DataEntityManager {
+
+  private static final Pattern CHUNK_PATTERN =
+      Pattern.compile("(?P<baseName>.+)_(?P<chunkNumber>\\d+)\\.avro");
+
+  private final DataEntityManager delegate;
+  private final String prefix;
+  // The slice is written by a single thread and committed after it has finished.
+  private final Set<String> stagedNames = new LinkedHashSet<>();
+  private final Map<String, String> stagedNamesByName = new LinkedHashMap<>();
+  private final Map<String, ManifestEntry> manifestEntriesByName = new HashMap<>();
+
+  TimeSliceDataEntityManager(DataEntityManager delegate, String scriptName, int sliceNumber) {
+    this.delegate = delegate;
+    this.prefix = String.format(".%s_slice%d.", scriptName, sliceNumber);
+  }
+
+  @Override
+  public OutputStream getEntityOutputStream(String name) throws IOException {
+    return getStagedEntityOutputStream(name, /* compressed= */ false);
+  }
+
+  @Override
+  public OutputStream getEntityOutputStream(String name, boolean compressed) throws IOException {
+    return getStagedEntityOutputStream(name, compressed);
+  }
+
+  @Override
+  public OutputStream getStagedEntityOutputStream(String name, boolean compressed)
+      throws IOException {
+    stagedNames.add(name);
+    return delegate.getStagedEntityOutputStream(prefix + name, compressed);
+  }
+
+  @Override
+  public void moveEntity(String stagedName, String name) {
+    stagedNamesByName.put(name, stagedName);
+  }
+
+  @Override
+  public void discardEntity(String stagedName) throws IOException {
+    stagedNames.remove(stagedName);
+    stagedNamesByName.values().remove(stagedName);
+    delegate.discardEntity(prefix + stagedName);
+  }
+
+  @Override
+  public void addManifestEntry(ManifestEntry entry) {
+    manifestEntriesByName.put(entry.file(), entry);
+  }
+
+  @Override
+  public boolean isResumable() {
+    return delegate.isResumable();
+  }
+
+  @Override
+  public Path getAbsolutePath(String name) {
+    return delegate.getAbsolutePath(prefix + name);
+  }
+
+  /** The underlying data entity manager is owned by the caller and stays open. */
+  @Override
+  public void close() {}
+
+  /**
+   * Moves the chunks of this slice to their final names and discards any other staged entities.
+   *
+   * @param firstChunkNumber The chunk number of the first chunk of this slice.
+   * @return The chunk number of the first chunk of the next slice.
+   */
+  int commit(int firstChunkNumber) throws IOException {
+    int chunkNumber = firstChunkNumber;
+    for (Matcher chunk : getChunks()) {
+      String stagedName = stagedNamesByName.get(chunk.group(0));
+      String name = String.format("%s_%d.avro", chunk.group("baseName"), chunkNumber);
+      delegate.moveEntity(prefix + stagedName, name);
+      stagedNames.remove(stagedName);
+      ManifestEntry manifestEntry = manifestEntriesByName.get(chunk.group(0));
+      if (manifestEntry != null) {
+        delegate.addManifestEntry(
+            manifestEntry.toBuilder().setFile(name).setChunkNumber(chunkNumber).build());
+      }
+      chunkNumber++;
+    }
+    stagedNamesByName.clear();
+    manifestEntriesByName.clear();
+    discard();
+    return chunkNumber;
+  }
+
+  /** Discards all entities staged by this slice. */
+  void discard() throws IOException {
+    manifestEntriesByName.clear();
+    for (String stagedName : ImmutableList.copyOf(stagedNames)) {
+      discardEntity(stagedName);
+    }
+  }
+
+  private ImmutableList<Matcher> getChunks() {
+    return stagedNamesByName.keySet().stream()
+        .map(CHUNK_PATTERN::matcher)
+        .filter(Matcher::matches)
+        .sorted(Comparator.comparingInt(matcher -> Integer.parseInt(matcher.group("chunkNumber"))))
+        .collect(toImmutableList());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+/**
+ * Plans the time slices of a query log script from the numbers of its rows per hour, so that each
+ * slice gets about the same number of rows even if the load is uneven over the day. The rows of an
+ * hour are assumed to be spread evenly over the part of the hour within the time range.
+ */
+final class TimeSlicePlanner {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final long MICROS_PER_HOUR = Duration.ofHours(1).toNanos() / 1000;
+
+  private final Instant start;
+  private final Instant end;
+  private final ImmutableSortedMap<Instant, Long> hourlyRowCounts;
+
+  /**
+   * @param start The start of the closed time range.
+   * @param end The end of the closed time range.
+   * @param hourlyRowCounts The number of rows per hour within the time range, keyed by the start of
+   *     the hour.
+   */
+  TimeSlicePlanner(Instant start, Instant end, ImmutableSortedMap<Instant, Long> hourlyRowCounts) {
+    this.start = start;
+    this.end = end;
+    this.hourlyRowCounts = hourlyRowCounts;
+  }
+
+  /** The name of the entity to which the plan of a script is written. */
+  static String getPlanName(String scriptName) {
+    return scriptName + "_time_slices.json";
+  }
+
+  /**
+   * Splits the time range into at most {@code sliceCount} closed slices with about equal numbers of
+   * rows. Like the slices of equal length, the slices are separated by one microsecond. If there
+   * are no rows, the time range is not split.
+   */
+  ImmutableList<Range<Instant>> split(int sliceCount) {
+    long startMicros = toMicros(start);
+    long endMicros = toMicros(end) + 1;
+    double totalRows = estimateRows(startMicros, endMicros);
+    ImmutableList.Builder<Range<Instant>> slices = ImmutableList.builder();
+    long sliceStartMicros = startMicros;
+    int nextSlice = 1;
+    double rowsBefore = 0;
+    for (Map.Entry<Instant, Long> hour : hourlyRowCounts.entrySet()) {
+      long hourStartMicros = Math.max(toMicros(hour.getKey()), startMicros);
+      long hourEndMicros = Math.min(toMicros(hour.getKey()) + MICROS_PER_HOUR, endMicros);
+      long rows = hour.getValue();
+      if (hourEndMicros <= hourStartMicros || rows <= 0) {
+        continue;
+      }
+      while (nextSlice < sliceCount && rowsBefore + rows >= totalRows * nextSlice / sliceCount) {
+        double fraction = (totalRows * nextSlice / sliceCount - rowsBefore) / rows;
+        long nextSliceStartMicros =
+            hourStartMicros + (long) Math.ceil(fraction * (hourEndMicros - hourStartMicros));
+        nextSlice++;
+        if (nextSliceStartMicros <= sliceStartMicros || nextSliceStartMicros >= endMicros) {
+          continue;
+        }
+        slices.add(
+            Range.closed(fromMicros(sliceStartMicros), fromMicros(nextSliceStartMicros - 1)));
+        sliceStartMicros = nextSliceStartMicros;
+      }
+      rowsBefore += rows;
+    }
+    slices.add(Range.closed(fromMicros(sliceStartMicros), end));
+    return slices.build();
+  }
+
+  /** Estimates the number of rows within a closed slice of the time range. */
+  long estimateRows(Range<Instant> slice) {
+    return Math.round(
+        estimateRows(toMicros(slice.lowerEndpoint()), toMicros(slice.upperEndpoint()) + 1));
+  }
+
+  /**
+   * Writes the planned slices together with the numbers of rows per hour from which they were
+   * planned, so that the plan of a run can be inspected and reused.
+   */
+  void write(
+      DataEntityManager dataEntityManager,
+      String scriptName,
+      ImmutableList<Range<Instant>> slices)
+      throws IOException {
+    ObjectNode plan = OBJECT_MAPPER.createObjectNode();
+    plan.put("script", scriptName);
+    plan.put("start", start.toString());
+    plan.put("end", end.toString());
+    ArrayNode sliceNodes = plan.putArray("slices");
+    for (Range<Instant> slice : slices) {
+      sliceNodes
+          .addObject()
+          .put("start", slice.lowerEndpoint().toString())
+          .put("end", slice.upperEndpoint().toString())
+          .put("estimatedRows", estimateRows(slice));
+    }
+    ObjectNode hourNodes = plan.putObject("hourlyRowCounts");
+    hourlyRowCounts.forEach((hour, rows) -> hourNodes.put(hour.toString(), rows));
+
+    // The plan is staged, so that a plan of a previous attempt is replaced as a whole.
+    String name = getPlanName(scriptName);
+    String stagedName = name + ".tmp";
+    try (OutputStream outputStream =
+        dataEntityManager.getStagedEntityOutputStream(stagedName, /* compressed= */ false)) {
+      OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(outputStream, plan);
+    }
+    dataEntityManager.moveEntity(stagedName, name);
+  }
+
+  /** Estimates the number of rows from startMicros, inclusive, to endMicros, exclusive. */
+  private double estimateRows(long startMicros, long endMicros) {
+    long rangeStartMicros = toMicros(start);
+    long rangeEndMicros = toMicros(end) + 1;
+    double rows = 0;
+    for (Map.Entry<Instant, Long> hour : hourlyRowCounts.entrySet()) {
+      long hourStartMicros = Math.max(toMicros(hour.getKey()), rangeStartMicros);
+      long hourEndMicros = Math.min(toMicros(hour.getKey()) + MICROS_PER_HOUR, rangeEndMicros);
+      long overlapMicros =
+          Math.min(hourEndMicros, endMicros) - Math.max(hourStartMicros, startMicros);
+      if (hourEndMicros <= hourStartMicros || overlapMicros <= 0) {
+        continue;
+      }
+      rows += (double) hour.getValue() * overlapMicros / (hourEndMicros - hourStartMicros);
+    }
+    return rows;
+  }
+
+  private static long toMicros(Instant instant) {
+    return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+  }
+
+  private static Instant fromMicros(long micros) {
+    return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+  }
+}
@@ -15,10 +15,16 @@
  */
 package com.google.cloud.bigquery.dwhassessment.extractiontool.subcommand;
 
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroFileOptions;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionEvents;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.FetchProfile;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilter;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.RunMode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.TimeSlicing;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -31,7 +37,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.DriverManager;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
@@ -40,12 +46,14 @@ import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAccessor;
 import java.time.zone.ZoneRulesException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.function.Supplier;
+import jdk.jfr.Recording;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
@@ -128,13 +136,7 @@ public final class ExtractSubcommand implements Callable<Integer> {
       split = ",",
       description = "Overwrite the base database for a specific script.")
   private void scriptBaseDatabase(Map<String, String> scriptBaseDatabase) {
-    ImmutableSet<String> allScriptNames = ImmutableSet.copyOf(scriptManager.getAllScriptNames());
-    SetView<String> unknownScripts = Sets.difference(scriptBaseDatabase.keySet(), allScriptNames);
-    if (!unknownScripts.isEmpty()) {
-      throw new ParameterException(
-          spec.commandLine(),
-          String.format("Got unknown script(s): %s", Joiner.on(", ").join(unknownScripts)));
-    }
+    checkScriptNames(scriptBaseDatabase.keySet());
     argumentsBuilder.setScriptBaseDatabase(ImmutableMap.copyOf(scriptBaseDatabase));
   }
 
@@ -154,13 +156,7 @@ public final class ExtractSubcommand implements Callable<Integer> {
       }
       scriptVars.get(parts[0]).put(parts[1], entry.getValue());
     }
-    ImmutableSet<String> allScriptNames = ImmutableSet.copyOf(scriptManager.getAllScriptNames());
-    SetView<String> unknownScripts = Sets.difference(scriptVars.keySet(), allScriptNames);
-    if (!unknownScripts.isEmpty()) {
-      throw new ParameterException(
-          spec.commandLine(),
-          String.format("Got unknown script(s): %s", Joiner.on(", ").join(unknownScripts)));
-    }
+    checkScriptNames(scriptVars.keySet());
     argumentsBuilder.setScriptVariables(ImmutableMap.copyOf(scriptVars));
   }
 
@@ -217,17 +213,171 @@ public final class ExtractSubcommand implements Callable<Integer> {
       description = {
         "If larger than 0, the tool will attempt to use a chunked processing mode for scripts that"
             + " support this, where the results for a supporting script are saved in chunks; this"
-            + " number defines the maximum rows per chunk holds. Chunk mode is not available if the"
-            + " target output is a zip file."
+            + " number defines the maximum rows per chunk holds. The scripts columns, stats,"
+            + " tableinfo and tabletext are then queried in pages of this many rows sorted by their"
+            + " keys, one page per chunk, so that a recovery run continues after the last chunk."
       })
   private Integer chunkRows;
 
+  @Option(
+      names = "--bytes-per-chunk",
+      defaultValue = "0",
+      description = {
+        "If larger than 0, the tool will attempt to use a chunked processing mode for scripts that"
+            + " support this, and starts a new chunk once the current one has reached this size in"
+            + " bytes. Can be combined with --rows-per-chunk, in which case a chunk ends at"
+            + " whichever limit is reached first. Rows with the same timestamp are kept in the same"
+            + " chunk. Rows that are not written yet count with their uncompressed size, so a chunk"
+            + " ends within about one Avro block of this size. Without --rows-per-chunk, the pages"
+            + " of the scripts columns, stats, tableinfo and tabletext are limited to twice the"
+            + " rows that the previous page suggests fit into a chunk."
+      })
+  private Long chunkBytes;
+
+  @Option(
+      names = "--query-per-chunk",
+      description = {
+        "Whether to extract the chunks of the query log scripts querylogs, sql_logs and"
+            + " query_references with one query each, limited to --rows-per-chunk rows plus those"
+            + " with the same timestamp as the last one, instead of with one query that sorts all"
+            + " rows. This bounds the spool that the database needs per query."
+      })
+  private boolean queryPerChunk;
+
+  @Option(
+      names = "--parallelism",
+      defaultValue = "1",
+      description = {
+        "The maximum number of scripts to extract concurrently. Each concurrently running script"
+            + " uses its own database connection. The most expensive scripts are started first."
+            + " This is also the maximum number of database sessions of the extraction, including"
+            + " time slices and FastExport connections."
+      })
+  private Integer parallelism;
+
+  @Option(
+      names = "--qrylog-time-slices",
+      defaultValue = "1",
+      description = {
+        "The number of time slices into which the query log time range is split; see"
+            + " --qrylog-time-slicing. The slices of each chunked query log script are extracted"
+            + " concurrently, each on its own database connection, as far as --parallelism"
+            + " allows. Requires chunked processing and both --qrylog-timerange-start and"
+            + " --qrylog-timerange-end."
+      })
+  private Integer qryLogTimeSlices;
+
+  @Option(
+      names = "--qrylog-time-slicing",
+      description = {
+        "How to split the query log time range into --qrylog-time-slices slices. Available modes:"
+            + " ${COMPLETION-CANDIDATES}",
+        "EQUAL_DURATION: slices of equal length.",
+        "EQUAL_ROWS: slices with about equal numbers of rows, planned from a count of the rows of"
+            + " each script per hour. The plan is written to <script>_time_slices.json in the"
+            + " output.",
+        "Default: ${DEFAULT-VALUE}"
+      },
+      defaultValue = "EQUAL_DURATION")
+  void setQryLogTimeSlicing(TimeSlicing qryLogTimeSlicing) {
+    argumentsBuilder.setQryLogTimeSlicing(qryLogTimeSlicing);
+  }
+
+  @Option(
+      names = "--pipeline-memory-mb",
+      defaultValue = "64",
+      description = {
+        "The memory budget in MiB for rows that are fetched from the database but not yet written,"
+            + " shared by all scripts. Rows are fetched, encoded and written on separate threads"
+            + " so that fetching does not wait for the output. 0 does all of it on the thread"
+            + " that fetches. Default: ${DEFAULT-VALUE}"
+      })
+  private Integer pipelineMemoryMb;
+
+  @Option(
+      names = "--fetch-size",
+      defaultValue = "0",
+      description = {
+        "The number of rows to fetch from the database per round trip. If 0, the default of the"
+            + " JDBC driver is used."
+      })
+  private Integer fetchSize;
+
+  @Option(
+      names = "--script-fetch-size",
+      split = ",",
+      description = {
+        "Overwrite the fetch size for a specific script, e.g., to fetch more rows per round trip"
+            + " for large log scripts than for small metadata scripts.",
+        "Example: querylogs=10000,sql_logs=10000"
+      })
+  private Map<String, Integer> scriptFetchSizes = new HashMap<>();
+
+  @Option(
+      names = "--avro-codec",
+      defaultValue = "null",
+      description = {
+        "The codec with which the blocks of the Avro files are compressed: null, deflate[:level],"
+            + " snappy or zstd[:level]. Example: zstd:3",
+        "Default: ${DEFAULT-VALUE}"
+      })
+  private String avroCodec;
+
+  @Option(
+      names = "--script-avro-codec",
+      split = ",",
+      description = {
+        "Overwrite the Avro codec for a specific script, e.g., to compress the query texts of"
+            + " large log scripts harder than small metadata scripts.",
+        "Example: querylogs=zstd:9,sql_logs=zstd:9"
+      })
+  private Map<String, String> scriptAvroCodecs = new HashMap<>();
+
+  @Option(
+      names = "--avro-sync-interval",
+      defaultValue = "64000",
+      description = {
+        "The approximate number of uncompressed bytes per block of the Avro files. Larger blocks"
+            + " compress better but take more memory to write and read.",
+        "Default: ${DEFAULT-VALUE}"
+      })
+  private Integer avroSyncInterval;
+
+  @Option(
+      names = "--script-avro-sync-interval",
+      split = ",",
+      description = {
+        "Overwrite the Avro sync interval for a specific script.",
+        "Example: querylogs=1048576"
+      })
+  private Map<String, Integer> scriptAvroSyncIntervals = new HashMap<>();
+
+  @Option(
+      names = "--fastexport-scripts",
+      split = ",\\s*",
+      description = {
+        "The list of scripts to extract over a Teradata FastExport connection (TYPE=FASTEXPORT).",
+        "Each of these scripts opens a connection of its own while it runs. The driver"
+            + " falls back to regular SQL for queries that are not eligible for FastExport."
+      })
+  private Set<String> fastExportScripts = new HashSet<>();
+
+  @Option(
+      names = "--db-connection-param",
+      split = ",",
+      description = {
+        "Additional JDBC connection parameters, e.g., Teradata connection parameters.",
+        "Example: TMODE=TERA,CHARSET=UTF8"
+      })
+  private Map<String, String> dbConnectionParams = new HashMap<>();
+
   @Option(
       names = {"--output", "-o"},
       required = true,
       description = {
         "Output path to which to write the extracted information.",
-        "The output is written into a ZIP file if the output path ends in '.zip'.",
+        "The output is written into a ZIP file if the output path ends in '.zip'. An existing ZIP"
+            + " file is continued like an existing directory.",
         "Otherwise, the output path must be an existing directory."
       })
   private String outputPathString;
@@ -271,7 +421,7 @@ public final class ExtractSubcommand implements Callable<Integer> {
       names = {"--prev-run-path"},
       description = {
         "Path containing records of previous run(s).",
-        "Can only be a directory. Needs to be specified for incremental / recovery runs."
+        "Can be a directory or a ZIP file. Needs to be specified for incremental / recovery runs."
       })
   private String prevRunPathString;
 
@@ -346,6 +496,74 @@ public final class ExtractSubcommand implements Callable<Integer> {
     argumentsBuilder.setSchemaFilters(schemaFilters);
   }
 
+  @Option(
+      names = "--schema-retrieval-mode",
+      description = {
+        "How to query the columns when extracting schemas. Available modes:"
+            + " ${COMPLETION-CANDIDATES}",
+        "PER_TABLE: one metadata query per table.",
+        "PER_DATABASE: one metadata query per database that has a matching table; the table"
+            + " filters are applied on the client.",
+        "ALL: a single metadata query for all tables; the filters are applied on the client.",
+        "The bulk modes take far fewer round trips on systems with many tables.",
+        "Default: ${DEFAULT-VALUE}"
+      },
+      defaultValue = "PER_TABLE")
+  void setSchemaRetrievalMode(SchemaRetrievalMode schemaRetrievalMode) {
+    argumentsBuilder.setSchemaRetrievalMode(schemaRetrievalMode);
+  }
+
+  @Option(
+      names = "--count-rows",
+      description = {
+        "Whether to count the rows of each script before extracting it, with the same filters as"
+            + " the script. The counts add the percentage done and the estimated time left to the"
+            + " progress reports."
+      })
+  private void setCountRows(boolean countRows) {
+    argumentsBuilder.setCountRows(countRows);
+  }
+
+  @Option(
+      names = "--progress-interval-seconds",
+      defaultValue = "0",
+      description = {
+        "If larger than 0, the progress of the running scripts is logged at this interval, and"
+            + " progress.json in the output directory, or <output>.progress.json next to a ZIP"
+            + " output, is replaced with the progress of all scripts. The file shows when it was"
+            + " last updated and when each script last fetched a row, so that stalled runs can be"
+            + " detected. Default: ${DEFAULT-VALUE}"
+      })
+  private Integer progressIntervalSeconds;
+
+  @Option(
+      names = "--prometheus-port",
+      description = {
+        "Serve the metrics of the extraction in the Prometheus text format at"
+            + " http://localhost:<port>/metrics while the extraction runs: the fetched rows, the"
+            + " written bytes, the fetch latencies and the chunk durations per script, and the"
+            + " active connections."
+      })
+  private Integer prometheusPort;
+
+  @Option(
+      names = "--prometheus-textfile",
+      description = {
+        "Replace this file with the metrics of the extraction in the Prometheus text format every"
+            + " 15 seconds and at the end of the extraction, e.g., for the textfile collector of"
+            + " the node exporter."
+      })
+  private String prometheusTextfileString;
+
+  @Option(
+      names = "--jfr",
+      description = {
+        "Record the extraction with Java Flight Recorder and write the recording to this file.",
+        "Besides the usual profiling events, the recording shows the scripts, time slices, chunks,",
+        "queries, schema queries and connection acquisitions of the extraction."
+      })
+  private String jfrPathString;
+
   public ExtractSubcommand(
       Supplier<ExtractExecutor> executorSupplier, ScriptManager scriptManager) {
     this.executorSupplier = executorSupplier;
@@ -360,6 +578,7 @@ public final class ExtractSubcommand implements Callable<Integer> {
     if (needJdbcSchemas != null) {
       argumentsBuilder.setNeedJdbcSchemas(needJdbcSchemas);
     }
+    validateChunkLimits();
     switch (mode) {
       case INCREMENTAL:
         validateAndSetPrevRunPathIncrementalMode();
@@ -373,20 +592,20 @@ public final class ExtractSubcommand implements Callable<Integer> {
         throw new ParameterException(spec.commandLine(), "Unknown mode specified.");
     }
     validateAndSetOutputPath();
-    argumentsBuilder.setMode(mode).setChunkRows(chunkRows);
-
-    try {
-      DriverManager.getConnection(dbAddress, dbUserName, dbPassword);
-    } catch (SQLException e) {
-      throw new ParameterException(
-          spec.commandLine(),
-          String.format("Unable to connect to '%s': %s", dbAddress, e.getMessage()),
-          e);
-    }
+    validateAndSetParallelism();
+    validateAndSetPipelineMemory();
+    validateAndSetProgressInterval();
+    validateAndSetPrometheusExporter();
+    validateAndSetQryLogTimeSlices();
+    validateAndSetFetchProfiles();
+    validateAndSetAvroFileOptions();
+    argumentsBuilder.setMode(mode).setChunkRows(chunkRows).setChunkBytes(chunkBytes);
 
     Properties connectionProperties = new Properties();
+    connectionProperties.putAll(dbConnectionParams);
     connectionProperties.put("user", dbUserName);
     connectionProperties.put("password", dbPassword);
+
     argumentsBuilder
         .setDbConnectionProperties(connectionProperties)
         .setDbConnectionAddress(dbAddress);
@@ -405,15 +624,35 @@ public final class ExtractSubcommand implements Callable<Integer> {
           spec.commandLine(),
           "The options --sql-scripts and --skip-sql-scripts are mutually exclusive.");
     }
-    return arguments;
+    return argumentsBuilder
+        .setConnectionPool(getValidatedConnectionPool(connectionProperties))
+        .build();
   }
 
-  private void validateAndSetOutputPath() {
-    Path path = Paths.get(outputPathString);
-    if (path.toString().endsWith(".zip") && !Files.isDirectory(path.getParent())) {
+  /** Creates the connection pool for the extraction with the connection used to validate access. */
+  private ConnectionPool getValidatedConnectionPool(Properties connectionProperties) {
+    ConnectionPool connectionPool =
+        new ConnectionPool(dbAddress, connectionProperties, parallelism);
+    // Closing the connection returns it to the pool, so the extraction reuses it.
+    try (Connection connection = connectionPool.getConnection()) {
+      return connectionPool;
+    } catch (SQLException e) {
+      connectionPool.close();
       throw new ParameterException(
           spec.commandLine(),
-          String.format("Parent path of --output '%s' is not a directory.", path.getParent()));
+          String.format("Unable to connect to '%s': %s", dbAddress, e.getMessage()),
+          e);
+    }
+  }
+
+  private void validateAndSetOutputPath() {
+    Path path = Paths.get(outputPathString);
+    if (path.toString().endsWith(".zip")) {
+      if (!Files.isDirectory(path.toAbsolutePath().getParent())) {
+        throw new ParameterException(
+            spec.commandLine(),
+            String.format("Parent path of --output '%s' is not a directory.", path.getParent()));
+      }
     } else if (!Files.isDirectory(path)) {
       throw new ParameterException(
           spec.commandLine(),
@@ -422,23 +661,170 @@ public final class ExtractSubcommand implements Callable<Integer> {
     argumentsBuilder.setOutputPath(path);
   }
 
+  private Path getValidatedJfrPath() {
+    Path path = Paths.get(jfrPathString).toAbsolutePath();
+    if (!Files.isDirectory(path.getParent())) {
+      throw new ParameterException(
+          spec.commandLine(),
+          String.format("Parent path of --jfr '%s' is not a directory.", path.getParent()));
+    }
+    return path;
+  }
+
+  private void validateAndSetParallelism() {
+    if (parallelism < 1) {
+      throw new ParameterException(spec.commandLine(), "--parallelism must be at least 1.");
+    }
+    argumentsBuilder.setParallelism(parallelism);
+  }
+
+  private void validateAndSetPipelineMemory() {
+    // The budget is counted in bytes with an int.
+    if (pipelineMemoryMb < 0 || pipelineMemoryMb > 2047) {
+      throw new ParameterException(
+          spec.commandLine(), "--pipeline-memory-mb must be between 0 and 2047.");
+    }
+    argumentsBuilder.setPipelineMemoryMb(pipelineMemoryMb);
+  }
+
+  private void validateAndSetProgressInterval() {
+    if (progressIntervalSeconds < 0) {
+      throw new ParameterException(
+          spec.commandLine(), "--progress-interval-seconds must not be negative.");
+    }
+    argumentsBuilder.setProgressIntervalSeconds(progressIntervalSeconds);
+  }
+
+  private void validateAndSetPrometheusExporter() {
+    if (prometheusPort != null) {
+      if (prometheusPort < 0 || prometheusPort > 65535) {
+        throw new ParameterException(
+            spec.commandLine(), "--prometheus-port must be between 0 and 65535.");
+      }
+      argumentsBuilder.setPrometheusPort(prometheusPort);
+    }
+    if (prometheusTextfileString != null) {
+      Path path = Paths.get(prometheusTextfileString).toAbsolutePath();
+      if (!Files.isDirectory(path.getParent())) {
+        throw new ParameterException(
+            spec.commandLine(),
+            String.format(
+                "Parent path of --prometheus-textfile '%s' is not a directory.",
+                path.getParent()));
+      }
+      argumentsBuilder.setPrometheusTextfile(path);
+    }
+  }
+
+  private void validateAndSetFetchProfiles() {
+    if (fetchSize < 0 || scriptFetchSizes.values().stream().anyMatch(size -> size < 0)) {
+      throw new ParameterException(spec.commandLine(), "Fetch sizes must not be negative.");
+    }
+    if (queryPerChunk && chunkRows <= 0) {
+      throw new ParameterException(
+          spec.commandLine(), "--query-per-chunk requires --rows-per-chunk to be positive.");
+    }
+    checkScriptNames(Sets.union(scriptFetchSizes.keySet(), fastExportScripts));
+    FetchProfile fetchProfile =
+        FetchProfile.builder().setFetchSize(fetchSize).setQueryPerChunk(queryPerChunk).build();
+    ImmutableMap.Builder<String, FetchProfile> scriptFetchProfiles = ImmutableMap.builder();
+    for (String scriptName : Sets.union(scriptFetchSizes.keySet(), fastExportScripts)) {
+      scriptFetchProfiles.put(
+          scriptName,
+          fetchProfile.toBuilder()
+              .setFetchSize(scriptFetchSizes.getOrDefault(scriptName, fetchSize))
+              .setFastExport(fastExportScripts.contains(scriptName))
+              .build());
+    }
+    argumentsBuilder
+        .setFetchProfile(fetchProfile)
+        .setScriptFetchProfiles(scriptFetchProfiles.build());
+  }
+
+  private void validateAndSetAvroFileOptions() {
+    SetView<String> scriptNames =
+        Sets.union(scriptAvroCodecs.keySet(), scriptAvroSyncIntervals.keySet());
+    checkScriptNames(scriptNames);
+    AvroFileOptions avroFileOptions = buildAvroFileOptions(avroCodec, avroSyncInterval);
+    ImmutableMap.Builder<String, AvroFileOptions> scriptAvroFileOptions = ImmutableMap.builder();
+    for (String scriptName : scriptNames) {
+      scriptAvroFileOptions.put(
+          scriptName,
+          buildAvroFileOptions(
+              scriptAvroCodecs.getOrDefault(scriptName, avroCodec),
+              scriptAvroSyncIntervals.getOrDefault(scriptName, avroSyncInterval)));
+    }
+    argumentsBuilder
+        .setAvroFileOptions(avroFileOptions)
+        .setScriptAvroFileOptions(scriptAvroFileOptions.build());
+  }
+
+  private AvroFileOptions buildAvroFileOptions(String codec, Integer syncInterval) {
+    try {
+      return AvroFileOptions.builder().setCodec(codec).setSyncInterval(syncInterval).build();
+    } catch (IllegalArgumentException e) {
+      throw new ParameterException(spec.commandLine(), e.getMessage(), e);
+    }
+  }
+
+  private void checkScriptNames(Set<String> scriptNames) {
+    ImmutableSet<String> allScriptNames = ImmutableSet.copyOf(scriptManager.getAllScriptNames());
+    SetView<String> unknownScripts = Sets.difference(scriptNames, allScriptNames);
+    if (!unknownScripts.isEmpty()) {
+      throw new ParameterException(
+          spec.commandLine(),
+          String.format("Got unknown script(s): %s", Joiner.on(", ").join(unknownScripts)));
+    }
+  }
+
+  private void validateChunkLimits() {
+    if (chunkBytes < 0) {
+      throw new ParameterException(spec.commandLine(), "--bytes-per-chunk must not be negative.");
+    }
+  }
+
+  private boolean isChunked() {
+    return chunkRows > 0 || chunkBytes > 0;
+  }
+
+  private void validateAndSetQryLogTimeSlices() {
+    if (qryLogTimeSlices < 1) {
+      throw new ParameterException(spec.commandLine(), "--qrylog-time-slices must be at least 1.");
+    }
+    if (qryLogTimeSlices > 1 && !isChunked()) {
+      throw new ParameterException(
+          spec.commandLine(),
+          "Time slices require chunked processing. Set --rows-per-chunk or --bytes-per-chunk to a"
+              + " positive integer to enable chunked processing.");
+    }
+    if (qryLogTimeSlices > 1
+        && (Strings.isNullOrEmpty(startTimeString) || Strings.isNullOrEmpty(endTimeString))) {
+      throw new ParameterException(
+          spec.commandLine(),
+          "Time slices require both --qrylog-timerange-start and --qrylog-timerange-end.");
+    }
+    argumentsBuilder.setQryLogTimeSlices(qryLogTimeSlices);
+  }
+
   private void validateAndSetPrevRunPathIncrementalMode() {
-    if (chunkRows < 1) {
+    if (!isChunked()) {
       throw new ParameterException(
           spec.commandLine(),
-          "Non-normal run modes require chunked processing. Set --rows-per-chunk to a positive"
-              + " integer to enable chunked processing.");
+          "Non-normal run modes require chunked processing. Set --rows-per-chunk or"
+              + " --bytes-per-chunk to a positive integer to enable chunked processing.");
     }
     if (prevRunPathString == null) {
       throw new ParameterException(
           spec.commandLine(), "--run-mode is not NORMAL but --prev-run-path is unspecified.");
     }
-    if (prevRunPathString.endsWith(".zip")) {
-      throw new ParameterException(
-          spec.commandLine(), "Incremental mode is not supported for zipped records, yet.");
-    }
     Path path = Paths.get(prevRunPathString);
-    if (!Files.isDirectory(path)) {
+    if (prevRunPathString.endsWith(".zip")) {
+      if (!Files.isRegularFile(path)) {
+        throw new ParameterException(
+            spec.commandLine(),
+            String.format("--prev-run-path '%s' is not an existing ZIP file.", path));
+      }
+    } else if (!Files.isDirectory(path)) {
       throw new ParameterException(
           spec.commandLine(),
           String.format(
@@ -449,12 +835,14 @@ public final class ExtractSubcommand implements Callable<Integer> {
 
   private void validateAndSetPrevRunPathRecoveryMode() {
     String pathString = prevRunPathString == null ? outputPathString : prevRunPathString;
-    if (pathString.endsWith(".zip")) {
-      throw new ParameterException(
-          spec.commandLine(), "Recovery mode is not supported for zipped records, yet.");
-    }
     Path path = Paths.get(pathString);
-    if (!Files.isDirectory(path)) {
+    if (pathString.endsWith(".zip")) {
+      if (!Files.isRegularFile(path)) {
+        throw new ParameterException(
+            spec.commandLine(),
+            String.format("The path '%s' you specified is not an existing ZIP file.", path));
+      }
+    } else if (!Files.isDirectory(path)) {
       throw new ParameterException(
           spec.commandLine(),
           String.format("The path '%s' you specified is not a directory.", path));
@@ -464,6 +852,17 @@ public final class ExtractSubcommand implements Callable<Integer> {
 
   @Override
   public Integer call() throws IOException, SQLException {
-    return executorSupplier.get().run(getValidatedArguments());
+    if (jfrPathString == null) {
+      return executorSupplier.get().run(getValidatedArguments());
+    }
+    // The recording also covers validating the connection.
+    try (Recording recording = ExtractionEvents.startRecording(getValidatedJfrPath())) {
+      try {
+        return executorSupplier.get().run(getValidatedArguments());
+      } finally {
+        // Stopping writes the recording to its destination.
+        recording.stop();
+      }
+    }
   }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SyntheticResultSet.Column;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Avro codecs on synthetic query logs, whose size is dominated by the query texts.
+ * Every operation writes one file of {@link #ROWS_PER_FILE} rows, so the throughput in files per
+ * second times {@link #ROWS_PER_FILE} is the throughput in rows per second. The size of a file with
+ * each codec is reported as the secondary results of {@link FileSize}, so that it is part of the
+ * results, e.g., with {@code -rf json}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvroCodecBenchmark {
+
+  private static final int ROWS_PER_FILE = 10000;
+
+  // The column mix of the query logs, with a long query text per row.
+  private static final ImmutableList<Column> COLUMNS =
+      ImmutableList.of(
+          Column.create("QueryID", Types.DECIMAL, "DECIMAL", 18, 0),
+          Column.create("UserName", Types.VARCHAR, "VARCHAR"),
+          Column.create("DefaultDatabase", Types.VARCHAR, "VARCHAR"),
+          Column.create("StatementType", Types.VARCHAR, "VARCHAR"),
+          Column.create("StartTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("FirstRespTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("AMPCPUTime", Types.FLOAT, "FLOAT"),
+          Column.create("TotalIOCount", Types.DECIMAL, "DECIMAL", 18, 0),
+          Column.create("NumResultRows", Types.DECIMAL, "DECIMAL", 18, 0),
+          Column.create("ErrorCode", Types.INTEGER, "INTEGER"),
+          Column.create("QueryText", Types.VARCHAR, "VARCHAR"));
+
+  private static final ImmutableList<String> STATEMENT_TYPES =
+      ImmutableList.of("Select", "Insert", "Update", "Merge Into", "Delete");
+
+  @Param({"null", "deflate:1", "deflate:6", "snappy", "zstd:1", "zstd:3", "zstd:9"})
+  public String codec;
+
+  @Param({"64000", "1048576"})
+  public int syncInterval;
+
+  /** 0 writes on the benchmark thread; otherwise, blocks are compressed on one thread per core. */
+  @Param({"0", "67108864"})
+  public int pipelineMemoryBytes;
+
+  private SyntheticResultSet resultSet;
+  private ResultSetDatumWriter datumWriter;
+  private AvroFileOptions fileOptions;
+  private AvroWritePipeline writePipeline;
+  private long uncompressedBytes;
+  private long compressedBytes;
+
+  /**
+   * The size of a file, as secondary results. The counters are events, so they are reported as they
+   * are instead of per second.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class FileSize {
+    public long bytesPerFile;
+    public double percentOfUncompressed;
+
+    @Setup(Level.Iteration)
+    public void setUp(AvroCodecBenchmark benchmark) {
+      bytesPerFile = benchmark.compressedBytes;
+      percentOfUncompressed = 100.0 * benchmark.compressedBytes / benchmark.uncompressedBytes;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    // One file per cycle through the rows, so that every file has the same content.
+    resultSet = new SyntheticResultSet(COLUMNS, createQueryLogRows(ROWS_PER_FILE));
+    datumWriter =
+        ResultSetDatumWriter.create(
+            getAvroSchema("querylogs", "namespace", resultSet.getMetaData()),
+            resultSet.getMetaData());
+    fileOptions =
+        AvroFileOptions.builder().setCodec(codec).setSyncInterval(syncInterval).build();
+    writePipeline = new AvroWritePipeline(pipelineMemoryBytes);
+
+    AvroFileOptions uncompressed = fileOptions.toBuilder().setCodec("null").build();
+    uncompressedBytes = writeFile(uncompressed);
+    compressedBytes = writeFile(fileOptions);
+  }
+
+  @TearDown
+  public void tearDown() {
+    writePipeline.close();
+  }
+
+  /** Writes a file and returns its size. */
+  @Benchmark
+  public long writeFile(FileSize fileSize) throws Exception {
+    return writeFile(fileOptions);
+  }
+
+  private long writeFile(AvroFileOptions options) throws Exception {
+    CountingOutputStream outputStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try (ResultSetRecorder<ResultSet> recorder =
+        writePipeline.createRecorder(datumWriter, outputStream, options)) {
+      for (int i = 0; i < ROWS_PER_FILE; i++) {
+        resultSet.next();
+        recorder.add(resultSet);
+      }
+    }
+    return outputStream.getCount();
+  }
+
+  private static ImmutableList<Object[]> createQueryLogRows(int rowCount) {
+    Random random = new Random(42);
+    ImmutableList.Builder<Object[]> rows = ImmutableList.builder();
+    Instant startTime = Instant.parse("2022-03-13T06:00:00.123456Z");
+    for (int i = 0; i < rowCount; i++) {
+      String statementType = STATEMENT_TYPES.get(random.nextInt(STATEMENT_TYPES.size()));
+      startTime = startTime.plusMillis(random.nextInt(2000));
+      rows.add(
+          new Object[] {
+            BigDecimal.valueOf(307190000000000000L + i),
+            "USER_" + random.nextInt(50),
+            "SALES_" + random.nextInt(20),
+            statementType,
+            Timestamp.from(startTime),
+            Timestamp.from(startTime.plusMillis(random.nextInt(60000))),
+            random.nextDouble() * 100,
+            BigDecimal.valueOf(random.nextInt(1000000)),
+            BigDecimal.valueOf(random.nextInt(100000)),
+            random.nextInt(20) == 0 ? 3807 : 0,
+            createQueryText(random, statementType)
+          });
+    }
+    return rows.build();
+  }
+
+  /** Creates a query text of up to about 1 KiB from a few tables and columns. */
+  private static String createQueryText(Random random, String statementType) {
+    StringBuilder queryText =
+        new StringBuilder(statementType.toUpperCase())
+            .append(" /* report ")
+            .append(random.nextInt(500))
+            .append(" */ ");
+    int columnCount = 2 + random.nextInt(40);
+    for (int column = 0; column < columnCount; column++) {
+      queryText
+          .append(column == 0 ? "" : ", ")
+          .append("t")
+          .append(random.nextInt(3))
+          .append(".COLUMN_")
+          .append(random.nextInt(200));
+    }
+    queryText.append(" FROM SALES_").append(random.nextInt(20)).append(".ORDERS_");
+    queryText.append(random.nextInt(2000)).append(" t0");
+    int joinCount = random.nextInt(4);
+    for (int join = 1; join <= joinCount; join++) {
+      queryText
+          .append(" INNER JOIN SALES_")
+          .append(random.nextInt(20))
+          .append(".CUSTOMERS_")
+          .append(random.nextInt(2000))
+          .append(String.format(" t%d ON t%d.ID = t0.CUSTOMER_ID", join, join));
+    }
+    queryText
+        .append(" WHERE t0.CREATED >= TIMESTAMP '2022-0")
+        .append(1 + random.nextInt(9))
+        .append("-01 00:00:00' AND t0.STATUS = '")
+        .append((char) ('A' + random.nextInt(26)))
+        .append("';");
+    return queryText.toString();
+  }
+}
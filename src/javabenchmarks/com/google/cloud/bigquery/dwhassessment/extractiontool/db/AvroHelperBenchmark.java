@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SyntheticResultSet.Column;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the conversion of a query log row by {@link AvroHelper} and the classes behind it. Each
+ * operation converts one row, so with {@code -prof gc} the throughput is in rows per second and
+ * gc.alloc.rate.norm is the allocation per row. {@link TimestampDecoderBenchmark} covers {@link
+ * AvroHelper#getUnadjustedTimestamp(ResultSet, int)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AvroHelperBenchmark {
+
+  // The column mix of the query logs: padded CHAR names, DECIMAL counters, timestamps with and
+  // without time zone, and a large query text.
+  private static final ImmutableList<Column> COLUMNS =
+      ImmutableList.of(
+          Column.create("QueryID", Types.DECIMAL, "DECIMAL", 18, 0),
+          Column.create("UserName", Types.VARCHAR, "VARCHAR"),
+          Column.create("AcctString", Types.CHAR, "CHAR", 30, 0),
+          Column.create("LogonSource", Types.CHAR, "CHAR", 128, 0),
+          Column.create("StatementType", Types.CHAR, "CHAR", 20, 0),
+          Column.create("StartTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("FirstRespTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.createWithTimeZone(
+              "LogonDateTime",
+              Types.TIMESTAMP_WITH_TIMEZONE,
+              "TIMESTAMP WITH TIME ZONE",
+              TimeZone.getTimeZone("GMT+05:30")),
+          Column.create("AMPCPUTime", Types.FLOAT, "FLOAT"),
+          Column.create("TotalIOCount", Types.DECIMAL, "DECIMAL", 18, 0),
+          Column.create("ErrorCode", Types.INTEGER, "INTEGER"),
+          Column.create("QueryText", Types.VARCHAR, "VARCHAR"));
+
+  private static final ImmutableList<String> STATEMENT_TYPES =
+      ImmutableList.of("Select", "Insert", "Update", "Merge Into", "Delete");
+
+  private SyntheticResultSet resultSet;
+  private Schema schema;
+  private RowConverter rowConverter;
+  private ResultSetDatumWriter datumWriter;
+  private BinaryEncoder encoder;
+  private int[] charColumns;
+
+  @Setup
+  public void setUp() throws SQLException {
+    resultSet = new SyntheticResultSet(COLUMNS, createQueryLogRows(1024));
+    schema = AvroHelper.getAvroSchema("querylogs", "namespace", resultSet.getMetaData());
+    rowConverter = RowConverter.create(schema, resultSet.getMetaData());
+    datumWriter = ResultSetDatumWriter.create(schema, resultSet.getMetaData());
+    encoder = EncoderFactory.get().directBinaryEncoder(ByteStreams.nullOutputStream(), null);
+    charColumns =
+        new int[] {
+          resultSet.findColumn("AcctString"),
+          resultSet.findColumn("LogonSource"),
+          resultSet.findColumn("StatementType")
+        };
+  }
+
+  /** Converts a row with a converter that is created for the row, as the public helper does. */
+  @Benchmark
+  public GenericRecord parseRowToAvro() throws SQLException {
+    resultSet.next();
+    return AvroHelper.parseRowToAvro(resultSet, schema);
+  }
+
+  /** Converts a row with a converter that is reused for all rows. */
+  @Benchmark
+  public GenericRecord convertRow() throws SQLException {
+    resultSet.next();
+    return rowConverter.convert(resultSet);
+  }
+
+  /** Encodes a row directly into Avro binary data, as the extraction does. */
+  @Benchmark
+  public void writeRow() throws IOException, SQLException {
+    resultSet.next();
+    datumWriter.write(resultSet, encoder);
+  }
+
+  /** Derives the schema of the query logs from the result set metadata. */
+  @Benchmark
+  public Schema getAvroSchema() throws SQLException {
+    return AvroHelper.getAvroSchema("querylogs", "namespace", resultSet.getMetaData());
+  }
+
+  /** Trims the padded CHAR values of a row. */
+  @Benchmark
+  public void trimTrailingSpaces(Blackhole blackhole) throws SQLException {
+    resultSet.next();
+    for (int columnIndex : charColumns) {
+      blackhole.consume(RowConverter.trimTrailingSpaces(resultSet.getString(columnIndex)));
+    }
+  }
+
+  private static ImmutableList<Object[]> createQueryLogRows(int rowCount) {
+    Random random = new Random(42);
+    ImmutableList.Builder<Object[]> rows = ImmutableList.builder();
+    Instant startTime = Instant.parse("2022-03-13T06:00:00.123456Z");
+    for (int i = 0; i < rowCount; i++) {
+      String statementType = STATEMENT_TYPES.get(random.nextInt(STATEMENT_TYPES.size()));
+      startTime = startTime.plusMillis(random.nextInt(2000));
+      rows.add(
+          new Object[] {
+            BigDecimal.valueOf(307190000000000000L + i),
+            "USER_" + random.nextInt(50),
+            // CHAR values are padded with spaces to the length of the column.
+            Strings.padEnd("$M_ACCT_" + random.nextInt(10), 30, ' '),
+            Strings.padEnd("(TCP/IP) 0a0b 10.1.2." + random.nextInt(256) + " JDBC", 128, ' '),
+            Strings.padEnd(statementType, 20, ' '),
+            Timestamp.from(startTime),
+            // Some queries did not respond.
+            random.nextInt(16) == 0
+                ? null
+                : Timestamp.from(startTime.plusMillis(random.nextInt(60000))),
+            Timestamp.from(startTime.minusSeconds(random.nextInt(86400))),
+            random.nextDouble() * 100,
+            BigDecimal.valueOf(random.nextInt(1000000)),
+            random.nextInt(20) == 0 ? 3807 : 0,
+            createQueryText(random, statementType)
+          });
+    }
+    return rows.build();
+  }
+
+  /** Creates a query text of up to about 8 KiB, where most texts are under 1 KiB. */
+  private static String createQueryText(Random random, String statementType) {
+    StringBuilder queryText =
+        new StringBuilder(statementType.toUpperCase()).append(" /* report */ t0.ID");
+    int columnCount = random.nextInt(random.nextInt(4) == 0 ? 500 : 50);
+    for (int column = 0; column < columnCount; column++) {
+      queryText.append(", t0.COLUMN_").append(random.nextInt(200));
+    }
+    return queryText
+        .append(" FROM SALES_")
+        .append(random.nextInt(20))
+        .append(".ORDERS t0 WHERE t0.STATUS = 'OPEN';")
+        .toString();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaKey;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.faketd.TeradataSimulator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.re2j.Pattern;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the schema retrieval modes on the simulated Teradata database with thousands of user
+ * tables. The in-memory database has no network latency, so the real difference per round trip is
+ * much larger than measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchemaRetrievalBenchmark {
+
+  private static final String DB_ADDRESS = "jdbc:hsqldb:mem:schema_retrieval_benchmark";
+  private static final int DATABASE_COUNT = 20;
+
+  @Param({"PER_TABLE", "PER_DATABASE", "ALL"})
+  public SchemaRetrievalMode mode;
+
+  @Param({"2000"})
+  public int tableCount;
+
+  private final SchemaManager schemaManager = new SchemaManagerImpl();
+  private Connection connection;
+  private ImmutableList<SchemaFilter> filters;
+  private Schema schema;
+
+  @Setup
+  public void setUp() throws Exception {
+    TeradataSimulator.createTablesAndViews(DB_ADDRESS);
+    connection = DriverManager.getConnection(DB_ADDRESS);
+    try (Statement statement = connection.createStatement()) {
+      for (int database = 0; database < DATABASE_COUNT; database++) {
+        statement.execute(String.format("CREATE SCHEMA SALES_%d", database));
+      }
+      for (int table = 0; table < tableCount; table++) {
+        statement.execute(
+            String.format(
+                "CREATE TABLE SALES_%d.ORDERS_%d (ID BIGINT, CUSTOMER VARCHAR(128), AMOUNT"
+                    + " DECIMAL(18, 2), CREATED TIMESTAMP, UPDATED TIMESTAMP, STATUS CHAR(1))",
+                table % DATABASE_COUNT, table));
+      }
+    }
+    // Skips the DBC tables, like a typical filter for user tables.
+    filters =
+        ImmutableList.of(
+            SchemaFilter.builder().setTableName(Pattern.compile("ORDERS_.*")).build());
+    schema =
+        getAvroSchema(
+            "schema",
+            "namespace",
+            connection
+                .getMetaData()
+                .getColumns(
+                    /*catalog =*/ null,
+                    /*schemaPattern =*/ null,
+                    /*tableNamePattern =*/ "%",
+                    /*columnNamePattern =*/ null)
+                .getMetaData());
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    }
+    connection.close();
+  }
+
+  @Benchmark
+  public void retrieveSchemas(Blackhole blackhole) {
+    ImmutableSet<SchemaKey> schemaKeys = schemaManager.getSchemaKeys(connection, filters);
+    schemaManager.retrieveSchemas(connection, schemaKeys, mode, schema, blackhole::consume);
+  }
+}
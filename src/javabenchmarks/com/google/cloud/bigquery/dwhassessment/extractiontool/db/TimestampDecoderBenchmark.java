@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SyntheticResultSet.Column;
+import com.google.common.collect.ImmutableList;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares decoding the timestamp columns of a row with {@link TimestampDecoder} to {@link
+ * AvroHelper#getUnadjustedTimestamp(ResultSet, int)}. Run with {@code -prof gc} to see the
+ * allocations per row.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampDecoderBenchmark {
+
+  // Like a row of the query logs, with several TIMESTAMP columns and one with a time zone.
+  private static final ImmutableList<Column> COLUMNS =
+      ImmutableList.of(
+          Column.create("StartTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("FirstStepTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("FirstRespTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("LastRespTime", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.create("CollectTimeStamp", Types.TIMESTAMP, "TIMESTAMP"),
+          Column.createWithTimeZone(
+              "LogonDateTime",
+              Types.TIMESTAMP_WITH_TIMEZONE,
+              "TIMESTAMP WITH TIME ZONE",
+              TimeZone.getTimeZone("GMT+05:30")));
+
+  private SyntheticResultSet resultSet;
+  private TimestampDecoder timestampDecoder;
+
+  @Setup
+  public void setUp() {
+    ImmutableList.Builder<Object[]> rows = ImmutableList.builder();
+    Instant instant = Instant.parse("2022-03-13T06:00:00.123456Z");
+    for (int i = 0; i < 1024; i++) {
+      Object[] row = new Object[COLUMNS.size()];
+      for (int column = 0; column < row.length; column++) {
+        // Some values are null, as for queries that did not respond.
+        row[column] = (i + column) % 16 == 0 ? null : Timestamp.from(instant);
+        instant = instant.plusSeconds(97).plusNanos(1000);
+      }
+      rows.add(row);
+    }
+    resultSet = new SyntheticResultSet(COLUMNS, rows.build());
+    timestampDecoder = new TimestampDecoder();
+  }
+
+  @Benchmark
+  public void unadjustedTimestamp(Blackhole blackhole) throws SQLException {
+    resultSet.next();
+    for (int columnIndex = 1; columnIndex <= COLUMNS.size(); columnIndex++) {
+      Timestamp timestamp = AvroHelper.getUnadjustedTimestamp(resultSet, columnIndex);
+      blackhole.consume(timestamp == null ? 0 : timestamp.getTime());
+    }
+  }
+
+  @Benchmark
+  public void timestampDecoder(Blackhole blackhole) throws SQLException {
+    resultSet.next();
+    for (int columnIndex = 1; columnIndex <= COLUMNS.size(); columnIndex++) {
+      long epochMillis = timestampDecoder.getEpochMillis(resultSet, columnIndex);
+      blackhole.consume(resultSet.wasNull() ? 0 : epochMillis);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AvroFileOptionsTest {
+
+  @Test
+  public void parseCodec_success() {
+    assertThat(AvroFileOptions.parseCodec("null").toString()).isEqualTo("null");
+    assertThat(AvroFileOptions.parseCodec("deflate:9").toString()).isEqualTo("deflate-9");
+    assertThat(AvroFileOptions.parseCodec("zstd:12").toString()).isEqualTo("zstandard[12]");
+    assertThat(AvroFileOptions.parseCodec("zstandard").toString()).isEqualTo("zstandard[3]");
+  }
+
+  @Test
+  public void parseCodec_unknownCodec_throwsIllegalArgumentException() {
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> AvroFileOptions.parseCodec("lz4"));
+
+    assertThat(e)
+        .hasMessageThat()
+        .isEqualTo(
+            "Unknown codec 'lz4'. Supported codecs: null, deflate[:level], snappy, zstd[:level].");
+  }
+
+  @Test
+  public void parseCodec_invalidLevel_throwsIllegalArgumentException() {
+    assertThrows(IllegalArgumentException.class, () -> AvroFileOptions.parseCodec("deflate:10"));
+    assertThrows(IllegalArgumentException.class, () -> AvroFileOptions.parseCodec("zstd:fast"));
+    assertThrows(IllegalArgumentException.class, () -> AvroFileOptions.parseCodec("snappy:1"));
+  }
+
+  @Test
+  public void build_syncIntervalOutOfRange_throwsIllegalArgumentException() {
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> AvroFileOptions.builder().setSyncInterval(16).build());
+
+    assertThat(e)
+        .hasMessageThat()
+        .isEqualTo("The sync interval must be between 32 and 16777216 bytes.");
+  }
+}
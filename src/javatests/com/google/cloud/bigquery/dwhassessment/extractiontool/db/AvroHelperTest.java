@@ -38,7 +38,9 @@ import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.TimeZone;
+import java.util.stream.IntStream;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.SeekableByteArrayInput;
@@ -188,6 +190,37 @@ public final class AvroHelperTest {
                 .build());
   }
 
+  @Test
+  public void dumpResults_fromIterator_writesAllRecords() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ResultSetMetaData simpleTestMetadata =
+        connection.createStatement().executeQuery("SELECT * FROM SIMPLE_TABLE").getMetaData();
+    Schema schema = getAvroSchema("schemaName", "namespace", simpleTestMetadata);
+    Iterator<GenericRecord> records =
+        IntStream.range(0, 1000)
+            .mapToObj(
+                i ->
+                    (GenericRecord)
+                        new GenericRecordBuilder(schema)
+                            .set("ID", i)
+                            .set("NAME", "name_" + i)
+                            .set("CHAR_COL", null)
+                            .build())
+            .iterator();
+
+    dumpResults(records, outputStream, schema);
+
+    DataFileReader<Record> reader =
+        new DataFileReader<>(
+            new SeekableByteArrayInput(outputStream.toByteArray()), new GenericDatumReader<>());
+    int count = 0;
+    for (Record record : reader) {
+      assertThat(record.get("ID")).isEqualTo(count);
+      count++;
+    }
+    assertThat(count).isEqualTo(1000);
+  }
+
   @Test
   public void getUnadjustedTimestamp_byColumnIndexFromTimestampWithTimeZone_correct()
       throws SQLException {
@@ -17,9 +17,13 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.SeekableByteArrayInput;
 import org.apache.avro.generic.GenericData.Record;
@@ -59,4 +63,39 @@ public class AvroResultSetRecorderTest {
             new GenericRecordBuilder(schema).set("field_one", 42).set("field_two", "def").build());
     assertThat(dataFileReader.hasNext()).isFalse();
   }
+
+  @Test
+  public void create_withCodec_compressesBlocks() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Schema schema =
+        SchemaBuilder.record("Record")
+            .fields()
+            .name("text")
+            .type()
+            .stringType()
+            .noDefault()
+            .endRecord();
+    // Ten records of 1700 bytes each, which are repetitive like query texts.
+    GenericRecord record =
+        new GenericRecordBuilder(schema)
+            .set("text", Strings.repeat("SELECT * FROM t; ", 100))
+            .build();
+
+    try (ResultSetRecorder<GenericRecord> recorder =
+        AvroResultSetRecorder.create(
+            schema,
+            outputStream,
+            AvroFileOptions.builder().setCodec("zstd:3").setSyncInterval(1024).build())) {
+      for (int i = 0; i < 10; i++) {
+        recorder.add(record);
+      }
+    }
+
+    DataFileReader<Record> dataFileReader =
+        new DataFileReader<>(
+            new SeekableByteArrayInput(outputStream.toByteArray()), new GenericDatumReader<>());
+    assertThat(dataFileReader.getMetaString(DataFileConstants.CODEC)).isEqualTo("zstandard");
+    assertThat(ImmutableList.copyOf((Iterator<Record>) dataFileReader)).hasSize(10);
+    assertThat(outputStream.size()).isLessThan(1700);
+  }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AvroWritePipelineTest {
+
+  private static final int ROW_COUNT = 20000;
+
+  private static Connection connection;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    connection = DriverManager.getConnection("jdbc:hsqldb:mem:write_pipeline_db");
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE Rows (ID INTEGER, NAME VARCHAR(100), CREATED TIMESTAMP(6))");
+    }
+    try (PreparedStatement statement =
+        connection.prepareStatement(
+            "INSERT INTO Rows VALUES (?, ?, TIMESTAMP '2021-01-01 00:00:00.000001')")) {
+      for (int i = 0; i < ROW_COUNT; i++) {
+        statement.setInt(1, i);
+        statement.setString(2, "name_" + i);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+    connection.commit();
+  }
+
+  @Test
+  public void createRecorder_smallBudget_writesSameRecordsAsSequential() throws Exception {
+    ImmutableList<GenericRecord> expected =
+        readAll(write(AvroWritePipeline.sequential(), AvroFileOptions.builder().build()));
+
+    ImmutableList<GenericRecord> records;
+    // Smaller than a batch, so every stage waits for the next.
+    try (AvroWritePipeline writePipeline = new AvroWritePipeline(/* memoryBudgetBytes= */ 2048)) {
+      records = readAll(write(writePipeline, AvroFileOptions.builder().build()));
+    }
+
+    assertThat(records).hasSize(ROW_COUNT);
+    assertThat(records).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void createRecorder_deflateCodec_writesCompressedBlocksInOrder() throws Exception {
+    byte[] uncompressed = write(AvroWritePipeline.sequential(), AvroFileOptions.builder().build());
+    ImmutableList<GenericRecord> expected = readAll(uncompressed);
+
+    byte[] compressed;
+    // Several encoder threads, so that later blocks may be done before earlier ones.
+    try (AvroWritePipeline writePipeline =
+        new AvroWritePipeline(/* memoryBudgetBytes= */ 1024 * 1024, /* encoderThreads= */ 4)) {
+      compressed = write(writePipeline, AvroFileOptions.builder().setCodec("deflate:6").build());
+    }
+
+    try (DataFileReader<GenericRecord> reader =
+        new DataFileReader<>(new SeekableByteArrayInput(compressed), new GenericDatumReader<>())) {
+      assertThat(reader.getMetaString(DataFileConstants.CODEC)).isEqualTo("deflate");
+    }
+    assertThat(readAll(compressed)).containsExactlyElementsIn(expected).inOrder();
+    assertThat(compressed.length).isLessThan(uncompressed.length);
+  }
+
+  @Test
+  public void createRecorder_sequential_createsAvroResultSetRecorder() throws Exception {
+    try (ResultSet resultSet = connection.createStatement().executeQuery("SELECT * FROM Rows")) {
+      ResultSetDatumWriter datumWriter =
+          ResultSetDatumWriter.create(
+              getAvroSchema("rows", "namespace", resultSet.getMetaData()),
+              resultSet.getMetaData());
+
+      assertThat(
+              AvroWritePipeline.sequential()
+                  .createRecorder(datumWriter, new ByteArrayOutputStream()))
+          .isInstanceOf(AvroResultSetRecorder.class);
+    }
+  }
+
+  @Test
+  public void close_outputFails_throwsIOException() throws Exception {
+    OutputStream failingOutputStream =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            throw new IOException("Disk full.");
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int length) throws IOException {
+            throw new IOException("Disk full.");
+          }
+        };
+
+    try (AvroWritePipeline writePipeline = new AvroWritePipeline(/* memoryBudgetBytes= */ 2048);
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT * FROM Rows")) {
+      ResultSetRecorder<ResultSet> recorder =
+          writePipeline.createRecorder(
+              ResultSetDatumWriter.create(
+                  getAvroSchema("rows", "namespace", resultSet.getMetaData()),
+                  resultSet.getMetaData()),
+              failingOutputStream);
+      // The failure reaches the fetching thread once the write stage fails.
+      try {
+        while (resultSet.next()) {
+          recorder.add(resultSet);
+        }
+      } catch (IllegalStateException e) {
+        assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("Disk full.");
+      }
+
+      IOException e = assertThrows(IOException.class, recorder::close);
+
+      assertThat(e).hasMessageThat().isEqualTo("Disk full.");
+    }
+  }
+
+  @Test
+  public void close_interruptedMidStream_releasesMemoryForNextRecorder() throws Exception {
+    CountDownLatch outputBlocked = new CountDownLatch(1);
+    OutputStream blockingOutputStream =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+              // Never counted down, so that the blocks stay in flight until the writer stops.
+              outputBlocked.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException("Interrupted while writing.");
+            }
+          }
+        };
+
+    try (AvroWritePipeline writePipeline = new AvroWritePipeline(/* memoryBudgetBytes= */ 2048)) {
+      AtomicReference<Throwable> closeFailure = new AtomicReference<>();
+      Thread fetcher =
+          new Thread(
+              () -> {
+                try (ResultSet resultSet =
+                    connection.createStatement().executeQuery("SELECT * FROM Rows")) {
+                  ResultSetRecorder<ResultSet> recorder =
+                      writePipeline.createRecorder(
+                          ResultSetDatumWriter.create(
+                              getAvroSchema("rows", "namespace", resultSet.getMetaData()),
+                              resultSet.getMetaData()),
+                          blockingOutputStream);
+                  try {
+                    while (resultSet.next()) {
+                      recorder.add(resultSet);
+                    }
+                  } catch (IllegalStateException e) {
+                    // The interrupt reaches the fetching thread while it waits for the budget.
+                  }
+                  closeFailure.set(assertThrows(IOException.class, recorder::close));
+                } catch (Exception e) {
+                  closeFailure.set(e);
+                }
+              });
+      fetcher.start();
+      // The first block takes the whole budget, so the fetcher waits for it with the next one.
+      while (fetcher.getState() != Thread.State.WAITING) {
+        Thread.sleep(10);
+      }
+      fetcher.interrupt();
+      fetcher.join();
+
+      assertThat(closeFailure.get()).isInstanceOf(InterruptedIOException.class);
+      assertThat(readAll(write(writePipeline, AvroFileOptions.builder().build())))
+          .hasSize(ROW_COUNT);
+    }
+  }
+
+  private static byte[] write(AvroWritePipeline writePipeline, AvroFileOptions fileOptions)
+      throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (ResultSet resultSet =
+        connection.createStatement().executeQuery("SELECT * FROM Rows ORDER BY ID")) {
+      ResultSetDatumWriter datumWriter =
+          ResultSetDatumWriter.create(
+              getAvroSchema("rows", "namespace", resultSet.getMetaData()),
+              resultSet.getMetaData());
+      try (ResultSetRecorder<ResultSet> recorder =
+          writePipeline.createRecorder(datumWriter, outputStream, fileOptions)) {
+        while (resultSet.next()) {
+          recorder.add(resultSet);
+        }
+      }
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static ImmutableList<GenericRecord> readAll(byte[] avroFile) throws IOException {
+    ImmutableList.Builder<GenericRecord> records = ImmutableList.builder();
+    try (DataFileReader<GenericRecord> reader =
+        new DataFileReader<>(new SeekableByteArrayInput(avroFile), new GenericDatumReader<>())) {
+      reader.forEach(records::add);
+    }
+    return records.build();
+  }
+}
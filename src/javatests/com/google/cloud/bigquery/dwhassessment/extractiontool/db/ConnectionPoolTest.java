@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ConnectionPoolTest {
+
+  private static final String ADDRESS = "jdbc:hsqldb:mem:connection_pool_db";
+
+  private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void getConnection_reusesReturnedConnection() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 2)) {
+      Connection first = pool.getConnection();
+      Connection physicalConnection = first.unwrap(Connection.class);
+      first.close();
+
+      try (Connection second = pool.getConnection()) {
+        assertThat(second.unwrap(Connection.class)).isSameInstanceAs(physicalConnection);
+        assertThat(second.isClosed()).isFalse();
+      }
+      assertThat(first.isClosed()).isTrue();
+    }
+  }
+
+  @Test
+  public void activeConnections_countsLeasedConnections() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 2)) {
+      Connection connection = pool.getConnection();
+
+      assertThat(pool.activeConnections()).isEqualTo(1);
+      connection.close();
+      assertThat(pool.activeConnections()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void getConnection_replacesBrokenConnection() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 1)) {
+      Connection first = pool.getConnection();
+      Connection physicalConnection = first.unwrap(Connection.class);
+      first.close();
+      // The connection breaks while it is idle.
+      physicalConnection.close();
+
+      try (Connection second = pool.getConnection()) {
+        assertThat(second.unwrap(Connection.class)).isNotSameInstanceAs(physicalConnection);
+        assertThat(second.isValid(1)).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void getConnection_waitsForReturnedConnection() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 1)) {
+      Connection first = pool.getConnection();
+      Connection physicalConnection = first.unwrap(Connection.class);
+      Future<Connection> second = executorService.submit(pool::getConnection);
+
+      assertThrows(TimeoutException.class, () -> second.get(100, MILLISECONDS));
+      first.close();
+      // Closing twice must not give out a second connection.
+      first.close();
+
+      try (Connection connection = second.get(10, SECONDS)) {
+        assertThat(connection.unwrap(Connection.class)).isSameInstanceAs(physicalConnection);
+      }
+    }
+  }
+
+  @Test
+  public void getDedicatedConnection_countsTowardsSizeAndIsNotReused() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 1)) {
+      Properties additionalProperties = new Properties();
+      additionalProperties.setProperty("TYPE", "FASTEXPORT");
+      Connection dedicated = pool.getDedicatedConnection(additionalProperties);
+      Connection physicalConnection = dedicated.unwrap(Connection.class);
+      Future<Connection> pooled = executorService.submit(pool::getConnection);
+
+      assertThrows(TimeoutException.class, () -> pooled.get(100, MILLISECONDS));
+      dedicated.close();
+
+      assertThat(physicalConnection.isClosed()).isTrue();
+      try (Connection connection = pooled.get(10, SECONDS)) {
+        assertThat(connection.unwrap(Connection.class)).isNotSameInstanceAs(physicalConnection);
+      }
+    }
+  }
+
+  @Test
+  public void returnedConnection_failsOnUse() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 1)) {
+      Connection connection = pool.getConnection();
+      connection.close();
+
+      SQLException e = assertThrows(SQLException.class, connection::createStatement);
+
+      assertThat(e.getMessage()).isEqualTo("The connection was returned to the pool.");
+    }
+  }
+
+  @Test
+  public void close_closesIdleAndReturnedConnections() throws Exception {
+    ConnectionPool pool = new ConnectionPool(ADDRESS, new Properties(), 2);
+    Connection idle = pool.getConnection();
+    Connection inUse = pool.getConnection();
+    Connection idlePhysicalConnection = idle.unwrap(Connection.class);
+    Connection inUsePhysicalConnection = inUse.unwrap(Connection.class);
+    idle.close();
+
+    pool.close();
+    assertThat(idlePhysicalConnection.isClosed()).isTrue();
+    assertThat(inUsePhysicalConnection.isClosed()).isFalse();
+    inUse.close();
+
+    assertThat(inUsePhysicalConnection.isClosed()).isTrue();
+    SQLException e = assertThrows(SQLException.class, pool::getConnection);
+    assertThat(e.getMessage()).isEqualTo("The connection pool is closed.");
+  }
+}
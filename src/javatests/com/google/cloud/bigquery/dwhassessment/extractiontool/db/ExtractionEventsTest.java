@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Comparator.comparing;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.Properties;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ExtractionEventsTest {
+
+  private static final String PREFIX = "com.google.cloud.bigquery.dwhassessment.";
+
+  @Test
+  public void startRecording_scriptAndChunkEvents() throws Exception {
+    Path destination = Files.createTempDirectory("jfr").resolve("extraction.jfr");
+
+    try (Recording recording = ExtractionEvents.startRecording(destination)) {
+      ExtractionMetrics script = ExtractionMetrics.startScript("querylogs");
+      ExtractionMetrics chunk = script.startChunk(3);
+      chunk.addOutput(10, 2000);
+      chunk.finish();
+      script.finish();
+      recording.stop();
+    }
+
+    RecordedEvent chunkEvent = getOnlyEvent(destination, PREFIX + "Chunk");
+    assertThat(chunkEvent.getString("scriptName")).isEqualTo("querylogs");
+    assertThat(chunkEvent.getInt("timeSlice")).isEqualTo(-1);
+    assertThat(chunkEvent.getInt("chunkNumber")).isEqualTo(3);
+    assertThat(chunkEvent.getLong("rows")).isEqualTo(10);
+    assertThat(chunkEvent.getLong("bytes")).isEqualTo(2000);
+    RecordedEvent scriptEvent = getOnlyEvent(destination, PREFIX + "Script");
+    assertThat(scriptEvent.getInt("chunkNumber")).isEqualTo(-1);
+    assertThat(scriptEvent.getLong("rows")).isEqualTo(10);
+  }
+
+  @Test
+  public void startRecording_connectionEvents() throws Exception {
+    Path destination = Files.createTempDirectory("jfr").resolve("extraction.jfr");
+
+    try (Recording recording = ExtractionEvents.startRecording(destination);
+        ConnectionPool connectionPool =
+            new ConnectionPool("jdbc:hsqldb:mem:events_db", new Properties(), 1)) {
+      try (Connection connection = connectionPool.getConnection()) {}
+      try (Connection connection = connectionPool.getConnection()) {}
+      recording.stop();
+    }
+
+    assertThat(
+            getEvents(destination, PREFIX + "ConnectionAcquisition").stream()
+                .map(event -> event.getBoolean("opened"))
+                .collect(toImmutableList()))
+        .containsExactly(true, false)
+        .inOrder();
+  }
+
+  private static RecordedEvent getOnlyEvent(Path recording, String name) throws Exception {
+    ImmutableList<RecordedEvent> events = getEvents(recording, name);
+    assertThat(events).hasSize(1);
+    return events.get(0);
+  }
+
+  private static ImmutableList<RecordedEvent> getEvents(Path recording, String name)
+      throws Exception {
+    return RecordingFile.readAllEvents(recording).stream()
+        .filter(event -> event.getEventType().getName().equals(name))
+        .sorted(comparing(RecordedEvent::getStartTime))
+        .collect(toImmutableList());
+  }
+}
@@ -3,6 +3,9 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 import static com.github.jknack.handlebars.TagType.VAR;
 import static com.github.jknack.handlebars.Template.EMPTY;
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.getTableName;
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.keysetClause;
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.keysetTop;
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.topWithTies;
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.whereClauseForQuerylogs;
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.HandlebarsHelpers.whereClauseWithTimeRange;
 import static com.google.common.truth.Truth.assertThat;
@@ -12,10 +15,14 @@ import static org.junit.Assert.assertThrows;
 import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Options;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.KeysetVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables.TimeRange;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import java.math.BigDecimal;
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -297,6 +304,140 @@ public final class HandlebarsHelpersTest {
     assertThat(result).isEqualTo("\"DBC\".\"testTableName\"");
   }
 
+  @Test
+  public void topWithTies_noChunkRows_emptyResult() {
+    QueryLogsVariables queryLogsVariables = QueryLogsVariables.builder().build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {});
+
+    // Act
+    CharSequence result = topWithTies(queryLogsVariables, options);
+
+    // Assert
+    assertThat(result).isEqualTo("");
+  }
+
+  @Test
+  public void topWithTies_withChunkRows_success() {
+    QueryLogsVariables queryLogsVariables = QueryLogsVariables.builder().setChunkRows(1000).build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {});
+
+    // Act
+    CharSequence result = topWithTies(queryLogsVariables, options);
+
+    // Assert
+    assertThat(result).isEqualTo(" TOP 1000 WITH TIES");
+  }
+
+  @Test
+  public void keysetTop_noKeyset_emptyResult() {
+    KeysetVariables keysetVariables = KeysetVariables.builder().setLimit(10).build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {});
+
+    // Act
+    CharSequence result = keysetTop(keysetVariables, options);
+
+    // Assert
+    assertThat(result).isEqualTo("");
+  }
+
+  @Test
+  public void keysetTop_withLimit_success() {
+    KeysetVariables keysetVariables =
+        KeysetVariables.builder().setColumns(ImmutableList.of("A")).setLimit(10).build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {});
+
+    // Act
+    CharSequence result = keysetTop(keysetVariables, options);
+
+    // Assert
+    assertThat(result).isEqualTo(" TOP 10");
+  }
+
+  @Test
+  public void keysetClause_noKeyset_emptyResult() {
+    KeysetVariables keysetVariables = KeysetVariables.builder().build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {"WHERE"});
+
+    // Act
+    CharSequence result = keysetClause(keysetVariables, options);
+
+    // Assert
+    assertThat(result.toString()).isEqualTo("");
+  }
+
+  @Test
+  public void keysetClause_firstPage_onlyOrderBy() {
+    KeysetVariables keysetVariables =
+        KeysetVariables.builder().setColumns(ImmutableList.of("T.A", "B")).setLimit(10).build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {"WHERE"});
+
+    // Act
+    CharSequence result = keysetClause(keysetVariables, options);
+
+    // Assert
+    assertThat(result.toString()).isEqualTo("\nORDER BY \"T\".\"A\", \"B\"");
+  }
+
+  @Test
+  public void keysetClause_withAfterKey_success() {
+    KeysetVariables keysetVariables =
+        KeysetVariables.builder()
+            .setColumns(ImmutableList.of("A", "B", "C"))
+            .setAfterKey(ImmutableList.of("it's", 3L, new BigDecimal("1.50")))
+            .build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {"AND"});
+
+    // Act
+    CharSequence result = keysetClause(keysetVariables, options);
+
+    // Assert
+    assertThat(result.toString())
+        .isEqualTo(
+            "\nAND (\"A\" > 'it''s' OR (\"A\" = 'it''s' AND (\"B\" > 3 OR (\"B\" = 3 AND"
+                + " (\"C\" > 1.50)))))\nORDER BY \"A\", \"B\", \"C\"");
+  }
+
+  @Test
+  public void keysetClause_withNullInAfterKey_success() {
+    KeysetVariables keysetVariables =
+        KeysetVariables.builder()
+            .setColumns(ImmutableList.of("A", "B"))
+            .setAfterKey(Arrays.asList(null, "b"))
+            .build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {"WHERE"});
+
+    // Act
+    CharSequence result = keysetClause(keysetVariables, options);
+
+    // Assert
+    assertThat(result.toString())
+        .isEqualTo(
+            "\nWHERE (\"A\" IS NOT NULL OR (\"A\" IS NULL AND (\"B\" > 'b')))"
+                + "\nORDER BY \"A\", \"B\"");
+  }
+
+  @Test
+  public void keysetClause_afterKeyOfWrongSize_fail() {
+    KeysetVariables keysetVariables =
+        KeysetVariables.builder()
+            .setColumns(ImmutableList.of("A", "B"))
+            .setAfterKey(ImmutableList.of("a"))
+            .build();
+    Options options = getOptions(SqlScriptVariables.builder(), new Object[] {"WHERE"});
+
+    // Act
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> keysetClause(keysetVariables, options));
+
+    // Assert
+    assertThat(e).hasMessageThat().isEqualTo("Expected a key of 2 values but got 1.");
+  }
+
+  private Options getOptions(SqlScriptVariables.Builder model, Object[] params) {
+    return getOptions(
+        model.setQueryLogsVariables(QueryLogsVariables.builder().build()).build(), params);
+  }
+
   private Options getOptions(SqlScriptVariables model, Object[] params) {
     Handlebars handlebars = mock(Handlebars.class);
     Context context = Context.newContext(model);
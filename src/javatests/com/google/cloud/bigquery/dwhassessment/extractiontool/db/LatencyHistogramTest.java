@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+
+  @Test
+  public void observeNanos_cumulativeCountsPerBucket() {
+    LatencyHistogram histogram = new LatencyHistogram(0.001, 0.01, 0.1);
+
+    histogram.observeNanos(500_000);
+    histogram.observeNanos(1_000_000);
+    histogram.observeNanos(5_000_000);
+    histogram.observeNanos(2_000_000_000);
+
+    assertThat(histogram.upperBoundsSeconds()).containsExactly(0.001, 0.01, 0.1).inOrder();
+    assertThat(histogram.cumulativeCounts()).containsExactly(2L, 3L, 3L, 4L).inOrder();
+    assertThat(histogram.sumSeconds()).isWithin(1e-9).of(2.0065);
+  }
+
+  @Test
+  public void create_decreasingBounds_throws() {
+    assertThrows(IllegalArgumentException.class, () -> new LatencyHistogram(0.1, 0.01));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ResultSetDatumWriterTest {
+
+  private static final byte[] SYNC_MARKER = new byte[16];
+
+  private static Connection connection;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    connection = DriverManager.getConnection("jdbc:hsqldb:mem:result_set_datum_writer_db");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE TABLE T0 ("
+            + "ID INTEGER, "
+            + "CHAR_COL CHAR(10), "
+            + "VARCHAR_COL VARCHAR(100), "
+            + "LONGVARCHAR_COL LONGVARCHAR(100), "
+            + "SMALLINT_COL SMALLINT, "
+            + "TINYINT_COL TINYINT, "
+            + "BIGINT_COL BIGINT, "
+            + "DECIMAL_COL DECIMAL(20, 0), "
+            + "TIMESTAMP_COL TIMESTAMP, "
+            + "DATE_COL DATE, "
+            + "BINARY_COL BINARY(2), "
+            + "FLOAT_COL FLOAT, "
+            + "DOUBLE_COL DOUBLE, "
+            + "REAL_COL REAL, "
+            + "BIT_COL BIT, "
+            + "BOOLEAN_COL BOOLEAN)");
+    baseStmt.execute(
+        "INSERT INTO T0 VALUES (1, ' a b', 'déf ', 'x', -2, 3, 4000000000,"
+            + " -12345678901234567890, TIMESTAMP '2022-01-01 01:02:03.456', DATE '2022-03-04',"
+            + " X'0102', 0.25, 1.5, 2.5, 1, TRUE)");
+    baseStmt.execute(
+        "INSERT INTO T0 VALUES (2, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL,"
+            + " NULL, NULL, NULL, NULL, NULL)");
+    baseStmt.execute(
+        "INSERT INTO T0 VALUES (3, '', '', '', 0, 0, 0, 0, TIMESTAMP '1960-01-01 00:00:00',"
+            + " DATE '1960-01-01', X'', 0, 0, 0, 0, FALSE)");
+    baseStmt.close();
+    connection.commit();
+  }
+
+  @Test
+  public void write_sameBytesAsGenericRecords() throws Exception {
+    String query = "SELECT * FROM T0 ORDER BY ID";
+    Schema schema;
+    byte[] expected;
+    try (ResultSet resultSet = connection.createStatement().executeQuery(query)) {
+      schema = getAvroSchema("schemaName", "namespace", resultSet.getMetaData());
+      RowConverter rowConverter = RowConverter.create(schema, resultSet.getMetaData());
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      try (DataFileWriter<GenericRecord> writer =
+          new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema))
+              .create(schema, outputStream, SYNC_MARKER)) {
+        while (resultSet.next()) {
+          writer.append(rowConverter.convert(resultSet));
+        }
+      }
+      expected = outputStream.toByteArray();
+    }
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (ResultSet resultSet = connection.createStatement().executeQuery(query);
+        DataFileWriter<ResultSet> writer =
+            new DataFileWriter<>(ResultSetDatumWriter.create(schema, resultSet.getMetaData()))
+                .create(schema, outputStream, SYNC_MARKER)) {
+      while (resultSet.next()) {
+        writer.append(resultSet);
+      }
+    }
+
+    assertThat(outputStream.toByteArray()).isEqualTo(expected);
+  }
+
+  @Test
+  public void write_fieldsInSchemaOrder() throws Exception {
+    Schema schema =
+        SchemaBuilder.record("schemaName")
+            .namespace("namespace")
+            .fields()
+            .optionalString("VARCHAR_COL")
+            .optionalLong("MISSING_COL")
+            .optionalInt("ID")
+            .endRecord();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (ResultSet resultSet =
+            connection
+                .createStatement()
+                .executeQuery("SELECT ID, VARCHAR_COL FROM T0 WHERE ID = 1");
+        ResultSetRecorder<ResultSet> recorder =
+            AvroResultSetRecorder.create(
+                ResultSetDatumWriter.create(schema, resultSet.getMetaData()), outputStream)) {
+      resultSet.next();
+      recorder.add(resultSet);
+    }
+
+    DataFileReader<GenericRecord> reader =
+        new DataFileReader<>(
+            new SeekableByteArrayInput(outputStream.toByteArray()), new GenericDatumReader<>());
+    assertThat(reader.next().toString())
+        .isEqualTo(
+            new GenericRecordBuilder(schema)
+                .set("VARCHAR_COL", "déf ")
+                .set("ID", 1)
+                .build()
+                .toString());
+    assertThat(reader.hasNext()).isFalse();
+  }
+
+  @Test
+  public void create_failOnColumnMissingFromSchema() throws Exception {
+    Schema schema =
+        SchemaBuilder.record("schemaName").namespace("namespace").fields().endRecord();
+    try (ResultSet resultSet = connection.createStatement().executeQuery("SELECT ID FROM T0")) {
+      IllegalArgumentException e =
+          assertThrows(
+              IllegalArgumentException.class,
+              () -> ResultSetDatumWriter.create(schema, resultSet.getMetaData()));
+
+      assertThat(e).hasMessageThat().isEqualTo("Column ID is not a field of schema schemaName.");
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Instant;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RowConverterTest {
+
+  private static Connection connection;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    connection = DriverManager.getConnection("jdbc:hsqldb:mem:row_converter_db");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE TABLE T0 ("
+            + "ID INTEGER, "
+            + "CHAR_COL CHAR(10), "
+            + "VARCHAR_COL VARCHAR(100), "
+            + "SMALLINT_COL SMALLINT, "
+            + "TINYINT_COL TINYINT, "
+            + "BIGINT_COL BIGINT, "
+            + "DECIMAL_COL DECIMAL(20, 0), "
+            + "TIMESTAMP_COL TIMESTAMP, "
+            + "BINARY_COL BINARY(2), "
+            + "DOUBLE_COL DOUBLE, "
+            + "REAL_COL REAL, "
+            + "BOOLEAN_COL BOOLEAN)");
+    baseStmt.execute(
+        "INSERT INTO T0 VALUES (1, 'abc', 'def ', 2, 3, 4, 12345678901234567890,"
+            + " TIMESTAMP '2022-01-01 01:02:03.456', X'0102', 1.5, 2.5, TRUE)");
+    baseStmt.execute(
+        "INSERT INTO T0 VALUES"
+            + " (2, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL)");
+    baseStmt.close();
+    connection.commit();
+  }
+
+  @Test
+  public void convert_allTypes() throws Exception {
+    try (ResultSet resultSet =
+        connection.createStatement().executeQuery("SELECT * FROM T0 ORDER BY ID")) {
+      Schema schema = getAvroSchema("schemaName", "namespace", resultSet.getMetaData());
+      RowConverter rowConverter = RowConverter.create(schema, resultSet.getMetaData());
+
+      resultSet.next();
+      assertThat(rowConverter.convert(resultSet))
+          .isEqualTo(
+              new GenericRecordBuilder(schema)
+                  .set("ID", 1)
+                  .set("CHAR_COL", "abc")
+                  .set("VARCHAR_COL", "def ")
+                  .set("SMALLINT_COL", 2)
+                  .set("TINYINT_COL", 3)
+                  .set("BIGINT_COL", 4L)
+                  .set(
+                      "DECIMAL_COL",
+                      ByteBuffer.wrap(new BigInteger("12345678901234567890").toByteArray()))
+                  .set(
+                      "TIMESTAMP_COL",
+                      Instant.parse("2022-01-01T01:02:03.456Z").toEpochMilli())
+                  .set("BINARY_COL", ByteBuffer.wrap(new byte[] {1, 2}))
+                  .set("DOUBLE_COL", 1.5)
+                  .set("REAL_COL", 2.5)
+                  .set("BOOLEAN_COL", true)
+                  .build());
+      resultSet.next();
+      assertThat(rowConverter.convert(resultSet))
+          .isEqualTo(new GenericRecordBuilder(schema).set("ID", 2).build());
+    }
+  }
+
+  @Test
+  public void convert_fieldOrderDiffersFromColumnOrder() throws Exception {
+    Schema schema =
+        SchemaBuilder.record("schemaName")
+            .namespace("namespace")
+            .fields()
+            .optionalString("VARCHAR_COL")
+            .optionalInt("ID")
+            .endRecord();
+    try (ResultSet resultSet =
+        connection.createStatement().executeQuery("SELECT ID, VARCHAR_COL FROM T0 WHERE ID = 1")) {
+      RowConverter rowConverter = RowConverter.create(schema, resultSet.getMetaData());
+      resultSet.next();
+
+      GenericRecord record = rowConverter.convert(resultSet);
+
+      assertThat(record.get(0)).isEqualTo("def ");
+      assertThat(record.get(1)).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void create_failOnColumnMissingFromSchema() throws Exception {
+    Schema schema =
+        SchemaBuilder.record("schemaName").namespace("namespace").fields().endRecord();
+    try (ResultSet resultSet = connection.createStatement().executeQuery("SELECT ID FROM T0")) {
+      IllegalArgumentException e =
+          assertThrows(
+              IllegalArgumentException.class,
+              () -> RowConverter.create(schema, resultSet.getMetaData()));
+
+      assertThat(e).hasMessageThat().isEqualTo("Column ID is not a field of schema schemaName.");
+    }
+  }
+}
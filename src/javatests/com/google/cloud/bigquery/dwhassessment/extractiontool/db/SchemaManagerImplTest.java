@@ -16,16 +16,21 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroHelper.getAvroSchema;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaKey;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.re2j.Pattern;
 import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.generic.GenericRecordBuilder;
@@ -48,6 +53,9 @@ public final class SchemaManagerImplTest {
     baseStmt.execute("CREATE TABLE FOO (ID VARCHAR(1), NAME VARCHAR(100))");
     baseStmt.execute("CREATE TABLE FOOBAR (ID INTEGER, NAME VARCHAR(100))");
     baseStmt.execute("CREATE TABLE BAR (ID INTEGER, NAME VARCHAR(100))");
+    baseStmt.execute("CREATE SCHEMA OTHER_DB");
+    baseStmt.execute("CREATE TABLE OTHER_DB.FOOBAZ (ID INTEGER)");
+    baseStmt.execute("CREATE TABLE OTHER_DB.BAR (ID INTEGER)");
     baseStmt.close();
     connection.commit();
   }
@@ -59,9 +67,9 @@ public final class SchemaManagerImplTest {
     assertThat(results)
         .containsAtLeastElementsIn(
             ImmutableSet.of(
-                SchemaKey.create("HSQL Database Engine", "FOO"),
-                SchemaKey.create("HSQL Database Engine", "FOOBAR"),
-                SchemaKey.create("HSQL Database Engine", "BAR")));
+                SchemaKey.create("PUBLIC", "FOO"),
+                SchemaKey.create("PUBLIC", "FOOBAR"),
+                SchemaKey.create("PUBLIC", "BAR")));
   }
 
   @Test
@@ -71,15 +79,15 @@ public final class SchemaManagerImplTest {
             connection,
             ImmutableList.of(
                 SchemaFilter.builder()
-                    .setDatabaseName(Pattern.compile("HSQL.*"))
+                    .setDatabaseName(Pattern.compile("PUB.*"))
                     .setTableName(Pattern.compile("FOO.*"))
                     .build()));
 
     assertThat(results)
         .containsAtLeastElementsIn(
             ImmutableSet.of(
-                SchemaKey.create("HSQL Database Engine", "FOO"),
-                SchemaKey.create("HSQL Database Engine", "FOOBAR")));
+                SchemaKey.create("PUBLIC", "FOO"),
+                SchemaKey.create("PUBLIC", "FOOBAR")));
   }
 
   @Test
@@ -88,14 +96,14 @@ public final class SchemaManagerImplTest {
         schemaManager.getSchemaKeys(
             connection,
             ImmutableList.of(
-                SchemaFilter.builder().setDatabaseName(Pattern.compile("HSQL.*")).build()));
+                SchemaFilter.builder().setDatabaseName(Pattern.compile("PUB.*")).build()));
 
     assertThat(results)
         .containsAtLeastElementsIn(
             ImmutableSet.of(
-                SchemaKey.create("HSQL Database Engine", "FOO"),
-                SchemaKey.create("HSQL Database Engine", "FOOBAR"),
-                SchemaKey.create("HSQL Database Engine", "BAR")));
+                SchemaKey.create("PUBLIC", "FOO"),
+                SchemaKey.create("PUBLIC", "FOOBAR"),
+                SchemaKey.create("PUBLIC", "BAR")));
   }
 
   @Test
@@ -109,8 +117,8 @@ public final class SchemaManagerImplTest {
     assertThat(results)
         .containsAtLeastElementsIn(
             ImmutableSet.of(
-                SchemaKey.create("HSQL Database Engine", "FOO"),
-                SchemaKey.create("HSQL Database Engine", "FOOBAR")));
+                SchemaKey.create("PUBLIC", "FOO"),
+                SchemaKey.create("PUBLIC", "FOOBAR")));
   }
 
   @Test
@@ -123,15 +131,15 @@ public final class SchemaManagerImplTest {
     assertThat(results)
         .containsAtLeastElementsIn(
             ImmutableSet.of(
-                SchemaKey.create("HSQL Database Engine", "FOO"),
-                SchemaKey.create("HSQL Database Engine", "FOOBAR"),
-                SchemaKey.create("HSQL Database Engine", "BAR")));
+                SchemaKey.create("PUBLIC", "FOO"),
+                SchemaKey.create("PUBLIC", "FOOBAR"),
+                SchemaKey.create("PUBLIC", "BAR")));
   }
 
   @Test
   public void retrieveSchemaTest() throws Exception {
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    String databaseName = "HSQL Database Engine";
+    String databaseName = "PUBLIC";
     String tableName = "FOO";
     Schema schema =
         getAvroSchema(
@@ -205,4 +213,69 @@ public final class SchemaManagerImplTest {
             .build();
     assertThat(records).containsExactly(expectedRecord, expectedSecondRecord);
   }
+
+  @Test
+  public void retrieveSchemas_bulkModes_sameRecordsAsPerTable() throws Exception {
+    Schema schema = getColumnsSchema();
+    ImmutableSet<SchemaKey> schemaKeys =
+        schemaManager.getSchemaKeys(
+            connection,
+            ImmutableList.of(
+                SchemaFilter.builder().setTableName(Pattern.compile("FOO.*")).build()));
+    List<GenericRecord> perTableRecords = new ArrayList<>();
+    schemaManager.retrieveSchemas(
+        connection, schemaKeys, SchemaRetrievalMode.PER_TABLE, schema, perTableRecords::add);
+
+    for (SchemaRetrievalMode mode :
+        ImmutableList.of(SchemaRetrievalMode.PER_DATABASE, SchemaRetrievalMode.ALL)) {
+      List<GenericRecord> records = new ArrayList<>();
+      schemaManager.retrieveSchemas(connection, schemaKeys, mode, schema, records::add);
+
+      assertThat(records).containsExactlyElementsIn(perTableRecords);
+    }
+    assertThat(
+            perTableRecords.stream()
+                .map(record -> record.get("TABLE_NAME").toString())
+                .collect(toImmutableList()))
+        .containsExactly("FOO", "FOO", "FOOBAR", "FOOBAR", "FOOBAZ");
+  }
+
+  @Test
+  public void retrieveSchemas_allModes_skipSameTableNameInOtherDatabase() throws Exception {
+    Schema schema = getColumnsSchema();
+    ImmutableSet<SchemaKey> schemaKeys =
+        schemaManager.getSchemaKeys(
+            connection,
+            ImmutableList.of(
+                SchemaFilter.builder()
+                    .setDatabaseName(Pattern.compile("PUBLIC"))
+                    .setTableName(Pattern.compile("BAR"))
+                    .build()));
+
+    assertThat(schemaKeys).containsExactly(SchemaKey.create("PUBLIC", "BAR"));
+    for (SchemaRetrievalMode mode : SchemaRetrievalMode.values()) {
+      List<GenericRecord> records = new ArrayList<>();
+      schemaManager.retrieveSchemas(connection, schemaKeys, mode, schema, records::add);
+
+      assertThat(
+              records.stream()
+                  .map(record -> record.get("TABLE_SCHEM") + "." + record.get("COLUMN_NAME"))
+                  .collect(toImmutableList()))
+          .containsExactly("PUBLIC.ID", "PUBLIC.NAME");
+    }
+  }
+
+  private static Schema getColumnsSchema() throws SQLException {
+    return getAvroSchema(
+        "schema",
+        "namespace",
+        connection
+            .getMetaData()
+            .getColumns(
+                /*catalog =*/ null,
+                /*schemaPattern =*/ null,
+                /*tableNamePattern =*/ "%",
+                /*columnNamePattern =*/ null)
+            .getMetaData());
+  }
 }
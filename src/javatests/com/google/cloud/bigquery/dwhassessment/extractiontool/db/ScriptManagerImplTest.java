@@ -20,9 +20,16 @@ import static com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptMa
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.FakeDataEntityManagerImpl;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.ManifestEntry;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.RunManifest;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -32,11 +39,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.avro.Schema;
@@ -68,8 +77,31 @@ public final class ScriptManagerImplTest {
                   + "ORDER BY {{#each sortingColumns}}{{this}}{{#unless"
                   + " @last}},{{/unless}}{{/each}} ASC NULLS FIRST\n"
                   + "{{/if}}");
+  private final ImmutableMap<String, Supplier<String>> keysetScriptsMap =
+      ImmutableMap.of(
+          "default_keyset",
+          () ->
+              "SELECT{{#keysetTop keysetVariables}}{{/keysetTop}} * FROM KeyedTable"
+                  + "{{#keysetClause keysetVariables \"WHERE\"}}{{/keysetClause}}");
+  // Emulates TOP n WITH TIES, which HSQLDB lacks, with the largest timestamp of the first n rows.
+  private final ImmutableMap<String, Supplier<String>> queryPerChunkScriptsMap =
+      ImmutableMap.of(
+          "default_per_chunk",
+          () ->
+              "SELECT * FROM (SELECT * FROM TestTable AS \"T\"\n"
+                  + "{{#whereClauseWithTimeRange queryLogsVariables \"T\" \"TIMESTAMPS\"}}"
+                  + "{{/whereClauseWithTimeRange}}) AS \"R\"\n"
+                  + "WHERE \"R\".\"TIMESTAMPS\" <= (SELECT MAX(\"P\".\"TIMESTAMPS\") FROM"
+                  + " (SELECT \"S\".\"TIMESTAMPS\" FROM TestTable AS \"S\"\n"
+                  + "{{#whereClauseWithTimeRange queryLogsVariables \"S\" \"TIMESTAMPS\"}}"
+                  + "{{/whereClauseWithTimeRange}}\n"
+                  + "ORDER BY \"S\".\"TIMESTAMPS\" LIMIT {{queryLogsVariables.chunkRows}})"
+                  + " AS \"P\")\n"
+                  + "ORDER BY \"R\".\"TIMESTAMPS\"");
   private final ImmutableMap<String, ImmutableList<String>> sortingColumnsMap =
       ImmutableMap.of("default_chunked", ImmutableList.of("TIMESTAMPS"));
+  private final ImmutableMap<String, ImmutableList<String>> keysetColumnsMap =
+      ImmutableMap.of("default_keyset", ImmutableList.of("KEYEDTABLE.NAME", "ID"));
   private final SqlTemplateRenderer sqlTemplateRenderer =
       new SqlTemplateRendererImpl(
           SqlScriptVariables.builder()
@@ -102,7 +134,9 @@ public final class ScriptManagerImplTest {
         "default",
         bareStreamDataEntityManager,
         5000,
-        0);
+        0L,
+        0,
+        ScriptExecutionOptions.builder().build());
     Schema testSchema = scriptRunner.extractSchema(connection, baseScript, "default", "namespace");
     DatumReader<Record> datumReader = new GenericDatumReader<>();
     DataFileReader<Record> reader =
@@ -111,6 +145,41 @@ public final class ScriptManagerImplTest {
         .isEqualTo(new GenericRecordBuilder(testSchema).set("ID", 0).set("NAME", "name_0").build());
   }
 
+  @Test
+  public void executeScript_executesScriptOnlyOnce() throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = spy(DriverManager.getConnection("jdbc:hsqldb:mem:db_execute_once"));
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute("CREATE Table TestTable (" + "ID INTEGER," + "NAME VARCHAR(100)" + ")");
+    baseStmt.execute("INSERT INTO TestTable VALUES (0, 'name_0')");
+    baseStmt.close();
+    connection.commit();
+    DataEntityManager bareStreamDataEntityManager = new FakeDataEntityManagerImpl(outputStream);
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default",
+        bareStreamDataEntityManager,
+        5000,
+        0L,
+        0,
+        ScriptExecutionOptions.builder().build());
+
+    // One statement for the table setup above and one for the script itself.
+    verify(connection).createStatement();
+    verify(connection)
+        .prepareStatement(
+            anyString(), eq(ResultSet.TYPE_FORWARD_ONLY), eq(ResultSet.CONCUR_READ_ONLY));
+    verify(connection, never()).prepareStatement(anyString());
+    DatumReader<Record> datumReader = new GenericDatumReader<>();
+    DataFileReader<Record> reader =
+        new DataFileReader<>(new SeekableByteArrayInput(outputStream.toByteArray()), datumReader);
+    assertThat(reader.next().get("NAME").toString()).isEqualTo("name_0");
+    assertFalse(reader.hasNext());
+  }
+
   @Test
   public void executeScript_emptyTable_success() throws Exception {
     scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
@@ -127,7 +196,9 @@ public final class ScriptManagerImplTest {
         "default",
         bareStreamDataEntityManager,
         5000,
-        0);
+        0L,
+        0,
+        ScriptExecutionOptions.builder().build());
 
     DatumReader<Record> datumReader = new GenericDatumReader<>();
     DataFileReader<Record> reader =
@@ -155,7 +226,9 @@ public final class ScriptManagerImplTest {
                 "not_existing_script_name",
                 bareStreamDataEntityManager,
                 /*chunkRows=*/ 5000,
-                /*startingChunkNumber=*/ 0));
+                /*chunkBytes=*/ 0L,
+                /*startingChunkNumber=*/ 0,
+                ScriptExecutionOptions.builder().build()));
   }
 
   @Test
@@ -233,7 +306,7 @@ public final class ScriptManagerImplTest {
     scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
     Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_resumetemp");
     prepareDataWithSortingTimestamps(connection);
-    ImmutableList<String> expectedFiles = ImmutableList.of("default.avro");
+    ImmutableList<String> expectedFiles = ImmutableList.of("default.avro", "manifest.jsonl");
     DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
     Files.createFile(dataEntityManagerTmp.getAbsolutePath("").resolve("default_temp.avro"));
 
@@ -244,7 +317,9 @@ public final class ScriptManagerImplTest {
         "default",
         dataEntityManagerTmp,
         /*chunkRows=*/ 0,
-        /*startingChunkNumber=*/ 0);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
 
     assertThat(
             Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
@@ -260,7 +335,7 @@ public final class ScriptManagerImplTest {
     scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
     Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_resumefinished");
     prepareDataWithSortingTimestamps(connection);
-    ImmutableList<String> expectedFiles = ImmutableList.of("default.avro");
+    ImmutableList<String> expectedFiles = ImmutableList.of("default.avro", "manifest.jsonl");
     DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
     Files.createFile(dataEntityManagerTmp.getAbsolutePath("").resolve("default.avro"));
 
@@ -271,7 +346,9 @@ public final class ScriptManagerImplTest {
         "default",
         dataEntityManagerTmp,
         /*chunkRows=*/ 0,
-        /*startingChunkNumber=*/ 0);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
 
     assertThat(
             Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
@@ -299,6 +376,7 @@ public final class ScriptManagerImplTest {
             .add("default_chunked-20080808T200817S007000-20080808T200819S007000_3.avro")
             .add("default_chunked-20080808T200820S007000-20080808T200822S007000_4.avro")
             .add("default_chunked-20080808T200823S007000-20080808T200824S007000_5.avro")
+            .add("manifest.jsonl")
             .build();
     DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
 
@@ -309,7 +387,9 @@ public final class ScriptManagerImplTest {
         "default_chunked",
         dataEntityManagerTmp,
         /*chunkRows=*/ 3,
-        /*startingChunkNumber=*/ 0);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
 
     assertThat(
             Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
@@ -334,7 +414,9 @@ public final class ScriptManagerImplTest {
         "default_chunked",
         dataEntityManagerTmp,
         /*chunkRows=*/ 3,
-        /*startingChunkNumber=*/ 0);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
 
     // Validate result details for the first and the last chunks.
     DataFileReader<Record> readerForFirstChunk =
@@ -355,6 +437,84 @@ public final class ScriptManagerImplTest {
     assertFalse(readerForLastChunk.hasNext());
   }
 
+  @Test
+  public void executeScript_writeChunked_metricsPerChunk() throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_metrics");
+    prepareDataWithSortingTimestamps(connection);
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    ExtractionMetrics metrics = ExtractionMetrics.startScript("default_chunked");
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_chunked",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 3,
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().setMetrics(metrics).build());
+    metrics.finish();
+
+    ImmutableList<ExtractionMetrics> chunks = metrics.parts();
+    assertThat(chunks.stream().map(chunk -> chunk.chunk().getAsInt()).collect(Collectors.toList()))
+        .containsExactly(0, 1, 2, 3, 4, 5)
+        .inOrder();
+    assertThat(chunks.stream().map(ExtractionMetrics::rows).collect(Collectors.toList()))
+        .containsExactly(3L, 3L, 3L, 3L, 3L, 2L)
+        .inOrder();
+    assertThat(chunks.get(0).bytes())
+        .isEqualTo(
+            Files.size(
+                dataEntityManagerTmp.getAbsolutePath(
+                    "default_chunked-20080808T200808S007000-20080808T200810S007000_0.avro")));
+    assertThat(chunks.get(0).timeToFirstRowNanos()).isAtLeast(0L);
+    assertThat(metrics.rows()).isEqualTo(17);
+    assertThat(metrics.bytes())
+        .isEqualTo(chunks.stream().mapToLong(ExtractionMetrics::bytes).sum());
+    assertThat(metrics.wallNanos()).isAtLeast(chunks.get(5).wallNanos());
+  }
+
+  @Test
+  public void executeScript_writeChunked_chunksAreAddedToManifest() throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_manifest");
+    prepareDataWithSortingTimestamps(connection);
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_chunked",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 3,
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
+
+    ImmutableList<ManifestEntry> entries =
+        RunManifest.read(dataEntityManagerTmp.getAbsolutePath("")).get();
+    assertThat(entries.stream().map(ManifestEntry::chunkNumber).collect(Collectors.toList()))
+        .containsExactly(
+            Optional.of(0), Optional.of(1), Optional.of(2), Optional.of(3), Optional.of(4),
+            Optional.of(5))
+        .inOrder();
+    ManifestEntry lastEntry = entries.get(5);
+    assertThat(lastEntry.file())
+        .isEqualTo("default_chunked-20080808T200823S007000-20080808T200824S007000_5.avro");
+    assertThat(lastEntry.scriptName()).isEqualTo("default_chunked");
+    assertThat(lastEntry.rows()).isEqualTo(2L);
+    assertThat(lastEntry.firstSortKey()).isEqualTo(Optional.of("20080808T200823S007000"));
+    assertThat(lastEntry.lastSortKey()).isEqualTo(Optional.of("20080808T200824S007000"));
+    assertThat(lastEntry.chunkRows()).isEqualTo(3);
+    assertThat(lastEntry.bytes())
+        .isEqualTo(Files.size(dataEntityManagerTmp.getAbsolutePath(lastEntry.file())));
+    assertThat(RunManifest.findInvalidFiles(dataEntityManagerTmp.getAbsolutePath(""), entries))
+        .isEmpty();
+  }
+
   @Test
   public void executeScript_writeChunked_sameTimestampsSameChunk() throws Exception {
     scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
@@ -388,7 +548,9 @@ public final class ScriptManagerImplTest {
         "default_chunked",
         dataEntityManagerTmp,
         /*chunkRows=*/ 2,
-        /*startingChunkNumber=*/ 0);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
 
     DataFileReader<Record> readerForFirstChunk =
         getAssertingReaderForAvroResults(
@@ -410,6 +572,282 @@ public final class ScriptManagerImplTest {
     assertFalse(readerForSecondChunk.hasNext());
   }
 
+  @Test
+  public void executeScript_writeWithQueryPerChunk_sameTimestampsSameChunk() throws Exception {
+    scriptManager =
+        new ScriptManagerImpl(
+            scriptRunner,
+            queryPerChunkScriptsMap,
+            ImmutableMap.of("default_per_chunk", ImmutableList.of("TIMESTAMPS")));
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_query_per_chunk");
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE Table TestTable ("
+            + "ID INTEGER,"
+            + "TIMESTAMPS TIMESTAMP(6) WITH TIME ZONE"
+            + ")");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (5, TIMESTAMP '2007-07-07 20:07:07.007003' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (4, TIMESTAMP '2007-07-07 20:07:07.007002' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (3, TIMESTAMP '2007-07-07 20:07:07.007001' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (2, TIMESTAMP '2007-07-07 20:07:07.007001' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (1, TIMESTAMP '2007-07-07 20:07:07.007000' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.close();
+    connection.commit();
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_per_chunk",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 2,
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder()
+            .setFetchProfile(FetchProfile.builder().setQueryPerChunk(true).build())
+            .build());
+
+    assertThat(
+            Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
+                .filter(path -> path.toString().endsWith(".avro"))
+                .sorted()
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList()))
+        .containsExactly(
+            "default_per_chunk-20070707T200707S007000-20070707T200707S007001_0.avro",
+            "default_per_chunk-20070707T200707S007002-20070707T200707S007003_1.avro")
+        .inOrder();
+    DataFileReader<Record> readerForFirstChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath(
+                "default_per_chunk-20070707T200707S007000-20070707T200707S007001_0.avro"));
+    assertThat(readerForFirstChunk.next().get(0)).isEqualTo(1);
+    assertThat(readerForFirstChunk.next().get(1))
+        .isEqualTo(Instant.parse("2007-07-07T20:07:07.007001000Z").toEpochMilli());
+    assertThat(readerForFirstChunk.next().get(1))
+        .isEqualTo(Instant.parse("2007-07-07T20:07:07.007001000Z").toEpochMilli());
+    assertFalse(readerForFirstChunk.hasNext());
+    DataFileReader<Record> readerForSecondChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath(
+                "default_per_chunk-20070707T200707S007002-20070707T200707S007003_1.avro"));
+    assertThat(readerForSecondChunk.next().get(0)).isEqualTo(4);
+    assertThat(readerForSecondChunk.next().get(0)).isEqualTo(5);
+    assertFalse(readerForSecondChunk.hasNext());
+  }
+
+  @Test
+  public void countRows_success() throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_count");
+    prepareDataWithSortingTimestamps(connection);
+
+    assertThat(scriptManager.countRows(connection, sqlTemplateRenderer, "default_chunked"))
+        .isEqualTo(17);
+  }
+
+  @Test
+  public void countRowsByHour_success() throws Exception {
+    scriptManager =
+        new ScriptManagerImpl(
+            scriptRunner,
+            scriptsMap,
+            sortingColumnsMap,
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                "default_chunked",
+                () ->
+                    "SELECT \"S\".\"TIMESTAMPS\" FROM TestTable AS \"S\"\n"
+                        + "{{#whereClauseWithTimeRange queryLogsVariables \"S\" \"TIMESTAMPS\"}}"
+                        + "{{/whereClauseWithTimeRange}}"));
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_count_by_hour");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE Table TestTable ("
+            + "ID INTEGER,"
+            + "TIMESTAMPS TIMESTAMP(6) WITH TIME ZONE"
+            + ")");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (1, TIMESTAMP '2007-07-07 20:07:07.007000' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (2, TIMESTAMP '2007-07-07 20:59:59.999999' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (3, TIMESTAMP '2007-07-08 00:00:00.000000' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute("INSERT INTO TestTable VALUES (4, NULL)");
+    baseStmt.close();
+    connection.commit();
+
+    assertThat(scriptManager.countRowsByHour(connection, sqlTemplateRenderer, "default_chunked"))
+        .containsExactly(
+            Instant.parse("2007-07-07T20:00:00Z"), 2L, Instant.parse("2007-07-08T00:00:00Z"), 1L)
+        .inOrder();
+  }
+
+  @Test
+  public void executeScript_writeChunkedByBytes_sameTimestampsSameChunk() throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_bytes");
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE Table TestTable ("
+            + "ID INTEGER,"
+            + "TIMESTAMPS TIMESTAMP(6) WITH TIME ZONE"
+            + ")");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (1, TIMESTAMP '2007-07-07 20:07:07.007000' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (2, TIMESTAMP '2007-07-07 20:07:07.007001' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (3, TIMESTAMP '2007-07-07 20:07:07.007001' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (4, TIMESTAMP '2007-07-07 20:07:07.007002' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.close();
+    connection.commit();
+
+    // Every chunk is full after its first row, since the header alone is larger than 1 byte.
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_chunked",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 0,
+        /*chunkBytes=*/ 1L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
+
+    assertThat(
+            Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
+                .filter(path -> path.toString().endsWith(".avro"))
+                .sorted()
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList()))
+        .containsExactly(
+            "default_chunked-20070707T200707S007000-20070707T200707S007000_0.avro",
+            "default_chunked-20070707T200707S007001-20070707T200707S007001_1.avro",
+            "default_chunked-20070707T200707S007002-20070707T200707S007002_2.avro")
+        .inOrder();
+    DataFileReader<Record> readerForSecondChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath(
+                "default_chunked-20070707T200707S007001-20070707T200707S007001_1.avro"));
+    assertThat(readerForSecondChunk.next().get(0)).isEqualTo(2);
+    assertThat(readerForSecondChunk.next().get(0)).isEqualTo(3);
+    assertFalse(readerForSecondChunk.hasNext());
+  }
+
+  @Test
+  public void executeScript_writeChunkedByBytesThroughPipeline_countsPendingRows()
+      throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_bytes_pipeline");
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute(
+        "CREATE Table TestTable ("
+            + "ID INTEGER,"
+            + "TIMESTAMPS TIMESTAMP(6) WITH TIME ZONE"
+            + ")");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (1, TIMESTAMP '2007-07-07 20:07:07.007000' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.execute(
+        "INSERT INTO TestTable VALUES (2, TIMESTAMP '2007-07-07 20:07:07.007001' AT TIME ZONE"
+            + " INTERVAL '0:00' HOUR TO MINUTE)");
+    baseStmt.close();
+    connection.commit();
+
+    // The rows are still in the pipeline when the chunk is checked, so only they fill it.
+    try (AvroWritePipeline writePipeline =
+        new AvroWritePipeline(/* memoryBudgetBytes= */ 1024 * 1024)) {
+      scriptManager.executeScript(
+          connection,
+          /*dryRun=*/ false,
+          sqlTemplateRenderer,
+          "default_chunked",
+          dataEntityManagerTmp,
+          /*chunkRows=*/ 0,
+          /*chunkBytes=*/ 1L,
+          /*startingChunkNumber=*/ 0,
+          ScriptExecutionOptions.builder().setWritePipeline(writePipeline).build());
+    }
+
+    assertThat(
+            Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
+                .filter(path -> path.toString().endsWith(".avro"))
+                .sorted()
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList()))
+        .containsExactly(
+            "default_chunked-20070707T200707S007000-20070707T200707S007000_0.avro",
+            "default_chunked-20070707T200707S007001-20070707T200707S007001_1.avro")
+        .inOrder();
+  }
+
+  @Test
+  public void executeScript_writeChunkedThroughPipeline_sameTimestampsSameChunk()
+      throws Exception {
+    scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_pipeline");
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    prepareDataWithSortingTimestamps(connection);
+    connection
+        .createStatement()
+        .execute(
+            "INSERT INTO TestTable VALUES (17, TIMESTAMP '2008-08-08 20:08:09.007000'"
+                + " AT TIME ZONE INTERVAL '0:00' HOUR TO MINUTE)");
+
+    try (AvroWritePipeline writePipeline = new AvroWritePipeline(/* memoryBudgetBytes= */ 1024)) {
+      scriptManager.executeScript(
+          connection,
+          /*dryRun=*/ false,
+          sqlTemplateRenderer,
+          "default_chunked",
+          dataEntityManagerTmp,
+          /*chunkRows=*/ 2,
+          /*chunkBytes=*/ 0L,
+          /*startingChunkNumber=*/ 0,
+          ScriptExecutionOptions.builder().setWritePipeline(writePipeline).build());
+    }
+
+    // The second row has the same timestamp as the third, so both are in the first chunk.
+    DataFileReader<Record> readerForFirstChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath(
+                "default_chunked-20080808T200808S007000-20080808T200809S007000_0.avro"));
+    assertRecordEqualsExpected(readerForFirstChunk.next(), 0, "2008-08-08T20:08:08.007000000Z");
+    assertThat(readerForFirstChunk.next().get(1))
+        .isEqualTo(Instant.parse("2008-08-08T20:08:09.007000000Z").toEpochMilli());
+    assertThat(readerForFirstChunk.next().get(1))
+        .isEqualTo(Instant.parse("2008-08-08T20:08:09.007000000Z").toEpochMilli());
+    assertFalse(readerForFirstChunk.hasNext());
+    DataFileReader<Record> readerForLastChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath(
+                "default_chunked-20080808T200824S007000-20080808T200824S007000_8.avro"));
+    assertRecordEqualsExpected(readerForLastChunk.next(), 16, "2008-08-08T20:08:24.007000000Z");
+    assertFalse(readerForLastChunk.hasNext());
+  }
+
   @Test
   public void executeScript_writeChunked_withContinuingChunkNumber() throws Exception {
     scriptManager = new ScriptManagerImpl(scriptRunner, scriptsMap, sortingColumnsMap);
@@ -434,7 +872,9 @@ public final class ScriptManagerImplTest {
         "default_chunked",
         dataEntityManagerTmp,
         /*chunkRows=*/ 2,
-        /*startingChunkNumber=*/ 7);
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 7,
+        ScriptExecutionOptions.builder().build());
 
     DataFileReader<Record> readerForFirstChunk =
         getAssertingReaderForAvroResults(
@@ -445,6 +885,143 @@ public final class ScriptManagerImplTest {
     assertFalse(readerForFirstChunk.hasNext());
   }
 
+  private void prepareDataWithCompositeKeys(Connection connection) throws SQLException {
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute("CREATE Table KeyedTable (" + "NAME VARCHAR(100)," + "ID INTEGER" + ")");
+    // Insert in a different order to test that the pages are sorted by the key.
+    baseStmt.execute(
+        "INSERT INTO KeyedTable VALUES ('b', 2), ('o''brien', 1), ('a', 2), ('b', 1), ('a', 1)");
+    baseStmt.close();
+    connection.commit();
+  }
+
+  @Test
+  public void executeScript_writeInKeysetPages_pagesAreChunked() throws Exception {
+    scriptManager =
+        new ScriptManagerImpl(scriptRunner, keysetScriptsMap, sortingColumnsMap, keysetColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_keyset");
+    prepareDataWithCompositeKeys(connection);
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_keyset",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 2,
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().build());
+
+    assertThat(
+            Files.walk(dataEntityManagerTmp.getAbsolutePath(""))
+                .filter(Files::isRegularFile)
+                .sorted()
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList()))
+        .containsExactly(
+            "default_keyset_0.avro", "default_keyset_1.avro", "default_keyset_2.avro",
+            "manifest.jsonl")
+        .inOrder();
+    DataFileReader<Record> readerForSecondChunk =
+        getAssertingReaderForAvroResults(
+            dataEntityManagerTmp.getAbsolutePath("default_keyset_1.avro"));
+    assertThat(readerForSecondChunk.next().get(0).toString()).isEqualTo("b");
+    assertThat(readerForSecondChunk.next().get(1)).isEqualTo(2);
+    assertFalse(readerForSecondChunk.hasNext());
+    ImmutableList<ManifestEntry> entries =
+        RunManifest.read(dataEntityManagerTmp.getAbsolutePath("")).get();
+    assertThat(entries.stream().map(ManifestEntry::lastSortKey).collect(Collectors.toList()))
+        .containsExactly(
+            Optional.of("[\"a\",2]"), Optional.of("[\"b\",2]"), Optional.of("[\"o'brien\",1]"))
+        .inOrder();
+  }
+
+  @Test
+  public void executeScript_writeInKeysetPages_continuesAfterKey() throws Exception {
+    scriptManager =
+        new ScriptManagerImpl(scriptRunner, keysetScriptsMap, sortingColumnsMap, keysetColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_keyset_continue");
+    prepareDataWithCompositeKeys(connection);
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    sqlTemplateRenderer
+        .getSqlScriptVariablesBuilder()
+        .setKeysetVariables(
+            SqlScriptVariables.KeysetVariables.builder()
+                .setAfterKey(ImmutableList.of("a", 2L))
+                .build());
+
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_keyset",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 5,
+        /*chunkBytes=*/ 0L,
+        /*startingChunkNumber=*/ 1,
+        ScriptExecutionOptions.builder().build());
+
+    ImmutableList<ManifestEntry> entries =
+        RunManifest.read(dataEntityManagerTmp.getAbsolutePath("")).get();
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).file()).isEqualTo("default_keyset_1.avro");
+    assertThat(entries.get(0).rows()).isEqualTo(3L);
+    assertThat(entries.get(0).firstSortKey()).isEqualTo(Optional.of("[\"b\",1]"));
+  }
+
+  @Test
+  public void executeScript_writeInKeysetPagesByBytes_pagesAreLimited() throws Exception {
+    scriptManager =
+        new ScriptManagerImpl(scriptRunner, keysetScriptsMap, sortingColumnsMap, keysetColumnsMap);
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_keyset_bytes");
+    prepareDataWithCompositeKeys(connection);
+    DataEntityManager dataEntityManagerTmp = new FakeDataEntityManagerImpl("tmpTest");
+    ExtractionMetrics metrics = ExtractionMetrics.startScript("default_keyset");
+
+    // Every chunk is full after its first row, so every page after the first is limited to 1 row,
+    // and the last page is empty.
+    scriptManager.executeScript(
+        connection,
+        /*dryRun=*/ false,
+        sqlTemplateRenderer,
+        "default_keyset",
+        dataEntityManagerTmp,
+        /*chunkRows=*/ 0,
+        /*chunkBytes=*/ 1L,
+        /*startingChunkNumber=*/ 0,
+        ScriptExecutionOptions.builder().setMetrics(metrics).build());
+    metrics.finish();
+
+    ImmutableList<ManifestEntry> entries =
+        RunManifest.read(dataEntityManagerTmp.getAbsolutePath("")).get();
+    assertThat(entries.stream().map(ManifestEntry::lastSortKey).collect(Collectors.toList()))
+        .containsExactly(
+            Optional.of("[\"a\",1]"),
+            Optional.of("[\"a\",2]"),
+            Optional.of("[\"b\",1]"),
+            Optional.of("[\"b\",2]"),
+            Optional.of("[\"o'brien\",1]"))
+        .inOrder();
+    assertThat(
+            metrics.parts().stream()
+                .map(chunk -> chunk.chunk().getAsInt())
+                .collect(Collectors.toList()))
+        .containsExactly(0, 1, 2, 3, 4)
+        .inOrder();
+    assertThat(metrics.rows()).isEqualTo(5);
+  }
+
+  @Test
+  public void getPageRowsByBytes_twiceTheRowsOfAChunk() {
+    assertThat(ScriptManagerImpl.getPageRowsByBytes(100, 1000, 5000)).isEqualTo(1000);
+    assertThat(ScriptManagerImpl.getPageRowsByBytes(1, 1000, 1)).isEqualTo(1);
+    assertThat(ScriptManagerImpl.getPageRowsByBytes(0, 0, 5000)).isEqualTo(10000);
+    assertThat(ScriptManagerImpl.getPageRowsByBytes(1000, 1, Long.MAX_VALUE))
+        .isEqualTo(Integer.MAX_VALUE);
+  }
+
   @Test
   public void getUtcTimeStringFromTimestamp_outputShouldBeCorrect() {
     assertThat(getUtcTimeStringFromTimestamp(Timestamp.from(Instant.parse("2022-01-24T14:52:00Z"))))
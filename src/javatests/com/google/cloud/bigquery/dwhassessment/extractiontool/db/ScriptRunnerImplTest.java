@@ -18,15 +18,19 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Type;
@@ -93,6 +97,61 @@ public final class ScriptRunnerImplTest {
     assertThat(records).containsExactly(expectedRecord);
   }
 
+  @Test
+  public void executeScript_schemaAndRowsFromSameResultSet() throws SQLException, IOException {
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_single_execution");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute("CREATE TABLE T0 (ID INTEGER, NAME VARCHAR(100))");
+    baseStmt.execute("INSERT INTO T0 VALUES (0, 'name_0')");
+    baseStmt.close();
+    connection.commit();
+
+    ImmutableList.Builder<GenericRecord> output = ImmutableList.builder();
+    List<Schema> schemas = new ArrayList<>();
+    scriptRunner.executeScript(
+        connection,
+        "SELECT * FROM T0",
+        "testName",
+        "namespace",
+        /* fetchSize= */ 0,
+        (resultSet, schema) -> {
+          schemas.add(schema);
+          scriptRunner.convertResultSetToAvro(resultSet, schema, output::add);
+        });
+
+    Schema schema = Iterables.getOnlyElement(schemas);
+    assertThat(schema)
+        .isEqualTo(
+            scriptRunner.extractSchema(connection, "SELECT * FROM T0", "testName", "namespace"));
+    assertThat(output.build())
+        .containsExactly(
+            new GenericRecordBuilder(schema).set("ID", 0).set("NAME", "name_0").build());
+  }
+
+  @Test
+  public void executeScript_forwardOnlyReadOnlyWithFetchSize() throws SQLException, IOException {
+    Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:db_fetch_size");
+    Statement baseStmt = connection.createStatement();
+    baseStmt.execute("CREATE TABLE T0 (ID INTEGER)");
+    baseStmt.close();
+    connection.commit();
+
+    List<Integer> fetchSizes = new ArrayList<>();
+    scriptRunner.executeScript(
+        connection,
+        "SELECT * FROM T0",
+        "testName",
+        "namespace",
+        /* fetchSize= */ 500,
+        (resultSet, schema) -> {
+          assertThat(resultSet.getType()).isEqualTo(ResultSet.TYPE_FORWARD_ONLY);
+          assertThat(resultSet.getConcurrency()).isEqualTo(ResultSet.CONCUR_READ_ONLY);
+          fetchSizes.add(resultSet.getStatement().getFetchSize());
+        });
+
+    assertThat(fetchSizes).containsExactly(500);
+  }
+
   @Test
   public void executeScriptToAvro_nullValues_success() throws SQLException {
     Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:test_db");
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.db;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.TimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TimestampDecoderTest {
+
+  // JVM time zones, including zones with DST, half-hour DST and historical offset changes.
+  private static final ImmutableList<String> DEFAULT_TIME_ZONES =
+      ImmutableList.of(
+          "UTC",
+          "America/New_York",
+          "Europe/Berlin",
+          "Australia/Lord_Howe",
+          "Asia/Kolkata",
+          "America/Sao_Paulo",
+          "Europe/Amsterdam");
+
+  // Time zones reported by the driver for TIMESTAMP WITH TIME ZONE values; null for TIMESTAMP.
+  private static final ImmutableList<String> VALUE_TIME_ZONES =
+      ImmutableList.of("GMT+05:30", "GMT-08:00", "GMT+14:00", "America/Los_Angeles", "UTC");
+
+  private static final ImmutableList<String> INSTANTS =
+      ImmutableList.of(
+          "2022-03-13T06:59:59.999Z",
+          "2022-03-13T07:00:00Z",
+          "2022-03-13T07:30:00.123Z",
+          "2022-03-27T00:59:59.999Z",
+          "2022-03-27T01:00:00.001Z",
+          "2022-10-30T00:30:00Z",
+          "2022-10-30T01:30:00Z",
+          "2022-11-06T05:30:00.5Z",
+          "2022-11-06T06:30:00.5Z",
+          "2022-04-02T14:45:00Z",
+          "1970-01-01T00:00:00Z",
+          "1969-12-31T23:59:59.999Z",
+          "1937-07-01T00:00:00Z",
+          "1900-01-01T00:00:00Z",
+          "1582-10-15T00:00:00Z",
+          "1000-06-15T12:00:00Z",
+          "0001-01-01T00:00:00Z",
+          "9999-12-31T23:59:59.99Z");
+
+  private final TimeZone originalDefault = TimeZone.getDefault();
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(originalDefault);
+  }
+
+  @Test
+  public void getEpochMillis_timestamp_sameAsUnadjustedTimestamp() throws Exception {
+    for (String defaultTimeZone : DEFAULT_TIME_ZONES) {
+      TimeZone.setDefault(TimeZone.getTimeZone(defaultTimeZone));
+      for (String instant : INSTANTS) {
+        assertEquivalent(defaultTimeZone, /* valueTimeZone= */ null, instant, 0);
+        assertEquivalent(defaultTimeZone, /* valueTimeZone= */ null, instant, 123456);
+      }
+    }
+  }
+
+  @Test
+  public void getEpochMillis_timestampWithTimeZone_sameAsUnadjustedTimestamp() throws Exception {
+    for (String defaultTimeZone : DEFAULT_TIME_ZONES) {
+      TimeZone.setDefault(TimeZone.getTimeZone(defaultTimeZone));
+      for (String valueTimeZone : VALUE_TIME_ZONES) {
+        for (String instant : INSTANTS) {
+          assertEquivalent(defaultTimeZone, valueTimeZone, instant, 999999);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void getEpochMillis_null() throws Exception {
+    ResultSet row = mock(ResultSet.class);
+    when(row.getTimestamp(eq(1), any(Calendar.class))).thenReturn(null);
+    when(row.wasNull()).thenReturn(true);
+
+    assertThat(new TimestampDecoder().getEpochMillis(row, 1)).isEqualTo(0);
+    assertThat(AvroHelper.getUnadjustedTimestamp(row, 1)).isNull();
+  }
+
+  @Test
+  public void getEpochMillis_calendarResetBetweenValues() throws Exception {
+    TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    TimestampDecoder decoder = new TimestampDecoder();
+    Timestamp timestamp = Timestamp.from(Instant.parse("2022-01-01T00:00:00Z"));
+
+    assertThat(decoder.getEpochMillis(mockRow(timestamp, "GMT+01:00"), 1))
+        .isEqualTo(Instant.parse("2021-12-31T23:00:00Z").toEpochMilli());
+    assertThat(decoder.getEpochMillis(mockRow(timestamp, /* valueTimeZone= */ null), 1))
+        .isEqualTo(Instant.parse("2022-01-01T00:00:00Z").toEpochMilli());
+  }
+
+  private static void assertEquivalent(
+      String defaultTimeZone, String valueTimeZone, String instant, int subMillisNanos)
+      throws Exception {
+    Timestamp timestamp = Timestamp.from(Instant.parse(instant));
+    timestamp.setNanos(timestamp.getNanos() + subMillisNanos);
+    long expected =
+        AvroHelper.getUnadjustedTimestamp(mockRow(timestamp, valueTimeZone), 1)
+            .toInstant()
+            .toEpochMilli();
+
+    long actual = new TimestampDecoder().getEpochMillis(mockRow(timestamp, valueTimeZone), 1);
+
+    assertWithMessage(
+            "default time zone %s, value time zone %s, instant %s",
+            defaultTimeZone, valueTimeZone, instant)
+        .that(actual)
+        .isEqualTo(expected);
+  }
+
+  /**
+   * Mocks a row with one timestamp. Like the Teradata driver, the row sets the time zone of the
+   * calendar to the time zone of TIMESTAMP WITH TIME ZONE values.
+   */
+  private static ResultSet mockRow(Timestamp timestamp, String valueTimeZone) throws Exception {
+    ResultSet row = mock(ResultSet.class);
+    when(row.getTimestamp(eq(1), any(Calendar.class)))
+        .thenAnswer(
+            invocation -> {
+              if (valueTimeZone != null) {
+                Calendar calendar = invocation.getArgument(1);
+                calendar.setTimeZone(TimeZone.getTimeZone(valueTimeZone));
+              }
+              Timestamp copy = new Timestamp(timestamp.getTime());
+              copy.setNanos(timestamp.getNanos());
+              return copy;
+            });
+    return row;
+  }
+}
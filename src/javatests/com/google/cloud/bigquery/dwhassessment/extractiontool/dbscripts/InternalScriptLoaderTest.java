@@ -18,11 +18,14 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.dbscripts;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.*;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.KeysetVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlScriptVariables.QueryLogsVariables;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.FakeDataEntityManagerImpl;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.faketd.TeradataSimulator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -30,7 +33,11 @@ import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Type;
@@ -69,7 +76,11 @@ public class InternalScriptLoaderTest {
   private final ScriptLoader scriptLoader = new InternalScriptLoader();
   private final ScriptManager scriptManager =
       new ScriptManagerImpl(
-          new ScriptRunnerImpl(), scriptLoader.loadScripts(), scriptLoader.getSortingColumnsMap());
+          new ScriptRunnerImpl(),
+          scriptLoader.loadScripts(),
+          scriptLoader.getSortingColumnsMap(),
+          ImmutableMap.of(),
+          scriptLoader.getTimestampScriptsMap());
   private final ScriptRunner scriptRunner = new ScriptRunnerImpl();
   private final SqlTemplateRenderer sqlTemplateRenderer =
       new SqlTemplateRendererImpl(
@@ -282,6 +293,7 @@ public class InternalScriptLoaderTest {
             .set("DatabaseName", "dbname")
             .set("TableName", "tablename")
             .set("ColumnName", "columnname")
+            .set("StatsId", 1)
             .set("RowCount", 20)
             .set("UniqueValueCount", 3)
             .set("CreateTimeStamp", Instant.parse("2021-07-01T18:23:42Z").toEpochMilli())
@@ -892,6 +904,102 @@ public class InternalScriptLoaderTest {
     assertThat(readOutputStreamToAvro(outputStream, 1)).containsExactly(expectedRecord);
   }
 
+  @Test
+  public void countRowsByHour_queryLogs() throws SQLException, IOException {
+    assertThat(scriptManager.countRowsByHour(connection, sqlTemplateRenderer, "querylogs"))
+        .containsExactly(
+            Instant.parse("2021-07-01T18:00:00Z"), 1L, Instant.parse("2021-07-01T23:00:00Z"), 1L)
+        .inOrder();
+  }
+
+  @Test
+  public void countRowsByHour_timestampScripts_countSameRowsAsScripts()
+      throws SQLException, IOException {
+    for (String scriptName : scriptLoader.getSortingColumnsMap().keySet()) {
+      ImmutableSortedMap<Instant, Long> hourlyRowCounts =
+          scriptManager.countRowsByHour(connection, sqlTemplateRenderer, scriptName);
+
+      assertThat(hourlyRowCounts.values().stream().mapToLong(Long::longValue).sum())
+          .isEqualTo(scriptManager.countRows(connection, sqlTemplateRenderer, scriptName));
+    }
+  }
+
+  @Test
+  public void loadScripts_keysetPages_containAllRows() throws SQLException {
+    for (Map.Entry<String, ImmutableList<String>> keyset :
+        scriptLoader.getKeysetColumnsMap().entrySet()) {
+      String scriptName = keyset.getKey();
+      String sqlScript = getScript(scriptName);
+      Schema schema = scriptRunner.extractSchema(connection, sqlScript, scriptName, "namespace");
+      ImmutableList<GenericRecord> records = executeScriptToAvro(sqlScript, schema);
+
+      assertThat(getPagedRecords(scriptName, schema, keyset.getValue(), /* limit= */ 1))
+          .containsExactlyElementsIn(records);
+    }
+  }
+
+  @Test
+  public void loadScripts_statsKeysetPages_duplicateColumnNamesAcrossPages() throws SQLException {
+    String scriptName = "stats";
+    try (Statement statement = connection.createStatement()) {
+      // Summary and expression statistics have no column name, and a column can have several
+      // statistics. With pages of two rows, both pairs of duplicate column names are split.
+      statement.execute(
+          "INSERT INTO DBC.\"StatsV\" VALUES"
+              + " ('dupdb', 'duptable', NULL, 1, 100, 100, TIMESTAMP '2021-07-01 18:23:42'),"
+              + " ('dupdb', 'duptable', 'a', 2, 100, 10, TIMESTAMP '2021-07-01 18:23:42'),"
+              + " ('dupdb', 'duptable', 'a', 3, 100, 20, TIMESTAMP '2021-07-01 18:23:42'),"
+              + " ('dupdb', 'duptable', NULL, 4, 100, 30, TIMESTAMP '2021-07-01 18:23:42')");
+      try {
+        String sqlScript = getScript(scriptName);
+        Schema schema =
+            scriptRunner.extractSchema(connection, sqlScript, scriptName, "namespace");
+        ImmutableList<GenericRecord> records = executeScriptToAvro(sqlScript, schema);
+
+        assertThat(records).hasSize(5);
+        assertThat(
+                getPagedRecords(
+                    scriptName,
+                    schema,
+                    scriptLoader.getKeysetColumnsMap().get(scriptName),
+                    /* limit= */ 2))
+            .containsExactlyElementsIn(records);
+      } finally {
+        statement.execute("DELETE FROM DBC.\"StatsV\" WHERE \"DatabaseName\" = 'dupdb'");
+      }
+    }
+  }
+
+  /** Pages through the rows of a script, each page starting after the last row of the previous. */
+  private List<GenericRecord> getPagedRecords(
+      String scriptName, Schema schema, ImmutableList<String> keyColumns, int limit)
+      throws SQLException {
+    KeysetVariables page =
+        KeysetVariables.builder().setColumns(keyColumns).setLimit(limit).build();
+    List<GenericRecord> pagedRecords = new ArrayList<>();
+    while (true) {
+      String pageScript = getScript(scriptName, getSqlTemplateRendererWithKeyset(page));
+      ImmutableList<GenericRecord> pageRecords = executeScriptToAvro(pageScript, schema);
+      pagedRecords.addAll(pageRecords);
+      if (pageRecords.size() < limit) {
+        return pagedRecords;
+      }
+      page =
+          page.toBuilder()
+              .setAfterKey(getKey(pageRecords.get(pageRecords.size() - 1), keyColumns))
+              .build();
+    }
+  }
+
+  private static List<Object> getKey(GenericRecord record, List<String> keyColumns) {
+    List<Object> key = new ArrayList<>();
+    for (String keyColumn : keyColumns) {
+      Object value = record.get(keyColumn.substring(keyColumn.indexOf('.') + 1));
+      key.add(value instanceof Integer ? Long.valueOf((Integer) value) : value.toString());
+    }
+    return key;
+  }
+
   private ImmutableList<Record> readOutputStreamToAvro(
       ByteArrayOutputStream outputStream, int recordNum) throws IOException {
     DataFileReader<Record> reader = getAvroDataOutputReader(outputStream);
@@ -930,6 +1038,14 @@ public class InternalScriptLoaderTest {
                     .build()));
   }
 
+  private SqlTemplateRenderer getSqlTemplateRendererWithKeyset(KeysetVariables keysetVariables) {
+    return new SqlTemplateRendererImpl(
+        SqlScriptVariables.builder()
+            .setBaseDatabase("DBC")
+            .setQueryLogsVariables(SqlScriptVariables.QueryLogsVariables.builder().build())
+            .setKeysetVariables(keysetVariables));
+  }
+
   private void executeScript(String scriptName, ByteArrayOutputStream outputStream)
       throws SQLException, IOException {
     scriptManager.executeScript(
@@ -939,7 +1055,9 @@ public class InternalScriptLoaderTest {
         scriptName,
         new FakeDataEntityManagerImpl(outputStream),
         5000,
-        0);
+        0L,
+        0,
+        ScriptExecutionOptions.builder().build());
   }
 
   private ImmutableList<GenericRecord> executeScriptToAvro(String scriptName, Schema schema)
@@ -684,6 +684,7 @@ INSERT INTO DBC."StatsV" (
   "DatabaseName",
   "TableName",
   "ColumnName",
+  "StatsId",
   "RowCount",
   "UniqueValueCount",
   "CreateTimeStamp"
@@ -692,6 +693,7 @@ VALUES (
   'dbname',
   'tablename',
   'columnname',
+  1,
   20,
   3,
   TIMESTAMP '2021-07-01 18:23:42'
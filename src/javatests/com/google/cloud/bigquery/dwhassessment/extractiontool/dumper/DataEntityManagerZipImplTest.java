@@ -16,81 +16,379 @@
 
 package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
 
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
-import static org.mockito.ArgumentMatchers.argThat;
-import static org.mockito.Mockito.inOrder;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
-import org.mockito.InOrder;
 
 @RunWith(JUnit4.class)
 public class DataEntityManagerZipImplTest {
 
-  private ZipOutputStream zipOutputStream;
+  private Path tmpDir;
+  private Path zipPath;
 
   @Before
-  public void setUp() {
-    zipOutputStream = mock(ZipOutputStream.class);
+  public void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("data-entity-manager-zip-test");
+    zipPath = tmpDir.resolve("out.zip");
   }
 
   @Test
   public void getEntityOutputStream_writeSingleEntityToZip() throws IOException {
-    DataEntityManagerZipImpl manager = new DataEntityManagerZipImpl(zipOutputStream);
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      try (OutputStream out = manager.getEntityOutputStream("foo")) {
+        out.write("Hello There".getBytes(UTF_8));
+      }
+    }
 
-    OutputStream fooOutputStream = manager.getEntityOutputStream("foo");
-    fooOutputStream.write(3);
-    fooOutputStream.close();
-
-    InOrder inOrder = inOrder(zipOutputStream);
-    inOrder.verify(zipOutputStream)
-        .putNextEntry(argThat(zipEntry -> zipEntry.getName().equals("foo")));
-    inOrder.verify(zipOutputStream).write(3);
-    inOrder.verifyNoMoreInteractions();
+    assertThat(readZip()).isEqualTo(ImmutableMap.of("foo", "Hello There"));
   }
 
   @Test
   public void getEntityOutputStream_writeMultipleEntitiesToZip() throws IOException {
-    DataEntityManagerZipImpl manager = new DataEntityManagerZipImpl(zipOutputStream);
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      try (OutputStream out = manager.getEntityOutputStream("foo")) {
+        out.write("foo".getBytes(UTF_8));
+      }
+      try (OutputStream out = manager.getEntityOutputStream("bar")) {
+        out.write("bar".getBytes(UTF_8));
+      }
+    }
+
+    assertThat(readZip()).containsExactly("foo", "foo", "bar", "bar").inOrder();
+  }
+
+  @Test
+  public void getEntityOutputStream_concurrentEntitiesAreAddedWhenClosed() throws IOException {
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      OutputStream fooOutputStream = manager.getEntityOutputStream("foo");
+      OutputStream barOutputStream = manager.getEntityOutputStream("bar");
+      fooOutputStream.write("fo".getBytes(UTF_8));
+      barOutputStream.write("bar".getBytes(UTF_8));
+      fooOutputStream.write("o".getBytes(UTF_8));
+      barOutputStream.close();
+      fooOutputStream.close();
+    }
+
+    assertThat(readZip()).containsExactly("bar", "bar", "foo", "foo").inOrder();
+  }
+
+  @Test
+  public void getEntityOutputStream_compressedEntityIsStored() throws IOException {
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      try (OutputStream out = manager.getEntityOutputStream("foo.avro", /* compressed= */ true)) {
+        out.write("foo".getBytes(UTF_8));
+      }
+      try (OutputStream out = manager.getEntityOutputStream("bar.avro")) {
+        out.write("bar".getBytes(UTF_8));
+      }
+    }
+
+    try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+      assertThat(zipFile.getEntry("foo.avro").getMethod()).isEqualTo(ZipEntry.STORED);
+      assertThat(zipFile.getEntry("bar.avro").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+    }
+    assertThat(readZip()).containsExactly("foo.avro", "foo", "bar.avro", "bar").inOrder();
+  }
+
+  @Test
+  public void getEntityOutputStream_largeEntityIsSpooledToFile() throws IOException {
+    byte[] content = new byte[3 * 1024 * 1024];
+    new Random(42).nextBytes(content);
+
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      try (OutputStream out = manager.getEntityOutputStream("large")) {
+        out.write(content);
+        assertThat(listSpoolFiles()).hasSize(1);
+      }
+    }
+
+    assertThat(listSpoolFiles()).isEmpty();
+    try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+      assertThat(ByteStreams.toByteArray(zipFile.getInputStream(zipFile.getEntry("large"))))
+          .isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void moveEntity_stagedEntityIsAddedUnderFinalName() throws IOException {
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      try (OutputStream out = manager.getStagedEntityOutputStream("foo_temp", false)) {
+        out.write("foo".getBytes(UTF_8));
+      }
+      try (OutputStream out = manager.getStagedEntityOutputStream("bar_temp", false)) {
+        out.write("bar".getBytes(UTF_8));
+      }
+      try (OutputStream out = manager.getStagedEntityOutputStream("baz_temp", false)) {
+        out.write("baz".getBytes(UTF_8));
+      }
+      manager.moveEntity("foo_temp", "foo");
+      manager.discardEntity("bar_temp");
+    }
+
+    assertThat(readZip()).isEqualTo(ImmutableMap.of("foo", "foo"));
+    assertThat(listSpoolFiles()).isEmpty();
+  }
+
+  @Test
+  public void moveEntity_failOnEntityThatIsNotStaged() throws IOException {
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      manager.getEntityOutputStream("foo").close();
+
+      assertThrows(IllegalStateException.class, () -> manager.moveEntity("foo", "bar"));
+    }
+  }
+
+  @Test
+  public void open_continuesArchiveAndReplacesEntities() throws IOException {
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "foo", "old foo");
+      writeEntity(manager, "bar", "bar");
+    }
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "foo", "new foo");
+      writeEntity(manager, "baz", "baz");
+    }
+
+    assertThat(readZip())
+        .containsExactly("bar", "bar", "foo", "new foo", "baz", "baz")
+        .inOrder();
+  }
+
+  @Test
+  public void open_recoversInterruptedArchive() throws IOException {
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "foo", "foo");
+      writeEntity(manager, "bar", "bar");
+    }
+    // Cut the archive within the data of the last entity, as if the extraction was interrupted
+    // while writing it; the central directory is lost as well.
+    long centralDirectorySize = 2 * (46 + 3) + 22;
+    try (FileChannel channel = FileChannel.open(zipPath, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - centralDirectorySize - 1);
+    }
+
+    assertThat(DataEntityManagerZipImpl.readEntityNames(zipPath)).containsExactly("foo");
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "baz", "baz");
+    }
+    assertThat(readZip()).containsExactly("foo", "foo", "baz", "baz").inOrder();
+  }
+
+  @Test
+  public void open_recoversArchiveInterruptedWithinFirstEntity() throws IOException {
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "foo", "foo");
+    }
+    try (FileChannel channel = FileChannel.open(zipPath, StandardOpenOption.WRITE)) {
+      channel.truncate(30 + 3);
+    }
+
+    assertThat(DataEntityManagerZipImpl.readEntityNames(zipPath)).isEmpty();
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "bar", "bar");
+    }
+    assertThat(readZip()).containsExactly("bar", "bar");
+  }
+
+  @Test
+  public void open_failsOnArchiveWithDataDescriptorsAndKeepsIt() throws IOException {
+    // ZipOutputStream puts the sizes of deflated entries into data descriptors.
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+      out.putNextEntry(new ZipEntry("foo"));
+      out.write("foo".getBytes(UTF_8));
+      out.closeEntry();
+    }
+    byte[] archive = Files.readAllBytes(zipPath);
+
+    ZipException e =
+        assertThrows(ZipException.class, () -> DataEntityManagerZipImpl.open(zipPath));
 
+    assertThat(e).hasMessageThat().contains("data descriptor");
+    assertThat(Files.readAllBytes(zipPath)).isEqualTo(archive);
+    assertThrows(ZipException.class, () -> DataEntityManagerZipImpl.readEntityNames(zipPath));
+  }
+
+  @Test
+  public void open_failsOnFileThatIsNotAZipArchiveAndKeepsIt() throws IOException {
+    Files.write(zipPath, "not a zip archive".getBytes(UTF_8));
+
+    ZipException e =
+        assertThrows(ZipException.class, () -> DataEntityManagerZipImpl.open(zipPath));
+
+    assertThat(e).hasMessageThat().contains("does not start with a zip local header");
+    assertThat(Files.readAllBytes(zipPath)).isEqualTo("not a zip archive".getBytes(UTF_8));
+  }
+
+  @Test
+  public void addManifestEntry_manifestIsJournaledAndAddedOnClose() throws IOException {
+    ManifestEntry fooEntry = createManifestEntry("foo");
+    ManifestEntry barEntry = createManifestEntry("bar");
+    Path journalPath = tmpDir.resolve("out.zip.manifest.jsonl");
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "foo", "foo");
+      manager.addManifestEntry(fooEntry);
+
+      assertThat(RunManifest.read(zipPath)).hasValue(ImmutableList.of(fooEntry));
+    }
+    assertThat(Files.exists(journalPath)).isFalse();
+    try (DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath)) {
+      writeEntity(manager, "bar", "bar");
+      manager.addManifestEntry(barEntry);
+    }
+
+    assertThat(RunManifest.read(zipPath)).hasValue(ImmutableList.of(fooEntry, barEntry));
+    assertThat(readZip().keySet()).containsExactly("foo", "bar", RunManifest.NAME).inOrder();
+  }
+
+  @Test
+  public void addManifestEntry_interruptedManifestIsRecoveredFromJournal() throws IOException {
+    ManifestEntry fooEntry = createManifestEntry("foo");
+    DataEntityManagerZipImpl manager = DataEntityManagerZipImpl.open(zipPath);
+    writeEntity(manager, "foo", "foo");
+    manager.addManifestEntry(fooEntry);
+    // An incomplete line, as if the run was interrupted while journaling an entry.
+    Files.write(
+        tmpDir.resolve("out.zip.manifest.jsonl"),
+        "{\"file\":\"ba".getBytes(UTF_8),
+        StandardOpenOption.APPEND);
+
+    try (DataEntityManagerZipImpl reopenedManager = DataEntityManagerZipImpl.open(zipPath)) {
+      assertThat(RunManifest.read(zipPath)).hasValue(ImmutableList.of(fooEntry));
+    }
+    assertThat(RunManifest.read(zipPath)).hasValue(ImmutableList.of(fooEntry));
+  }
+
+  @Test
+  public void close_manyEntitiesUseZip64() throws IOException {
+    int entityCount = 70000;
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      for (int i = 0; i < entityCount; i++) {
+        try (OutputStream out = manager.getEntityOutputStream("entity-" + i)) {
+          out.write(i);
+        }
+      }
+    }
+
+    try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+      assertThat(zipFile.size()).isEqualTo(entityCount);
+      assertThat(zipFile.getInputStream(zipFile.getEntry("entity-69999")).read())
+          .isEqualTo(69999 & 0xFF);
+    }
+  }
+
+  @Test
+  public void close_discardsOpenEntities() throws IOException {
+    DataEntityManagerZipImpl manager = createManager();
     OutputStream fooOutputStream = manager.getEntityOutputStream("foo");
     fooOutputStream.write(1);
-    fooOutputStream.close();
+    try (OutputStream out = manager.getEntityOutputStream("bar")) {
+      out.write("bar".getBytes(UTF_8));
+    }
+    manager.close();
+
+    assertThat(readZip()).isEqualTo(ImmutableMap.of("bar", "bar"));
+    assertThrows(IllegalStateException.class, fooOutputStream::close);
+  }
+
+  @Test
+  public void close_deletesSpoolFilesOfOpenEntities() throws IOException {
+    DataEntityManagerZipImpl manager = createManager();
+    OutputStream out = manager.getEntityOutputStream("large");
+    out.write(new byte[3 * 1024 * 1024]);
+    assertThat(listSpoolFiles()).hasSize(1);
 
-    OutputStream barOutputStream = manager.getEntityOutputStream("bar");
-    barOutputStream.write(2);
-    barOutputStream.close();
+    manager.close();
 
-    InOrder inOrder = inOrder(zipOutputStream);
-    inOrder.verify(zipOutputStream)
-        .putNextEntry(argThat(zipEntry -> zipEntry.getName().equals("foo")));
-    inOrder.verify(zipOutputStream).write(1);
-    inOrder.verify(zipOutputStream)
-        .putNextEntry(argThat(zipEntry -> zipEntry.getName().equals("bar")));
-    inOrder.verify(zipOutputStream).write(2);
-    inOrder.verifyNoMoreInteractions();
+    assertThat(listSpoolFiles()).isEmpty();
+    assertThat(readZip()).isEmpty();
   }
 
   @Test
-  public void getEntityOutputStream_failOnConcurrentAccess() {
-    DataEntityManagerZipImpl manager = new DataEntityManagerZipImpl(zipOutputStream);
-    manager.getEntityOutputStream("foo");
+  public void discardEntity_deletesSpoolFileOfOpenStagedEntity() throws IOException {
+    try (DataEntityManagerZipImpl manager = createManager()) {
+      OutputStream out = manager.getStagedEntityOutputStream("large_temp", true);
+      out.write(new byte[3 * 1024 * 1024]);
+      assertThat(listSpoolFiles()).hasSize(1);
+
+      manager.discardEntity("large_temp");
 
-    assertThrows(IllegalStateException.class, () -> manager.getEntityOutputStream("bar"));
+      assertThat(listSpoolFiles()).isEmpty();
+      assertThrows(IllegalStateException.class, out::close);
+    }
+    assertThat(readZip()).isEmpty();
   }
 
   @Test
-  public void close_closeZipOutputStream() throws IOException {
-    DataEntityManagerZipImpl manager = new DataEntityManagerZipImpl(zipOutputStream);
-    manager.close();
+  public void close_writesEmptyZip() throws IOException {
+    createManager().close();
+
+    assertThat(readZip()).isEmpty();
+  }
+
+  private static void writeEntity(DataEntityManager manager, String name, String content)
+      throws IOException {
+    try (OutputStream out = manager.getEntityOutputStream(name)) {
+      out.write(content.getBytes(UTF_8));
+    }
+  }
+
+  private static ManifestEntry createManifestEntry(String file) {
+    return ManifestEntry.builder()
+        .setFile(file)
+        .setScriptName(file)
+        .setRows(1L)
+        .setBytes(3L)
+        .setCrc32c(42L)
+        .setCodec("null")
+        .setSyncInterval(64000)
+        .build();
+  }
+
+  private DataEntityManagerZipImpl createManager() throws IOException {
+    return new DataEntityManagerZipImpl(Files.newOutputStream(zipPath), tmpDir);
+  }
+
+  private Map<String, String> readZip() throws IOException {
+    Map<String, String> entities = new LinkedHashMap<>();
+    try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        entities.put(
+            entry.getName(),
+            new String(ByteStreams.toByteArray(zipFile.getInputStream(entry)), UTF_8));
+      }
+    }
+    return entities;
+  }
 
-    verify(zipOutputStream).close();
+  private List<Path> listSpoolFiles() throws IOException {
+    try (Stream<Path> paths = Files.list(tmpDir)) {
+      return paths.filter(path -> path.toString().endsWith(".spool")).collect(Collectors.toList());
+    }
   }
 }
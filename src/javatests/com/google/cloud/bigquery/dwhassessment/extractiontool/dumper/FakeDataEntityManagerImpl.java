@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
 /** Implementation of a DataEntityManger for unit test purposes. */
@@ -55,6 +56,28 @@ public class FakeDataEntityManagerImpl implements DataEntityManager {
     return bareStreamMode ? outputStream : Files.newOutputStream(tmpDir.resolve(name));
   }
 
+  @Override
+  public void moveEntity(String stagedName, String name) throws IOException {
+    if (!bareStreamMode) {
+      Files.move(
+          tmpDir.resolve(stagedName), tmpDir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public void discardEntity(String stagedName) throws IOException {
+    if (!bareStreamMode) {
+      Files.deleteIfExists(tmpDir.resolve(stagedName));
+    }
+  }
+
+  @Override
+  public void addManifestEntry(ManifestEntry entry) throws IOException {
+    if (!bareStreamMode) {
+      RunManifest.append(tmpDir.resolve(RunManifest.NAME), entry);
+    }
+  }
+
   @Override
   public boolean isResumable() {
     return !bareStreamMode;
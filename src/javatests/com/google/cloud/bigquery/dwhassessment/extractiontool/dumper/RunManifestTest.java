@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigquery.dwhassessment.extractiontool.dumper;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RunManifestTest {
+
+  private static final ManifestEntry CHUNK_ENTRY =
+      ManifestEntry.builder()
+          .setFile("query_logs-20140707T170707S000007-20140707T170707S000008_0.avro")
+          .setScriptName("query_logs")
+          .setChunkNumber(0)
+          .setRows(1000L)
+          .setBytes(123456L)
+          .setCrc32c(0xFEDCBA98L)
+          .setFirstSortKey("20140707T170707S000007")
+          .setLastSortKey("20140707T170707S000008")
+          .setCodec("zstd:3")
+          .setSyncInterval(1048576)
+          .setChunkRows(1000)
+          .build();
+
+  private Path tmpDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("run-manifest-test");
+  }
+
+  @Test
+  public void parse_readsEntriesWrittenByToLine() {
+    ManifestEntry entry = createEntry("foo.avro", "foo".getBytes(UTF_8));
+
+    assertThat(
+            RunManifest.parse(
+                Bytes.concat(RunManifest.toLine(CHUNK_ENTRY), RunManifest.toLine(entry))))
+        .containsExactly(CHUNK_ENTRY, entry)
+        .inOrder();
+  }
+
+  @Test
+  public void parse_skipsIncompleteLastLine() {
+    byte[] line = RunManifest.toLine(CHUNK_ENTRY);
+    byte[] manifest = Bytes.concat(line, new String(line, UTF_8).substring(0, 20).getBytes(UTF_8));
+
+    assertThat(RunManifest.parse(manifest)).containsExactly(CHUNK_ENTRY);
+  }
+
+  @Test
+  public void parse_failOnInvalidLine() {
+    assertThrows(
+        IllegalStateException.class,
+        () -> RunManifest.parse("{\"file\":\"foo.avro\"}\n".getBytes(UTF_8)));
+  }
+
+  @Test
+  public void parseKey_readsKeyWrittenByFormatKey() {
+    List<Object> key = Arrays.asList("db \"1\"", 12L, new BigDecimal("1.5"), null);
+
+    String formattedKey = RunManifest.formatKey(key);
+
+    assertThat(formattedKey).isEqualTo("[\"db \\\"1\\\"\",12,1.5,null]");
+    assertThat(RunManifest.parseKey(formattedKey)).containsExactlyElementsIn(key).inOrder();
+  }
+
+  @Test
+  public void read_missingManifestIsEmpty() throws IOException {
+    assertThat(RunManifest.read(tmpDir)).isEmpty();
+    assertThat(RunManifest.read(tmpDir.resolve("missing.zip"))).isEmpty();
+  }
+
+  @Test
+  public void findInvalidFiles_checksSizesAndChecksums() throws IOException {
+    byte[] content = "content".getBytes(UTF_8);
+    DataEntityManager manager = new DataEntityManagerDirectoryImpl(tmpDir);
+    for (String file : ImmutableList.of("valid.avro", "resized.avro", "corrupted.avro")) {
+      Files.write(tmpDir.resolve(file), content);
+      manager.addManifestEntry(createEntry(file, content));
+    }
+    manager.addManifestEntry(createEntry("missing.avro", content));
+    Files.write(tmpDir.resolve("resized.avro"), "resized".getBytes(UTF_8));
+    Files.write(tmpDir.resolve("corrupted.avro"), "CONTENT".getBytes(UTF_8));
+
+    ImmutableList<ManifestEntry> entries = RunManifest.read(tmpDir).get();
+
+    assertThat(entries).hasSize(4);
+    assertThat(RunManifest.findInvalidFiles(tmpDir, entries))
+        .containsExactly("resized.avro", "corrupted.avro", "missing.avro");
+  }
+
+  private static ManifestEntry createEntry(String file, byte[] content) {
+    CRC32C crc = new CRC32C();
+    crc.update(content);
+    return ManifestEntry.builder()
+        .setFile(file)
+        .setScriptName("script")
+        .setRows(1L)
+        .setBytes((long) content.length)
+        .setCrc32c(crc.getValue())
+        .setCodec("null")
+        .setSyncInterval(64000)
+        .build();
+  }
+}
@@ -17,35 +17,71 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
 
 import static com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutorImpl.getTeradataTimestampFromInstant;
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.common.ChunkCheckpoint;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.FetchProfile;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilter;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaKey;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaManager.SchemaRetrievalMode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptExecutionOptions;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptManager;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SqlTemplateRenderer;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerDirectoryImpl;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerFactory;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.Arguments;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.RunMode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Range;
+import com.google.common.io.ByteStreams;
 import com.google.re2j.Pattern;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -63,10 +99,12 @@ public final class ExtractExecutorImplTest {
   private SaveChecker saveChecker;
 
   @Before
-  public void setUp() {
+  public void setUp() throws Exception {
     schemaManager = mock(SchemaManager.class);
     scriptManager = mock(ScriptManager.class);
     dataEntityManager = mock(DataEntityManager.class);
+    when(dataEntityManager.getStagedEntityOutputStream(MetricsReport.NAME + ".tmp", false))
+        .thenReturn(new ByteArrayOutputStream());
     saveChecker = mock(SaveChecker.class);
     executor =
         new ExtractExecutorImpl(
@@ -100,7 +138,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("one"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verify(scriptManager)
         .executeScript(
             any(Connection.class),
@@ -109,7 +149,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("two"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verify(scriptManager)
         .executeScript(
             any(Connection.class),
@@ -118,10 +160,477 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("three"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
   }
 
+  @Test
+  public void run_parallel_allScriptsExecuted() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "two", "three"));
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(ImmutableSet.of());
+
+    assertThat(
+            executor.run(
+                ExtractExecutor.Arguments.builder()
+                    .setDbConnectionProperties(properties)
+                    .setDbConnectionAddress("jdbc:hsqldb:mem:parallel.example")
+                    .setOutputPath(Paths.get("/tmp"))
+                    .setParallelism(2)
+                    .build()))
+        .isEqualTo(0);
+
+    verify(scriptManager).getAllScriptNames();
+    for (String scriptName : ImmutableList.of("one", "two", "three")) {
+      verify(scriptManager)
+          .executeScript(
+              any(Connection.class),
+              /*dryRun=*/ eq(false),
+              any(SqlTemplateRenderer.class),
+              eq(scriptName),
+              eq(dataEntityManager),
+              eq(0),
+              eq(0L),
+              eq(0),
+              any(ScriptExecutionOptions.class));
+    }
+    verifyNoMoreInteractions(scriptManager);
+  }
+
+  @Test
+  public void run_writesMetricsReport() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(dataEntityManager.getStagedEntityOutputStream(MetricsReport.NAME + ".tmp", false))
+        .thenReturn(outputStream);
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one"));
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(ImmutableSet.of());
+
+    assertThat(
+            executor.run(
+                ExtractExecutor.Arguments.builder()
+                    .setDbConnectionProperties(properties)
+                    .setDbConnectionAddress("jdbc:hsqldb:mem:metrics.example")
+                    .setOutputPath(Paths.get("/tmp"))
+                    .build()))
+        .isEqualTo(0);
+
+    verify(dataEntityManager).moveEntity(MetricsReport.NAME + ".tmp", MetricsReport.NAME);
+    assertThat(new String(outputStream.toByteArray(), UTF_8)).contains("\"script\" : \"one\"");
+  }
+
+  @Test
+  public void run_countRows_countsEachScript() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "two"));
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(ImmutableSet.of());
+    when(scriptManager.countRows(any(Connection.class), any(SqlTemplateRenderer.class), eq("one")))
+        .thenThrow(new SQLException("No spool space."));
+
+    assertThat(
+            executor.run(
+                ExtractExecutor.Arguments.builder()
+                    .setDbConnectionProperties(properties)
+                    .setDbConnectionAddress("jdbc:hsqldb:mem:count-rows.example")
+                    .setOutputPath(Paths.get("/tmp"))
+                    .setCountRows(true)
+                    .build()))
+        .isEqualTo(0);
+
+    // A failed count does not fail the script.
+    for (String scriptName : ImmutableList.of("one", "two")) {
+      verify(scriptManager)
+          .countRows(any(Connection.class), any(SqlTemplateRenderer.class), eq(scriptName));
+      verify(scriptManager)
+          .executeScript(
+              any(Connection.class),
+              /*dryRun=*/ eq(false),
+              any(SqlTemplateRenderer.class),
+              eq(scriptName),
+              eq(dataEntityManager),
+              eq(0),
+              eq(0L),
+              eq(0),
+              any(ScriptExecutionOptions.class));
+    }
+  }
+
+  @Test
+  public void run_fetchProfiles_passedPerScript() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "two"));
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(ImmutableSet.of());
+    FetchProfile defaultProfile = FetchProfile.builder().setFetchSize(10).build();
+    FetchProfile fastExportProfile =
+        FetchProfile.builder().setFetchSize(1000).setFastExport(true).build();
+    Map<String, Connection> connections = new HashMap<>();
+    doAnswer(
+            invocation -> {
+              connections.put(invocation.getArgument(3), invocation.getArgument(0));
+              return null;
+            })
+        .when(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            anyString(),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+
+    executor.run(
+        ExtractExecutor.Arguments.builder()
+            .setDbConnectionProperties(properties)
+            .setDbConnectionAddress("jdbc:hsqldb:mem:fetch-profiles.example")
+            .setOutputPath(Paths.get("/tmp"))
+            .setFetchProfile(defaultProfile)
+            .setScriptFetchProfiles(ImmutableMap.of("one", fastExportProfile))
+            .build());
+
+    verify(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            /*dryRun=*/ eq(false),
+            any(SqlTemplateRenderer.class),
+            eq("one"),
+            eq(dataEntityManager),
+            eq(0),
+            eq(0L),
+            eq(0),
+            argThat(options -> options.fetchProfile().equals(fastExportProfile)));
+    verify(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            /*dryRun=*/ eq(false),
+            any(SqlTemplateRenderer.class),
+            eq("two"),
+            eq(dataEntityManager),
+            eq(0),
+            eq(0L),
+            eq(0),
+            argThat(options -> options.fetchProfile().equals(defaultProfile)));
+    // The FastExport script runs on a connection of its own, which is closed afterwards.
+    assertThat(connections.get("one")).isNotSameInstanceAs(connections.get("two"));
+    assertThat(connections.get("one").isClosed()).isTrue();
+  }
+
+  @Test
+  public void run_connectionPool_connectionsReusedAndPoolClosed() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "two"));
+    ConnectionPool connectionPool =
+        new ConnectionPool("jdbc:hsqldb:mem:connection-pool.example", properties, 1);
+    Set<Connection> physicalConnections = new HashSet<>();
+    doAnswer(
+            invocation -> {
+              Connection connection = invocation.getArgument(0);
+              physicalConnections.add(connection.unwrap(Connection.class));
+              return null;
+            })
+        .when(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            anyString(),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenAnswer(
+            invocation -> {
+              Connection connection = invocation.getArgument(0);
+              physicalConnections.add(connection.unwrap(Connection.class));
+              return ImmutableSet.of();
+            });
+
+    executor.run(
+        ExtractExecutor.Arguments.builder()
+            .setDbConnectionProperties(properties)
+            .setDbConnectionAddress("jdbc:hsqldb:mem:connection-pool.example")
+            .setOutputPath(Paths.get("/tmp"))
+            .setConnectionPool(connectionPool)
+            .build());
+
+    assertThat(physicalConnections).hasSize(1);
+    assertThat(Iterables.getOnlyElement(physicalConnections).isClosed()).isTrue();
+    assertThrows(SQLException.class, connectionPool::getConnection);
+  }
+
+  @Test
+  public void run_failedScript_noFurtherScriptsStarted() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "querylogs"));
+    doThrow(new SQLException("test"))
+        .when(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            eq("querylogs"),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+
+    SQLException e =
+        assertThrows(
+            SQLException.class,
+            () ->
+                executor.run(
+                    ExtractExecutor.Arguments.builder()
+                        .setDbConnectionProperties(properties)
+                        .setDbConnectionAddress("jdbc:hsqldb:mem:failed-script.example")
+                        .setOutputPath(Paths.get("/tmp"))
+                        .build()));
+
+    assertThat(e.getMessage()).isEqualTo("test");
+    verify(scriptManager, never())
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            eq("one"),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+  }
+
+  @Test
+  public void sortByExpectedCost_biggestFirst() {
+    assertThat(
+            ExtractExecutorImpl.sortByExpectedCost(
+                ImmutableSet.of("users", "columns", "roles", "querylogs", "sql_logs")))
+        .containsExactly("querylogs", "sql_logs", "columns", "users", "roles")
+        .inOrder();
+  }
+
+  @Test
+  public void run_timeSlices_chunksCommittedInSliceOrder() throws Exception {
+    Path outputPath = Files.createTempDirectory("time-slices");
+    executor =
+        new ExtractExecutorImpl(
+            schemaManager,
+            scriptManager,
+            saveChecker,
+            path -> new DataEntityManagerDirectoryImpl(path));
+    stubTimeSliceChunks();
+
+    executor.run(getTimeSliceArguments(outputPath, "jdbc:hsqldb:mem:time-slices.example"));
+
+    ImmutableList.Builder<String> contents = ImmutableList.builder();
+    for (int i = 0; i < 6; i++) {
+      contents.add(
+          new String(
+              Files.readAllBytes(
+                  outputPath.resolve(
+                      String.format(
+                          "querylogs-20220101T000000S000000-20220101T000000S000000_%d.avro", i))),
+              UTF_8));
+    }
+    assertThat(contents.build())
+        .containsExactly(
+            "2022-01-01 00:00:00.000000+00:00/0",
+            "2022-01-01 00:00:00.000000+00:00/1",
+            "2022-01-02 00:00:00.000000+00:00/0",
+            "2022-01-02 00:00:00.000000+00:00/1",
+            "2022-01-03 00:00:00.000000+00:00/0",
+            "2022-01-03 00:00:00.000000+00:00/1")
+        .inOrder();
+    try (Stream<Path> files = Files.list(outputPath)) {
+      assertThat(files.count()).isEqualTo(6);
+    }
+  }
+
+  @Test
+  public void run_timeSlicesIntoZip_chunksCommittedInSliceOrder() throws Exception {
+    Path outputPath = Files.createTempDirectory("time-slices-zip").resolve("output.zip");
+    executor =
+        new ExtractExecutorImpl(
+            schemaManager, scriptManager, saveChecker, new DataEntityManagerFactory());
+    stubTimeSliceChunks();
+
+    executor.run(getTimeSliceArguments(outputPath, "jdbc:hsqldb:mem:time-slices-zip.example"));
+
+    ImmutableMap.Builder<String, String> contents = ImmutableMap.builder();
+    try (ZipFile zipFile = new ZipFile(outputPath.toFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        contents.put(
+            entry.getName(),
+            new String(ByteStreams.toByteArray(zipFile.getInputStream(entry)), UTF_8));
+      }
+    }
+    assertThat(contents.build())
+        .containsExactly(
+            "querylogs-20220101T000000S000000-20220101T000000S000000_0.avro",
+            "2022-01-01 00:00:00.000000+00:00/0",
+            "querylogs-20220101T000000S000000-20220101T000000S000000_1.avro",
+            "2022-01-01 00:00:00.000000+00:00/1",
+            "querylogs-20220101T000000S000000-20220101T000000S000000_2.avro",
+            "2022-01-02 00:00:00.000000+00:00/0",
+            "querylogs-20220101T000000S000000-20220101T000000S000000_3.avro",
+            "2022-01-02 00:00:00.000000+00:00/1",
+            "querylogs-20220101T000000S000000-20220101T000000S000000_4.avro",
+            "2022-01-03 00:00:00.000000+00:00/0",
+            "querylogs-20220101T000000S000000-20220101T000000S000000_5.avro",
+            "2022-01-03 00:00:00.000000+00:00/1")
+        .inOrder();
+  }
+
+  @Test
+  public void run_timeSlices_connectionsLeasedFromPool() throws Exception {
+    Path outputPath = Files.createTempDirectory("time-slices-pool");
+    executor =
+        new ExtractExecutorImpl(
+            schemaManager,
+            scriptManager,
+            saveChecker,
+            path -> new DataEntityManagerDirectoryImpl(path));
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("querylogs"));
+    when(scriptManager.supportsChunking("querylogs")).thenReturn(true);
+    ConnectionPool connectionPool =
+        new ConnectionPool("jdbc:hsqldb:mem:time-slices-pool.example", properties, 1);
+    Set<Integer> activeConnections = ConcurrentHashMap.newKeySet();
+    doAnswer(
+            invocation -> {
+              activeConnections.add(connectionPool.activeConnections());
+              return null;
+            })
+        .when(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            eq("querylogs"),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+
+    // With a parallelism of 1, the slices run one after the other on the only connection.
+    executor.run(
+        getTimeSliceArgumentsBuilder(outputPath, "jdbc:hsqldb:mem:time-slices-pool.example")
+            .setConnectionPool(connectionPool)
+            .build());
+
+    verify(scriptManager, times(3))
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            eq("querylogs"),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+    assertThat(activeConnections).containsExactly(1);
+  }
+
+  /** Makes each time slice of querylogs write two chunks containing the start of its range. */
+  private void stubTimeSliceChunks() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("querylogs"));
+    when(scriptManager.supportsChunking("querylogs")).thenReturn(true);
+    doAnswer(
+            invocation -> {
+              SqlTemplateRenderer renderer = invocation.getArgument(2);
+              DataEntityManager sliceDataEntityManager = invocation.getArgument(4);
+              String sliceStart =
+                  renderer
+                      .getSqlScriptVariablesBuilder()
+                      .build()
+                      .getQueryLogsVariables()
+                      .timeRange()
+                      .get()
+                      .getStartTimestamp();
+              for (int i = 0; i < 2; i++) {
+                String stagedName = String.format("querylogs-x_%d_temp.avro", i);
+                try (OutputStream out =
+                    sliceDataEntityManager.getStagedEntityOutputStream(stagedName, false)) {
+                  out.write((sliceStart + "/" + i).getBytes(UTF_8));
+                }
+                sliceDataEntityManager.moveEntity(
+                    stagedName,
+                    String.format(
+                        "querylogs-20220101T000000S000000-20220101T000000S000000_%d.avro", i));
+              }
+              sliceDataEntityManager.getStagedEntityOutputStream("querylogs-x_2_temp.avro", false)
+                  .close();
+              return null;
+            })
+        .when(scriptManager)
+        .executeScript(
+            any(Connection.class),
+            anyBoolean(),
+            any(SqlTemplateRenderer.class),
+            eq("querylogs"),
+            any(DataEntityManager.class),
+            anyInt(),
+            anyLong(),
+            anyInt(),
+            any(ScriptExecutionOptions.class));
+
+  }
+
+  private Arguments getTimeSliceArguments(Path outputPath, String dbConnectionAddress) {
+    return getTimeSliceArgumentsBuilder(outputPath, dbConnectionAddress).build();
+  }
+
+  private Arguments.Builder getTimeSliceArgumentsBuilder(
+      Path outputPath, String dbConnectionAddress) {
+    return Arguments.builder()
+        .setDbConnectionProperties(properties)
+        .setDbConnectionAddress(dbConnectionAddress)
+        .setOutputPath(outputPath)
+        .setNeedJdbcSchemas(false)
+        .setChunkRows(100)
+        .setQryLogTimeSlices(3)
+        .setQryLogStartTime(Instant.parse("2022-01-01T00:00:00Z"))
+        .setQryLogEndTime(Instant.parse("2022-01-04T00:00:00Z"));
+  }
+
+  @Test
+  public void splitTimeRange_adjacentSlicesWithoutOverlap() {
+    assertThat(
+            ExtractExecutorImpl.splitTimeRange(
+                Instant.parse("2022-01-01T00:00:00Z"), Instant.parse("2022-01-01T00:00:03Z"), 3))
+        .containsExactly(
+            Range.closed(
+                Instant.parse("2022-01-01T00:00:00Z"),
+                Instant.parse("2022-01-01T00:00:00.999999Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T00:00:01Z"),
+                Instant.parse("2022-01-01T00:00:01.999999Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T00:00:02Z"), Instant.parse("2022-01-01T00:00:03Z")))
+        .inOrder();
+  }
+
+  @Test
+  public void splitTimeRange_shortRange_fewerSlices() {
+    assertThat(
+            ExtractExecutorImpl.splitTimeRange(
+                Instant.parse("2022-01-01T00:00:00Z"),
+                Instant.parse("2022-01-01T00:00:00.000001Z"),
+                4))
+        .containsExactly(
+            Range.closed(
+                Instant.parse("2022-01-01T00:00:00Z"), Instant.parse("2022-01-01T00:00:00Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T00:00:00.000001Z"),
+                Instant.parse("2022-01-01T00:00:00.000001Z")))
+        .inOrder();
+  }
+
   @Test
   public void run_skipJdbcSchemaExtraction_success() throws Exception {
     when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of());
@@ -228,7 +737,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("test_script_0"),
             eq(dataEntityManager),
             eq(5000),
-            eq(1 + 1));
+            eq(0L),
+            eq(1 + 1),
+            any(ScriptExecutionOptions.class));
     verify(scriptManager)
         .executeScript(
             any(Connection.class),
@@ -246,7 +757,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("test_script_1"),
             eq(dataEntityManager),
             eq(5000),
-            eq(5 + 1));
+            eq(0L),
+            eq(5 + 1),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
     verify(saveChecker).getScriptCheckPoints(Paths.get("test_path"));
     verifyNoMoreInteractions(saveChecker);
@@ -282,7 +795,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("script_no_record"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verify(saveChecker)
         .getNamesOfFinishedScripts(eq(Paths.get("test_path")), eq(targetScripts), eq("avro"));
     verifyNoMoreInteractions(saveChecker);
@@ -328,7 +843,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("script_chunk_record"),
             eq(dataEntityManager),
             eq(5000),
-            eq(1 + 1));
+            eq(0L),
+            eq(1 + 1),
+            any(ScriptExecutionOptions.class));
     verify(saveChecker).getScriptCheckPoints(Paths.get("test_path"));
     verify(saveChecker)
         .getNamesOfFinishedScripts(eq(Paths.get("test_path")), eq(targetScripts), eq("avro"));
@@ -364,7 +881,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("test_script"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
   }
 
@@ -396,7 +915,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("test_script"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
     verifyNoMoreInteractions(saveChecker);
   }
@@ -429,7 +950,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("test_script"),
             eq(dataEntityManager),
             eq(5),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
     verifyNoMoreInteractions(saveChecker);
   }
@@ -464,7 +987,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("one"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     assertThat(
             sqlTemplateRendererArgumentCaptorOne
                 .getValue()
@@ -481,7 +1006,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("two"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     assertThat(
             sqlTemplateRendererArgumentCaptorTwo
                 .getValue()
@@ -516,7 +1043,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("one"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verify(scriptManager)
         .executeScript(
             any(Connection.class),
@@ -525,7 +1054,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("three"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
   }
 
@@ -554,7 +1085,9 @@ public final class ExtractExecutorImplTest {
             /*scriptName=*/ eq("two"),
             eq(dataEntityManager),
             eq(0),
-            eq(0));
+            eq(0L),
+            eq(0),
+            any(ScriptExecutionOptions.class));
     verifyNoMoreInteractions(scriptManager);
   }
 
@@ -588,7 +1121,7 @@ public final class ExtractExecutorImplTest {
             ImmutableSet.of(SchemaKey.create("foo", "bar"), SchemaKey.create("foo", "baz")));
     when(schemaManager.retrieveSchema(any(Connection.class), any(), any(Schema.class)))
         .thenReturn(ImmutableList.of());
-    when(dataEntityManager.getEntityOutputStream("schema.avro"))
+    when(dataEntityManager.getEntityOutputStream("schema.avro", false))
         .thenReturn(new ByteArrayOutputStream());
 
     assertThat(
@@ -611,6 +1144,78 @@ public final class ExtractExecutorImplTest {
     verifyNoMoreInteractions(schemaManager);
   }
 
+  @Test
+  public void run_bulkSchemaRetrieval_success() throws Exception {
+    ImmutableSet<SchemaKey> schemaKeys =
+        ImmutableSet.of(SchemaKey.create("foo", "bar"), SchemaKey.create("foo", "baz"));
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of());
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(schemaKeys);
+    when(dataEntityManager.getEntityOutputStream("schema.avro", false))
+        .thenReturn(new ByteArrayOutputStream());
+
+    assertThat(
+            executor.run(
+                ExtractExecutor.Arguments.builder()
+                    .setDbConnectionProperties(properties)
+                    .setDbConnectionAddress("jdbc:hsqldb:mem:my-animalclinic.example")
+                    .setOutputPath(Paths.get("/tmp"))
+                    .setSchemaRetrievalMode(SchemaRetrievalMode.ALL)
+                    .build()))
+        .isEqualTo(0);
+
+    verify(schemaManager).getSchemaKeys(any(Connection.class), eq(ImmutableList.of()));
+    verify(schemaManager)
+        .retrieveSchemas(
+            any(Connection.class),
+            eq(schemaKeys),
+            eq(SchemaRetrievalMode.ALL),
+            any(Schema.class),
+            any());
+    verifyNoMoreInteractions(schemaManager);
+  }
+
+  @Test
+  public void run_schemaRecords_streamedToSchemaAvro() throws Exception {
+    when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of());
+    when(schemaManager.getSchemaKeys(any(Connection.class), eq(ImmutableList.of())))
+        .thenReturn(ImmutableSet.of(SchemaKey.create("foo", "bar")));
+    doAnswer(
+            invocation -> {
+              Schema schema = invocation.getArgument(3);
+              Consumer<GenericRecord> consumer = invocation.getArgument(4);
+              for (String columnName : ImmutableList.of("ID", "NAME")) {
+                consumer.accept(
+                    new GenericRecordBuilder(schema)
+                        .set("TABLE_NAME", "bar")
+                        .set("COLUMN_NAME", columnName)
+                        .build());
+              }
+              return null;
+            })
+        .when(schemaManager)
+        .retrieveSchemas(any(Connection.class), any(), any(), any(Schema.class), any());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(dataEntityManager.getEntityOutputStream("schema.avro", false)).thenReturn(outputStream);
+
+    executor.run(
+        ExtractExecutor.Arguments.builder()
+            .setDbConnectionProperties(properties)
+            .setDbConnectionAddress("jdbc:hsqldb:mem:my-animalclinic.example")
+            .setOutputPath(Paths.get("/tmp"))
+            .setSchemaRetrievalMode(SchemaRetrievalMode.PER_DATABASE)
+            .build());
+
+    DataFileReader<GenericRecord> reader =
+        new DataFileReader<>(
+            new SeekableByteArrayInput(outputStream.toByteArray()), new GenericDatumReader<>());
+    ImmutableList.Builder<String> columnNames = ImmutableList.builder();
+    for (GenericRecord record : reader) {
+      columnNames.add(record.get("COLUMN_NAME").toString());
+    }
+    assertThat(columnNames.build()).containsExactly("ID", "NAME").inOrder();
+  }
+
   @Test
   public void run_failOnUnknownSkipScripts() {
     when(scriptManager.getAllScriptNames()).thenReturn(ImmutableSet.of("one", "two", "three"));
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerDirectoryImpl;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class MetricsReportTest {
+
+  @Test
+  public void write_finishedScriptsWithParts() throws Exception {
+    Path tmpDir = Files.createTempDirectory("metrics");
+    MetricsReport report = new MetricsReport();
+    ExtractionMetrics querylogs = report.startScript("querylogs");
+    ExtractionMetrics timeSlice = querylogs.startTimeSlice(1);
+    ExtractionMetrics chunk = timeSlice.startChunk(0);
+    chunk.recordFirstRow();
+    chunk.addOutput(10, 2000);
+    chunk.finish();
+    timeSlice.finish();
+    querylogs.finish();
+    report.startScript("unfinished");
+
+    report.write(new DataEntityManagerDirectoryImpl(tmpDir));
+
+    String metrics = new String(Files.readAllBytes(tmpDir.resolve(MetricsReport.NAME)), UTF_8);
+    assertThat(metrics).contains("\"script\" : \"querylogs\"");
+    assertThat(metrics).contains("\"timeSlice\" : 1");
+    assertThat(metrics).contains("\"chunk\" : 0");
+    assertThat(metrics).contains("\"rows\" : 10");
+    assertThat(metrics).contains("\"bytes\" : 2000");
+    assertThat(metrics).contains("\"timeToFirstRowSeconds\"");
+    assertThat(metrics).doesNotContain("unfinished");
+    assertThat(Files.exists(tmpDir.resolve(MetricsReport.NAME + ".tmp"))).isFalse();
+  }
+}
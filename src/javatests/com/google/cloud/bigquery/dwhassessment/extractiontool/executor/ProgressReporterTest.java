@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ProgressReporterTest {
+
+  @Test
+  public void report_runningAndFinishedScripts() throws Exception {
+    Path tmpDir = Files.createTempDirectory("progress");
+    MetricsReport metricsReport = new MetricsReport();
+    ExtractionMetrics querylogs = metricsReport.startScript("querylogs");
+    querylogs.setExpectedRows(400);
+    for (int i = 0; i < 100; i++) {
+      querylogs.addFetchedRow();
+    }
+    ExtractionMetrics users = metricsReport.startScript("users");
+    users.startChunk(0).addFetchedRow();
+    users.finish();
+    ProgressReporter reporter =
+        new ProgressReporter(metricsReport, ProgressReporter.getPath(tmpDir), Duration.ZERO);
+
+    reporter.report(/* running= */ true);
+
+    String progress =
+        new String(Files.readAllBytes(tmpDir.resolve(ProgressReporter.NAME)), UTF_8);
+    assertThat(progress).contains("\"running\" : true");
+    assertThat(progress).contains("\"script\" : \"querylogs\"");
+    assertThat(progress).contains("\"state\" : \"RUNNING\"");
+    assertThat(progress).contains("\"rows\" : 100");
+    assertThat(progress).contains("\"expectedRows\" : 400");
+    assertThat(progress).contains("\"percent\" : 25.0");
+    assertThat(progress).contains("\"script\" : \"users\"");
+    assertThat(progress).contains("\"state\" : \"FINISHED\"");
+    assertThat(progress).contains("\"lastProgress\"");
+    assertThat(Files.exists(tmpDir.resolve(ProgressReporter.NAME + ".tmp"))).isFalse();
+  }
+
+  @Test
+  public void close_disabled_writesNothing() throws Exception {
+    Path tmpDir = Files.createTempDirectory("progress");
+
+    new ProgressReporter(new MetricsReport(), ProgressReporter.getPath(tmpDir), Duration.ZERO)
+        .close();
+
+    assertThat(Files.exists(tmpDir.resolve(ProgressReporter.NAME))).isFalse();
+  }
+
+  @Test
+  public void close_enabled_marksRunAsNotRunning() throws Exception {
+    Path tmpDir = Files.createTempDirectory("progress");
+
+    new ProgressReporter(
+            new MetricsReport(), ProgressReporter.getPath(tmpDir), Duration.ofMinutes(1))
+        .close();
+
+    String progress =
+        new String(Files.readAllBytes(tmpDir.resolve(ProgressReporter.NAME)), UTF_8);
+    assertThat(progress).contains("\"running\" : false");
+  }
+
+  @Test
+  public void getPath_zipOutput_nextToArchive() {
+    assertThat(ProgressReporter.getPath(Paths.get("/tmp/out.zip")))
+        .isEqualTo(Paths.get("/tmp/out.zip.progress.json"));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ConnectionPool;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ExtractionMetrics;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.Optional;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PrometheusExporterTest {
+
+  private final ConnectionPool connectionPool =
+      new ConnectionPool("jdbc:hsqldb:mem:prometheus_exporter_db", new Properties(), 2);
+
+  @After
+  public void tearDown() {
+    connectionPool.close();
+  }
+
+  @Test
+  public void scrape_metricsPerScript() throws Exception {
+    MetricsReport metricsReport = new MetricsReport(/* recordFetchLatencies= */ true);
+    ExtractionMetrics querylogs = metricsReport.startScript("querylogs");
+    ExtractionMetrics chunk = querylogs.startChunk(0);
+    chunk.addFetchNanos(500);
+    chunk.addFetchedRow();
+    chunk.addFetchNanos(2_000_000);
+    chunk.addFetchedRow();
+    chunk.addOutput(2, 100);
+    chunk.finish();
+    querylogs.startChunk(1);
+    PrometheusExporter exporter =
+        new PrometheusExporter(metricsReport, connectionPool, Optional.empty(), Optional.empty());
+
+    String text;
+    try (Connection connection = connectionPool.getConnection()) {
+      text = exporter.scrape();
+    }
+
+    assertThat(text).contains("# TYPE dwh_extraction_rows_fetched_total counter\n");
+    assertThat(text).contains("dwh_extraction_rows_fetched_total{script=\"querylogs\"} 2\n");
+    // The running chunk has not written its output yet.
+    assertThat(text).contains("dwh_extraction_bytes_written_total{script=\"querylogs\"} 100\n");
+    assertThat(text).contains("# TYPE dwh_extraction_fetch_latency_seconds histogram\n");
+    assertThat(text)
+        .contains(
+            "dwh_extraction_fetch_latency_seconds_bucket{script=\"querylogs\",le=\"0.000001\"}"
+                + " 1\n");
+    assertThat(text)
+        .contains(
+            "dwh_extraction_fetch_latency_seconds_bucket{script=\"querylogs\",le=\"0.01\"} 2\n");
+    assertThat(text)
+        .contains(
+            "dwh_extraction_fetch_latency_seconds_bucket{script=\"querylogs\",le=\"+Inf\"} 2\n");
+    assertThat(text)
+        .contains("dwh_extraction_fetch_latency_seconds_count{script=\"querylogs\"} 2\n");
+    assertThat(text)
+        .contains(
+            "dwh_extraction_chunk_duration_seconds_bucket{script=\"querylogs\",le=\"1\"} 1\n");
+    assertThat(text)
+        .contains("dwh_extraction_chunk_duration_seconds_count{script=\"querylogs\"} 1\n");
+    assertThat(text).contains("dwh_extraction_active_connections 1\n");
+  }
+
+  @Test
+  public void scrape_withoutFetchLatencies_noLatencySamples() throws Exception {
+    MetricsReport metricsReport = new MetricsReport();
+    metricsReport.startScript("users").addFetchNanos(500);
+    PrometheusExporter exporter =
+        new PrometheusExporter(metricsReport, connectionPool, Optional.empty(), Optional.empty());
+
+    String text = exporter.scrape();
+
+    assertThat(text).contains("dwh_extraction_rows_fetched_total{script=\"users\"} 0\n");
+    assertThat(text).doesNotContain("dwh_extraction_fetch_latency_seconds_bucket");
+  }
+
+  @Test
+  public void port_servesMetrics() throws Exception {
+    MetricsReport metricsReport = new MetricsReport(/* recordFetchLatencies= */ true);
+    metricsReport.startScript("querylogs").addFetchedRow();
+
+    try (PrometheusExporter exporter =
+        new PrometheusExporter(metricsReport, connectionPool, Optional.of(0), Optional.empty())) {
+      HttpURLConnection connection =
+          (HttpURLConnection)
+              new URL("http://localhost:" + exporter.port() + "/metrics").openConnection();
+      try (InputStream inputStream = connection.getInputStream()) {
+        assertThat(connection.getResponseCode()).isEqualTo(200);
+        assertThat(connection.getContentType()).isEqualTo(PrometheusExporter.CONTENT_TYPE);
+        assertThat(new String(ByteStreams.toByteArray(inputStream), UTF_8))
+            .contains("dwh_extraction_rows_fetched_total{script=\"querylogs\"} 1\n");
+      } finally {
+        connection.disconnect();
+      }
+    }
+  }
+
+  @Test
+  public void close_textfile_writesLastMetrics() throws Exception {
+    Path textfile = Files.createTempDirectory("prometheus").resolve("extraction.prom");
+    MetricsReport metricsReport = new MetricsReport(/* recordFetchLatencies= */ true);
+    PrometheusExporter exporter =
+        new PrometheusExporter(
+            metricsReport, connectionPool, Optional.empty(), Optional.of(textfile));
+    metricsReport.startScript("querylogs").addFetchedRow();
+
+    exporter.close();
+
+    assertThat(new String(Files.readAllBytes(textfile), UTF_8))
+        .contains("dwh_extraction_rows_fetched_total{script=\"querylogs\"} 1\n");
+    assertThat(Files.exists(textfile.resolveSibling("extraction.prom.tmp"))).isFalse();
+  }
+}
@@ -16,16 +16,24 @@
 package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
 
 import com.google.cloud.bigquery.dwhassessment.extractiontool.common.ChunkCheckpoint;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManager;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerDirectoryImpl;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerZipImpl;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.ManifestEntry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -100,6 +108,173 @@ public class SaveCheckerImplTest {
                     .build()));
   }
 
+  @Test
+  public void getScriptCheckpoints_successWithInterruptedZip() throws IOException {
+    Path zipPath = tmpDir.resolve("records.zip");
+    try (DataEntityManager dataEntityManager = DataEntityManagerZipImpl.open(zipPath)) {
+      for (String name :
+          ImmutableList.of(
+              SCRIPT_NAME + "-20140707T170707S000007-20140707T170707S000008_0" + AVRO_SUFFIX,
+              SCRIPT_NAME + "-20140707T170707S000017-20140707T170707S000018_1" + AVRO_SUFFIX,
+              "finished_script" + AVRO_SUFFIX)) {
+        dataEntityManager.getEntityOutputStream(name).close();
+      }
+
+      // The central directory is only written on close, so the records are read while the
+      // archive is still incomplete.
+      ImmutableMap<String, ChunkCheckpoint> checkpoints = saveChecker.getScriptCheckPoints(zipPath);
+      ImmutableSet<String> finishedScripts =
+          saveChecker.getNamesOfFinishedScripts(
+              zipPath, ImmutableSet.of("finished_script", SCRIPT_NAME), "avro");
+
+      assertThat(checkpoints)
+          .isEqualTo(
+              ImmutableMap.of(
+                  SCRIPT_NAME,
+                  ChunkCheckpoint.builder()
+                      .setLastSavedChunkNumber(1)
+                      .setLastSavedInstant(Instant.parse("2014-07-07T17:07:07.000018Z"))
+                      .build()));
+      assertThat(finishedScripts).containsExactly("finished_script");
+    }
+  }
+
+  @Test
+  public void getScriptCheckpoints_successWithManifest() throws IOException {
+    DataEntityManager dataEntityManager = new DataEntityManagerDirectoryImpl(tmpDir);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000007-20140707T170707S000008_0" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000017-20140707T170707S000018_1" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000027-20140707T170707S000028_2" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+    writeRecord(dataEntityManager, "finished_script" + AVRO_SUFFIX, "finished_script");
+    writeRecord(dataEntityManager, "corrupted_script" + AVRO_SUFFIX, "corrupted_script");
+    // A file that was saved without a manifest entry and files that no longer match theirs.
+    Files.createFile(tmpDir.resolve("unlisted_script" + AVRO_SUFFIX));
+    Files.write(
+        tmpDir.resolve(
+            SCRIPT_NAME + "-20140707T170707S000027-20140707T170707S000028_2" + AVRO_SUFFIX),
+        "truncated".getBytes(UTF_8));
+    Files.write(tmpDir.resolve("corrupted_script" + AVRO_SUFFIX), "CORRUPTED".getBytes(UTF_8));
+
+    ImmutableMap<String, ChunkCheckpoint> checkpoints = saveChecker.getScriptCheckPoints(tmpDir);
+    ImmutableSet<String> finishedScripts =
+        saveChecker.getNamesOfFinishedScripts(
+            tmpDir,
+            ImmutableSet.of("finished_script", "corrupted_script", "unlisted_script"),
+            "avro");
+
+    assertThat(checkpoints)
+        .isEqualTo(
+            ImmutableMap.of(
+                SCRIPT_NAME,
+                ChunkCheckpoint.builder()
+                    .setLastSavedChunkNumber(1)
+                    .setLastSavedInstant(Instant.parse("2014-07-07T17:07:07.000018Z"))
+                    .build()));
+    assertThat(finishedScripts).containsExactly("finished_script", "unlisted_script");
+  }
+
+  @Test
+  public void getScriptCheckpoints_manifestContinuesChunksWithoutManifest() throws IOException {
+    // The chunks of a run without a manifest, continued by a run with one.
+    Files.write(
+        tmpDir.resolve(
+            SCRIPT_NAME + "-20140707T170707S000007-20140707T170707S000008_0" + AVRO_SUFFIX),
+        "chunk".getBytes(UTF_8));
+    Files.write(
+        tmpDir.resolve(
+            SCRIPT_NAME + "-20140707T170707S000017-20140707T170707S000018_1" + AVRO_SUFFIX),
+        "chunk".getBytes(UTF_8));
+    DataEntityManager dataEntityManager = new DataEntityManagerDirectoryImpl(tmpDir);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000027-20140707T170707S000028_2" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+
+    ImmutableMap<String, ChunkCheckpoint> checkpoints = saveChecker.getScriptCheckPoints(tmpDir);
+
+    assertThat(checkpoints)
+        .isEqualTo(
+            ImmutableMap.of(
+                SCRIPT_NAME,
+                ChunkCheckpoint.builder()
+                    .setLastSavedChunkNumber(2)
+                    .setLastSavedInstant(Instant.parse("2014-07-07T17:07:07.000028Z"))
+                    .build()));
+  }
+
+  @Test
+  public void getScriptCheckpoints_successWithKeysetChunks() throws IOException {
+    SaveChecker keysetSaveChecker =
+        new SaveCheckerImpl(
+            ImmutableMap.of(SCRIPT_NAME, ImmutableList.of("testTimestampColumn")),
+            ImmutableMap.of("keyset_script", ImmutableList.of("DatabaseName", "ColumnId")));
+    DataEntityManager dataEntityManager = new DataEntityManagerDirectoryImpl(tmpDir);
+    writeKeysetChunk(dataEntityManager, "keyset_script", 0, "[\"db_a\",3]");
+    writeKeysetChunk(dataEntityManager, "keyset_script", 1, "[\"db_b\",null]");
+    // A chunk that no longer matches its entry.
+    writeKeysetChunk(dataEntityManager, "keyset_script", 2, "[\"db_c\",1]");
+    Files.write(tmpDir.resolve("keyset_script_2" + AVRO_SUFFIX), "truncated".getBytes(UTF_8));
+
+    ImmutableMap<String, ChunkCheckpoint> checkpoints =
+        keysetSaveChecker.getScriptCheckPoints(tmpDir);
+
+    assertThat(checkpoints)
+        .isEqualTo(
+            ImmutableMap.of(
+                "keyset_script",
+                ChunkCheckpoint.builder()
+                    .setLastSavedChunkNumber(1)
+                    .setLastSavedKey(Arrays.asList("db_b", null))
+                    .build()));
+  }
+
+  @Test
+  public void getScriptCheckpoints_keysetChunkMissing_throwsException() throws IOException {
+    SaveChecker keysetSaveChecker =
+        new SaveCheckerImpl(
+            ImmutableMap.of(),
+            ImmutableMap.of("keyset_script", ImmutableList.of("DatabaseName", "ColumnId")));
+    DataEntityManager dataEntityManager = new DataEntityManagerDirectoryImpl(tmpDir);
+    writeKeysetChunk(dataEntityManager, "keyset_script", 0, "[\"db_a\",3]");
+    writeKeysetChunk(dataEntityManager, "keyset_script", 1, "[\"db_b\",2]");
+    Files.delete(tmpDir.resolve("keyset_script_0" + AVRO_SUFFIX));
+
+    IllegalStateException e =
+        assertThrows(
+            IllegalStateException.class, () -> keysetSaveChecker.getScriptCheckPoints(tmpDir));
+
+    assertThat(e).hasMessageThat().contains("keyset_script_1.avro breaks the consecutiveness");
+  }
+
+  @Test
+  public void getScriptCheckpoints_chunkNotMatchingManifest_throwsException() throws IOException {
+    DataEntityManager dataEntityManager = new DataEntityManagerDirectoryImpl(tmpDir);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000007-20140707T170707S000008_0" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+    writeRecord(
+        dataEntityManager,
+        SCRIPT_NAME + "-20140707T170707S000017-20140707T170707S000018_1" + AVRO_SUFFIX,
+        SCRIPT_NAME);
+    Files.delete(
+        tmpDir.resolve(
+            SCRIPT_NAME + "-20140707T170707S000007-20140707T170707S000008_0" + AVRO_SUFFIX));
+
+    IllegalStateException e =
+        assertThrows(IllegalStateException.class, () -> saveChecker.getScriptCheckPoints(tmpDir));
+    assertThat(e).hasMessageThat().contains("possibly indicating missing files");
+  }
+
   @Test
   public void getScriptCheckpoints_unmatchingFilenamesAreIgnored() throws IOException {
     // Lower cased timestamp separators.
@@ -235,4 +410,41 @@ public class SaveCheckerImplTest {
         assertThrows(IllegalStateException.class, () -> saveChecker.getScriptCheckPoints(tmpDir));
     assertThat(e).hasMessageThat().contains("earlier than the first one");
   }
+
+  private static void writeRecord(
+      DataEntityManager dataEntityManager, String fileName, String scriptName)
+      throws IOException {
+    dataEntityManager.addManifestEntry(writeFile(dataEntityManager, fileName, scriptName).build());
+  }
+
+  private static void writeKeysetChunk(
+      DataEntityManager dataEntityManager, String scriptName, int chunkNumber, String lastSortKey)
+      throws IOException {
+    String fileName = String.format("%s_%d%s", scriptName, chunkNumber, AVRO_SUFFIX);
+    dataEntityManager.addManifestEntry(
+        writeFile(dataEntityManager, fileName, scriptName)
+            .setChunkNumber(chunkNumber)
+            .setLastSortKey(lastSortKey)
+            .build());
+  }
+
+  /** Writes a file and returns the builder of its manifest entry. */
+  private static ManifestEntry.Builder writeFile(
+      DataEntityManager dataEntityManager, String fileName, String scriptName)
+      throws IOException {
+    byte[] content = fileName.getBytes(UTF_8);
+    try (OutputStream outputStream = dataEntityManager.getEntityOutputStream(fileName)) {
+      outputStream.write(content);
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(content);
+    return ManifestEntry.builder()
+        .setFile(fileName)
+        .setScriptName(scriptName)
+        .setRows(1L)
+        .setBytes((long) content.length)
+        .setCrc32c(crc.getValue())
+        .setCodec("null")
+        .setSyncInterval(64000);
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.bigquery.dwhassessment.extractiontool.executor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.bigquery.dwhassessment.extractiontool.dumper.DataEntityManagerDirectoryImpl;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TimeSlicePlannerTest {
+
+  private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+  private static final Instant END = Instant.parse("2022-01-01T03:59:59.999999Z");
+  private static final ImmutableSortedMap<Instant, Long> HOURLY_ROW_COUNTS =
+      ImmutableSortedMap.of(
+          Instant.parse("2022-01-01T00:00:00Z"), 10L,
+          Instant.parse("2022-01-01T01:00:00Z"), 10L,
+          Instant.parse("2022-01-01T02:00:00Z"), 60L,
+          Instant.parse("2022-01-01T03:00:00Z"), 20L);
+
+  @Test
+  public void split_skewedRows_slicesWithEqualRows() {
+    TimeSlicePlanner planner = new TimeSlicePlanner(START, END, HOURLY_ROW_COUNTS);
+
+    ImmutableList<Range<Instant>> slices = planner.split(4);
+
+    assertThat(slices)
+        .containsExactly(
+            Range.closed(START, Instant.parse("2022-01-01T02:04:59.999999Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T02:05:00Z"),
+                Instant.parse("2022-01-01T02:29:59.999999Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T02:30:00Z"),
+                Instant.parse("2022-01-01T02:54:59.999999Z")),
+            Range.closed(Instant.parse("2022-01-01T02:55:00Z"), END))
+        .inOrder();
+    for (Range<Instant> slice : slices) {
+      assertThat(planner.estimateRows(slice)).isEqualTo(25);
+    }
+  }
+
+  @Test
+  public void split_partialHours_rowsSpreadOverPartInRange() {
+    TimeSlicePlanner planner =
+        new TimeSlicePlanner(
+            Instant.parse("2022-01-01T00:30:00Z"),
+            Instant.parse("2022-01-01T01:29:59.999999Z"),
+            ImmutableSortedMap.of(
+                Instant.parse("2022-01-01T00:00:00Z"), 10L,
+                Instant.parse("2022-01-01T01:00:00Z"), 40L));
+
+    assertThat(planner.split(2))
+        .containsExactly(
+            Range.closed(
+                Instant.parse("2022-01-01T00:30:00Z"),
+                Instant.parse("2022-01-01T01:11:14.999999Z")),
+            Range.closed(
+                Instant.parse("2022-01-01T01:11:15Z"),
+                Instant.parse("2022-01-01T01:29:59.999999Z")))
+        .inOrder();
+  }
+
+  @Test
+  public void split_noRows_singleSlice() {
+    TimeSlicePlanner planner = new TimeSlicePlanner(START, END, ImmutableSortedMap.of());
+
+    assertThat(planner.split(4)).containsExactly(Range.closed(START, END));
+  }
+
+  @Test
+  public void write_planWithSlicesAndRowCounts() throws Exception {
+    Path tmpDir = Files.createTempDirectory("time_slices");
+    TimeSlicePlanner planner = new TimeSlicePlanner(START, END, HOURLY_ROW_COUNTS);
+
+    planner.write(new DataEntityManagerDirectoryImpl(tmpDir), "querylogs", planner.split(2));
+
+    String plan =
+        new String(Files.readAllBytes(tmpDir.resolve("querylogs_time_slices.json")), UTF_8);
+    assertThat(plan).contains("\"script\" : \"querylogs\"");
+    assertThat(plan).contains("\"start\" : \"2022-01-01T02:30:00Z\"");
+    assertThat(plan).contains("\"estimatedRows\" : 50");
+    assertThat(plan).contains("\"2022-01-01T02:00:00Z\" : 60");
+  }
+}
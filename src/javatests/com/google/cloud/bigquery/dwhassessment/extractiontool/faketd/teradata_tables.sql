@@ -364,6 +364,7 @@ CREATE TABLE DBC."StatsV" (
   "DatabaseName" VARCHAR(128),
   "TableName" VARCHAR(128),
   "ColumnName" VARCHAR(128),
+  "StatsId" SMALLINT NOT NULL,
   "RowCount" INTEGER,
   "UniqueValueCount" INTEGER,
   "CreateTimeStamp" TIMESTAMP(6) NOT NULL
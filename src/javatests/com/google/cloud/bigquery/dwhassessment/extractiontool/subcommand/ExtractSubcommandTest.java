@@ -17,8 +17,11 @@ package com.google.cloud.bigquery.dwhassessment.extractiontool.subcommand;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
 
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.AvroFileOptions;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.db.FetchProfile;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilter;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.SchemaFilters;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptManager;
@@ -26,6 +29,7 @@ import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptManagerIm
 import com.google.cloud.bigquery.dwhassessment.extractiontool.db.ScriptRunnerImpl;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor;
 import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.RunMode;
+import com.google.cloud.bigquery.dwhassessment.extractiontool.executor.ExtractExecutor.TimeSlicing;
 import com.google.common.collect.ImmutableMap;
 import com.google.re2j.Pattern;
 import java.io.IOException;
@@ -88,7 +92,11 @@ public final class ExtractSubcommandTest {
     assertThat(arguments.sqlScripts()).isEmpty();
     assertThat(arguments.skipSqlScripts()).isEmpty();
     assertThat(arguments.chunkRows()).isEqualTo(0);
+    assertThat(arguments.parallelism()).isEqualTo(1);
     assertThat(arguments.needQueryText()).isTrue();
+    // The connection pool holds the connection with which the credentials were validated.
+    assertThat(arguments.connectionPool()).isPresent();
+    arguments.connectionPool().get().close();
   }
 
   @Test
@@ -121,6 +129,317 @@ public final class ExtractSubcommandTest {
     assertThat(arguments.chunkRows()).isEqualTo(5000);
   }
 
+  @Test
+  public void call_successWithIncrementalModeAndBytesPerChunk() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-bytes.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--run-mode",
+                "INCREMENTAL",
+                "--prev-run-path",
+                prevRunPath.toString(),
+                "--bytes-per-chunk",
+                "268435456"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    ExtractExecutor.Arguments arguments = argumentsCaptor.getValue();
+
+    assertThat(arguments.chunkRows()).isEqualTo(0);
+    assertThat(arguments.chunkBytes()).isEqualTo(268435456L);
+    assertThat(arguments.isChunked()).isTrue();
+  }
+
+  @Test
+  public void call_failOnNegativeBytesPerChunk() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-bytes-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--bytes-per-chunk",
+                "-1"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("--bytes-per-chunk must not be negative.");
+  }
+
+  @Test
+  public void call_successWithParallelism() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-parallel.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--parallelism",
+                "4"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    assertThat(argumentsCaptor.getValue().parallelism()).isEqualTo(4);
+  }
+
+  @Test
+  public void call_successWithFetchProfiles() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-fetch-profiles.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--fetch-size",
+                "100",
+                "--script-fetch-size",
+                "querylogs=10000",
+                "--fastexport-scripts",
+                "querylogs,two",
+                "--db-connection-param",
+                "hsqldb.read_only=false"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    ExtractExecutor.Arguments arguments = argumentsCaptor.getValue();
+    assertThat(arguments.fetchProfile())
+        .isEqualTo(FetchProfile.builder().setFetchSize(100).build());
+    assertThat(arguments.scriptFetchProfiles())
+        .containsExactly(
+            "querylogs",
+            FetchProfile.builder().setFetchSize(10000).setFastExport(true).build(),
+            "two",
+            FetchProfile.builder().setFetchSize(100).setFastExport(true).build());
+    assertThat(arguments.dbConnectionProperties())
+        .containsExactly(
+            "hsqldb.read_only", "false", "user", "my-username", "password", "my0password");
+  }
+
+  @Test
+  public void call_successWithAvroFileOptions() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-avro-file-options.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--avro-codec",
+                "deflate:6",
+                "--script-avro-codec",
+                "querylogs=zstd:9",
+                "--script-avro-sync-interval",
+                "querylogs=1048576,two=128000"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    ExtractExecutor.Arguments arguments = argumentsCaptor.getValue();
+    assertThat(arguments.avroFileOptions())
+        .isEqualTo(AvroFileOptions.builder().setCodec("deflate:6").build());
+    assertThat(arguments.scriptAvroFileOptions())
+        .containsExactly(
+            "querylogs",
+            AvroFileOptions.builder().setCodec("zstd:9").setSyncInterval(1048576).build(),
+            "two",
+            AvroFileOptions.builder().setCodec("deflate:6").setSyncInterval(128000).build());
+  }
+
+  @Test
+  public void call_failOnUnknownAvroCodec() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-avro-codec-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--avro-codec",
+                "lz4"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("Unknown codec 'lz4'.");
+  }
+
+  @Test
+  public void call_failOnPipelineMemoryOutOfRange() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-pipeline-memory-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--pipeline-memory-mb",
+                "2048"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("--pipeline-memory-mb must be between 0 and 2047.");
+  }
+
+  @Test
+  public void call_failOnNegativeFetchSize() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-fetch-size-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--script-fetch-size",
+                "one=-1"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("Fetch sizes must not be negative.");
+  }
+
+  @Test
+  public void call_successWithQueryPerChunk() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:my-db-query-per-chunk.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--rows-per-chunk",
+                "1000",
+                "--query-per-chunk",
+                "--fastexport-scripts",
+                "querylogs"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    ExtractExecutor.Arguments arguments = argumentsCaptor.getValue();
+    assertThat(arguments.fetchProfile())
+        .isEqualTo(FetchProfile.builder().setQueryPerChunk(true).build());
+    assertThat(arguments.scriptFetchProfiles())
+        .containsExactly(
+            "querylogs",
+            FetchProfile.builder().setFastExport(true).setQueryPerChunk(true).build());
+  }
+
+  @Test
+  public void call_failOnQueryPerChunkWithoutRowsPerChunk() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-query-per-chunk-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--bytes-per-chunk",
+                "1000000",
+                "--query-per-chunk"))
+        .isEqualTo(2);
+    assertThat(writer.toString())
+        .contains("--query-per-chunk requires --rows-per-chunk to be positive.");
+  }
+
+  @Test
+  public void call_failOnFastExportForUnknownScript() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-fastexport-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--fastexport-scripts",
+                "three"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("Got unknown script(s): three");
+  }
+
   @Test
   public void call_successWithSqlScripts() throws IOException, SQLException {
     ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
@@ -803,6 +1122,244 @@ public final class ExtractSubcommandTest {
         .contains("Parent path of --output '/does/not/exist' is not a directory.");
   }
 
+  @Test
+  public void call_failOnNonPositiveParallelism() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-parallelism-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--parallelism",
+                "0"))
+        .isEqualTo(2);
+    assertThat(writer.toString()).contains("--parallelism must be at least 1.");
+  }
+
+  @Test
+  public void call_successWithTimeSlicesOfEqualRows() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-time-slices-equal-rows.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--rows-per-chunk",
+                "100",
+                "--qrylog-time-slices",
+                "4",
+                "--qrylog-time-slicing",
+                "EQUAL_ROWS",
+                "--qrylog-timerange-start",
+                "2022-01-01",
+                "--qrylog-timerange-end",
+                "2022-01-02"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    assertThat(argumentsCaptor.getValue().qryLogTimeSlices()).isEqualTo(4);
+    assertThat(argumentsCaptor.getValue().qryLogTimeSlicing()).isEqualTo(TimeSlicing.EQUAL_ROWS);
+  }
+
+  @Test
+  public void call_successWithProgress() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-progress.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--count-rows",
+                "--progress-interval-seconds",
+                "60"))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    assertThat(argumentsCaptor.getValue().countRows()).isTrue();
+    assertThat(argumentsCaptor.getValue().progressIntervalSeconds()).isEqualTo(60);
+  }
+
+  @Test
+  public void call_failOnNegativeProgressInterval() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-progress-negative.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--progress-interval-seconds",
+                "-1"))
+        .isEqualTo(2);
+
+    assertThat(writer.toString()).contains("--progress-interval-seconds must not be negative.");
+  }
+
+  @Test
+  public void call_successWithPrometheusExporter() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    Path textfile = Files.createTempDirectory("prometheus-test").resolve("extraction.prom");
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-prometheus.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--prometheus-port",
+                "9464",
+                "--prometheus-textfile",
+                textfile.toString()))
+        .isEqualTo(0);
+
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    verify(executor).run(argumentsCaptor.capture());
+    assertThat(argumentsCaptor.getValue().prometheusPort()).hasValue(9464);
+    assertThat(argumentsCaptor.getValue().prometheusTextfile()).hasValue(textfile);
+  }
+
+  @Test
+  public void call_failOnInvalidPrometheusPort() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-prometheus-port.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--prometheus-port",
+                "65536"))
+        .isEqualTo(2);
+
+    assertThat(writer.toString()).contains("--prometheus-port must be between 0 and 65535.");
+  }
+
+  @Test
+  public void call_successWithJfr() throws IOException, SQLException {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    Path jfrPath = Files.createTempDirectory("jfr-test").resolve("extraction.jfr");
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-jfr.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--jfr",
+                jfrPath.toString()))
+        .isEqualTo(0);
+
+    verify(executor).run(any(ExtractExecutor.Arguments.class));
+    assertThat(Files.size(jfrPath)).isGreaterThan(0L);
+  }
+
+  @Test
+  public void call_failOnJfrInMissingDirectory() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-jfr-missing.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--jfr",
+                outputPath.resolve("missing/extraction.jfr").toString()))
+        .isEqualTo(2);
+
+    assertThat(writer.toString()).contains("Parent path of --jfr");
+  }
+
+  @Test
+  public void call_failOnTimeSlicesWithoutTimeRange() {
+    ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
+    CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
+    StringWriter writer = new StringWriter();
+    cmd.setErr(new PrintWriter(writer));
+
+    assertThat(
+            cmd.execute(
+                "--db-address",
+                "jdbc:hsqldb:mem:db-time-slices-fail.example",
+                "--db-user",
+                "my-username",
+                "--db-password",
+                "my0password",
+                "--output",
+                outputPath.toString(),
+                "--rows-per-chunk",
+                "100",
+                "--qrylog-time-slices",
+                "4",
+                "--qrylog-timerange-start",
+                "2022-01-01"))
+        .isEqualTo(2);
+    assertThat(writer.toString())
+        .contains(
+            "Time slices require both --qrylog-timerange-start and --qrylog-timerange-end.");
+  }
+
   @Test
   public void call_failOnIncrementalModeWithoutPrevRunPath() {
     ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
@@ -855,7 +1412,7 @@ public final class ExtractSubcommandTest {
   }
 
   @Test
-  public void call_failOnIncrementalModeWithZip() {
+  public void call_failOnIncrementalModeWithMissingZip() {
     ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
     CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
     StringWriter writer = new StringWriter();
@@ -879,33 +1436,39 @@ public final class ExtractSubcommandTest {
                 "/path/ending/with.zip"))
         .isEqualTo(2);
     assertThat(writer.toString())
-        .contains("Incremental mode is not supported for zipped records, yet.");
+        .contains("--prev-run-path '/path/ending/with.zip' is not an existing ZIP file.");
   }
 
   @Test
-  public void call_failOnRecoveryModeWithZip() {
+  public void call_successWithRecoveryModeAndZip() throws SQLException, IOException {
     ExtractExecutor executor = Mockito.mock(ExtractExecutor.class);
     CommandLine cmd = new CommandLine(new ExtractSubcommand(() -> executor, scriptManager));
-    StringWriter writer = new StringWriter();
-    cmd.setErr(new PrintWriter(writer));
+    ArgumentCaptor<ExtractExecutor.Arguments> argumentsCaptor =
+        ArgumentCaptor.forClass(ExtractExecutor.Arguments.class);
+    Path zipPath = outputPath.resolve("recovery.zip");
+    Files.write(zipPath, new byte[0]);
 
     assertThat(
             cmd.execute(
                 "--db-address",
-                "jdbc:hsqldb:mem:db-rec-fail-zip.example",
+                "jdbc:hsqldb:mem:db-rec-zip.example",
                 "--db-user",
                 "my-username",
                 "--db-password",
                 "my0password",
                 "--output",
-                "/path/ending/with.zip",
+                zipPath.toString(),
                 "--run-mode",
                 "RECOVERY",
                 "--rows-per-chunk",
                 "5000"))
-        .isEqualTo(2);
-    assertThat(writer.toString())
-        .contains("Recovery mode is not supported for zipped records, yet.");
+        .isEqualTo(0);
+
+    verify(executor).run(argumentsCaptor.capture());
+    ExtractExecutor.Arguments arguments = argumentsCaptor.getValue();
+    assertThat(arguments.outputPath()).isEqualTo(zipPath);
+    assertThat(arguments.prevRunPath()).hasValue(zipPath);
+    assertThat(arguments.mode()).isEqualTo(RunMode.RECOVERY);
   }
 
   @Test